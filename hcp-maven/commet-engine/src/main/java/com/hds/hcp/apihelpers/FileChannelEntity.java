@@ -0,0 +1,256 @@
+/*
+ *   Copyright (c) 2011 Hitachi Data Systems, Inc.
+ *
+ *   Permission is hereby granted to  this software and associated
+ *   documentation files (the "Software"), subject to the terms and
+ *   conditions of the Sample Source Code License (SSCL) delivered
+ *   with this Software. If you do not agree to the terms and
+ *   conditions of the SSCL,
+ *
+ *     (i)  you must close this file and delete all copies of the
+ *          Software, and
+ *     (ii) any permission to use the Software is expressly denied.
+ *
+ */
+
+package com.hds.hcp.apihelpers;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.FileContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+
+/**
+ * HTTP entity for the content of a local file, optionally followed by trailing bytes
+ * (the custom metadata of a Whole I/O PUT).
+ *
+ * Unlike an InputStreamEntity, the length is known up front, so the request is sent with
+ * a Content-Length instead of chunked transfer encoding, and the X-HCP-Size of a Whole I/O
+ * request can be taken from getFileLength().
+ *
+ * The file is read through a FileChannel.  When used with the asynchronous HTTP client and
+ * no digest is requested, the file content is transferred straight from the file to the
+ * connection with FileChannel.transferTo() and never copied through the Java heap.
+ *
+ * A region of the file can be sent instead of the whole file (one part of a multipart upload).
+ *
+ * If a MessageDigest is provided, it is updated with the file portion (not the trailing
+ * bytes) as the content is sent.  The digest is reset whenever sending starts over.
+ */
+public class FileChannelEntity extends AbstractHttpEntity implements HttpAsyncContentProducer {
+
+	private static final int BUFFER_SIZE = 64*1024;
+
+	/*
+	 * Constructor.  Passed the file to send, the bytes to send after it (may be null),
+	 *   and the digest to compute over the file content (may be null).
+	 */
+	public FileChannelEntity(File inFile, byte[] inTrailer, MessageDigest inDigest) {
+		this(inFile, 0, inFile.length(), inTrailer, inDigest);
+	}
+
+	/*
+	 * Constructor.  Send only inLength bytes of the file starting at inOffset.
+	 */
+	public FileChannelEntity(File inFile, long inOffset, long inLength, byte[] inTrailer, MessageDigest inDigest) {
+		mFile = inFile;
+		mOffset = inOffset;
+		mFileLength = inLength;
+		mTrailer = (null == inTrailer ? new byte[0] : inTrailer);
+		mDigest = inDigest;
+	}
+
+	// Private member variables.
+	private File mFile;
+	private long mOffset;
+	private long mFileLength;  // Captured at construction.  This is what will be sent.
+	private byte[] mTrailer;
+	private MessageDigest mDigest;
+
+	// State of the asynchronous producer.
+	private FileChannel mChannel;
+	private long mPosition;  // File bytes transferred or read into mReadBuffer.
+	private ByteBuffer mReadBuffer;
+	private ByteBuffer mTrailerBuffer;
+
+	public long getFileLength() { return mFileLength; }
+
+	@Override
+	public long getContentLength() {
+		return mFileLength + mTrailer.length;
+	}
+
+	@Override
+	public boolean isRepeatable() {
+		return true;
+	}
+
+	@Override
+	public boolean isStreaming() {
+		return false;
+	}
+
+	@Override
+	public InputStream getContent() throws IOException {
+		return new WholeIOInputStream(new RegionInputStream(), new ByteArrayInputStream(mTrailer));
+	}
+
+	/*
+	 * Reads only the region of the file this entity sends.
+	 */
+	private class RegionInputStream extends InputStream {
+		private FileChannel mRegionChannel = new FileInputStream(mFile).getChannel();
+		private long mRegionPosition = 0;
+
+		RegionInputStream() throws IOException {}
+
+		public int read(byte b[], int off, int len) throws IOException {
+			if (mFileLength <= mRegionPosition) return -1;
+
+			int numBytes = mRegionChannel.read(ByteBuffer.wrap(b, off,
+					(int)Math.min(len, mFileLength - mRegionPosition)), mOffset + mRegionPosition);
+			if (0 < numBytes) mRegionPosition += numBytes;
+
+			return numBytes;
+		}
+
+		public int read() throws IOException {
+			byte oneByte[] = new byte[1];
+
+			return (1 == read(oneByte, 0, 1) ? (0xff & oneByte[0]) : -1);
+		}
+
+		public void close() throws IOException {
+			mRegionChannel.close();
+		}
+	}
+
+	/*
+	 * Blocking HTTP client.  The connection is only available as an OutputStream, so the
+	 *   file is read through a single buffer and written out.
+	 */
+	@Override
+	public void writeTo(OutputStream outStream) throws IOException {
+		if (null == outStream) {
+			throw new IllegalArgumentException("Output stream may not be null");
+		}
+
+		if (null != mDigest) mDigest.reset();
+
+		FileChannel channel = new FileInputStream(mFile).getChannel();
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			long position = 0;
+			while (position < mFileLength) {
+				buffer.clear();
+				buffer.limit((int)Math.min(buffer.capacity(), mFileLength - position));
+
+				int numBytes = channel.read(buffer, mOffset + position);
+				if (numBytes < 0) {
+					throw new IOException("File " + mFile.getPath() + " is shorter than when the request started");
+				}
+				position += numBytes;
+
+				if (null != mDigest) mDigest.update(buffer.array(), 0, numBytes);
+				outStream.write(buffer.array(), 0, numBytes);
+			}
+		} finally {
+			channel.close();
+		}
+
+		outStream.write(mTrailer);
+		outStream.flush();
+	}
+
+	/*
+	 * Asynchronous HTTP client.  Called whenever the connection can take more content.
+	 */
+	@Override
+	public void produceContent(ContentEncoder inEncoder, IOControl inIOControl) throws IOException {
+		if (null == mChannel) {
+			// Starting (or starting over).
+			mChannel = new RandomAccessFile(mFile, "r").getChannel();
+			mPosition = 0;
+			mReadBuffer = null;
+			mTrailerBuffer = ByteBuffer.wrap(mTrailer);
+
+			if (null != mDigest) mDigest.reset();
+		}
+
+		if ( ! produceFileContent(inEncoder)) {
+			return;
+		}
+
+		if (mTrailerBuffer.hasRemaining()) {
+			inEncoder.write(mTrailerBuffer);
+		}
+
+		if ( ! mTrailerBuffer.hasRemaining()) {
+			inEncoder.complete();
+			close();
+		}
+	}
+
+	/*
+	 * Send as much of the file as the encoder will take.  Returns true once all of it is sent.
+	 */
+	private boolean produceFileContent(ContentEncoder inEncoder) throws IOException {
+		// Zero copy when the content does not need to pass through our hands.
+		if (null == mDigest && inEncoder instanceof FileContentEncoder) {
+			if (mPosition < mFileLength) {
+				mPosition += ((FileContentEncoder)inEncoder).transfer(mChannel, mOffset + mPosition, mFileLength - mPosition);
+			}
+
+			return (mFileLength <= mPosition);
+		}
+
+		if (null == mReadBuffer) {
+			mReadBuffer = ByteBuffer.allocate((int)Math.min(BUFFER_SIZE, Math.max(mFileLength, 1)));
+			mReadBuffer.flip();  // Nothing to send yet.
+		}
+
+		// Refill once the encoder has taken everything read so far.
+		if ( ! mReadBuffer.hasRemaining()) {
+			if (mFileLength <= mPosition) {
+				return true;
+			}
+
+			mReadBuffer.clear();
+			mReadBuffer.limit((int)Math.min(mReadBuffer.capacity(), mFileLength - mPosition));
+
+			int numBytes = mChannel.read(mReadBuffer, mOffset + mPosition);
+			if (numBytes < 0) {
+				throw new IOException("File " + mFile.getPath() + " is shorter than when the request started");
+			}
+			mPosition += numBytes;
+			mReadBuffer.flip();
+
+			if (null != mDigest) mDigest.update(mReadBuffer.array(), 0, numBytes);
+		}
+
+		inEncoder.write(mReadBuffer);
+
+		return (mFileLength <= mPosition && ! mReadBuffer.hasRemaining());
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (null != mChannel) {
+			mChannel.close();
+			mChannel = null;
+		}
+		mReadBuffer = null;
+	}
+}
@@ -27,14 +27,32 @@ import org.apache.commons.codec.binary.Base64;
 import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.CookieSpecs;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.params.ClientPNames;
 import org.apache.http.client.params.CookiePolicy;
 import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
 import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
@@ -183,6 +201,87 @@ public class HCPUtils {
 		return new DefaultHttpClient(connectionMgr, clientParams);
 	}
 	
+	/**
+	 * Initialize and return a CloseableHttpClient for this program, built with HttpClientBuilder
+	 * instead of the deprecated DefaultHttpClient.  It mirrors the behavior of initDefaultHttpClient
+	 * (promiscuous SSL, no redirects, browser compatible cookies).  The caller is responsible for
+	 * closing the client.
+	 */
+	public static CloseableHttpClient initCloseableHttpClient(int inConnectionTimeout, int inMaxConnections, int inMaxConnectionsPerRoute) throws Exception
+	{
+		// Same promiscuous TrustManager as the DefaultHttpClient.
+		SSLContext sslcontext = SSLContext.getInstance("TLS");
+		sslcontext.init(null, new TrustManager[] {new MyX509TrustManager()}, null);
+
+		Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+				.register("http", PlainConnectionSocketFactory.getSocketFactory())
+				.register("https", new SSLConnectionSocketFactory(sslcontext, SSLConnectionSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER))
+				.build();
+
+		PoolingHttpClientConnectionManager connectionMgr = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+
+		connectionMgr.setDefaultMaxPerRoute(inMaxConnectionsPerRoute);
+		connectionMgr.setMaxTotal(inMaxConnections);
+
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(inConnectionTimeout)
+				.setRedirectsEnabled(false)
+				.setCookieSpec(CookieSpecs.BROWSER_COMPATIBILITY)
+				.build();
+
+		return HttpClients.custom()
+				.setConnectionManager(connectionMgr)
+				.setDefaultRequestConfig(requestConfig)
+				.build();
+	}
+
+	/**
+	 * Initialize, start, and return a non-blocking CloseableHttpAsyncClient for this program.
+	 * It mirrors the behavior of initDefaultHttpClient (promiscuous SSL, no redirects, browser
+	 * compatible cookies), but all connections are serviced by inIOThreadCount I/O reactor threads.
+	 * The caller is responsible for closing the client.
+	 */
+	public static CloseableHttpAsyncClient initHttpAsyncClient(int inConnectionTimeout, int inMaxConnections, int inMaxConnectionsPerRoute, int inIOThreadCount) throws Exception
+	{
+		// Same promiscuous TrustManager as the blocking client.
+		SSLContext sslcontext = SSLContext.getInstance("TLS");
+		sslcontext.init(null, new TrustManager[] {new MyX509TrustManager()}, null);
+		
+		Registry<SchemeIOSessionStrategy> sessionStrategyRegistry = RegistryBuilder.<SchemeIOSessionStrategy>create()
+				.register("http", NoopIOSessionStrategy.INSTANCE)
+				.register("https", new SSLIOSessionStrategy(sslcontext, SSLIOSessionStrategy.ALLOW_ALL_HOSTNAME_VERIFIER))
+				.build();
+		
+		/*
+		 * Setup the I/O reactor that drives all connections, and the connection pool on top of it.
+		 */
+		IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+				.setIoThreadCount(inIOThreadCount)
+				.setConnectTimeout(inConnectionTimeout)
+				.build();
+
+		PoolingNHttpClientConnectionManager connectionMgr = new PoolingNHttpClientConnectionManager(
+				new DefaultConnectingIOReactor(ioReactorConfig), sessionStrategyRegistry);
+
+		connectionMgr.setDefaultMaxPerRoute(inMaxConnectionsPerRoute);
+		connectionMgr.setMaxTotal(inMaxConnections);
+
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(inConnectionTimeout)
+				.setRedirectsEnabled(false)
+				.setCookieSpec(CookieSpecs.BROWSER_COMPATIBILITY)
+				.build();
+		
+		CloseableHttpAsyncClient retval = HttpAsyncClients.custom()
+				.setConnectionManager(connectionMgr)
+				.setDefaultRequestConfig(requestConfig)
+				.build();
+
+		retval.start();
+		
+		return retval;
+	}
+	
 	/**
 	 * Helper routine to build an MD5 Digest of a string.
 	 * @param sInStr - String to convert to MD5 encoding.
@@ -10,6 +10,9 @@ public abstract class BaseWorkItem {
 	protected Object mHandle;
 	protected Object mBaseSpecification;
 
+	// The source.items element this item came from, for fair scheduling.  Null if not known.
+	protected WorkItemSource mSource;
+
 	// Holds the status for this work item.
 	protected WorkItemStatus mStatus = new WorkItemStatus();
 	
@@ -41,6 +44,13 @@ public abstract class BaseWorkItem {
 	public Object getBaseSpecification() { return mBaseSpecification; }
 	public void setBaseSpecification(Object inSpec) { mBaseSpecification = inSpec; }
 	
+	public WorkItemSource getSource() { return mSource; }
+	public void setSource(WorkItemSource inSource) { mSource = inSource; }
+
+	// Anything besides the item itself that its metadata is generated from, so the metadata cache
+	//   can tell when that changed.
+	public String getMetadataCacheTag() { return ""; }
+	
 	public WorkItemStatus getStatus() { return mStatus; }
 	public void setStatus(WorkItemStatus inStatus) { mStatus = inStatus; }
 
@@ -29,7 +29,9 @@ import java.util.concurrent.TimeUnit;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.hds.hcp.tools.comet.processor.HostConcurrencyLimiter;
 import com.hds.hcp.tools.comet.processor.ProcessorThreadPool;
+import com.hds.hcp.tools.comet.scanner.ScanJournal;
 import com.hds.hcp.tools.comet.scanner.ScannerThreadPool;
 import com.hds.hcp.tools.comet.utils.StaticUtils;
 import com.hds.hcp.tools.comet.utils.StatisticsCollector;
@@ -44,6 +46,7 @@ public class CometMain {
 	
 	private ScannerThreadPool mScannerPool = null;
 	private ProcessorThreadPool mProcessorPool = null;
+	private ScanJournal mJournal = null;
 	
 	LinkedBlockingQueue<BaseWorkItem> mCompletionQueue = new LinkedBlockingQueue<BaseWorkItem>();
 	
@@ -116,6 +119,17 @@ public class CometMain {
 		mSourceItemList = convertList(mProps.getSourceItems());
 		mSourceStartItemList = convertList(mProps.getSourceStartTriggerItems());
 
+		// Tell each element apart for the processor queue, with its share of the processors.
+		LinkedList<Integer> weights = mProps.getSourceItemWeights();
+		LinkedList<Integer> priorities = mProps.getSourceItemPriorities();
+		for (int i = 0; i < mSourceItemList.size(); i++) {
+			BaseWorkItem sourceItem = mSourceItemList.get(i);
+
+			Integer weight = (i < weights.size() ? weights.get(i) : null);
+			Integer priority = (i < priorities.size() ? priorities.get(i) : null);
+			sourceItem.setSource(new WorkItemSource(sourceItem.getName(),
+					(null == weight ? 1 : weight), (null == priority ? 0 : priority)));
+		}
 		
 		// looping through the mSourceItem list, make sure the corresponding item in
 		//  the mSourceStartItemList makes sense.
@@ -191,6 +205,9 @@ public class CometMain {
 			//
 			// Setup properties member.
 			mProps = new CometProperties();
+
+			// Pick up changes to the properties while running.
+			mProps.startWatching();
 			
 			mPauseStopProcessor = new PauseStopProcessor(mProps);
 			
@@ -207,10 +224,16 @@ public class CometMain {
 			// Build the list of items to process, so we know how many Scanner threads to start.
 			buildSourceItems();
 
+			// Pick up the progress of an earlier run that did not finish, if journalling.
+			if (null != mProps.getScannerJournalFile()) {
+				mJournal = new ScanJournal(mProps.getScannerJournalFile(), mProps.getScannerJournalSyncIntervalInSeconds());
+			}
+
 			// Now have a list of folders to process, start the thread pool.
 			mScannerPool = new ScannerThreadPool(mProcessorPool, mTotalStatistics, mProps);
 			
 			mScannerPool.initialize();
+			mScannerPool.setJournal(mJournal);
 
 			// Only start the number of threads that we need up to the max.
 			logger.info("Starting " + Math.min(mSourceItemList.size(), mProps.getScannerMaxThreadCount()) + " ScannerThreadPool threads");
@@ -255,6 +278,7 @@ public class CometMain {
 		}
 		
 		mTotalStatistics.logStats("FINAL STATISTICS");
+		HostConcurrencyLimiter.logStats("FINAL HCP CONCURRENCY");
 		
 		StaticUtils.TRACE_METHOD_EXIT(logger);
 	}
@@ -296,6 +320,11 @@ public class CometMain {
 
 			//Wait for all submitted items to complete.
 			numOutstandingItems = waitForSourcePathToComplete(numOutstandingItems);
+
+			// Everything for this loop is done.  Nothing left to resume.
+			if (null != mJournal) {
+				mJournal.reset();
+			}
 	
 			// Do some prep work only if going to do another loop
 			preworkForNextLoop(loopEndCount, currentLoop);
@@ -340,6 +369,7 @@ public class CometMain {
 			    = (BaseWorkItem)theClass.getDeclaredConstructor(BaseWorkItem.class, BaseWorkItem.class)
 			                         .newInstance(currentItem, currentStartItem);
 			onePath.setCompletionQueue(mCompletionQueue); // This is where the completed item will be placed
+			onePath.setSource(currentItem.getSource());
 
 			// Submit it to the scanner.
 			try {
@@ -382,8 +412,8 @@ public class CometMain {
 			// Refresh the properties.
 			try {
 				mProps.refresh();
-			} catch (IOException e) {
-				// Eh?!?!  Gave it a try.
+			} catch (IOException | IllegalArgumentException e) {
+				// Eh?!?!  Gave it a try.  The values from before stay.
 				logger.warn("Unable to refresh properties.", e);
 			}
 
@@ -434,6 +464,16 @@ public class CometMain {
 			// Enough already. Just ignore.
 			logger.warn("Received Interrupt during ProcessorPool shutdown processing");
 		}
+
+		// Only after the pools, so the progress of the last completed items is kept.
+		if (null != mJournal) {
+			mJournal.close();
+			mJournal = null;
+		}
+
+		if (null != mProps) {
+			mProps.stopWatching();
+		}
 		
 		StaticUtils.TRACE_METHOD_EXIT(logger);
 	}
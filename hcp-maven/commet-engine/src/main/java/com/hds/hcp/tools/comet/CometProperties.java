@@ -18,23 +18,223 @@
  */
 package com.hds.hcp.tools.comet;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import com.hds.hcp.apihelpers.HCPUtils;
 import com.hds.hcp.tools.comet.utils.StaticUtils;
 
+/**
+ * The settings in comet.properties.
+ *
+ * The values are read into an immutable Snapshot, with the numbers and flags parsed and checked
+ * once, so the getters used for every item only read a field.  refresh(), and the watcher that
+ * calls it when the file changes, build a new Snapshot and swap it in atomically.  A file that
+ * does not load or has bad values leaves the previous Snapshot in place.
+ */
 public class CometProperties {
 	
+	private static Logger logger = LogManager.getLogger();
+
 	static final String DEFAULT_PROPERTIES_FILE = "comet.properties";
 
 	private String mPropertiesFilename = DEFAULT_PROPERTIES_FILE;
-	private Properties mProps;
-	
-	private String sEncodedUserName, sEncodedPassword;
-	
+	private final AtomicReference<Snapshot> mSnapshot = new AtomicReference<Snapshot>();
+
+	private Thread mWatcher;
+	private long mLoadedLastModified, mLoadedLength;
+	
+	/*
+	 * The properties as loaded from the file, with the typed values parsed out of them.  Nothing
+	 * in it changes after construction.
+	 */
+	private static final class Snapshot {
+		final Properties mProps;
+
+		final String sEncodedUserName, sEncodedPassword;
+		final List<Integer> mSourceItemWeights, mSourceItemPriorities;
+
+		final Boolean bDestinationPasswordEncoded;
+		final Integer iLoopCount;
+		final Integer iLoopSleepTime;
+		final Integer iPauseSleepTime;
+		final Integer iCompletionPollSleep;
+		final Integer iStatsReportingThreshold;
+		final Boolean bShouldDumpHTTPHeaders;
+		final Integer iScannerMaxThreadCount;
+		final Integer iScannerTaskQueueSize;
+		final Boolean bShouldScannerDeleteSourceItemsOnSuccess;
+		final Boolean bShouldScannerDeleteSourceItemsOnNotAttempted;
+		final Integer iScannerMaxSubmitWaitTimeInSeconds;
+		final Integer iScannerCompletionPollSleep;
+		final Integer iScannerCheckCompleteQueueThreshold;
+		final Integer iScannerCompletionProcessingThreshold;
+		final Integer iScannerSubmitBatchSize;
+		final Integer iScannerThreadMaxJoinWait;
+		final Integer iScannerLoadTestingThreadSleep;
+		final Integer iScannerJournalSyncIntervalInSeconds;
+		final Integer iProcessorThreadCount;
+		final Integer iProcessorTaskQueueSize;
+		final Integer iProcessorFairQuantum;
+		final Integer iProcessorThreadMaxJoinWait;
+		final Integer iProcessorLoadTestingThreadSleep;
+		final Integer iProcessorAsyncIOThreadCount;
+		final Integer iProcessorAsyncCallbackThreadCount;
+		final Integer iProcessorAsyncMaxInFlightItems;
+		final Integer iProcessorAsyncMaxCloseWait;
+		final Boolean bShouldProcessorLedgerAlwaysCheckHCP;
+		final Integer iMetadataCacheMemoryEntries;
+		final Integer iProcessorCapabilityRefreshInSeconds;
+		final Boolean bShouldProcessorConcurrencyAdapt;
+		final Integer iProcessorConcurrencyInitialLimit;
+		final Integer iProcessorConcurrencyMinLimit;
+		final Integer iProcessorConcurrencyMaxLimit;
+		final Double dProcessorConcurrencyLatencyTolerance;
+		final Integer iProcessorRetryCount;
+		final Integer iProcessorRetryInitialDelayInMillis;
+		final Integer iProcessorRetryMaxDelayInSeconds;
+		final Integer iProcessorCircuitBreakerFailureThreshold;
+		final Integer iProcessorCircuitBreakerOpenSeconds;
+		final Integer iProcessorMultipartThresholdInMB;
+		final Integer iProcessorMultipartPartSizeInMB;
+		final Integer iProcessorMultipartThreadCount;
+		final Integer iProcessorMultipartPartRetryCount;
+		final Boolean bProcessorValidateHash;
+		final Integer iHttpClientConnectionTimeout;
+		final Integer iHttpClientMaxConnections;
+		final Integer iHttpClientMaxConnectionsPerRoute;
+		final Integer iPropertiesWatchIntervalInSeconds;
+
+		Snapshot(Properties inProps) {
+			mProps = inProps;
+
+			iHttpClientConnectionTimeout = integer("execution.httpclient.connectionTimeout", HCPUtils.DEFAULT_CONNECTION_TIMEOUT.toString());
+			iHttpClientMaxConnections = integer("execution.httpclient.maxConnections", HCPUtils.DEFAULT_MAX_CONNECTIONS.toString());
+			iHttpClientMaxConnectionsPerRoute = integer("execution.httpclient.maxConnectionsPerRoute", HCPUtils.DEFAULT_MAX_CONNECTIONS_PER_ROUTE.toString());
+			bDestinationPasswordEncoded = bool("destination.passwordEncoded", "false");
+			iLoopCount = integer("execution.loopCount", "-1");
+			iLoopSleepTime = integer("execution.loopSleepInSeconds", "60");
+			iPauseSleepTime = integer("execution.pauseSleepInSeconds", "5");
+			iCompletionPollSleep = integer("execution.completionPollSleep", "500");
+			iStatsReportingThreshold = integer("execution.statsReportingThreshold", "1000");
+			bShouldDumpHTTPHeaders = bool("execution.debugging.httpheaders", "false");
+			iScannerMaxThreadCount = integer("execution.scanner.maxThreadCount", "5");
+			iScannerTaskQueueSize = integer("execution.scanner.taskQueueSize", "100");
+			bShouldScannerDeleteSourceItemsOnSuccess = bool("execution.scanner.deleteSourceItemsOnSuccess", "false");
+			bShouldScannerDeleteSourceItemsOnNotAttempted = bool("execution.scanner.deleteSourceItemsOnNotAttempted", "false");
+			iScannerMaxSubmitWaitTimeInSeconds = integer("execution.scanner.maxSubmitWaitTimeInSeconds", "2");
+			iScannerCompletionPollSleep = integer("execution.scanner.completionPollSleep", "500");
+			iScannerCheckCompleteQueueThreshold = integer("execution.scanner.checkCompleteQueueThreshold", "50");
+			iScannerCompletionProcessingThreshold = integer("execution.scanner.completionProcessingThreashold", "100");
+			iScannerSubmitBatchSize = integer("execution.scanner.submitBatchSize", "32");
+			iScannerThreadMaxJoinWait = integer("execution.scanner.maxJoinWaitInSeconds", "20");
+			iScannerLoadTestingThreadSleep = integer("execution.scanner.loadTesting.threadSleep", "0");
+			iScannerJournalSyncIntervalInSeconds = integer("execution.scanner.journal.syncIntervalInSeconds", "5");
+			iProcessorThreadCount = integer("execution.processor.threadCount", "25");
+			iProcessorTaskQueueSize = integer("execution.processor.taskQueueSize", "1000");
+			iProcessorFairQuantum = integer("execution.processor.fair.quantum", "1");
+			iProcessorThreadMaxJoinWait = integer("execution.processor.maxJoinWaitInSeconds", "20");
+			iProcessorLoadTestingThreadSleep = integer("execution.processor.loadTesting.threadSleep", "0");
+			iProcessorAsyncIOThreadCount = integer("execution.processor.async.ioThreadCount", String.valueOf(Runtime.getRuntime().availableProcessors()));
+			iProcessorAsyncCallbackThreadCount = integer("execution.processor.async.callbackThreadCount", "4");
+			iProcessorAsyncMaxInFlightItems = integer("execution.processor.async.maxInFlightItems", "1000");
+			iProcessorAsyncMaxCloseWait = integer("execution.processor.async.maxCloseWaitInSeconds", "300");
+			bShouldProcessorLedgerAlwaysCheckHCP = bool("execution.processor.ledger.alwaysCheckHCP", "false");
+			iMetadataCacheMemoryEntries = integer("execution.metadataCache.memoryEntries", "10000");
+			iProcessorCapabilityRefreshInSeconds = integer("execution.processor.capabilityRefreshInSeconds", "3600");
+			bShouldProcessorConcurrencyAdapt = bool("execution.processor.concurrency.adaptive", "false");
+			iProcessorConcurrencyInitialLimit = integer("execution.processor.concurrency.initialLimit", "20");
+			iProcessorConcurrencyMinLimit = integer("execution.processor.concurrency.minLimit", "1");
+			iProcessorConcurrencyMaxLimit = integer("execution.processor.concurrency.maxLimit", iHttpClientMaxConnectionsPerRoute.toString());
+			dProcessorConcurrencyLatencyTolerance = decimal("execution.processor.concurrency.latencyTolerance", "2.0");
+			iProcessorRetryCount = integer("execution.processor.retry.count", "5");
+			iProcessorRetryInitialDelayInMillis = integer("execution.processor.retry.initialDelayInMillis", "1000");
+			iProcessorRetryMaxDelayInSeconds = integer("execution.processor.retry.maxDelayInSeconds", "60");
+			iProcessorCircuitBreakerFailureThreshold = integer("execution.processor.circuitBreaker.failureThreshold", "10");
+			iProcessorCircuitBreakerOpenSeconds = integer("execution.processor.circuitBreaker.openSeconds", "30");
+			iProcessorMultipartThresholdInMB = integer("execution.processor.multipart.thresholdInMB", "0");
+			iProcessorMultipartPartSizeInMB = integer("execution.processor.multipart.partSizeInMB", "100");
+			iProcessorMultipartThreadCount = integer("execution.processor.multipart.threadCount", "10");
+			iProcessorMultipartPartRetryCount = integer("execution.processor.multipart.partRetryCount", "3");
+			bProcessorValidateHash = bool("execution.processor.validateHash", "false");
+			iPropertiesWatchIntervalInSeconds = integer("execution.propertiesWatchIntervalInSeconds", "10");
+
+			mSourceItemWeights = integers("source.itemWeights");
+			mSourceItemPriorities = integers("source.itemPriorities");
+
+			// Compute the encoded user/pwd values at initialization/refresh time
+			//  for efficiency reasons.
+			String password = StaticUtils.resolveEnvVars(mProps.getProperty("destination.password"));
+			if (bDestinationPasswordEncoded) {
+				sEncodedPassword = password;
+			} else {
+				String encoded;
+				try {
+					encoded = HCPUtils.toMD5Digest(password);
+				} catch (Exception e) {
+					encoded = "";
+				}
+				sEncodedPassword = encoded;
+			}
+			
+			sEncodedUserName = HCPUtils.toBase64Encoding(StaticUtils.resolveEnvVars(mProps.getProperty("destination.user")));
+		}
+
+		private Boolean bool(String inName, String inDefault) {
+			return Boolean.valueOf(mProps.getProperty(inName, inDefault));
+		}
+
+		private Integer integer(String inName, String inDefault) {
+			String value = mProps.getProperty(inName, inDefault);
+			try {
+				return Integer.valueOf(value.trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Property " + inName + " is not an integer: \"" + value + "\"", e);
+			}
+		}
+
+		private Double decimal(String inName, String inDefault) {
+			String value = mProps.getProperty(inName, inDefault);
+			try {
+				return Double.valueOf(value.trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Property " + inName + " is not a number: \"" + value + "\"", e);
+			}
+		}
+
+		// Comma separated list of integers matching source.items.  Empty elements are null.
+		private List<Integer> integers(String inName) {
+			LinkedList<Integer> retVal = new LinkedList<Integer>();
+			
+			String propValue = mProps.getProperty(inName, "");
+			
+			if ( ! propValue.isEmpty() ) {
+				String[] list = propValue.split(",");
+
+				for (int i = 0; i < list.length; i++) {
+					String element = list[i].trim();
+
+					try {
+						retVal.addLast(element.isEmpty() ? null : Integer.valueOf(element)); // Null is a place holder.
+					} catch (NumberFormatException e) {
+						throw new IllegalArgumentException("Property " + inName + " has an element that is not an integer: \"" + element + "\"", e);
+					}
+				}
+			}
+			
+			return Collections.unmodifiableList(retVal);
+		}
+	}
+
 	public CometProperties() throws IOException {
 		String propFile = System.getProperty("com.hds.hcp.tools.comet.properties.file");
 		
@@ -52,39 +252,99 @@ public class CometProperties {
 		refresh();
 	}
 	
-	void refresh() throws IOException {
-		mProps = new Properties();
+	/**
+	 * Load the file again.  If it cannot be read, or a value is not valid, the exception is thrown
+	 * and the values loaded before stay.
+	 *
+	 * @throws IllegalArgumentException If a value is not valid.
+	 */
+	synchronized void refresh() throws IOException {
+		File propertiesFile = new File(mPropertiesFilename);
+		long lastModified = propertiesFile.lastModified();
+		long length = propertiesFile.length();
 
-		mProps.load(new FileInputStream(mPropertiesFilename));
+		Properties props = new Properties();
+		FileInputStream inStream = new FileInputStream(propertiesFile);
+		try {
+			props.load(inStream);
+		} finally {
+			inStream.close();
+		}
 
-		// Compute the encoded user/pwd values at initialization/refresh time
-		//  for efficiency reasons.
-		if (isDestinationPasswordEncoded()) {
-			sEncodedPassword = getDestinationPassword();
-		} else {
-			try {
-				sEncodedPassword = HCPUtils.toMD5Digest(getDestinationPassword());
-			} catch (Exception e) {
-				sEncodedPassword = "";
+		mSnapshot.set(new Snapshot(props));
+
+		mLoadedLastModified = lastModified;
+		mLoadedLength = length;
+	}
+
+	/**
+	 * Reload the file whenever it changes, as checked every execution.propertiesWatchIntervalInSeconds.
+	 * Components that only read a value when they start do not see it change.
+	 */
+	public synchronized void startWatching() {
+		final int interval = getPropertiesWatchIntervalInSeconds();
+		if (null != mWatcher || interval <= 0) return;
+
+		mWatcher = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while (true) {
+						Thread.sleep(interval * 1000L);
+
+						reloadIfChanged();
+					}
+				} catch (InterruptedException e) {
+					logger.debug("Properties watcher stopped");
+				}
 			}
+		});
+		mWatcher.setName("PropertiesWatcher(" + mWatcher.getId() + ")");
+		mWatcher.setDaemon(true);
+		mWatcher.start();
+	}
+
+	public synchronized void stopWatching() {
+		if (null == mWatcher) return;
+
+		mWatcher.interrupt();
+		mWatcher = null;
+	}
+
+	private synchronized void reloadIfChanged() {
+		File propertiesFile = new File(mPropertiesFilename);
+		if (propertiesFile.lastModified() == mLoadedLastModified && propertiesFile.length() == mLoadedLength) {
+			return;
+		}
+
+		try {
+			refresh();
+			logger.info("Reloaded properties file ({})", mPropertiesFilename);
+		} catch (IOException | IllegalArgumentException e) {
+			// Not again until it changes some more.
+			mLoadedLastModified = propertiesFile.lastModified();
+			mLoadedLength = propertiesFile.length();
+
+			logger.warn("Unable to reload properties file ({}). Keeping the values loaded before.", mPropertiesFilename, e);
 		}
-		
-		sEncodedUserName = HCPUtils.toBase64Encoding(getDestinationUserName());
 	}
-	
+
+	private Properties props() {
+		return mSnapshot.get().mProps;
+	}
+
 	/***
 	 * 
 	 * SOURCE CONTENT PROPERTIES
 	 * 
 	 ***/
 	public String getSourceClassName() {
-		return StaticUtils.resolveEnvVars(mProps.getProperty("source.class"));
+		return StaticUtils.resolveEnvVars(props().getProperty("source.class"));
 	}
 	
 	public LinkedList<String> getSourceItems() {
 		LinkedList<String> retVal = new LinkedList<String>();
 		
-		String propValue = StaticUtils.resolveEnvVars(mProps.getProperty("source.items", ""));
+		String propValue = StaticUtils.resolveEnvVars(props().getProperty("source.items", ""));
 		
 		if ( ! propValue.isEmpty() ) {
 			String[] list = propValue.split(",");
@@ -102,7 +362,7 @@ public class CometProperties {
 	public LinkedList<String> getSourceStartTriggerItems() {
 		LinkedList<String> retVal = new LinkedList<String>();
 		
-		String propValue = StaticUtils.resolveEnvVars(mProps.getProperty("source.startTriggerItems", ""));
+		String propValue = StaticUtils.resolveEnvVars(props().getProperty("source.startTriggerItems", ""));
 		
 		if ( ! propValue.isEmpty() ) {
 			String[] list = propValue.split(",");
@@ -119,6 +379,14 @@ public class CometProperties {
 		
 		return retVal;
 	}
+
+	public LinkedList<Integer> getSourceItemWeights() {
+		return new LinkedList<Integer>(mSnapshot.get().mSourceItemWeights);
+	}
+
+	public LinkedList<Integer> getSourceItemPriorities() {
+		return new LinkedList<Integer>(mSnapshot.get().mSourceItemPriorities);
+	}
 	
 	/***
 	 * 
@@ -127,27 +395,27 @@ public class CometProperties {
 	 * 
 	 ***/
 	public String getDestinationUserName() {
-		return StaticUtils.resolveEnvVars(mProps.getProperty("destination.user"));
+		return StaticUtils.resolveEnvVars(props().getProperty("destination.user"));
 	}
 
 	public String getEncodedDestinationUserName() {
-		return sEncodedUserName;
+		return mSnapshot.get().sEncodedUserName;
 	}
 	
 	public String getDestinationPassword() {
-		return StaticUtils.resolveEnvVars(mProps.getProperty("destination.password"));
+		return StaticUtils.resolveEnvVars(props().getProperty("destination.password"));
 	}
 	
 	public String getEncodedDestinationPassword() {
-		return sEncodedPassword;
+		return mSnapshot.get().sEncodedPassword;
 	}
 	
 	public Boolean isDestinationPasswordEncoded() {
-		return new Boolean(mProps.getProperty("destination.passwordEncoded", "false"));
+		return mSnapshot.get().bDestinationPasswordEncoded;
 	}
 	
 	public String getDestinationRootPath() {
-		return StaticUtils.resolveEnvVars(mProps.getProperty("destination.rootPath"));
+		return StaticUtils.resolveEnvVars(props().getProperty("destination.rootPath"));
 	}
 	
 	/***
@@ -158,7 +426,7 @@ public class CometProperties {
 	
 	public LinkedList<String> getGeneratorClasses() {
 		LinkedList<String> retVal = new LinkedList<String>();
-		String[] list = StaticUtils.resolveEnvVars(mProps.getProperty("generator.classes")).split(",");
+		String[] list = StaticUtils.resolveEnvVars(props().getProperty("generator.classes")).split(",");
 
 		for (int i = 0; i < list.length; i++) {
 			if ( ! list[i].isEmpty())
@@ -179,7 +447,7 @@ public class CometProperties {
 	 **  General Execution Parameters
 	 **/
 	public Integer getLoopCount() {
-		return new Integer(mProps.getProperty("execution.loopCount", "-1"));
+		return mSnapshot.get().iLoopCount;
 	}
 	
 	public Boolean isInfiniteLoopCount() {
@@ -191,80 +459,99 @@ public class CometProperties {
 	}
 	
 	public Integer getLoopSleepTime() {
-		return new Integer(mProps.getProperty("execution.loopSleepInSeconds", "60"));
+		return mSnapshot.get().iLoopSleepTime;
 	}
 	
 	public String getStopFileName() {
-		return new String(StaticUtils.resolveEnvVars(mProps.getProperty("execution.stopRequestFile", "comet.stop")));
+		return new String(StaticUtils.resolveEnvVars(props().getProperty("execution.stopRequestFile", "comet.stop")));
 	}
 	
 	public String getPauseFileName() {
-		return new String(StaticUtils.resolveEnvVars(mProps.getProperty("execution.pauseRequestFile", "comet.pause")));
+		return new String(StaticUtils.resolveEnvVars(props().getProperty("execution.pauseRequestFile", "comet.pause")));
+	}
+
+	public Integer getPropertiesWatchIntervalInSeconds() {
+		return mSnapshot.get().iPropertiesWatchIntervalInSeconds;
 	}
 
 	public Integer getPauseSleepTime() {
-		return new Integer(mProps.getProperty("execution.pauseSleepInSeconds", "5"));
+		return mSnapshot.get().iPauseSleepTime;
 	}
 	
 	public Integer getCompletionPollSleep() {
-		return new Integer(mProps.getProperty("execution.completionPollSleep", "500"));
+		return mSnapshot.get().iCompletionPollSleep;
 	}
 
 	// Number of items to process before reporting on updated statistics count.
 	// [Default: 1000]
 	public Integer getStatsReportingThreshold() {
-		return new Integer(mProps.getProperty("execution.statsReportingThreshold", "1000"));
+		return mSnapshot.get().iStatsReportingThreshold;
 	}
 
 	public Boolean shouldDumpHTTPHeaders() {
-		return new Boolean(mProps.getProperty("execution.debugging.httpheaders", "false"));
+		return mSnapshot.get().bShouldDumpHTTPHeaders;
 	}
 
 	/**
 	 **  Scanner Execution Parameters
 	 **/
 	public String getScannerClass() {
-		return mProps.getProperty("scanner.class");
+		return props().getProperty("scanner.class");
 	}
 	
 	public Integer getScannerMaxThreadCount() {
-		return new Integer(mProps.getProperty("execution.scanner.maxThreadCount", "5"));
+		return mSnapshot.get().iScannerMaxThreadCount;
 	}
 	
 	public Integer getScannerTaskQueueSize() {
-		return new Integer(mProps.getProperty("execution.scanner.taskQueueSize", "100"));
+		return mSnapshot.get().iScannerTaskQueueSize;
 	}
 	
 	public Boolean shouldScannerDeleteSourceItemsOnSuccess() {
-		return new Boolean(mProps.getProperty("execution.scanner.deleteSourceItemsOnSuccess", "false"));
+		return mSnapshot.get().bShouldScannerDeleteSourceItemsOnSuccess;
 	}
 	
 	public Boolean shouldScannerDeleteSourceItemsOnNotAttempted() {
-		return new Boolean(mProps.getProperty("execution.scanner.deleteSourceItemsOnNotAttempted", "false"));
+		return mSnapshot.get().bShouldScannerDeleteSourceItemsOnNotAttempted;
 	}
 	
 	public Integer getScannerMaxSubmitWaitTimeInSeconds() {
-		return new Integer(mProps.getProperty("execution.scanner.maxSubmitWaitTimeInSeconds", "2"));
+		return mSnapshot.get().iScannerMaxSubmitWaitTimeInSeconds;
 	}
 
 	public Integer getScannerCompletionPollSleep() {
-		return new Integer(mProps.getProperty("execution.scanner.completionPollSleep", "500"));
+		return mSnapshot.get().iScannerCompletionPollSleep;
 	}
 
 	public Integer getScannerCheckCompleteQueueThreshold() {
-		return new Integer(mProps.getProperty("execution.scanner.checkCompleteQueueThreshold", "50"));
+		return mSnapshot.get().iScannerCheckCompleteQueueThreshold;
 	}
 	
 	public Integer getScannerCompletionProcessingThreshold() {
-		return new Integer(mProps.getProperty("execution.scanner.completionProcessingThreashold", "100"));
+		return mSnapshot.get().iScannerCompletionProcessingThreshold;
+	}
+
+	public Integer getScannerSubmitBatchSize() {
+		return mSnapshot.get().iScannerSubmitBatchSize;
 	}
 
 	public Integer getScannerThreadMaxJoinWait() {
-		return new Integer(mProps.getProperty("execution.scanner.maxJoinWaitInSeconds", "20"));
+		return mSnapshot.get().iScannerThreadMaxJoinWait;
 	}
 
 	public Integer getScannerLoadTestingThreadSleep() {
-		return new Integer(mProps.getProperty("execution.scanner.loadTesting.threadSleep", "0"));
+		return mSnapshot.get().iScannerLoadTestingThreadSleep;
+	}
+
+	// File holding the journal of scan progress used to resume.  Not set means no journal.
+	public String getScannerJournalFile() {
+		String retval = props().getProperty("execution.scanner.journal.file");
+		
+		return (null == retval || retval.trim().isEmpty() ? null : StaticUtils.resolveEnvVars(retval.trim()));
+	}
+
+	public Integer getScannerJournalSyncIntervalInSeconds() {
+		return mSnapshot.get().iScannerJournalSyncIntervalInSeconds;
 	}
 
 
@@ -272,38 +559,159 @@ public class CometProperties {
 	 **  Processor Execution Parameters
 	 **/
 	public String getProcessorClass() {
-		return mProps.getProperty("processor.class");
+		return props().getProperty("processor.class");
 	}
 	
 	public Integer getProcessorThreadCount() {
-		return new Integer(mProps.getProperty("execution.processor.threadCount", "25"));
+		return mSnapshot.get().iProcessorThreadCount;
 	}
 	
 	public Integer getProcessorTaskQueueSize() {
-		return new Integer(mProps.getProperty("execution.processor.taskQueueSize", "1000"));
+		return mSnapshot.get().iProcessorTaskQueueSize;
+	}
+	
+	public String getProcessorQueueType() {
+		return props().getProperty("execution.processor.queueType", "linked");
+	}
+	
+	public Integer getProcessorFairQuantum() {
+		return mSnapshot.get().iProcessorFairQuantum;
 	}
 	
 	public Integer getProcessorThreadMaxJoinWait() {
-		return new Integer(mProps.getProperty("execution.processor.maxJoinWaitInSeconds", "20"));
+		return mSnapshot.get().iProcessorThreadMaxJoinWait;
 	}
 
 	public Integer getProcessorLoadTestingThreadSleep() {
-		return new Integer(mProps.getProperty("execution.processor.loadTesting.threadSleep", "0"));
+		return mSnapshot.get().iProcessorLoadTestingThreadSleep;
+	}
+	
+	// Number of I/O reactor threads used by the asynchronous processor (ProcessorToHCPAsync).
+	// [Default: number of available processors]
+	public Integer getProcessorAsyncIOThreadCount() {
+		return mSnapshot.get().iProcessorAsyncIOThreadCount;
+	}
+	
+	// Number of threads that run the request state machines for the asynchronous processor.
+	public Integer getProcessorAsyncCallbackThreadCount() {
+		return mSnapshot.get().iProcessorAsyncCallbackThreadCount;
+	}
+	
+	// Maximum number of items the asynchronous processor keeps in flight at one time.
+	public Integer getProcessorAsyncMaxInFlightItems() {
+		return mSnapshot.get().iProcessorAsyncMaxInFlightItems;
+	}
+	
+	// How long the asynchronous processor waits at shutdown for the items still in flight.
+	public Integer getProcessorAsyncMaxCloseWait() {
+		return mSnapshot.get().iProcessorAsyncMaxCloseWait;
+	}
+	
+	// File holding the ledger of objects already written to HCP.  Not set means no ledger.
+	public String getProcessorLedgerFile() {
+		String retval = props().getProperty("execution.processor.ledger.file");
+		
+		return (null == retval || retval.trim().isEmpty() ? null : StaticUtils.resolveEnvVars(retval.trim()));
+	}
+	
+	// Still check HCP with a HEAD request even if the ledger knows the object.
+	public Boolean shouldProcessorLedgerAlwaysCheckHCP() {
+		return mSnapshot.get().bShouldProcessorLedgerAlwaysCheckHCP;
+	}
+
+	// File keeping the metadata generated for items between runs.  Not set means no metadata cache.
+	public String getMetadataCacheFile() {
+		String retval = props().getProperty("execution.metadataCache.file");
+		
+		return (null == retval || retval.trim().isEmpty() ? null : StaticUtils.resolveEnvVars(retval.trim()));
+	}
+	
+	// Number of items whose metadata the metadata cache also keeps in memory.
+	public Integer getMetadataCacheMemoryEntries() {
+		return mSnapshot.get().iMetadataCacheMemoryEntries;
+	}
+	
+	// How long what an HCP supports is remembered before asking it again.
+	public Integer getProcessorCapabilityRefreshInSeconds() {
+		return mSnapshot.get().iProcessorCapabilityRefreshInSeconds;
+	}
+	
+	// Adjust the number of requests in flight to each HCP to how it is coping.
+	public Boolean shouldProcessorConcurrencyAdapt() {
+		return mSnapshot.get().bShouldProcessorConcurrencyAdapt;
+	}
+	
+	public Integer getProcessorConcurrencyInitialLimit() {
+		return mSnapshot.get().iProcessorConcurrencyInitialLimit;
+	}
+	
+	public Integer getProcessorConcurrencyMinLimit() {
+		return mSnapshot.get().iProcessorConcurrencyMinLimit;
+	}
+	
+	// No point going above what the connection pool allows per host.
+	public Integer getProcessorConcurrencyMaxLimit() {
+		return mSnapshot.get().iProcessorConcurrencyMaxLimit;
+	}
+	
+	// Round trip time over the lowest seen by more than this factor means HCP is queueing requests.
+	public Double getProcessorConcurrencyLatencyTolerance() {
+		return mSnapshot.get().dProcessorConcurrencyLatencyTolerance;
+	}
+	
+	// Times an item that failed with a 5xx or connection error is tried again.  0 means never.
+	public Integer getProcessorRetryCount() {
+		return mSnapshot.get().iProcessorRetryCount;
+	}
+	
+	public Integer getProcessorRetryInitialDelayInMillis() {
+		return mSnapshot.get().iProcessorRetryInitialDelayInMillis;
+	}
+	
+	public Integer getProcessorRetryMaxDelayInSeconds() {
+		return mSnapshot.get().iProcessorRetryMaxDelayInSeconds;
+	}
+	
+	// Failed requests in a row before requests to an HCP are refused for a while.  0 means never.
+	public Integer getProcessorCircuitBreakerFailureThreshold() {
+		return mSnapshot.get().iProcessorCircuitBreakerFailureThreshold;
+	}
+	
+	public Integer getProcessorCircuitBreakerOpenSeconds() {
+		return mSnapshot.get().iProcessorCircuitBreakerOpenSeconds;
+	}
+	
+	// Files at least this size are uploaded in parts.  0 means never.
+	public Integer getProcessorMultipartThresholdInMB() {
+		return mSnapshot.get().iProcessorMultipartThresholdInMB;
+	}
+	
+	public Integer getProcessorMultipartPartSizeInMB() {
+		return mSnapshot.get().iProcessorMultipartPartSizeInMB;
+	}
+	
+	// Threads uploading parts, shared by all processor threads.
+	public Integer getProcessorMultipartThreadCount() {
+		return mSnapshot.get().iProcessorMultipartThreadCount;
+	}
+	
+	public Integer getProcessorMultipartPartRetryCount() {
+		return mSnapshot.get().iProcessorMultipartPartRetryCount;
 	}
 	
 	public Boolean getProcessorValidateHash() {
-		return new Boolean(mProps.getProperty("execution.processor.validateHash", "false"));
+		return mSnapshot.get().bProcessorValidateHash;
 	}
 	
 	public Integer getHttpClientConnectionTimeout() {
-		return new Integer(mProps.getProperty("execution.httpclient.connectionTimeout", HCPUtils.DEFAULT_CONNECTION_TIMEOUT.toString()));
+		return mSnapshot.get().iHttpClientConnectionTimeout;
 	}
 
 	public Integer getHttpClientMaxConnections() {
-		return new Integer(mProps.getProperty("execution.httpclient.maxConnections", HCPUtils.DEFAULT_MAX_CONNECTIONS.toString()));
+		return mSnapshot.get().iHttpClientMaxConnections;
 	}
 
 	public Integer getHttpClientMaxConnectionsPerRoute() {
-		return new Integer(mProps.getProperty("execution.httpclient.maxConnectionsPerRoute", HCPUtils.DEFAULT_MAX_CONNECTIONS_PER_ROUTE.toString()));
+		return mSnapshot.get().iHttpClientMaxConnectionsPerRoute;
 	}
 }
@@ -0,0 +1,245 @@
+package com.hds.hcp.tools.comet;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * WorkItemQueue with a queue of its own for each WorkItemSource, so one big source.items element
+ * cannot keep the items of the others waiting behind it.
+ *
+ * Items are taken from the sources with the highest priority that have any.  Among those it is
+ * deficit round robin: when a source gets its turn it may hand out weight times the quantum
+ * items, then the next source gets its turn.  A source whose queue runs empty loses what is left
+ * of its turn.  Every item counts the same, whatever its size.
+ *
+ * The capacity applies to each source, so a full source only holds up whoever adds to that one.
+ */
+public class FairWorkItemQueue implements WorkItemQueue {
+	public FairWorkItemQueue(int inCapacity, int inQuantum) {
+		mCapacity = Math.max(inCapacity, 1);
+		mQuantum = Math.max(inQuantum, 1);
+	}
+
+	private static class SourceQueue {
+		SourceQueue(WorkItemSource inSource, Condition inNotFull) {
+			mSource = inSource;
+			mNotFull = inNotFull;
+		}
+
+		final WorkItemSource mSource;
+		final Condition mNotFull;
+		LinkedList<BaseWorkItem> mItems = new LinkedList<BaseWorkItem>();
+		int mDeficit = 0;  // Items left in the current turn.
+	}
+
+	private final int mCapacity;
+	private final int mQuantum;
+
+	// For items without a source.
+	private final WorkItemSource mDefaultSource = new WorkItemSource("(none)", 1, 0);
+
+	private final ReentrantLock mLock = new ReentrantLock();
+	private final Condition mNotEmpty = mLock.newCondition();
+
+	private HashMap<WorkItemSource, SourceQueue> mQueues = new HashMap<WorkItemSource, SourceQueue>();
+
+	// Sources with items, by priority from high to low, each level in round robin order.
+	private TreeMap<Integer, LinkedList<SourceQueue>> mActive
+		= new TreeMap<Integer, LinkedList<SourceQueue>>(Collections.<Integer>reverseOrder());
+	private int mSize = 0;
+
+	public void put(BaseWorkItem inItem) throws InterruptedException {
+		if (null == inItem) throw new NullPointerException();
+
+		mLock.lockInterruptibly();
+		try {
+			SourceQueue queue;
+			while ((queue = queueFor(inItem)).mItems.size() >= mCapacity) {
+				queue.mNotFull.await();
+			}
+
+			add(queue, inItem);
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	public boolean offer(BaseWorkItem inItem, long inTimeout, TimeUnit inUnit) throws InterruptedException {
+		if (null == inItem) throw new NullPointerException();
+
+		long remaining = inUnit.toNanos(inTimeout);
+
+		mLock.lockInterruptibly();
+		try {
+			SourceQueue queue;
+			while ((queue = queueFor(inItem)).mItems.size() >= mCapacity) {
+				if (remaining <= 0) return false;
+
+				remaining = queue.mNotFull.awaitNanos(remaining);
+			}
+
+			add(queue, inItem);
+			return true;
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	public int offerAll(List<BaseWorkItem> inItems, long inTimeout, TimeUnit inUnit) throws InterruptedException {
+		long remaining = inUnit.toNanos(inTimeout);
+
+		int retVal = 0;
+
+		mLock.lockInterruptibly();
+		try {
+			for (BaseWorkItem item : inItems) {
+				if (null == item) throw new NullPointerException();
+
+				SourceQueue queue;
+				while ((queue = queueFor(item)).mItems.size() >= mCapacity) {
+					if (remaining <= 0) return retVal;
+
+					remaining = queue.mNotFull.awaitNanos(remaining);
+				}
+
+				add(queue, item);
+				retVal++;
+			}
+		} finally {
+			mLock.unlock();
+		}
+
+		return retVal;
+	}
+
+	public BaseWorkItem take() throws InterruptedException {
+		mLock.lockInterruptibly();
+		try {
+			while (0 == mSize) {
+				mNotEmpty.await();
+			}
+
+			return next();
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	public BaseWorkItem poll() {
+		mLock.lock();
+		try {
+			return (0 == mSize ? null : next());
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	public int drainTo(Collection<BaseWorkItem> outItems, int inMaxItems) {
+		int retVal = 0;
+
+		mLock.lock();
+		try {
+			while (retVal < inMaxItems && 0 < mSize) {
+				outItems.add(next());
+				retVal++;
+			}
+		} finally {
+			mLock.unlock();
+		}
+
+		return retVal;
+	}
+
+	public int size() {
+		mLock.lock();
+		try {
+			return mSize;
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	/*
+	 * The queue of the source of inItem.  Queues only exist while they have items, so look it up
+	 *   again after waiting.  Called with the lock held.
+	 */
+	private SourceQueue queueFor(BaseWorkItem inItem) {
+		WorkItemSource source = (null == inItem.getSource() ? mDefaultSource : inItem.getSource());
+
+		SourceQueue retVal = mQueues.get(source);
+		if (null == retVal) {
+			retVal = new SourceQueue(source, mLock.newCondition());
+			mQueues.put(source, retVal);
+		}
+
+		return retVal;
+	}
+
+	private void add(SourceQueue inQueue, BaseWorkItem inItem) {
+		inQueue.mItems.addLast(inItem);
+		if (1 == inQueue.mItems.size()) {
+			// Back in the running.  Starts at the end of the round.
+			LinkedList<SourceQueue> level = mActive.get(inQueue.mSource.getPriority());
+			if (null == level) {
+				level = new LinkedList<SourceQueue>();
+				mActive.put(inQueue.mSource.getPriority(), level);
+			}
+			level.addLast(inQueue);
+		}
+
+		mSize++;
+		inQueue.mSource.setQueueDepth(inQueue.mItems.size());
+
+		mNotEmpty.signal();
+	}
+
+	/*
+	 * Take the next item in turn.  Called with the lock held and at least one item queued.
+	 */
+	private BaseWorkItem next() {
+		Map.Entry<Integer, LinkedList<SourceQueue>> level = mActive.firstEntry();
+		SourceQueue queue = level.getValue().getFirst();
+
+		// Start of its turn?
+		if (0 >= queue.mDeficit) {
+			queue.mDeficit += mQuantum * queue.mSource.getWeight();
+		}
+
+		BaseWorkItem retVal = queue.mItems.removeFirst();
+		queue.mDeficit--;
+		mSize--;
+
+		if (queue.mItems.isEmpty()) {
+			queue.mDeficit = 0;
+			level.getValue().removeFirst();
+			if (level.getValue().isEmpty()) {
+				mActive.remove(level.getKey());
+			}
+
+			// Anyone waiting looks up the queue again.
+			mQueues.remove(queue.mSource);
+			queue.mNotFull.signalAll();
+		} else {
+			if (0 >= queue.mDeficit) {
+				// Turn is over.
+				level.getValue().removeFirst();
+				level.getValue().addLast(queue);
+			}
+
+			queue.mNotFull.signal();
+		}
+
+		queue.mSource.setQueueDepth(queue.mItems.size());
+		queue.mSource.itemDispatched();
+
+		return retVal;
+	}
+}
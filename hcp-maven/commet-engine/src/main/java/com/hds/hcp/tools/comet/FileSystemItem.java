@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.concurrent.LinkedBlockingQueue;
 
 
@@ -19,6 +20,14 @@ public class FileSystemItem extends BaseWorkItem {
 		mCompletionQueue = inCompletionQueue;
 	}
 
+	// Constructor for scanners that already read the attributes of the file.
+	public FileSystemItem(File inFile, File inBaseFolder, BasicFileAttributes inAttributes) {
+		this(inFile, inBaseFolder);
+		mSize = inAttributes.size();
+		mLastModified = inAttributes.lastModifiedTime().toMillis();
+		bHaveAttributes = true;
+	}
+	
 	//
 	// These four constructors are special. They are used to instantiate a FileSystemItem from the value in a
 	//   property file.
@@ -53,6 +62,15 @@ public class FileSystemItem extends BaseWorkItem {
 	
 	public String getName() { return ((File)getHandle()).getAbsolutePath(); }
 	
+	// Size and modification time of the file as seen by the scanner, so they need not be
+	//   read again.  Read from the file if the scanner did not provide them.
+	private boolean bHaveAttributes = false;
+	private long mSize;
+	private long mLastModified;
+	
+	public long getSize() { return (bHaveAttributes ? mSize : getFile().length()); }
+	public long getLastModified() { return (bHaveAttributes ? mLastModified : getFile().lastModified()); }
+	
 	
 	@Override
 	public InputStream getItemInputStream() throws FileNotFoundException {
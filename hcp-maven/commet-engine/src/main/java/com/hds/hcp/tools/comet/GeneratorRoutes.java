@@ -0,0 +1,87 @@
+package com.hds.hcp.tools.comet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import com.hds.hcp.tools.comet.generator.BaseMetadataGenerator;
+import com.hds.hcp.tools.comet.generator.GeneratorClaim;
+
+/**
+ * Which metadata generators to ask for an item, worked out once from the claims of the generators.
+ *
+ * For each file name extension claimed, the generators that might take such a file are listed in
+ * configured order: those claiming the extension, and those not limited to extensions.  The claim
+ * of each of those is then checked in turn.  Generators without a claim are always asked.
+ */
+class GeneratorRoutes {
+
+	/*
+	 * A generator with its claim.  Null claim means it takes any item.
+	 */
+	static class Route {
+		Route(BaseMetadataGenerator inGenerator) {
+			mGenerator = inGenerator;
+			mClaim = inGenerator.getClaim();
+		}
+
+		final BaseMetadataGenerator mGenerator;
+		final GeneratorClaim mClaim;
+
+		boolean claims(BaseWorkItem inItem) {
+			return (null == mClaim || mClaim.claims(inItem));
+		}
+	}
+
+	GeneratorRoutes(List<BaseMetadataGenerator> inGenerators) {
+		ArrayList<Route> routes = new ArrayList<Route>();
+		HashSet<String> extensions = new HashSet<String>();
+		for (BaseMetadataGenerator oneGenerator : inGenerators) {
+			Route route = new Route(oneGenerator);
+			routes.add(route);
+
+			if (null != route.mClaim) extensions.addAll(route.mClaim.getExtensions());
+		}
+
+		// Items that are not files are only taken by generators without a claim.
+		ArrayList<Route> unclaimed = new ArrayList<Route>();
+		ArrayList<Route> anyExtension = new ArrayList<Route>();
+		for (Route oneRoute : routes) {
+			if (null == oneRoute.mClaim) unclaimed.add(oneRoute);
+			if (null == oneRoute.mClaim || oneRoute.mClaim.getExtensions().isEmpty()) anyExtension.add(oneRoute);
+		}
+		mUnclaimed = unclaimed.toArray(new Route[unclaimed.size()]);
+		mAnyExtension = anyExtension.toArray(new Route[anyExtension.size()]);
+
+		for (String oneExtension : extensions) {
+			ArrayList<Route> candidates = new ArrayList<Route>();
+			for (Route oneRoute : routes) {
+				if (null == oneRoute.mClaim || oneRoute.mClaim.getExtensions().isEmpty()
+						|| oneRoute.mClaim.getExtensions().contains(oneExtension)) {
+					candidates.add(oneRoute);
+				}
+			}
+			mByExtension.put(oneExtension, candidates.toArray(new Route[candidates.size()]));
+		}
+	}
+
+	private final Route[] mUnclaimed;
+	private final Route[] mAnyExtension;
+	private final HashMap<String, Route[]> mByExtension = new HashMap<String, Route[]>();
+
+	/**
+	 * The generators that might take inItem, in configured order.  Their claims still have to be
+	 * checked.
+	 */
+	Route[] candidates(BaseWorkItem inItem) {
+		if ( ! (inItem.getHandle() instanceof File) ) {
+			return mUnclaimed;
+		}
+
+		Route[] retVal = mByExtension.get(GeneratorClaim.getExtension(((File)inItem.getHandle()).getName()));
+
+		return (null == retVal ? mAnyExtension : retVal);
+	}
+}
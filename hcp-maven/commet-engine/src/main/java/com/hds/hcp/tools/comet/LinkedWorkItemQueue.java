@@ -0,0 +1,44 @@
+package com.hds.hcp.tools.comet;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WorkItemQueue on a LinkedBlockingQueue.  Every item added or taken goes through a lock.
+ */
+public class LinkedWorkItemQueue implements WorkItemQueue {
+	public LinkedWorkItemQueue(int inCapacity) {
+		mQueue = new LinkedBlockingQueue<BaseWorkItem>(inCapacity);
+	}
+
+	private LinkedBlockingQueue<BaseWorkItem> mQueue;
+
+	public void put(BaseWorkItem inItem) throws InterruptedException { mQueue.put(inItem); }
+
+	public boolean offer(BaseWorkItem inItem, long inTimeout, TimeUnit inUnit) throws InterruptedException {
+		return mQueue.offer(inItem, inTimeout, inUnit);
+	}
+
+	public int offerAll(List<BaseWorkItem> inItems, long inTimeout, TimeUnit inUnit) throws InterruptedException {
+		long deadline = System.nanoTime() + inUnit.toNanos(inTimeout);
+
+		int retVal = 0;
+		for (BaseWorkItem item : inItems) {
+			if ( ! mQueue.offer(item, Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS) ) {
+				break;
+			}
+			retVal++;
+		}
+
+		return retVal;
+	}
+
+	public BaseWorkItem take() throws InterruptedException { return mQueue.take(); }
+	public BaseWorkItem poll() { return mQueue.poll(); }
+
+	public int drainTo(Collection<BaseWorkItem> outItems, int inMaxItems) { return mQueue.drainTo(outItems, inMaxItems); }
+
+	public int size() { return mQueue.size(); }
+}
@@ -0,0 +1,498 @@
+package com.hds.hcp.tools.comet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.hds.hcp.apihelpers.HCPUtils;
+import com.hds.hcp.tools.comet.generator.ObjectContainer;
+import com.hds.hcp.tools.comet.utils.StaticUtils;
+
+/**
+ * Metadata generated for items, kept so it does not have to be generated again while the item
+ * stays the same.
+ *
+ * An item is known by its name and base specification.  With the metadata goes a version: a digest
+ * of the file size and modification time, the metadata cache tag of the item, and the signature of
+ * the generator configuration.  Metadata of another version is not used.  Only generators whose
+ * metadata depends on nothing else are cached (BaseMetadataGenerator.isCacheable()).
+ *
+ * Each piece of generated metadata is appended as one record to a log file, like the IngestLedger
+ * does, with only the position of the records kept in memory.  The most recently used metadata is
+ * also kept in memory, up to the number of entries given.  Credentials are not stored.  With the
+ * metadata goes the class of the generator that made it, which puts the credentials back from its
+ * configuration when the metadata is used again.  The log is only readable by its owner where the
+ * file system allows that.
+ *
+ * The cache is shared by all processor threads using the same file.  Use open() and release() to
+ * obtain and give back the shared instance.
+ */
+public class MetadataCache {
+	private static Logger logger = LogManager.getLogger();
+
+	private static final int RECORD_HEADER_SIZE = 8; // Length + CRC
+	private static final int MAX_RECORD_SIZE = 16*1024*1024;
+	private static final int COMPACTION_MIN_RECORDS = 10000;
+	private static final int SYNC_RECORD_INTERVAL = 1000;
+
+	// Part of every version, so records written in another layout are never used.
+	private static final String RECORD_FORMAT = "2";
+
+	/*
+	 * Shared instances by canonical cache file path.
+	 */
+	private static final Map<String, MetadataCache> sCaches = new HashMap<String, MetadataCache>();
+
+	public static MetadataCache open(String inFileName, int inMemoryEntries) throws IOException {
+		File cacheFile = new File(inFileName).getCanonicalFile();
+
+		synchronized (sCaches) {
+			MetadataCache retval = sCaches.get(cacheFile.getPath());
+			if (null == retval) {
+				retval = new MetadataCache(cacheFile, inMemoryEntries);
+				sCaches.put(cacheFile.getPath(), retval);
+			}
+			retval.mRefCount++;
+
+			return retval;
+		}
+	}
+
+	public void release() {
+		synchronized (sCaches) {
+			if (0 < --mRefCount) return;
+
+			sCaches.remove(mFile.getPath());
+		}
+
+		close();
+	}
+
+	/*
+	 * Where the latest record for an item is in the log file.
+	 */
+	private static class Location {
+		Location(long inOffset, int inLength, String inVersion) {
+			mOffset = inOffset;
+			mLength = inLength;
+			mVersion = inVersion;
+		}
+
+		final long mOffset;
+		final int mLength;  // Of the whole record.
+		final String mVersion;
+	}
+
+	/**
+	 * Metadata found in the cache, and the class of the generator that made it.  The metadata has
+	 * no credentials.
+	 */
+	public static class Entry {
+		Entry(String inGenerator, LinkedList<ObjectContainer> inMetadata) {
+			mGenerator = inGenerator;
+			mMetadata = inMetadata;
+		}
+
+		private final String mGenerator;
+		private final LinkedList<ObjectContainer> mMetadata;
+
+		public String getGenerator() { return mGenerator; }
+		public LinkedList<ObjectContainer> getMetadata() { return mMetadata; }
+	}
+
+	/*
+	 * Metadata kept in memory.
+	 */
+	private static class Cached {
+		Cached(String inVersion, byte[] inValue) {
+			mVersion = inVersion;
+			mValue = inValue;
+		}
+
+		final String mVersion;
+		final byte[] mValue;
+	}
+
+	private File mFile;
+	private int mRefCount = 0;
+	private volatile FileChannel mChannel;  // Null once closed.
+	private ConcurrentHashMap<String, Location> mIndex = new ConcurrentHashMap<String, Location>();
+	private Map<String, Cached> mRecent;
+	private long mRecordCount = 0;
+	private int mUnsyncedCount = 0;
+
+	private MetadataCache(File inFile, final int inMemoryEntries) throws IOException {
+		mFile = inFile;
+
+		mRecent = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Cached> inEldest) {
+				return size() > inMemoryEntries;
+			}
+		};
+
+		load();
+
+		// Too many superseded records?  Rewrite with only the live ones.
+		if (COMPACTION_MIN_RECORDS < mRecordCount && mRecordCount > 2 * mIndex.size()) {
+			compact();
+		}
+
+		boolean isNew = ! mFile.exists();
+		mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+		mChannel.position(mChannel.size());
+		if (isNew) {
+			restrictAccess(mFile);
+		}
+
+		logger.info("Opened metadata cache {} ({} items)", mFile.getPath(), mIndex.size());
+	}
+
+	/*
+	 * Index all good records.  Anything after the last good record is a torn write from a crash
+	 * and is cut off.
+	 */
+	private void load() throws IOException {
+		StaticUtils.TRACE_METHOD_ENTER(logger);
+
+		if ( ! mFile.exists()) {
+			StaticUtils.TRACE_METHOD_EXIT(logger, "New metadata cache");
+			return;
+		}
+
+		RandomAccessFile cacheFile = new RandomAccessFile(mFile, "rw");
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					Channels.newInputStream(cacheFile.getChannel()), 64*1024));
+			long goodLength = 0;
+			CRC32 crc = new CRC32();
+
+			while (true) {
+				int length, storedCRC;
+				byte[] payload;
+				try {
+					length = in.readInt();
+					storedCRC = in.readInt();
+					if (length <= 0 || length > MAX_RECORD_SIZE) break;
+
+					payload = new byte[length];
+					in.readFully(payload);
+				} catch (EOFException e) {
+					break;
+				}
+
+				crc.reset();
+				crc.update(payload, 0, payload.length);
+				if ((int)crc.getValue() != storedCRC) break;
+
+				DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+				String identity = record.readUTF();
+				String version = record.readUTF();
+				mIndex.put(identity, new Location(goodLength, RECORD_HEADER_SIZE + length, version));
+				mRecordCount++;
+
+				goodLength += RECORD_HEADER_SIZE + length;
+			}
+
+			if (goodLength < cacheFile.length()) {
+				logger.warn("Metadata cache {} has an incomplete record at offset {}. Truncating.", mFile.getPath(), goodLength);
+				cacheFile.getChannel().truncate(goodLength);
+			}
+		} finally {
+			cacheFile.close();
+		}
+
+		StaticUtils.TRACE_METHOD_EXIT(logger);
+	}
+
+	private void compact() throws IOException {
+		logger.info("Compacting metadata cache {} ({} records, {} items)", mFile.getPath(), mRecordCount, mIndex.size());
+
+		File tmpFile = new File(mFile.getPath() + ".compact");
+		HashMap<String, Location> newIndex = new HashMap<String, Location>();
+
+		FileChannel oldChannel = new RandomAccessFile(mFile, "r").getChannel();
+		FileChannel tmpChannel = new RandomAccessFile(tmpFile, "rw").getChannel();
+		try {
+			restrictAccess(tmpFile);
+			tmpChannel.truncate(0);
+
+			long position = 0;
+			for (Map.Entry<String, Location> oneEntry : mIndex.entrySet()) {
+				Location location = oneEntry.getValue();
+
+				long copied = 0;
+				while (copied < location.mLength) {
+					long count = oldChannel.transferTo(location.mOffset + copied, location.mLength - copied, tmpChannel);
+					if (count <= 0) throw new EOFException("Metadata cache record cut short");
+
+					copied += count;
+				}
+
+				newIndex.put(oneEntry.getKey(), new Location(position, location.mLength, location.mVersion));
+				position += location.mLength;
+			}
+			tmpChannel.force(true);
+		} finally {
+			tmpChannel.close();
+			oldChannel.close();
+		}
+
+		Files.move(tmpFile.toPath(), mFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		mIndex.clear();
+		mIndex.putAll(newIndex);
+		mRecordCount = mIndex.size();
+	}
+
+	private static void restrictAccess(File inFile) {
+		try {
+			Files.setPosixFilePermissions(inFile.toPath(), EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE));
+		} catch (UnsupportedOperationException | IOException e) {
+			logger.debug("Could not restrict access to metadata cache file {}", inFile.getPath());
+		}
+	}
+
+	private synchronized void close() {
+		if (null == mChannel) return;
+
+		try {
+			mChannel.force(true);
+			mChannel.close();
+		} catch (IOException e) {
+			logger.warn("Unexpected exception closing metadata cache " + mFile.getPath(), e);
+		}
+		mChannel = null;
+	}
+
+	/**
+	 * The cache can only vouch for items it can identify by file size and modification time.
+	 */
+	public static boolean canCache(BaseWorkItem inItem) {
+		return (inItem.getHandle() instanceof File);
+	}
+
+	/*
+	 * Size and modification time of the source file.  The scanner may already have read them.
+	 */
+	private static long getSize(BaseWorkItem inItem) {
+		return (inItem instanceof FileSystemItem ? ((FileSystemItem)inItem).getSize() : ((File)inItem.getHandle()).length());
+	}
+
+	private static long getLastModified(BaseWorkItem inItem) {
+		return (inItem instanceof FileSystemItem ? ((FileSystemItem)inItem).getLastModified() : ((File)inItem.getHandle()).lastModified());
+	}
+
+	private static String getIdentity(BaseWorkItem inItem) {
+		return inItem.getName() + "\n" + inItem.getBaseSpecification();
+	}
+
+	private static String getVersion(BaseWorkItem inItem, String inSignature) {
+		String version = RECORD_FORMAT + "\n" + inSignature + "\n" + getSize(inItem) + "\n" + getLastModified(inItem) + "\n" + inItem.getMetadataCacheTag();
+
+		try {
+			return HCPUtils.toMD5Digest(version);
+		} catch (Exception e) {
+			return version;
+		}
+	}
+
+	/**
+	 * A copy of the metadata generated for inItem with generators of signature inSignature.  Null
+	 * if there is none, or the item has changed since.
+	 */
+	public Entry lookup(BaseWorkItem inItem, String inSignature) {
+		if ( ! canCache(inItem)) return null;
+
+		String identity = getIdentity(inItem);
+		String version = getVersion(inItem, inSignature);
+
+		Cached cached;
+		synchronized (mRecent) {
+			cached = mRecent.get(identity);
+		}
+
+		if (null == cached || ! cached.mVersion.equals(version)) {
+			Location location = mIndex.get(identity);
+			if (null == location || ! location.mVersion.equals(version)) return null;
+
+			cached = read(identity, location);
+			if (null == cached) return null;
+
+			synchronized (mRecent) {
+				mRecent.put(identity, cached);
+			}
+		}
+
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(cached.mValue));
+
+			String generator = in.readUTF();
+
+			LinkedList<ObjectContainer> metadata = new LinkedList<ObjectContainer>();
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				metadata.add(ObjectContainer.readFrom(in));
+			}
+
+			return new Entry(generator, metadata);
+		} catch (IOException e) {
+			logger.warn("Unusable metadata cache entry for " + inItem.getName(), e);
+
+			return null;
+		}
+	}
+
+	/*
+	 * Read the metadata of a record in the log file.  Null, a miss, if the cache is closed.
+	 */
+	private Cached read(String inIdentity, Location inLocation) {
+		// Closing in the middle of the read makes it fail with ClosedChannelException.
+		FileChannel channel = mChannel;
+		if (null == channel) return null;
+
+		ByteBuffer buffer = ByteBuffer.allocate(inLocation.mLength);
+		try {
+			while (buffer.hasRemaining()) {
+				int count = channel.read(buffer, inLocation.mOffset + buffer.position());
+				if (count <= 0) throw new EOFException("Metadata cache record cut short");
+			}
+			buffer.flip();
+
+			int length = buffer.getInt();
+			int storedCRC = buffer.getInt();
+
+			CRC32 crc = new CRC32();
+			crc.update(buffer.array(), RECORD_HEADER_SIZE, length);
+			if ((int)crc.getValue() != storedCRC) throw new IOException("Metadata cache record is corrupt");
+
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array(), RECORD_HEADER_SIZE, length));
+			if ( ! inIdentity.equals(in.readUTF()) ) throw new IOException("Metadata cache record is for another item");
+			String version = in.readUTF();
+
+			byte[] value = new byte[in.readInt()];
+			in.readFully(value);
+
+			return new Cached(version, value);
+		} catch (IOException e) {
+			logger.warn("Failed to read metadata cache record at offset " + inLocation.mOffset, e);
+
+			return null;
+		}
+	}
+
+	/**
+	 * Remember the metadata generated for inItem by inGenerator, one of the generators of signature
+	 * inSignature.  The credentials in it are left out.
+	 */
+	public void store(BaseWorkItem inItem, String inSignature, String inGenerator, LinkedList<ObjectContainer> inMetadata) {
+		if ( ! canCache(inItem)) return;
+
+		String identity = getIdentity(inItem);
+		String version = getVersion(inItem, inSignature);
+
+		byte[] value;
+		byte[] payload;
+		try {
+			ByteArrayOutputStream valueStream = new ByteArrayOutputStream(1024);
+			DataOutputStream valueOut = new DataOutputStream(valueStream);
+			valueOut.writeUTF(inGenerator);
+			valueOut.writeInt(inMetadata.size());
+			for (ObjectContainer oneObject : inMetadata) {
+				oneObject.writeTo(valueOut);
+			}
+			valueOut.flush();
+			value = valueStream.toByteArray();
+
+			ByteArrayOutputStream payloadStream = new ByteArrayOutputStream(value.length + 256);
+			DataOutputStream payloadOut = new DataOutputStream(payloadStream);
+			payloadOut.writeUTF(identity);
+			payloadOut.writeUTF(version);
+			payloadOut.writeInt(value.length);
+			payloadOut.write(value);
+			payloadOut.flush();
+			payload = payloadStream.toByteArray();
+		} catch (IOException e) {
+			logger.warn("Failed to build metadata cache record for " + inItem.getName(), e);
+			return;
+		}
+
+		if (MAX_RECORD_SIZE < payload.length) {
+			logger.debug("Metadata for {} is too large to cache", inItem.getName());
+			return;
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(payload, 0, payload.length);
+
+		ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+		buffer.putInt(payload.length);
+		buffer.putInt((int)crc.getValue());
+		buffer.put(payload);
+		buffer.flip();
+
+		synchronized (this) {
+			if (null == mChannel) return;
+
+			long offset = -1;
+			try {
+				offset = mChannel.position();
+				while (buffer.hasRemaining()) {
+					mChannel.write(buffer);
+				}
+
+				if (SYNC_RECORD_INTERVAL <= ++mUnsyncedCount) {
+					mChannel.force(false);
+					mUnsyncedCount = 0;
+				}
+
+				mRecordCount++;
+				mIndex.put(identity, new Location(offset, buffer.limit(), version));
+			} catch (IOException e) {
+				// Not fatal.  Worst case the metadata gets generated again.
+				logger.warn("Failed to write metadata cache record for " + inItem.getName(), e);
+
+				// Take back whatever part of the record was written.  Left in the middle of the log, it
+				//   would make load() drop every record written after it.
+				if (0 <= offset) {
+					try {
+						mChannel.truncate(offset);
+						mChannel.position(offset);
+					} catch (IOException e2) {
+						logger.warn("Unable to remove partial record from metadata cache " + mFile.getPath() + ". Closing it.", e2);
+						close();
+					}
+				}
+				return;
+			}
+		}
+
+		synchronized (mRecent) {
+			mRecent.put(identity, new Cached(version, value));
+		}
+	}
+}
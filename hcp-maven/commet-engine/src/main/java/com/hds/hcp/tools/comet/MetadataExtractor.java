@@ -24,8 +24,11 @@ import java.util.LinkedList;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.hds.hcp.apihelpers.HCPUtils;
+import com.hds.hcp.tools.comet.WorkItemStatus.CacheStatus;
 import com.hds.hcp.tools.comet.generator.BaseMetadataGenerator;
 import com.hds.hcp.tools.comet.generator.ObjectContainer;
+import com.hds.hcp.tools.comet.utils.ComponentRegistry;
 import com.hds.hcp.tools.comet.utils.StaticUtils;
 
 public class MetadataExtractor {
@@ -36,6 +39,11 @@ public class MetadataExtractor {
 	private boolean isInitialized = false;
 	private LinkedList<String> mMetadataGeneratorClasses;
 	private LinkedList<BaseMetadataGenerator> mMetadataGeneratorInstances;
+	private GeneratorRoutes mRoutes;
+
+	// Metadata generated before, if configured, and the signature of the generators it must match.
+	private MetadataCache mCache;
+	private String mSignature;
 
 	public MetadataExtractor() throws IOException {
 		this(new CometProperties());
@@ -45,6 +53,18 @@ public class MetadataExtractor {
 		mProps = inProps;
 		
 		mMetadataGeneratorClasses = mProps.getGeneratorClasses();
+
+		String cacheFile = mProps.getMetadataCacheFile();
+		if (null != cacheFile) {
+			mCache = MetadataCache.open(cacheFile, mProps.getMetadataCacheMemoryEntries());
+		}
+	}
+
+	public void close() {
+		if (null != mCache) {
+			mCache.release();
+			mCache = null;
+		}
 	}
 	
 	private void initialize() {
@@ -58,20 +78,27 @@ public class MetadataExtractor {
 			}
 			
 			/*
-			 *  Loop through all the class names, instantiate an instance, and call the initialization method on them.
+			 *  Loop through all the class names, and get an initialized instance of each.  Thread safe generators
+			 *   are constructed once for the process and shared by all extractors.  Others are constructed for
+			 *   every extractor.
 			 */
 			for (int i = 0; i < mMetadataGeneratorClasses.size(); i++) {
-				String currentClass = mMetadataGeneratorClasses.get(i);
+				final String currentClass = mMetadataGeneratorClasses.get(i);
 				
 				try {
-					logger.info("Initializing metadata generator class: {}", currentClass);
-					
-					@SuppressWarnings("unchecked")
-					Class<BaseMetadataGenerator> theClass = (Class<BaseMetadataGenerator>) Class.forName(currentClass);
-
-					BaseMetadataGenerator thisInstance = (BaseMetadataGenerator)theClass.newInstance();
+					final BaseMetadataGenerator[] created = new BaseMetadataGenerator[1];
+					BaseMetadataGenerator thisInstance = ComponentRegistry.get(MetadataExtractor.class.getName() + ":" + currentClass,
+							BaseMetadataGenerator.class, new ComponentRegistry.Factory<BaseMetadataGenerator>() {
+								public BaseMetadataGenerator create() throws Exception {
+									created[0] = newGenerator(currentClass);
+									return created[0];
+								}
+							});
 
-					thisInstance.initialize(); 
+					// Only the extractor that constructed an instance that is not thread safe may use it.
+					if ( ! thisInstance.isThreadSafe() && thisInstance != created[0] ) {
+						thisInstance = newGenerator(currentClass);
+					}
 					
 					// Now that we successfully initialized the instance, add it to the list.
 					mMetadataGeneratorInstances.add(thisInstance);
@@ -83,12 +110,48 @@ public class MetadataExtractor {
 				}
 			}
 			
+			// Which generators to ask for which items, from what they claim.
+			mRoutes = new GeneratorRoutes(mMetadataGeneratorInstances);
+
+			// What the metadata depends on besides the items.
+			StringBuilder signature = new StringBuilder();
+			for (BaseMetadataGenerator oneInstance : mMetadataGeneratorInstances) {
+				signature.append(oneInstance.getConfigurationSignature()).append('\n');
+			}
+			try {
+				mSignature = HCPUtils.toMD5Digest(signature.toString());
+			} catch (Exception e) {
+				mSignature = signature.toString();
+			}
+
 			isInitialized = true;
 		}
 		
 		StaticUtils.TRACE_METHOD_EXIT(logger);
 	}
 	
+	private static BaseMetadataGenerator newGenerator(String inClassName) throws Exception {
+		logger.info("Initializing metadata generator class: {}", inClassName);
+
+		@SuppressWarnings("unchecked")
+		Class<BaseMetadataGenerator> theClass = (Class<BaseMetadataGenerator>) Class.forName(inClassName);
+
+		BaseMetadataGenerator retVal = (BaseMetadataGenerator)theClass.newInstance();
+
+		retVal.initialize();
+
+		return retVal;
+	}
+
+	private BaseMetadataGenerator findGenerator(String inClassName) {
+		for (BaseMetadataGenerator oneInstance : mMetadataGeneratorInstances) {
+			if (oneInstance.getClass().getName().equals(inClassName)) {
+				return oneInstance;
+			}
+		}
+		return null;
+	}
+
     public LinkedList<ObjectContainer> getMetadataList(BaseWorkItem inItem) {
 		StaticUtils.TRACE_METHOD_ENTER(logger);
 
@@ -99,19 +162,41 @@ public class MetadataExtractor {
 		// Call initialize just in case this is the first time being called.
 		initialize();
 
+		// Generated before for the item as it is now?
+		boolean bCacheable = (null != mCache && MetadataCache.canCache(inItem));
+		if (bCacheable) {
+			// The cache keeps no credentials, so the generator that made the metadata puts them back.
+			MetadataCache.Entry cached = mCache.lookup(inItem, mSignature);
+			BaseMetadataGenerator cachedGenerator = (null == cached ? null : findGenerator(cached.getGenerator()));
+			if (null != cachedGenerator && cachedGenerator.isCacheable() && cachedGenerator.restoreCredentials(cached.getMetadata())) {
+				retVal = cached.getMetadata();
+				logger.debug("Metadata taken from metadata cache for: {}", inItem.getName());
+				inItem.getStatus().setMetadataCacheStatus(CacheStatus.CACHE_HIT);
+
+				StaticUtils.TRACE_METHOD_EXIT(logger);
+				return retVal;
+			}
+
+			inItem.getStatus().setMetadataCacheStatus(CacheStatus.CACHE_MISS);
+		}
+
 		BaseMetadataGenerator metadataGeneratorInstance = null;
 		
 		/**
-		 * Now we are going to call each configured class in order until one of them 
+		 * Now we are going to call each configured class that claims the item in order until one of them 
 		 *   returns back some metadata or the end of the list has been reached.
 		 */
-		for (int i = 0; i < mMetadataGeneratorInstances.size(); i++) {
-			metadataGeneratorInstance = mMetadataGeneratorInstances.get(i);
+		int generatorCalls = 0;
+		for (GeneratorRoutes.Route oneRoute : mRoutes.candidates(inItem)) {
+			if ( ! oneRoute.claims(inItem) ) continue;
+
+			metadataGeneratorInstance = oneRoute.mGenerator;
 			
 			String currentClass = metadataGeneratorInstance.getClass().getName();
 			
 			logger.debug("Calling class for system metadata: {}", currentClass);
 			
+			generatorCalls++;
 			retVal = metadataGeneratorInstance.getMetadataList(inItem);
 			
 			// If we managed to get back some metadata, then break out of the loop and return it.
@@ -124,12 +209,16 @@ public class MetadataExtractor {
 			logger.debug("Metadata not returned by class: {}", currentClass);
 		}
 
+		inItem.getStatus().setGeneratorRouting(generatorCalls, null != retVal && ! retVal.isEmpty());
 		
 		if (null == retVal || retVal.isEmpty()) {
 			logger.warn("No Custom Metadata Generated for: {}", inItem.getName());
 			
 			metadataGeneratorInstance = null;
 		}
+		else if (bCacheable && metadataGeneratorInstance.isCacheable()) {
+			mCache.store(inItem, mSignature, metadataGeneratorInstance.getClass().getName(), retVal);
+		}
 			
 		StaticUtils.TRACE_METHOD_EXIT(logger);
 		
@@ -0,0 +1,297 @@
+package com.hds.hcp.tools.comet;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded WorkItemQueue on a ring buffer, without locks while there is room and there are items.
+ *
+ * Every slot has a sequence number that says whether it is free for the producer of a position
+ * or holds the item for the consumer of that position.  Producers and consumers claim positions
+ * with a compare-and-set on the tail or head, so they only compete with their own kind.
+ * offerAll() and drainTo() claim a whole run of slots with one compare-and-set.
+ *
+ * A thread blocks only when the queue is full or empty.  It then waits on a condition that the
+ * other side signals, and only takes the lock to signal when someone is waiting.
+ *
+ * The capacity is rounded up to a power of 2, and is at least 2: with a single slot, the sequence
+ * that marks it filled for one position would also mark it free for the next.
+ */
+public class RingBufferWorkItemQueue implements WorkItemQueue {
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	// Longest wait before looking at the queue again, should a signal ever be missed.
+	private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	public RingBufferWorkItemQueue(int inCapacity) {
+		int capacity = 2;
+		while (capacity < Math.min(Math.max(inCapacity, 1), MAX_CAPACITY)) {
+			capacity <<= 1;
+		}
+
+		mCapacity = capacity;
+		mMask = capacity - 1;
+		mSlots = new AtomicReferenceArray<BaseWorkItem>(capacity);
+		mSequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			mSequences.set(i, i);
+		}
+	}
+
+	private final int mCapacity;
+	private final int mMask;
+	private final AtomicReferenceArray<BaseWorkItem> mSlots;
+	private final AtomicLongArray mSequences;
+	private final AtomicLong mHead = new AtomicLong(0);
+	private final AtomicLong mTail = new AtomicLong(0);
+
+	private final ReentrantLock mWaitLock = new ReentrantLock();
+	private final Condition mNotEmpty = mWaitLock.newCondition();
+	private final Condition mNotFull = mWaitLock.newCondition();
+	private final AtomicInteger mWaitingConsumers = new AtomicInteger(0);
+	private final AtomicInteger mWaitingProducers = new AtomicInteger(0);
+
+	private int index(long inPosition) { return (int)inPosition & mMask; }
+
+	/**
+	 * Add inItem if there is room, without waiting.
+	 */
+	public boolean offer(BaseWorkItem inItem) {
+		if (null == inItem) throw new NullPointerException();
+
+		while (true) {
+			long position = mTail.get();
+			long difference = mSequences.get(index(position)) - position;
+
+			if (0 == difference) {
+				if (mTail.compareAndSet(position, position + 1)) {
+					publish(position, inItem);
+					signal(mNotEmpty, mWaitingConsumers, 1);
+					return true;
+				}
+			} else if (difference < 0) {
+				return false;  // Full.
+			}
+			// Otherwise another producer took the position.  Try the next one.
+		}
+	}
+
+	public void put(BaseWorkItem inItem) throws InterruptedException {
+		while ( ! offer(inItem) ) {
+			awaitNotFull(MAX_WAIT_NANOS);
+		}
+	}
+
+	public boolean offer(BaseWorkItem inItem, long inTimeout, TimeUnit inUnit) throws InterruptedException {
+		long deadline = System.nanoTime() + inUnit.toNanos(inTimeout);
+
+		while ( ! offer(inItem) ) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) return false;
+
+			awaitNotFull(remaining);
+		}
+
+		return true;
+	}
+
+	public int offerAll(List<BaseWorkItem> inItems, long inTimeout, TimeUnit inUnit) throws InterruptedException {
+		long deadline = System.nanoTime() + inUnit.toNanos(inTimeout);
+
+		int retVal = 0;
+		while (retVal < inItems.size()) {
+			int count = offerRun(inItems, retVal);
+			if (0 < count) {
+				retVal += count;
+				continue;
+			}
+
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) break;
+
+			awaitNotFull(remaining);
+		}
+
+		return retVal;
+	}
+
+	/*
+	 * Claim as many slots as are free for the items of inItems starting at inStart, and fill them.
+	 */
+	private int offerRun(List<BaseWorkItem> inItems, int inStart) {
+		int wanted = inItems.size() - inStart;
+
+		while (true) {
+			long position = mTail.get();
+
+			// The head is read after the tail, so this never counts more room than there is.
+			int count = (int)Math.min(wanted, mCapacity - (position - mHead.get()));
+			if (count <= 0) return 0;
+
+			if (mTail.compareAndSet(position, position + count)) {
+				ListIterator<BaseWorkItem> iter = inItems.listIterator(inStart);
+				for (int i = 0; i < count; i++) {
+					// A consumer may have claimed the slot but not yet taken the item out.
+					while (mSequences.get(index(position + i)) != position + i) {
+						Thread.yield();
+					}
+
+					BaseWorkItem item = iter.next();
+					if (null == item) throw new NullPointerException();
+
+					publish(position + i, item);
+				}
+
+				signal(mNotEmpty, mWaitingConsumers, count);
+				return count;
+			}
+		}
+	}
+
+	private void publish(long inPosition, BaseWorkItem inItem) {
+		int index = index(inPosition);
+
+		mSlots.set(index, inItem);
+		mSequences.set(index, inPosition + 1);
+	}
+
+	public BaseWorkItem poll() {
+		while (true) {
+			long position = mHead.get();
+			int index = index(position);
+			long difference = mSequences.get(index) - (position + 1);
+
+			if (0 == difference) {
+				if (mHead.compareAndSet(position, position + 1)) {
+					BaseWorkItem retVal = mSlots.get(index);
+					mSlots.lazySet(index, null);
+					mSequences.set(index, position + mCapacity);
+
+					signal(mNotFull, mWaitingProducers, 1);
+					return retVal;
+				}
+			} else if (difference < 0) {
+				return null;  // Empty, or the next item is still being filled in.
+			}
+			// Otherwise another consumer took the position.  Try the next one.
+		}
+	}
+
+	public BaseWorkItem take() throws InterruptedException {
+		BaseWorkItem retVal;
+		while (null == (retVal = poll())) {
+			awaitNotEmpty();
+		}
+
+		return retVal;
+	}
+
+	/*
+	 * Claims the run of filled slots at the head, up to inMaxItems, with one compare-and-set and
+	 * then takes the items out.
+	 */
+	public int drainTo(Collection<BaseWorkItem> outItems, int inMaxItems) {
+		while (true) {
+			long position = mHead.get();
+
+			int count = 0;
+			while (count < inMaxItems && mSequences.get(index(position + count)) == position + count + 1) {
+				count++;
+			}
+			if (0 == count) return 0;  // Empty, or the next item is still being filled in.
+
+			if (mHead.compareAndSet(position, position + count)) {
+				for (int i = 0; i < count; i++) {
+					int index = index(position + i);
+
+					outItems.add(mSlots.get(index));
+					mSlots.lazySet(index, null);
+					mSequences.set(index, position + i + mCapacity);
+				}
+
+				signal(mNotFull, mWaitingProducers, count);
+				return count;
+			}
+			// Otherwise another consumer took some of them.  Look again.
+		}
+	}
+
+	public int size() {
+		long size = mTail.get() - mHead.get();
+
+		return (int)Math.max(0, Math.min(size, mCapacity));
+	}
+
+	private boolean isFull() {
+		long position = mTail.get();
+		return mSequences.get(index(position)) < position;
+	}
+
+	private boolean isEmpty() {
+		long position = mHead.get();
+		return mSequences.get(index(position)) < position + 1;
+	}
+
+	/*
+	 * The waiting count goes up before the queue is looked at again under the lock, and the other
+	 * side changes the queue before it reads the waiting count.  So either the waiting thread sees
+	 * the change, or it gets signalled.
+	 */
+	private void awaitNotFull(long inMaxNanos) throws InterruptedException {
+		mWaitingProducers.incrementAndGet();
+		try {
+			mWaitLock.lockInterruptibly();
+			try {
+				if (isFull()) {
+					mNotFull.awaitNanos(Math.min(inMaxNanos, MAX_WAIT_NANOS));
+				}
+			} finally {
+				mWaitLock.unlock();
+			}
+		} finally {
+			mWaitingProducers.decrementAndGet();
+		}
+	}
+
+	private void awaitNotEmpty() throws InterruptedException {
+		mWaitingConsumers.incrementAndGet();
+		try {
+			mWaitLock.lockInterruptibly();
+			try {
+				if (isEmpty()) {
+					mNotEmpty.awaitNanos(MAX_WAIT_NANOS);
+				}
+			} finally {
+				mWaitLock.unlock();
+			}
+		} finally {
+			mWaitingConsumers.decrementAndGet();
+		}
+	}
+
+	private void signal(Condition inCondition, AtomicInteger inWaiting, int inCount) {
+		int waiting = inWaiting.get();
+		if (0 == waiting) return;
+
+		mWaitLock.lock();
+		try {
+			if (inCount >= waiting) {
+				inCondition.signalAll();
+			} else {
+				for (int i = 0; i < inCount; i++) {
+					inCondition.signal();
+				}
+			}
+		} finally {
+			mWaitLock.unlock();
+		}
+	}
+}
@@ -1,8 +1,11 @@
 package com.hds.hcp.tools.comet;
 
+import java.util.List;
+
 public interface ThreadPoolQueueInterface {
 	public void itemAdd(BaseWorkItem inItem) throws InterruptedException;
 	public boolean itemAdd(BaseWorkItem inItem, long inTimeout) throws InterruptedException;
+	public int itemAddAll(List<BaseWorkItem> inItems, long inTimeout) throws InterruptedException;
 	
 	public BaseWorkItem itemTake() throws InterruptedException;
 }
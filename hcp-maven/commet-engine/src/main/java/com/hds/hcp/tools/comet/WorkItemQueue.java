@@ -0,0 +1,32 @@
+package com.hds.hcp.tools.comet;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded queue that hands work items from one thread pool to another.
+ *
+ * The queue of the processor thread pool is one of these, selected with
+ * execution.processor.queueType.
+ */
+public interface WorkItemQueue {
+	public void put(BaseWorkItem inItem) throws InterruptedException;
+	public boolean offer(BaseWorkItem inItem, long inTimeout, TimeUnit inUnit) throws InterruptedException;
+
+	/**
+	 * Add the items of inItems from the front, waiting up to inTimeout for room.  Returns how many
+	 * were added.
+	 */
+	public int offerAll(List<BaseWorkItem> inItems, long inTimeout, TimeUnit inUnit) throws InterruptedException;
+
+	public BaseWorkItem take() throws InterruptedException;
+	public BaseWorkItem poll();
+
+	/**
+	 * Move up to inMaxItems items to outItems without waiting.  Returns how many were moved.
+	 */
+	public int drainTo(Collection<BaseWorkItem> outItems, int inMaxItems);
+
+	public int size();
+}
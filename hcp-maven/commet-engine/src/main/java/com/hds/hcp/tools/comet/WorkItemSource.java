@@ -0,0 +1,44 @@
+package com.hds.hcp.tools.comet;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The source.items element work items were scanned from, with its share of the processors as
+ * configured by source.itemWeights and source.itemPriorities.  Shared by all items of the element.
+ *
+ * The FairWorkItemQueue keeps the queue depth and dispatch count up to date, for the statistics.
+ */
+public class WorkItemSource {
+	public WorkItemSource(String inName, int inWeight, int inPriority) {
+		mName = inName;
+		mWeight = Math.max(inWeight, 1);
+		mPriority = inPriority;
+	}
+
+	private final String mName;
+	private final int mWeight;
+	private final int mPriority;
+
+	private volatile boolean bScheduled = false;
+	private volatile int mQueueDepth = 0;
+	private AtomicLong mDispatched = new AtomicLong(0);
+
+	public String getName() { return mName; }
+	public int getWeight() { return mWeight; }
+	public int getPriority() { return mPriority; }
+
+	/**
+	 * Whether items of this source went through a FairWorkItemQueue.  Only then are the counts kept.
+	 */
+	public boolean isScheduled() { return bScheduled; }
+
+	public int getQueueDepth() { return mQueueDepth; }
+	public long getDispatched() { return mDispatched.get(); }
+
+	void setQueueDepth(int inDepth) {
+		bScheduled = true;
+		mQueueDepth = inDepth;
+	}
+
+	void itemDispatched() { mDispatched.incrementAndGet(); }
+}
@@ -12,6 +12,15 @@ public class WorkItemStatus {
 		WRITE_FAILURE
 	}
 
+	/*
+	 * Whether the metadata of the item came from the metadata cache.
+	 */
+	public enum CacheStatus {
+		NOT_CACHED,
+		CACHE_HIT,
+		CACHE_MISS
+	}
+
 	private WriteStatus eObjectStatus = WriteStatus.WRITE_NOT_ATTEMPTED;
 	private WriteStatus eCustomMetadataStatus = WriteStatus.WRITE_NOT_ATTEMPTED;
 	
@@ -25,4 +34,53 @@ public class WorkItemStatus {
 
 	public void setCustomMetadataStatus(WriteStatus inStatus) { eCustomMetadataStatus = inStatus; };
 	public WriteStatus getCustomMetadataStatus() { return eCustomMetadataStatus; }
+
+	/*
+	 * Progress of a multipart upload of the object.  No parts means it was not uploaded in parts.
+	 */
+	private int iPartCount = 0;
+	private int iPartsWritten = 0;
+	private int iPartRetries = 0;
+
+	public void setPartStatus(int inPartCount, int inPartsWritten, int inPartRetries) {
+		iPartCount = inPartCount;
+		iPartsWritten = inPartsWritten;
+		iPartRetries = inPartRetries;
+	}
+	public void setPartStatus(WorkItemStatus inStatus) {
+		setPartStatus(inStatus.getPartCount(), inStatus.getPartsWritten(), inStatus.getPartRetries());
+	}
+	public int getPartCount() { return iPartCount; }
+	public int getPartsWritten() { return iPartsWritten; }
+	public int getPartRetries() { return iPartRetries; }
+
+	/*
+	 * Number of times the item has been sent back for another try after a transient failure.
+	 */
+	private int iRetryCount = 0;
+
+	public void setRetryCount(int inCount) { iRetryCount = inCount; }
+	public int getRetryCount() { return iRetryCount; }
+
+	/*
+	 * Where the metadata for the item came from, for the statistics.
+	 */
+	private CacheStatus eMetadataCacheStatus = CacheStatus.NOT_CACHED;
+
+	public void setMetadataCacheStatus(CacheStatus inStatus) { eMetadataCacheStatus = inStatus; }
+	public CacheStatus getMetadataCacheStatus() { return eMetadataCacheStatus; }
+
+	/*
+	 * How many metadata generators were asked for the metadata, and whether one made it.  -1 if
+	 * the metadata was not generated, like when it came from the metadata cache.
+	 */
+	private int iGeneratorCalls = -1;
+	private boolean bMetadataGenerated = false;
+
+	public void setGeneratorRouting(int inCalls, boolean inGenerated) {
+		iGeneratorCalls = inCalls;
+		bMetadataGenerated = inGenerated;
+	}
+	public int getGeneratorCalls() { return iGeneratorCalls; }
+	public boolean isMetadataGenerated() { return bMetadataGenerated; }
 }
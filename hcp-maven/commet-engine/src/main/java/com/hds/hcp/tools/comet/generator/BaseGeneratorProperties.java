@@ -21,7 +21,9 @@ package com.hds.hcp.tools.comet.generator;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -29,6 +31,7 @@ import org.apache.logging.log4j.Logger;
 import com.hds.hcp.apihelpers.HCPUtils;
 import com.hds.hcp.tools.comet.generator.BaseGeneratorProperties;
 import com.hds.hcp.tools.comet.generator.CustomMetadataContainer;
+import com.hds.hcp.tools.comet.utils.ComponentRegistry;
 import com.hds.hcp.tools.comet.utils.StaticUtils;
 
 public class BaseGeneratorProperties {
@@ -43,6 +46,23 @@ public class BaseGeneratorProperties {
 
 	private String sEncodedUserName = null;
 	private String sEncodedPassword = null;
+
+	/*
+	 * What was read from one properties file.  Shared through the ComponentRegistry by all the
+	 *   property sets of the process reading the file, so it is read and the credentials encoded
+	 *   once, until the file changes.  The properties are never modified once read.
+	 */
+	private static class Loaded {
+		long mModified;
+		long mLength;
+		Properties mProps;
+		String mEncodedUserName;
+		String mEncodedPassword;
+
+		boolean isCurrent(File inFile) {
+			return mModified == inFile.lastModified() && mLength == inFile.length();
+		}
+	}
 	
 	public BaseGeneratorProperties() {
 		String propFile = System.getProperty(DEFAULT_FILENAME_PROPERTY);
@@ -86,33 +106,65 @@ public class BaseGeneratorProperties {
 			return;
 		}
 
-		mProps = new Properties();
+		String key = BaseGeneratorProperties.class.getName() + ":" + mPropertiesFile.getAbsolutePath();
+		ComponentRegistry.Factory<Loaded> factory = new ComponentRegistry.Factory<Loaded>() {
+			public Loaded create() throws IOException {
+				return load();
+			}
+		};
 
 		try {
-			mProps.load(new FileInputStream(mPropertiesFile));
-			
-			// Compute the encoded user/pwd values at initialization/refresh time
-			//  for efficiency reasons. (if the top level is provided)
-			if (isDestinationPasswordEncoded()) {
-				sEncodedPassword = getDestinationPassword();
-			} else {
-				try {
-					sEncodedPassword = HCPUtils.toMD5Digest(getDestinationPassword());
-				} catch (Exception e) {
-					logger.warn("WARNING: Failed to encode destination password.  Will be followed by failure to authenticate.");
-					sEncodedPassword = "";
-				}
+			Loaded loaded = ComponentRegistry.get(key, Loaded.class, factory);
+			if ( ! loaded.isCurrent(mPropertiesFile) ) {
+				// Changed since it was read.
+				ComponentRegistry.remove(key);
+				loaded = ComponentRegistry.get(key, Loaded.class, factory);
 			}
 
-			sEncodedUserName = HCPUtils.toBase64Encoding(getDestinationUserName());
-			
-		} catch (IOException e) {
+			mProps = loaded.mProps;
+			sEncodedUserName = loaded.mEncodedUserName;
+			sEncodedPassword = loaded.mEncodedPassword;
+		} catch (Exception e) {
 			logger.fatal("Failed to read properties file ({}). Reason: \"{}\"", mPropertiesFile.getPath(), e.getMessage());
+
+			mProps = new Properties();
 		}
 
 		StaticUtils.TRACE_METHOD_EXIT(logger);
 	}
 	
+	private Loaded load() throws IOException {
+		Loaded retVal = new Loaded();
+		retVal.mModified = mPropertiesFile.lastModified();
+		retVal.mLength = mPropertiesFile.length();
+		retVal.mProps = new Properties();
+
+		FileInputStream propsStream = new FileInputStream(mPropertiesFile);
+		try {
+			retVal.mProps.load(propsStream);
+		} finally {
+			propsStream.close();
+		}
+
+		// Compute the encoded user/pwd values at initialization/refresh time
+		//  for efficiency reasons. (if the top level is provided)  The getters read mProps.
+		mProps = retVal.mProps;
+		if (isDestinationPasswordEncoded()) {
+			retVal.mEncodedPassword = getDestinationPassword();
+		} else {
+			try {
+				retVal.mEncodedPassword = HCPUtils.toMD5Digest(getDestinationPassword());
+			} catch (Exception e) {
+				logger.warn("WARNING: Failed to encode destination password.  Will be followed by failure to authenticate.");
+				retVal.mEncodedPassword = "";
+			}
+		}
+
+		retVal.mEncodedUserName = HCPUtils.toBase64Encoding(getDestinationUserName());
+
+		return retVal;
+	}
+
 	/***
 	 * 
 	 * DESTINATION PROPERTIES
@@ -161,4 +213,40 @@ public class BaseGeneratorProperties {
 	public Boolean shouldUpdateSystemMetadata() {
 		return new Boolean(mProps.getProperty("destination.updateSystemMetadata", "false"));
 	}
+
+	/**
+	 * The custom metadata template in the file metadata.templateFile, or the one in inDefaultText
+	 *   if none is configured.
+	 */
+	public MetadataTemplate getMetadataTemplate(String inDefaultText) {
+		String fileName = mProps.getProperty("metadata.templateFile", "").trim();
+		if (fileName.isEmpty()) {
+			return MetadataTemplate.compile(inDefaultText);
+		}
+
+		File templateFile = new File(StaticUtils.resolveEnvVars(fileName));
+		try {
+			return MetadataTemplate.load(templateFile);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Failed to read metadata template file (" + templateFile.getPath() + ")", e);
+		}
+	}
+
+	/**
+	 * Digest of all the properties, which changes when any of them does.
+	 */
+	public String getSignature() {
+		if (null == mProps) return "";
+
+		StringBuilder allProps = new StringBuilder();
+		for (Map.Entry<Object, Object> oneProp : new TreeMap<Object, Object>(mProps).entrySet()) {
+			allProps.append(oneProp.getKey()).append('=').append(oneProp.getValue()).append('\n');
+		}
+
+		try {
+			return HCPUtils.toMD5Digest(allProps.toString());
+		} catch (Exception e) {
+			return allProps.toString();
+		}
+	}
 }
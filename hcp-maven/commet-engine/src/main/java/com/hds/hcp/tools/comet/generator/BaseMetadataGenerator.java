@@ -22,6 +22,7 @@ import java.text.SimpleDateFormat;
 import java.util.LinkedList;
 
 import com.hds.hcp.tools.comet.BaseWorkItem;
+import com.hds.hcp.tools.comet.utils.ThreadLocalDateFormat;
 
 
 // This class is the base class for all customized modules for extracting metadata from the file passed in.
@@ -43,6 +44,9 @@ import com.hds.hcp.tools.comet.BaseWorkItem;
 //     module does not return any System Metadata, it will then call getCustomMetadata for each configured
 //     module in the order configured. Once one module returns Custom Metadata, COMET stops calling
 //     getCustomMetadata for any remaining modules.
+//
+//  A module whose isThreadSafe() returns true is constructed and initialized once per process and
+//     shared by all the processor threads.  Otherwise every processor thread has its own instance.
 
 public abstract class BaseMetadataGenerator {
 	
@@ -50,7 +54,43 @@ public abstract class BaseMetadataGenerator {
 	//   on HCP and requires the correct format.
 	protected SimpleDateFormat mHCPRetentionDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
 
+	// The same format for modules whose isThreadSafe() returns true, as a SimpleDateFormat must not be
+	//   used by several threads at once.
+	protected ThreadLocalDateFormat mSharedHCPRetentionDateFormat = new ThreadLocalDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+
 	public abstract void initialize() throws Exception;
 
 	public abstract LinkedList<ObjectContainer> getMetadataList(BaseWorkItem inItem);
+
+	// The items this module can generate metadata for.  It must return null for any other item, as
+	//   COMET does not ask it about those.  Null means it may take any item, so it is always asked.
+	public GeneratorClaim getClaim() {
+		return null;
+	}
+
+	// Whether getMetadataList can be called by several threads at once, so one instance can be shared
+	//   by all.  Per call state must then be kept in local variables or ThreadLocal, like the
+	//   threadValues() of a MetadataTemplate and ThreadLocalDateFormat.
+	public boolean isThreadSafe() {
+		return false;
+	}
+
+	// What the metadata depends on besides the item itself, such as the configuration of the module.  The
+	//   metadata cache does not use what was generated with a different signature.
+	public String getConfigurationSignature() {
+		return getClass().getName();
+	}
+
+	// Whether the metadata cache may keep what this module generates.  Only when the metadata depends on
+	//   nothing but the item and getConfigurationSignature(), so not when it holds the time it was
+	//   generated or is read from other files.
+	public boolean isCacheable() {
+		return false;
+	}
+
+	// Put the credentials back into metadata this module generated earlier.  The metadata cache keeps it
+	//   without them, and generates the metadata again if this returns false.
+	public boolean restoreCredentials(LinkedList<ObjectContainer> inMetadata) {
+		return false;
+	}
 }
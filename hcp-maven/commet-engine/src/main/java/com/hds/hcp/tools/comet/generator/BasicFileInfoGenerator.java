@@ -19,21 +19,20 @@
 package com.hds.hcp.tools.comet.generator;
 
 import java.io.File;
-import java.io.ByteArrayOutputStream;
-import java.io.OutputStream;
+import java.io.IOException;
 import java.net.URISyntaxException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
 import java.util.LinkedList;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamWriter;
-
 import com.hds.hcp.tools.comet.BaseWorkItem;
+import com.hds.hcp.tools.comet.FileSystemItem;
+import com.hds.hcp.tools.comet.utils.FileNameRules;
 import com.hds.hcp.tools.comet.utils.StaticUtils;
+import com.hds.hcp.tools.comet.utils.ThreadLocalDateFormat;
 import com.hds.hcp.tools.comet.utils.URIWrapper;
 
 public class BasicFileInfoGenerator extends BaseMetadataGenerator {
@@ -42,6 +41,16 @@ public class BasicFileInfoGenerator extends BaseMetadataGenerator {
 	
 	private static Logger logger = LogManager.getLogger();
 	
+	// The custom metadata, unless metadata.templateFile configures another.
+	static final String DEFAULT_TEMPLATE =
+			  "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<SourceFileInfo>\n"
+			+ "    <Path>${Path}</Path>\n"
+			+ "    <Size>${Size}</Size>\n"
+			+ "    <ModificationDate EpochTime=\"${EpochTime}\" ISO8601Time=\"Put-ISO-Time-Here\"/>\n"
+			+ "    <MetaDataWriteTime>${MetaDataWriteTime}</MetaDataWriteTime>\n"
+			+ "    <ShreddingCandidate>${ShreddingCandidate}</ShreddingCandidate></SourceFileInfo>\n";
+
 	/*
 	 * Construct a private properties class to construct module specific information.
 	 */
@@ -62,6 +71,17 @@ public class BasicFileInfoGenerator extends BaseMetadataGenerator {
 		public String getRetentionFilePattern() {
 			return StaticUtils.convertFilePatternToRegExpr(mProps.getProperty("metadata.retentionFilePattern", ""));
 		}
+
+		/*
+		 * The shred and retention patterns compiled together, so a file name is only matched once.
+		 */
+		public FileNameRules getFileNameRules() {
+			FileNameRules retVal = new FileNameRules();
+			retVal.addAll(FileNameRules.SHRED, Collections.singletonList(getShredFilePattern()), "metadata.shredFilePattern");
+			retVal.addAll(FileNameRules.RETENTION, Collections.singletonList(getRetentionFilePattern()), "metadata.retentionFilePattern");
+
+			return retVal;
+		}
 		
 		public String getRetentionValue() {
 			return mProps.getProperty("metadata.retentionValue", "");
@@ -69,8 +89,38 @@ public class BasicFileInfoGenerator extends BaseMetadataGenerator {
 	}
 	
 	BasicFileInfoProperties mProps = new BasicFileInfoProperties();
+	FileNameRules mNameRules = mProps.getFileNameRules();
+
+	MetadataTemplate mTemplate;
+	ThreadLocalDateFormat mWriteTimeFormat;
+
+	public void initialize() {
+		mTemplate = mProps.getMetadataTemplate(DEFAULT_TEMPLATE);
+		mWriteTimeFormat = new ThreadLocalDateFormat(mProps.getDateFormat());
+	}
+
+	// All per file state is in local variables, and the date format is per thread.
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	// The metadata holds the time it was written (MetaDataWriteTime).
+	@Override
+	public boolean isCacheable() {
+		return false;
+	}
 
-	public void initialize() { return; }
+	@Override
+	public String getConfigurationSignature() {
+		return super.getConfigurationSignature() + ":" + mProps.getSignature() + ":" + mTemplate.getSignature();
+	}
+
+	// Takes any file.
+	@Override
+	public GeneratorClaim getClaim() {
+		return new GeneratorClaim((String)null);
+	}
 	
 	public LinkedList<ObjectContainer> getMetadataList(BaseWorkItem inItem) {
 		StaticUtils.TRACE_METHOD_ENTER(logger);
@@ -96,6 +146,16 @@ public class BasicFileInfoGenerator extends BaseMetadataGenerator {
 		File inSrcFile = (File)(inItem.getHandle());
 		File inBaseFolder = (File)(inItem.getBaseSpecification());
 		
+		// Use the size and modification time the scanner already read, if it did.
+		long srcFileSize, srcFileModified;
+		if (inItem instanceof FileSystemItem) {
+			srcFileSize = ((FileSystemItem)inItem).getSize();
+			srcFileModified = ((FileSystemItem)inItem).getLastModified();
+		} else {
+			srcFileSize = inSrcFile.length();
+			srcFileModified = inSrcFile.lastModified();
+		}
+		
 		
 		//
 		// First formulate the destination object path based on source file path, base folder path,
@@ -148,11 +208,13 @@ public class BasicFileInfoGenerator extends BaseMetadataGenerator {
 		// Need the credentials from properties file.
 		sysMeta.setCredentials(mProps.getEncodedDestinationUserName(),  mProps.getEncodedDestinationPassword());
 		
-		if (inSrcFile.getName().matches(mProps.getShredFilePattern())) {
+		int nameMatches = mNameRules.match(inSrcFile.getName());
+
+		if (0 != (nameMatches & FileNameRules.SHRED)) {
 			sysMeta.setShredding(Boolean.TRUE);
 		}
 		
-		if (inSrcFile.getName().matches(mProps.getRetentionFilePattern())) {
+		if (0 != (nameMatches & FileNameRules.RETENTION)) {
 			String retentionValue = mProps.getRetentionValue();
 			
 			if ( ! retentionValue.isEmpty()) {
@@ -163,43 +225,22 @@ public class BasicFileInfoGenerator extends BaseMetadataGenerator {
 		/**
 		 * Now construct the custom metadata for this object.
 		 */
-		OutputStream outputStream = new ByteArrayOutputStream();
+		byte[] customMetadata;
 
 		// NOTE:  If this module were conditionally processing files, there should be the same conditional
 		//    in both this method and the getSystemMetadata method.
 
 		try {
-			XMLStreamWriter serializer;
-
-			serializer = XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream, "UTF-8");
-			serializer.writeStartDocument("UTF-8", null);
-			serializer.writeCharacters("\n");
-			serializer.writeStartElement("SourceFileInfo");
-			serializer.writeCharacters("\n    ");
-			serializer.writeStartElement("Path");
-			serializer.writeCharacters(inSrcFile.getCanonicalPath());
-			serializer.writeEndElement();
-			serializer.writeCharacters("\n    ");
-			serializer.writeStartElement("Size");
-			serializer.writeCharacters(String.valueOf(inSrcFile.length()));
-			serializer.writeEndElement();
-			serializer.writeCharacters("\n    ");
-			serializer.writeEmptyElement("ModificationDate");
-			serializer.writeAttribute("EpochTime", String.valueOf(inSrcFile.lastModified()));
-			serializer.writeAttribute("ISO8601Time", "Put-ISO-Time-Here");
-			serializer.writeCharacters("\n    ");
-			serializer.writeStartElement("MetaDataWriteTime");
-			serializer.writeCharacters(new SimpleDateFormat(mProps.getDateFormat()).format(Calendar.getInstance().getTime()));
-			serializer.writeEndElement();
-			serializer.writeCharacters("\n    ");
-			serializer.writeStartElement("ShreddingCandidate");
-			serializer.writeCharacters((inSrcFile.getName().matches(mProps.getShredFilePattern()) ? Boolean.TRUE : Boolean.FALSE).toString());
-			serializer.writeEndElement();
-			serializer.writeEndElement(); // SourceFileInfo
-			serializer.writeCharacters("\n");
-			serializer.writeEndDocument();
-		}
-		catch (Exception e)
+			MetadataTemplate.Values values = mTemplate.threadValues();
+			values.set("Path", mTemplate.hasSlot("Path") ? inSrcFile.getCanonicalPath() : null);
+			values.set("Size", srcFileSize);
+			values.set("EpochTime", srcFileModified);
+			values.set("MetaDataWriteTime", mWriteTimeFormat.format(new Date()));
+			values.set("ShreddingCandidate", 0 != (nameMatches & FileNameRules.SHRED));
+
+			customMetadata = mTemplate.render(values);
+		}
+		catch (IOException e)
 		{
 			logger.fatal("Failed to formulate XML in BasicFileInfoGenerator.", e);
 			
@@ -208,7 +249,7 @@ public class BasicFileInfoGenerator extends BaseMetadataGenerator {
 		}
 
 		// Put the custom metadata into the default annotation on the object.
-		retObject.getCustomMetadata().put(outputStream.toString());
+		retObject.getCustomMetadata().put(customMetadata);
 		
 		// Put the base object into the linked list to be returned.
 		retval.add(retObject);
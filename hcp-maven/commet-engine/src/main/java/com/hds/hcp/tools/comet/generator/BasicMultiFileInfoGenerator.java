@@ -19,19 +19,15 @@
 package com.hds.hcp.tools.comet.generator;
 
 import java.io.File;
-import java.io.ByteArrayOutputStream;
-import java.io.OutputStream;
+import java.io.IOException;
 import java.net.URISyntaxException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
 import java.util.LinkedList;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamWriter;
-
 import com.hds.hcp.apihelpers.HCPUtils;
 import com.hds.hcp.tools.comet.BaseWorkItem;
 import com.hds.hcp.tools.comet.generator.BaseGeneratorProperties;
@@ -39,7 +35,9 @@ import com.hds.hcp.tools.comet.generator.BaseMetadataGenerator;
 import com.hds.hcp.tools.comet.generator.BasicMultiFileInfoGenerator;
 import com.hds.hcp.tools.comet.generator.ObjectContainer;
 import com.hds.hcp.tools.comet.generator.SystemMetadataContainer;
+import com.hds.hcp.tools.comet.utils.FileNameRules;
 import com.hds.hcp.tools.comet.utils.StaticUtils;
+import com.hds.hcp.tools.comet.utils.ThreadLocalDateFormat;
 import com.hds.hcp.tools.comet.utils.URIWrapper;
 
 public class BasicMultiFileInfoGenerator extends BaseMetadataGenerator {
@@ -48,6 +46,18 @@ public class BasicMultiFileInfoGenerator extends BaseMetadataGenerator {
 	
 	private static Logger logger = LogManager.getLogger();
 	
+	// The custom metadata, unless metadata.templateFile configures another.  Only the first object
+	//   gets ShreddingCandidate.
+	static final String DEFAULT_TEMPLATE =
+			  "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<SourceFileInfo>\n"
+			+ "    <Path>${Path}</Path>\n"
+			+ "    <Size>${Size}</Size>\n"
+			+ "    <ModificationDate EpochTime=\"${EpochTime}\" ISO8601Time=\"Put-ISO-Time-Here\"/>\n"
+			+ "    <MetaDataWriteTime>${MetaDataWriteTime}</MetaDataWriteTime>${?ShreddingCandidate}\n"
+			+ "    <ShreddingCandidate>${ShreddingCandidate}</ShreddingCandidate>${/ShreddingCandidate}\n"
+			+ "    <Owner>${Owner}</Owner></SourceFileInfo>\n";
+
 	/*
 	 * Construct a private properties class to construct module specific information.
 	 */
@@ -68,6 +78,17 @@ public class BasicMultiFileInfoGenerator extends BaseMetadataGenerator {
 		public String getRetentionFilePattern() {
 			return StaticUtils.convertFilePatternToRegExpr(mProps.getProperty("metadata.retentionFilePattern", ""));
 		}
+
+		/*
+		 * The shred and retention patterns compiled together, so a file name is only matched once.
+		 */
+		public FileNameRules getFileNameRules() {
+			FileNameRules retVal = new FileNameRules();
+			retVal.addAll(FileNameRules.SHRED, Collections.singletonList(getShredFilePattern()), "metadata.shredFilePattern");
+			retVal.addAll(FileNameRules.RETENTION, Collections.singletonList(getRetentionFilePattern()), "metadata.retentionFilePattern");
+
+			return retVal;
+		}
 		
 		public String getRetentionValue() {
 			return mProps.getProperty("metadata.retentionValue", "");
@@ -108,8 +129,38 @@ public class BasicMultiFileInfoGenerator extends BaseMetadataGenerator {
 	}
 	
 	BasicMultiFileInfoProperties mProps = new BasicMultiFileInfoProperties();
+	FileNameRules mNameRules = mProps.getFileNameRules();
+
+	MetadataTemplate mTemplate;
+	ThreadLocalDateFormat mWriteTimeFormat;
+
+	public void initialize() {
+		mTemplate = mProps.getMetadataTemplate(DEFAULT_TEMPLATE);
+		mWriteTimeFormat = new ThreadLocalDateFormat(mProps.getDateFormat());
+	}
 
-	public void initialize() { return; }
+	// All per file state is in local variables, and the date format is per thread.
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	// The metadata holds the time it was written (MetaDataWriteTime).
+	@Override
+	public boolean isCacheable() {
+		return false;
+	}
+
+	@Override
+	public String getConfigurationSignature() {
+		return super.getConfigurationSignature() + ":" + mProps.getSignature() + ":" + mTemplate.getSignature();
+	}
+
+	// Takes any file.
+	@Override
+	public GeneratorClaim getClaim() {
+		return new GeneratorClaim((String)null);
+	}
 	
 	private ObjectContainer constructBaseObject(File inBaseFolder, File inSrcFile, int inObjectID) {
 		StaticUtils.TRACE_METHOD_ENTER(logger);
@@ -162,7 +213,7 @@ public class BasicMultiFileInfoGenerator extends BaseMetadataGenerator {
 		LinkedList<ObjectContainer> retval = new LinkedList<ObjectContainer>();
 		
 		int objectID;
-		OutputStream outputStream;
+		byte[] customMetadata;
 		ObjectContainer retObject;
 		SystemMetadataContainer sysMeta;
 
@@ -206,11 +257,13 @@ public class BasicMultiFileInfoGenerator extends BaseMetadataGenerator {
 		// Need the credentials from properties file.
 		sysMeta.setCredentials(mProps.getDestEncodedUserName(objectID),  mProps.getDestEncodedPassword(objectID));
 		
-		if (inSrcFile.getName().matches(mProps.getShredFilePattern())) {
+		int nameMatches = mNameRules.match(inSrcFile.getName());
+
+		if (0 != (nameMatches & FileNameRules.SHRED)) {
 			sysMeta.setShredding(Boolean.TRUE);
 		}
 		
-		if (inSrcFile.getName().matches(mProps.getRetentionFilePattern())) {
+		if (0 != (nameMatches & FileNameRules.RETENTION)) {
 			String retentionValue = mProps.getRetentionValue();
 			
 			if ( ! retentionValue.isEmpty()) {
@@ -221,56 +274,17 @@ public class BasicMultiFileInfoGenerator extends BaseMetadataGenerator {
 		/**
 		 * Now construct the custom metadata for this object.
 		 */
-		outputStream = new ByteArrayOutputStream();
-
 		// NOTE:  If this module were conditionally processing files, there should be the same conditional
 		//    in both this method and the getSystemMetadata method.
 
-		try {
-			XMLStreamWriter serializer;
-
-			serializer = XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream, "UTF-8");
-			serializer.writeStartDocument("UTF-8", null);
-			serializer.writeCharacters("\n");
-			serializer.writeStartElement("SourceFileInfo");
-			serializer.writeCharacters("\n    ");
-			serializer.writeStartElement("Path");
-			serializer.writeCharacters(inSrcFile.getCanonicalPath());
-			serializer.writeEndElement();
-			serializer.writeCharacters("\n    ");
-			serializer.writeStartElement("Size");
-			serializer.writeCharacters(String.valueOf(inSrcFile.length()));
-			serializer.writeEndElement();
-			serializer.writeCharacters("\n    ");
-			serializer.writeEmptyElement("ModificationDate");
-			serializer.writeAttribute("EpochTime", String.valueOf(inSrcFile.lastModified()));
-			serializer.writeAttribute("ISO8601Time", "Put-ISO-Time-Here");
-			serializer.writeCharacters("\n    ");
-			serializer.writeStartElement("MetaDataWriteTime");
-			serializer.writeCharacters(new SimpleDateFormat(mProps.getDateFormat()).format(Calendar.getInstance().getTime()));
-			serializer.writeEndElement();
-			serializer.writeCharacters("\n    ");
-			serializer.writeStartElement("ShreddingCandidate");
-			serializer.writeCharacters((inSrcFile.getName().matches(mProps.getShredFilePattern()) ? Boolean.TRUE : Boolean.FALSE).toString());
-			serializer.writeEndElement();
-			serializer.writeCharacters("\n    ");
-			serializer.writeStartElement("Owner");
-			serializer.writeCharacters(mProps.getDestUserName(objectID));
-			serializer.writeEndElement();
-			serializer.writeEndElement(); // SourceFileInfo
-			serializer.writeCharacters("\n");
-			serializer.writeEndDocument();
-		}
-		catch (Exception e)
-		{
-			logger.fatal("Failed to formulate XML in BasicFileInfoGenerator.", e);
-			
+		customMetadata = buildCustomMetadata(inSrcFile, objectID, 0 != (nameMatches & FileNameRules.SHRED));
+		if (null == customMetadata) {
 			StaticUtils.TRACE_METHOD_EXIT(logger);
 			return null;
 		}
 
 		// Put the custom metadata into the configured annotation on the object.
-		retObject.getCustomMetadata().put(mProps.getAnnotationName(), outputStream.toString());
+		retObject.getCustomMetadata().put(mProps.getAnnotationName(), customMetadata);
 		
 		// Put the base object into the linked list to be returned.
 		retval.add(retObject);
@@ -301,53 +315,17 @@ public class BasicMultiFileInfoGenerator extends BaseMetadataGenerator {
 		/**
 		 * Now construct the custom metadata for this object.
 		 */
-		outputStream = new ByteArrayOutputStream();
-
 		// NOTE:  If this module were conditionally processing files, there should be the same conditional
 		//    in both this method and the getSystemMetadata method.
 
-		try {
-			XMLStreamWriter serializer;
-
-			serializer = XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream, "UTF-8");
-			serializer.writeStartDocument("UTF-8", null);
-			serializer.writeCharacters("\n");
-			serializer.writeStartElement("SourceFileInfo");
-			serializer.writeCharacters("\n    ");
-			serializer.writeStartElement("Path");
-			serializer.writeCharacters(inSrcFile.getCanonicalPath());
-			serializer.writeEndElement();
-			serializer.writeCharacters("\n    ");
-			serializer.writeStartElement("Size");
-			serializer.writeCharacters(String.valueOf(inSrcFile.length()));
-			serializer.writeEndElement();
-			serializer.writeCharacters("\n    ");
-			serializer.writeEmptyElement("ModificationDate");
-			serializer.writeAttribute("EpochTime", String.valueOf(inSrcFile.lastModified()));
-			serializer.writeAttribute("ISO8601Time", "Put-ISO-Time-Here");
-			serializer.writeCharacters("\n    ");
-			serializer.writeStartElement("MetaDataWriteTime");
-			serializer.writeCharacters(new SimpleDateFormat(mProps.getDateFormat()).format(Calendar.getInstance().getTime()));
-			serializer.writeEndElement();
-			serializer.writeCharacters("\n    ");
-			serializer.writeStartElement("Owner");
-			serializer.writeCharacters(mProps.getDestUserName(objectID));
-			serializer.writeEndElement();
-			serializer.writeEndElement(); // SourceFileInfo
-			serializer.writeCharacters("\n");
-			serializer.writeEndDocument();
-		}
-		catch (Exception e)
-		{
-			logger.fatal("Failed to formulate XML in BasicFileInfoGenerator.", e);
-			e.printStackTrace();
-			
+		customMetadata = buildCustomMetadata(inSrcFile, objectID, null);
+		if (null == customMetadata) {
 			StaticUtils.TRACE_METHOD_EXIT(logger);
 			return null;
 		}
 
 		// Put the custom metadata into the configured annotation on the object.
-		retObject.getCustomMetadata().put(mProps.getAnnotationName(), outputStream.toString());
+		retObject.getCustomMetadata().put(mProps.getAnnotationName(), customMetadata);
 		
 		// Put the base object into the linked list to be returned.
 		retval.add(retObject);
@@ -355,4 +333,27 @@ public class BasicMultiFileInfoGenerator extends BaseMetadataGenerator {
 		StaticUtils.TRACE_METHOD_EXIT(logger);
 		return retval;
 	}
+
+	/*
+	 * The custom metadata for the given object of the file.  ShreddingCandidate is left out if null.
+	 */
+	private byte[] buildCustomMetadata(File inSrcFile, int inObjectID, Boolean inShreddingCandidate) {
+		try {
+			MetadataTemplate.Values values = mTemplate.threadValues();
+			values.set("Path", mTemplate.hasSlot("Path") ? inSrcFile.getCanonicalPath() : null);
+			values.set("Size", inSrcFile.length());
+			values.set("EpochTime", inSrcFile.lastModified());
+			values.set("MetaDataWriteTime", mWriteTimeFormat.format(new Date()));
+			values.set("ShreddingCandidate", inShreddingCandidate);
+			values.set("Owner", mProps.getDestUserName(inObjectID));
+
+			return mTemplate.render(values);
+		}
+		catch (IOException e)
+		{
+			logger.fatal("Failed to formulate XML in BasicMultiFileInfoGenerator.", e);
+
+			return null;
+		}
+	}
 }
@@ -1,5 +1,8 @@
 package com.hds.hcp.tools.comet.generator;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map.Entry;
@@ -58,4 +61,28 @@ public class CustomMetadataContainer {
 	public Boolean shouldUpdateCustomMetadata() {
 		return bShouldUpdate;
 	}
+
+	void writeTo(DataOutput inOut) throws IOException {
+		inOut.writeBoolean(bShouldDeleteExistingOnEmpty);
+		inOut.writeBoolean(bShouldUpdate);
+		inOut.writeInt(mAnnotations.size());
+		for (Entry<String, byte[]> annotation : mAnnotations.entrySet()) {
+			ObjectContainer.writeString(inOut, annotation.getKey());
+			ObjectContainer.writeBytes(inOut, annotation.getValue());
+		}
+	}
+
+	static CustomMetadataContainer readFrom(DataInput inIn) throws IOException {
+		CustomMetadataContainer retVal = new CustomMetadataContainer();
+		retVal.bShouldDeleteExistingOnEmpty = inIn.readBoolean();
+		retVal.bShouldUpdate = inIn.readBoolean();
+
+		int count = inIn.readInt();
+		for (int i = 0; i < count; i++) {
+			String name = ObjectContainer.readString(inIn);
+			retVal.mAnnotations.put(name, ObjectContainer.readBytes(inIn));
+		}
+
+		return retVal;
+	}
 }
@@ -0,0 +1,77 @@
+package com.hds.hcp.tools.comet.generator;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import com.hds.hcp.tools.comet.BaseWorkItem;
+
+/**
+ * The items a metadata generator can make metadata for, as it declares up front with
+ * BaseMetadataGenerator.getClaim().  The generator promises to return null for any other item, so
+ * the MetadataExtractor does not have to ask it.
+ *
+ * Only items with a java.io.File as handle and base specification are claimed.  Beyond that a
+ * claim can be narrowed to a class of work item, to file names matching a regular expression, and
+ * to file name extensions.  The extensions are only used to find the candidate generators quickly,
+ * so the pattern has to check them too.
+ */
+public class GeneratorClaim {
+
+	/**
+	 * Claim file items whose name matches inNamePattern, or all file items if it is null.
+	 *
+	 * @param inExtensions Extensions, without the dot, that file names matching the pattern can
+	 *   have.  None if they can have any.
+	 */
+	public GeneratorClaim(String inNamePattern, String... inExtensions) {
+		this(BaseWorkItem.class, inNamePattern, inExtensions);
+	}
+
+	/**
+	 * Claim items of inItemClass that are file items and whose name matches inNamePattern, or all
+	 * such items if it is null.
+	 */
+	public GeneratorClaim(Class<? extends BaseWorkItem> inItemClass, String inNamePattern, String... inExtensions) {
+		mItemClass = inItemClass;
+		mNamePattern = (null == inNamePattern || inNamePattern.isEmpty() ? null : Pattern.compile(inNamePattern));
+
+		HashSet<String> extensions = new HashSet<String>();
+		for (String oneExtension : inExtensions) {
+			extensions.add(oneExtension.toLowerCase(Locale.ROOT));
+		}
+		mExtensions = Collections.unmodifiableSet(extensions);
+	}
+
+	private final Class<? extends BaseWorkItem> mItemClass;
+	private final Pattern mNamePattern;
+	private final Set<String> mExtensions;
+
+	/**
+	 * Extensions of the file names claimed, in lower case.  Empty if any extension is claimed.
+	 */
+	public Set<String> getExtensions() { return mExtensions; }
+
+	/**
+	 * Extension of the file name, without the dot and in lower case, as looked up in
+	 * getExtensions().  Empty if there is none.
+	 */
+	public static String getExtension(String inFileName) {
+		int dot = inFileName.lastIndexOf('.');
+
+		return (-1 == dot ? "" : inFileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+	}
+
+	public boolean claims(BaseWorkItem inItem) {
+		if ( ! mItemClass.isInstance(inItem)
+				|| ! (inItem.getHandle() instanceof File)
+				|| ! (inItem.getBaseSpecification() instanceof File) ) {
+			return false;
+		}
+
+		return (null == mNamePattern || mNamePattern.matcher(((File)inItem.getHandle()).getName()).matches());
+	}
+}
@@ -0,0 +1,396 @@
+/*
+ *   Copyright (c) 2012 Hitachi Data Systems, Inc.
+ *
+ *   Permission is hereby granted to  this software and associated
+ *   documentation files (the "Software"), subject to the terms and
+ *   conditions of the Sample Source Code License (SSCL) delivered
+ *   with this Software. If you do not agree to the terms and
+ *   conditions of the SSCL,
+ *
+ *     (i)  you must close this file and delete all copies of the
+ *          Software, and
+ *     (ii) any permission to use the Software is expressly denied.
+ *
+ * Disclaimer: This code is only a sample and is provided for educational purposes.
+ * The consumer of this sample assumes full responsibility for any effects due to
+ * coding errors.
+ *
+ */
+package com.hds.hcp.tools.comet.generator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.hds.hcp.apihelpers.HCPUtils;
+
+/**
+ * Custom metadata text with named slots, compiled once and then rendered for each file.
+ *
+ * The template is the custom metadata as it should be written, with these tags in it:
+ *
+ *   ${name}            The value set for name, XML escaped.  Nothing if it is not set.
+ *   ${?name} ... ${/name}  What is in between only if name is set.
+ *   ${!name} ... ${/name}  What is in between only if name is not set.
+ *   $${                A literal "${".
+ *
+ * A slot inside a tag (after a '<' and before its '>') is escaped as an attribute value, else as
+ * element text, the same as XMLStreamWriter does.  The text between the slots is kept as UTF-8
+ * bytes, so rendering only has to copy them and encode the values.  It is done into a buffer of
+ * the rendering thread that is kept for the next time.
+ *
+ * Templates are immutable and shared.  Values are not; each generator instance keeps its own.
+ */
+public class MetadataTemplate {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int LITERAL = 0;
+	private static final int TEXT_SLOT = 1;
+	private static final int ATTRIBUTE_SLOT = 2;
+	private static final int IF_SET = 3;
+	private static final int IF_NOT_SET = 4;
+
+	private static final byte[] AMP = "&amp;".getBytes(UTF8);
+	private static final byte[] LT = "&lt;".getBytes(UTF8);
+	private static final byte[] GT = "&gt;".getBytes(UTF8);
+	private static final byte[] QUOT = "&quot;".getBytes(UTF8);
+
+	// A buffer grown beyond this by an unusually big rendering is not kept.
+	private static final int BUFFER_KEEP_SIZE = 64 * 1024;
+
+	private static final ConcurrentHashMap<String, MetadataTemplate> sCompiled = new ConcurrentHashMap<String, MetadataTemplate>();
+
+	private static final ThreadLocal<Buffer> sBuffer = new ThreadLocal<Buffer>() {
+		@Override
+		protected Buffer initialValue() {
+			return new Buffer();
+		}
+	};
+
+	/**
+	 * The compiled template for inText.  The same text is only compiled once.
+	 *
+	 * @throws IllegalArgumentException If the template is not well formed.
+	 */
+	public static MetadataTemplate compile(String inText) {
+		MetadataTemplate retVal = sCompiled.get(inText);
+		if (null == retVal) {
+			retVal = new MetadataTemplate(inText);
+
+			MetadataTemplate other = sCompiled.putIfAbsent(inText, retVal);
+			if (null != other) retVal = other;
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * The compiled template in the UTF-8 file inFile.
+	 *
+	 * @throws IllegalArgumentException If the template is not well formed.
+	 */
+	public static MetadataTemplate load(File inFile) throws IOException {
+		return compile(new String(Files.readAllBytes(inFile.toPath()), UTF8));
+	}
+
+	private final String mText;
+	private final int[] mKinds;
+	private final int[] mArgs;  // Literal index for LITERAL, else slot index.
+	private final int[] mEnds;  // For IF_SET and IF_NOT_SET, the operation after the section.
+	private final byte[][] mLiterals;
+	private final HashMap<String, Integer> mSlots = new HashMap<String, Integer>();
+
+	private final ThreadLocal<Values> mThreadValues = new ThreadLocal<Values>() {
+		@Override
+		protected Values initialValue() {
+			return new Values();
+		}
+	};
+
+	private MetadataTemplate(String inText) {
+		mText = inText;
+
+		ArrayList<int[]> operations = new ArrayList<int[]>();
+		ArrayList<byte[]> literals = new ArrayList<byte[]>();
+		LinkedList<Integer> openSections = new LinkedList<Integer>();
+		LinkedList<String> openNames = new LinkedList<String>();
+
+		StringBuilder literal = new StringBuilder();
+		boolean bInTag = false;
+		int position = 0;
+		while (position < inText.length()) {
+			if (inText.startsWith("$${", position)) {
+				literal.append("${");
+				position += 3;
+				continue;
+			}
+
+			if ( ! inText.startsWith("${", position)) {
+				char oneChar = inText.charAt(position++);
+				if ('<' == oneChar) {
+					bInTag = true;
+				} else if ('>' == oneChar) {
+					bInTag = false;
+				}
+				literal.append(oneChar);
+				continue;
+			}
+
+			int close = inText.indexOf('}', position);
+			if (-1 == close) {
+				throw new IllegalArgumentException("Metadata template has \"${\" without \"}\" at offset " + position);
+			}
+			String tag = inText.substring(position + 2, close);
+			position = close + 1;
+
+			if (0 < literal.length()) {
+				operations.add(new int[] { LITERAL, literals.size(), 0 });
+				literals.add(literal.toString().getBytes(UTF8));
+				literal.setLength(0);
+			}
+
+			char kind = (tag.isEmpty() ? ' ' : tag.charAt(0));
+			if ('?' == kind || '!' == kind) {
+				String name = checkName(tag.substring(1));
+
+				openSections.push(operations.size());
+				openNames.push(name);
+				operations.add(new int[] { ('?' == kind ? IF_SET : IF_NOT_SET), slot(name), 0 });
+			} else if ('/' == kind) {
+				String name = checkName(tag.substring(1));
+
+				if (openNames.isEmpty() || ! openNames.peek().equals(name)) {
+					throw new IllegalArgumentException("Metadata template has \"${/" + name + "}\" without a section of that name open");
+				}
+				openNames.pop();
+				operations.get(openSections.pop())[2] = operations.size();
+			} else {
+				operations.add(new int[] { (bInTag ? ATTRIBUTE_SLOT : TEXT_SLOT), slot(checkName(tag)), 0 });
+			}
+		}
+
+		if ( ! openNames.isEmpty()) {
+			throw new IllegalArgumentException("Metadata template section \"" + openNames.peek() + "\" is not closed");
+		}
+
+		if (0 < literal.length()) {
+			operations.add(new int[] { LITERAL, literals.size(), 0 });
+			literals.add(literal.toString().getBytes(UTF8));
+		}
+
+		mKinds = new int[operations.size()];
+		mArgs = new int[operations.size()];
+		mEnds = new int[operations.size()];
+		for (int i = 0; i < operations.size(); i++) {
+			mKinds[i] = operations.get(i)[0];
+			mArgs[i] = operations.get(i)[1];
+			mEnds[i] = operations.get(i)[2];
+		}
+		mLiterals = literals.toArray(new byte[literals.size()][]);
+	}
+
+	private static String checkName(String inName) {
+		if (inName.isEmpty()) {
+			throw new IllegalArgumentException("Metadata template has a slot without a name");
+		}
+		for (int i = 0; i < inName.length(); i++) {
+			char oneChar = inName.charAt(i);
+			if ( ! Character.isLetterOrDigit(oneChar) && '_' != oneChar && '-' != oneChar && '.' != oneChar) {
+				throw new IllegalArgumentException("Metadata template slot name \"" + inName + "\" is not valid");
+			}
+		}
+
+		return inName;
+	}
+
+	private int slot(String inName) {
+		Integer retVal = mSlots.get(inName);
+		if (null == retVal) {
+			retVal = mSlots.size();
+			mSlots.put(inName, retVal);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Whether the template uses the named value.
+	 */
+	public boolean hasSlot(String inName) {
+		return mSlots.containsKey(inName);
+	}
+
+	/**
+	 * Digest of the template text, which changes when the text does.
+	 */
+	public String getSignature() {
+		try {
+			return HCPUtils.toMD5Digest(mText);
+		} catch (Exception e) {
+			return mText;
+		}
+	}
+
+	/**
+	 * Values to render the template with, none set.  To be reused from one rendering to the next.
+	 */
+	public Values newValues() {
+		return new Values();
+	}
+
+	/**
+	 * Values of the calling thread to render the template with, none set.  For generators shared
+	 *   by threads, which cannot keep their values in a member.
+	 */
+	public Values threadValues() {
+		return mThreadValues.get().clear();
+	}
+
+	/**
+	 * The values for the slots of one template.  A value is written with toString().
+	 */
+	public class Values {
+		private final Object[] mValues = new Object[mSlots.size()];
+
+		private Values() { }
+
+		private MetadataTemplate getTemplate() {
+			return MetadataTemplate.this;
+		}
+
+		/**
+		 * Set the named value.  Null unsets it.  Names the template does not use are ignored.
+		 */
+		public Values set(String inName, Object inValue) {
+			Integer slot = mSlots.get(inName);
+			if (null != slot) {
+				mValues[slot] = inValue;
+			}
+
+			return this;
+		}
+
+		public Values clear() {
+			Arrays.fill(mValues, null);
+
+			return this;
+		}
+	}
+
+	/**
+	 * Render the template with inValues, as UTF-8.
+	 */
+	public byte[] render(Values inValues) {
+		if (this != inValues.getTemplate()) {
+			throw new IllegalArgumentException("Values are for a different metadata template");
+		}
+
+		Object[] values = inValues.mValues;
+		Buffer buffer = sBuffer.get();
+		buffer.mLength = 0;
+
+		int operation = 0;
+		while (operation < mKinds.length) {
+			switch (mKinds[operation]) {
+			case LITERAL:
+				buffer.append(mLiterals[mArgs[operation]]);
+				break;
+			case TEXT_SLOT:
+			case ATTRIBUTE_SLOT:
+				Object value = values[mArgs[operation]];
+				if (null != value) {
+					buffer.appendEscaped(value.toString(), ATTRIBUTE_SLOT == mKinds[operation]);
+				}
+				break;
+			case IF_SET:
+				if (null == values[mArgs[operation]]) {
+					operation = mEnds[operation];
+					continue;
+				}
+				break;
+			case IF_NOT_SET:
+				if (null != values[mArgs[operation]]) {
+					operation = mEnds[operation];
+					continue;
+				}
+				break;
+			}
+			operation++;
+		}
+
+		byte[] retVal = Arrays.copyOf(buffer.mBytes, buffer.mLength);
+
+		if (BUFFER_KEEP_SIZE < buffer.mBytes.length) {
+			sBuffer.remove();
+		}
+
+		return retVal;
+	}
+
+	/*
+	 * Growable byte buffer that encodes and escapes into itself.
+	 */
+	private static class Buffer {
+		byte[] mBytes = new byte[4096];
+		int mLength;
+
+		private void ensure(int inMore) {
+			if (mLength + inMore > mBytes.length) {
+				mBytes = Arrays.copyOf(mBytes, Math.max(mBytes.length * 2, mLength + inMore));
+			}
+		}
+
+		void append(byte[] inBytes) {
+			ensure(inBytes.length);
+			System.arraycopy(inBytes, 0, mBytes, mLength, inBytes.length);
+			mLength += inBytes.length;
+		}
+
+		void appendEscaped(String inValue, boolean inAttribute) {
+			// Enough for every character escaped as "&quot;".
+			ensure(inValue.length() * QUOT.length);
+
+			for (int i = 0; i < inValue.length(); i++) {
+				char oneChar = inValue.charAt(i);
+
+				if (oneChar < 0x80) {
+					if ('&' == oneChar) {
+						append(AMP);
+					} else if ('<' == oneChar) {
+						append(LT);
+					} else if ('>' == oneChar) {
+						append(GT);
+					} else if ('"' == oneChar && inAttribute) {
+						append(QUOT);
+					} else {
+						mBytes[mLength++] = (byte)oneChar;
+					}
+				} else if (oneChar < 0x800) {
+					mBytes[mLength++] = (byte)(0xC0 | (oneChar >> 6));
+					mBytes[mLength++] = (byte)(0x80 | (oneChar & 0x3F));
+				} else if (Character.isHighSurrogate(oneChar) && i + 1 < inValue.length()
+						&& Character.isLowSurrogate(inValue.charAt(i + 1))) {
+					int codePoint = Character.toCodePoint(oneChar, inValue.charAt(++i));
+					mBytes[mLength++] = (byte)(0xF0 | (codePoint >> 18));
+					mBytes[mLength++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+					mBytes[mLength++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+					mBytes[mLength++] = (byte)(0x80 | (codePoint & 0x3F));
+				} else if (Character.isSurrogate(oneChar)) {
+					// Unpaired, so not encodable.  Replaced as String.getBytes() does.
+					mBytes[mLength++] = (byte)'?';
+				} else {
+					mBytes[mLength++] = (byte)(0xE0 | (oneChar >> 12));
+					mBytes[mLength++] = (byte)(0x80 | ((oneChar >> 6) & 0x3F));
+					mBytes[mLength++] = (byte)(0x80 | (oneChar & 0x3F));
+				}
+			}
+		}
+	}
+}
@@ -1,7 +1,11 @@
 package com.hds.hcp.tools.comet.generator;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 
 import com.hds.hcp.tools.comet.utils.URIWrapper;
 
@@ -27,4 +31,58 @@ public class ObjectContainer {
 	
 	public SystemMetadataContainer getSystemMetadata() { return mSystemMeta; };
 	public CustomMetadataContainer getCustomMetadata() { return mCustomMeta; };
+
+	private ObjectContainer(SystemMetadataContainer inSystemMeta, CustomMetadataContainer inCustomMeta) {
+		mSystemMeta = inSystemMeta;
+		mCustomMeta = inCustomMeta;
+	}
+
+	/**
+	 * Write the metadata out, so readFrom() can make a copy of it, for the metadata cache.  The
+	 * copy has no credentials.
+	 */
+	public void writeTo(DataOutput inOut) throws IOException {
+		mSystemMeta.writeTo(inOut);
+		mCustomMeta.writeTo(inOut);
+	}
+
+	public static ObjectContainer readFrom(DataInput inIn) throws IOException {
+		SystemMetadataContainer systemMeta = SystemMetadataContainer.readFrom(inIn);
+		CustomMetadataContainer customMeta = CustomMetadataContainer.readFrom(inIn);
+
+		return new ObjectContainer(systemMeta, customMeta);
+	}
+
+	/*
+	 * Strings of any length, or null.
+	 */
+	static void writeString(DataOutput inOut, String inValue) throws IOException {
+		writeBytes(inOut, (null == inValue ? null : inValue.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	static String readString(DataInput inIn) throws IOException {
+		byte[] bytes = readBytes(inIn);
+
+		return (null == bytes ? null : new String(bytes, StandardCharsets.UTF_8));
+	}
+
+	static void writeBytes(DataOutput inOut, byte[] inValue) throws IOException {
+		if (null == inValue) {
+			inOut.writeInt(-1);
+			return;
+		}
+
+		inOut.writeInt(inValue.length);
+		inOut.write(inValue);
+	}
+
+	static byte[] readBytes(DataInput inIn) throws IOException {
+		int length = inIn.readInt();
+		if (0 > length) return null;
+
+		byte[] retVal = new byte[length];
+		inIn.readFully(retVal);
+
+		return retVal;
+	}
 }
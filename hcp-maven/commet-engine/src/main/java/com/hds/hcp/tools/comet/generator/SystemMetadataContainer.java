@@ -1,5 +1,8 @@
 package com.hds.hcp.tools.comet.generator;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.lang.IllegalArgumentException;
@@ -225,4 +228,36 @@ public class SystemMetadataContainer {
 		
 		mObjectURI = newURI;
 	}
+
+	/*
+	 * The credentials are left out.  The generator puts them back from its configuration.
+	 */
+	void writeTo(DataOutput inOut) throws IOException {
+		inOut.writeBoolean(bShouldUpdate);
+		ObjectContainer.writeString(inOut, mObjectURI.getScheme());
+		ObjectContainer.writeString(inOut, mObjectURI.getHost());
+		ObjectContainer.writeString(inOut, mObjectURI.getRawPath());
+		ObjectContainer.writeString(inOut, mObjectURI.getQuery());
+	}
+
+	static SystemMetadataContainer readFrom(DataInput inIn) throws IOException {
+		boolean shouldUpdate = inIn.readBoolean();
+		String scheme = ObjectContainer.readString(inIn);
+		String host = ObjectContainer.readString(inIn);
+		String path = ObjectContainer.readString(inIn);
+		String query = ObjectContainer.readString(inIn);
+
+		try {
+			URIWrapper uri = (null == path || path.isEmpty()
+					? new URIWrapper(scheme + "://" + host)
+					: new URIWrapper(scheme, host, path, query));
+
+			SystemMetadataContainer retVal = new SystemMetadataContainer(uri, null);
+			retVal.bShouldUpdate = shouldUpdate;
+
+			return retVal;
+		} catch (URISyntaxException e) {
+			throw new IOException("Unexpected object URI in stored metadata", e);
+		}
+	}
 }
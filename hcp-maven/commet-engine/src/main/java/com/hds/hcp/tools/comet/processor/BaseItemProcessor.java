@@ -13,8 +13,13 @@ public abstract class BaseItemProcessor {
 	
 	protected Boolean bIsInitialized = false;
 	
+	// Where items that failed for a transient reason go to be tried again.  Set by the thread pool.
+	protected RetryScheduler mRetryScheduler;
+	
 	WorkItemStatus getStatus() { return mStatus; };
 	
+	void setRetryScheduler(RetryScheduler inScheduler) { mRetryScheduler = inScheduler; };
+	
 	/**
 	 * Initialize the object by setting up internal data and establishing the HTTP client connection.
 	 * 
@@ -25,4 +30,17 @@ public abstract class BaseItemProcessor {
 	abstract public void initialize(CometProperties inProps, Object inInitBlob) throws Exception;
 
 	abstract public boolean process(BaseWorkItem inElement) throws Exception;
+
+	/**
+	 * Indicates whether this processor completes work items on its own. When true, a return
+	 * value of true from process() means the processor has taken ownership of the item and will
+	 * set the item status and call BaseWorkItem.markProcessed() once the work is finished.
+	 * Otherwise the calling thread pool does it as soon as process() returns.
+	 */
+	public boolean isAsynchronous() { return false; }
+
+	/**
+	 * Release any resources held by the processor. Called when the owning thread exits.
+	 */
+	public void close() {}
 }
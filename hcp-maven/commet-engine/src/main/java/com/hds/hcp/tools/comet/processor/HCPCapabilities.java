@@ -0,0 +1,218 @@
+package com.hds.hcp.tools.comet.processor;
+
+import java.net.URISyntaxException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.util.EntityUtils;
+
+import com.hds.hcp.apihelpers.HCPUtils;
+import com.hds.hcp.tools.comet.CometProperties;
+import com.hds.hcp.tools.comet.utils.StaticUtils;
+import com.hds.hcp.tools.comet.utils.URIWrapper;
+
+/**
+ * Process-wide registry of what each HCP system supports, keyed by scheme and host.
+ *
+ * The first request for a host probes its software version with a HEAD to /rest and all
+ * other threads asking for the same host wait for that one probe. The result is kept for
+ * execution.processor.capabilityRefreshInSeconds and then probed again. A failed probe is
+ * kept for a short time only, so an HCP that was unreachable is retried soon.
+ */
+class HCPCapabilities {
+	private static Logger logger = LogManager.getLogger();
+
+	static final String UNKNOWN_HCP_VERSION = "<unknown>";
+
+	private static final long UNKNOWN_REFRESH_MILLIS = 60 * 1000;
+
+	/**
+	 * Features of one HCP system.  Immutable.
+	 */
+	static final class Features {
+		Features(String inVersion, long inExpiresAt) {
+			mVersion = inVersion;
+			mExpiresAt = inExpiresAt;
+
+			float version = 0;
+			if ( ! UNKNOWN_HCP_VERSION.equals(inVersion)) {
+				try {
+					version = Float.valueOf(inVersion.substring(0, 3));
+				} catch (NumberFormatException | IndexOutOfBoundsException x) {
+					logger.warn("Unrecognized HCP Version \"{}\". Using only basic features.", inVersion);
+				}
+			}
+
+			bCanUseWholeIO = (4.1f <= version);
+			bCanUseAuthorizationHeader = (6.0f <= version);
+			bCanUseAnnotations = (6.0f <= version);
+			bCanUseMultipart = (MultipartUploader.MIN_HCP_VERSION <= version);
+		}
+
+		final String mVersion;
+		final long mExpiresAt;
+		final boolean bCanUseWholeIO;
+		final boolean bCanUseAuthorizationHeader;
+		final boolean bCanUseAnnotations;
+		final boolean bCanUseMultipart;
+
+		boolean isExpired() { return mExpiresAt <= System.currentTimeMillis(); }
+	}
+
+	private static ConcurrentHashMap<String, FutureTask<Features>> sRegistry = new ConcurrentHashMap<String, FutureTask<Features>>();
+
+	/**
+	 * Get the features of the HCP system inDestination points at, probing it if not yet known.
+	 *
+	 * @param inCredentials
+	 *            Encoded "user:password" to use for the probe.
+	 */
+	static Features get(final HttpClient inHttpClient, final CometProperties inProps,
+			URIWrapper inDestination, final String inCredentials) throws InterruptedException {
+		final String key = inDestination.getScheme() + "://" + inDestination.getHost();
+
+		FutureTask<Features> entry = sRegistry.get(key);
+		if (null == entry || (entry.isDone() && getQuietly(entry).isExpired())) {
+			FutureTask<Features> newEntry = new FutureTask<Features>(new Callable<Features>() {
+				public Features call() {
+					String version = probeVersion(inHttpClient, inProps, key, inCredentials);
+					logger.info("Detected HCP Version {} for {}", version, key);
+
+					long refreshMillis = inProps.getProcessorCapabilityRefreshInSeconds() * 1000L;
+					if (UNKNOWN_HCP_VERSION.equals(version)) {
+						refreshMillis = Math.min(refreshMillis, UNKNOWN_REFRESH_MILLIS);
+					}
+
+					return new Features(version, System.currentTimeMillis() + refreshMillis);
+				}
+			});
+
+			// Only the thread that gets its entry in does the probe.  Everyone else
+			// uses (and if need be waits for) the entry that got in first.
+			boolean bInstalled = (null == entry ? null == sRegistry.putIfAbsent(key, newEntry)
+					: sRegistry.replace(key, entry, newEntry));
+			if (bInstalled) {
+				newEntry.run();
+				entry = newEntry;
+			} else {
+				entry = sRegistry.get(key);
+			}
+		}
+
+		try {
+			return entry.get();
+		} catch (ExecutionException e) {
+			// The probe itself never throws.
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	private static Features getQuietly(FutureTask<Features> inEntry) {
+		try {
+			return inEntry.get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Ask HCP for its software version.  Returns UNKNOWN_HCP_VERSION if it can not be determined.
+	 */
+	private static String probeVersion(HttpClient inHttpClient, CometProperties inProps,
+			String inSchemeAndHost, String inCredentials) {
+
+		StaticUtils.TRACE_METHOD_ENTER(logger);
+
+		String retVal = UNKNOWN_HCP_VERSION;
+
+		try {
+			logger.debug("Getting HCP Version");
+			URIWrapper toplevel = null;
+
+			try {
+				URIWrapper destURI = new URIWrapper(inSchemeAndHost);
+
+				toplevel = new URIWrapper(destURI.getScheme(),
+						destURI.getHost(), "/rest", null);
+			} catch (URISyntaxException x) {
+				logger.warn("Failed to formulate URI to get HCP version.  Falling back to <unknown>.");
+
+				StaticUtils.TRACE_METHOD_EXIT(logger);
+				return retVal;
+			}
+
+			/*
+			 * Setup the HEAD request to check existence top level path.
+			 */
+			HttpHead httpRequest = new HttpHead(toplevel.toString());
+
+			// Must use old HCP Authentication since it is lowest common
+			// denominator.
+			httpRequest.setHeader("Cookie", HCPUtils.NS_AUTH_COOKIE_LEGACY
+					+ "=" + inCredentials);
+
+			/*
+			 * Now execute the HEAD request.
+			 */
+			HttpResponse httpResponse = inHttpClient.execute(httpRequest);
+
+			// For debugging purposes, dump out the HTTP Response.
+			if (inProps.shouldDumpHTTPHeaders())
+				HCPUtils.dumpHttpResponse(httpResponse);
+
+			// If we don't have a 404 (Not Found) response, need to further
+			// dig..
+			if (404 != httpResponse.getStatusLine().getStatusCode()) {
+
+				// If the return code is anything BUT 200 range indicating
+				// success, we have to throw an exception.
+				if (2 != httpResponse.getStatusLine().getStatusCode() / 100) {
+					// Clean up after ourselves and release the HTTP connection
+					// to the connection manager.
+					EntityUtils.consume(httpResponse.getEntity());
+
+					throw new HttpResponseException(httpResponse
+							.getStatusLine().getStatusCode(),
+							"Unexpected status returned from "
+									+ httpRequest.getMethod()
+									+ " ("
+									+ httpResponse.getStatusLine()
+											.getStatusCode()
+									+ ": "
+									+ httpResponse.getStatusLine()
+											.getReasonPhrase() + ")");
+				}
+
+				// Get the header value indicating custom metadata.
+				Header cmHeader = httpResponse
+						.getFirstHeader("X-HCP-SoftwareVersion");
+
+				if (null != cmHeader)
+					retVal = cmHeader.getValue();
+			}
+
+			// Clean up after ourselves and release the HTTP connection to the
+			// connection manager.
+			EntityUtils.consume(httpResponse.getEntity());
+
+		} catch (Exception x) {
+			logger.warn("Unable to determine HCP Version", x);
+		}
+
+		StaticUtils.TRACE_METHOD_EXIT(logger);
+		return retVal;
+	}
+
+	// Only static helpers.
+	private HCPCapabilities() {}
+}
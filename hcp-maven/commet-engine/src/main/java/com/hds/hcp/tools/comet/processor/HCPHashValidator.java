@@ -0,0 +1,188 @@
+package com.hds.hcp.tools.comet.processor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.InputMismatchException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpResponseException;
+
+import com.hds.hcp.tools.comet.BaseWorkItem;
+import com.hds.hcp.tools.comet.CometProperties;
+
+/**
+ * Validates the X-HCP-Hash returned by HCP against a digest computed locally.
+ *
+ * The digest is computed while the content streams to HCP (see wrapStream), so the item
+ * does not have to be read a second time. The hash algorithm is a namespace setting on HCP,
+ * so the algorithm seen in responses is remembered per namespace host and used for all
+ * following uploads to it. Only when the guess was wrong (first upload to a namespace that
+ * does not use the default) is the item re-read to compute the digest.
+ */
+class HCPHashValidator {
+	private static Logger logger = LogManager.getLogger();
+
+	static final String HASH_HEADER = "X-HCP-Hash";
+	static final String DEFAULT_HASH_ALGORITHM = "SHA-256";
+	private static final int HASH_READ_BUFFER_SIZE = 8*1024;
+
+	// Namespace host name -> hash algorithm reported by HCP for it.
+	private static ConcurrentHashMap<String, String> sNamespaceAlgorithms = new ConcurrentHashMap<String, String>();
+
+	static String getAlgorithm(String inNamespaceHost) {
+		String retval = sNamespaceAlgorithms.get(inNamespaceHost);
+
+		return (null == retval ? DEFAULT_HASH_ALGORITHM : retval);
+	}
+
+	/**
+	 * Remember the hash algorithm of the namespace from any response carrying X-HCP-Hash.
+	 */
+	static void learnAlgorithm(String inNamespaceHost, HttpResponse inResponse) {
+		Header hashValueHeader = inResponse.getFirstHeader(HASH_HEADER);
+		if (null == hashValueHeader) return;
+
+		String parts[] = hashValueHeader.getValue().split(" ");
+		if (parts.length != 2) return;
+
+		if (null == sNamespaceAlgorithms.put(inNamespaceHost, parts[0])) {
+			logger.debug("Namespace {} uses hash algorithm {}", inNamespaceHost, parts[0]);
+		}
+	}
+
+	/**
+	 * Construct the digest for content about to be written to the namespace. Returns null if
+	 * hash validation is not configured or the algorithm is not available.
+	 */
+	static MessageDigest newDigest(CometProperties inProps, String inNamespaceHost) {
+		if ( ! inProps.getProcessorValidateHash()) return null;
+
+		String algorithm = getAlgorithm(inNamespaceHost);
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			logger.warn("Hash algorithm {} not supported locally. Hash will be computed after write.", algorithm);
+			return null;
+		}
+	}
+
+	/**
+	 * Wrap the content stream so the digest is updated as the HTTP entity reads it.
+	 */
+	static InputStream wrapStream(InputStream inStream, MessageDigest inDigest) {
+		if (null == inDigest) return inStream;
+
+		return new DigestInputStream(inStream, inDigest);
+	}
+
+	/**
+	 * Compare the hash returned by HCP with the digest computed while streaming. If the digest
+	 * was not computed with the algorithm HCP used, fall back to reading the item again.
+	 */
+	static void validate(CometProperties inProps, String inNamespaceHost, HttpResponse inResponse,
+			MessageDigest inStreamedDigest, BaseWorkItem inItem) throws Exception {
+		// Only do it if we are configured to do it.
+		if ( ! inProps.getProcessorValidateHash()) return;
+
+		// Retrieve the header for the hash.
+		Header hashValueHeader = inResponse.getFirstHeader(HASH_HEADER);
+
+		if (null == hashValueHeader) {
+			logger.fatal("Configuration requested to validate object Hash, but hash value does not exist in response.");
+
+			throw new HttpResponseException(inResponse.getStatusLine()
+					.getStatusCode(), "Expected HTTP header X-HCP-Hash is missing from response");
+		}
+
+		// There must be two parts:  HashType HashValue
+		String parts[] = hashValueHeader.getValue().split(" ");
+		if (parts.length != 2) {
+			logger.fatal("Hash value header returned from HCP is in an unexpected format.");
+
+			throw new HttpResponseException(inResponse.getStatusLine()
+					.getStatusCode(), "Unexpected HTTP header X-HCP-Hash format encountered");
+		}
+
+		String hashType = parts[0];
+		String hashValue = parts[1];
+
+		logger.debug("Received object Hash: [{}] {}", hashType, hashValue);
+
+		learnAlgorithm(inNamespaceHost, inResponse);
+
+		byte[] computedHash;
+		if (null != inStreamedDigest && hashType.equalsIgnoreCase(inStreamedDigest.getAlgorithm())) {
+			computedHash = inStreamedDigest.digest();
+		} else {
+			logger.info("Namespace {} hash algorithm ({}) was not known before write. Re-reading item to compute hash.",
+					inNamespaceHost, hashType);
+
+			computedHash = computeDigest(hashType, inItem);
+		}
+
+		// Build a string out of it.
+		String computedHashString = toHexString(computedHash);
+
+		logger.debug("Computed object Hash: [{}] {}", hashType, computedHashString);
+
+		if ( ! hashValue.equals(computedHashString)) {
+			logger.fatal("Computed Hash ({}) does not match HCP hash ({}).", computedHashString, hashValue);
+
+			throw new InputMismatchException("HCP Ingest hash does not match computed hash.");
+		}
+	}
+
+	private static byte[] computeDigest(String inHashType, BaseWorkItem inItem) throws Exception {
+		MessageDigest md = null;
+		try {
+			md = MessageDigest.getInstance(inHashType);
+		} catch (NoSuchAlgorithmException e) {
+			logger.fatal("Hash type returned from HCP is not supported by this software.", e);
+
+			throw e;
+		}
+
+		InputStream itemStream = inItem.getItemInputStream();
+		try {
+			byte buffer[] = new byte[HASH_READ_BUFFER_SIZE];
+			int numBytes;
+			numBytes = itemStream.read(buffer);
+			while (0 < numBytes) {
+				md.update(buffer, 0, numBytes);
+
+				numBytes = itemStream.read(buffer);
+			}
+		} catch (IOException e) {
+			logger.fatal("Unexpected I/O failure reading file to compute hash.", e);
+
+			throw e;
+		} finally {
+			itemStream.close();
+		}
+
+		return md.digest();
+	}
+
+	static String toHexString(byte[] inHash) {
+		StringBuilder retval = new StringBuilder(inHash.length * 2);
+
+		for (int i = 0; i < inHash.length; i++) {
+			String hex = Integer.toHexString(0xff & inHash[i]).toUpperCase();
+			if (hex.length() == 1) { retval.append('0'); }
+			retval.append(hex);
+		}
+
+		return retval.toString();
+	}
+
+	// Only static helpers.
+	private HCPHashValidator() {}
+}
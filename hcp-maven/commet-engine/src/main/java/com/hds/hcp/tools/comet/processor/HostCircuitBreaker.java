@@ -0,0 +1,138 @@
+package com.hds.hcp.tools.comet.processor;
+
+import java.io.IOException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.hds.hcp.tools.comet.CometProperties;
+
+/**
+ * Circuit breaker for one HCP system.
+ *
+ * After execution.processor.circuitBreaker.failureThreshold requests in a row fail with a 5xx or
+ * without a response, the circuit opens and requests to the HCP are refused right away with a
+ * CircuitOpenException for execution.processor.circuitBreaker.openSeconds.  After that a single
+ * request is let through to try the HCP.  If it succeeds the circuit closes again, otherwise it
+ * stays open for another period.
+ *
+ * Owned by the HostConcurrencyLimiter of the HCP, which sees the outcome of every request.
+ */
+class HostCircuitBreaker {
+	private static Logger logger = LogManager.getLogger();
+
+	/**
+	 * Request refused because the circuit of its HCP is open.
+	 */
+	static class CircuitOpenException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		CircuitOpenException(String inHost, long inRetryAfter) {
+			super("Circuit open for " + inHost + ". Requests refused for " + inRetryAfter + " more milliseconds");
+			mRetryAfter = inRetryAfter;
+		}
+
+		private final long mRetryAfter;
+
+		// Milliseconds until the HCP will be tried again.
+		long getRetryAfter() { return mRetryAfter; }
+	}
+
+	enum State { CLOSED, OPEN, HALF_OPEN }
+
+	HostCircuitBreaker(String inHost, CometProperties inProps) {
+		mHost = inHost;
+		mFailureThreshold = inProps.getProcessorCircuitBreakerFailureThreshold();
+		mOpenMillis = inProps.getProcessorCircuitBreakerOpenSeconds() * 1000L;
+	}
+
+	private final String mHost;
+	private final int mFailureThreshold;  // 0 means never open.
+	private final long mOpenMillis;
+
+	private State eState = State.CLOSED;
+	private int iConsecutiveFailures;
+	private long mOpenUntil;
+	private boolean bTrialInFlight;
+	private long iOpenCount;
+
+	synchronized State getState() { return eState; }
+	synchronized long getOpenCount() { return iOpenCount; }
+
+	/**
+	 * Throws if a request to the HCP may not be sent now.
+	 */
+	synchronized void checkAllowed() throws CircuitOpenException {
+		switch (eState) {
+		case CLOSED:
+			return;
+
+		case OPEN:
+			long remaining = mOpenUntil - System.currentTimeMillis();
+			if (0 < remaining) {
+				throw new CircuitOpenException(mHost, remaining);
+			}
+
+			logger.info("Trying {} again after circuit was open", mHost);
+			eState = State.HALF_OPEN;
+			bTrialInFlight = true;
+			return;
+
+		case HALF_OPEN:
+			if (bTrialInFlight) {
+				throw new CircuitOpenException(mHost, mOpenMillis);
+			}
+			bTrialInFlight = true;
+			return;
+		}
+	}
+
+	/**
+	 * Outcome of a request that was allowed through.
+	 */
+	synchronized void record(boolean inFailed) {
+		switch (eState) {
+		case CLOSED:
+			if ( ! inFailed) {
+				iConsecutiveFailures = 0;
+			} else if (0 < mFailureThreshold && mFailureThreshold <= ++iConsecutiveFailures) {
+				open();
+			}
+			break;
+
+		case HALF_OPEN:
+			bTrialInFlight = false;
+			if (inFailed) {
+				iConsecutiveFailures++;
+				open();
+			} else {
+				logger.info("Circuit for {} closed", mHost);
+				eState = State.CLOSED;
+				iConsecutiveFailures = 0;
+			}
+			break;
+
+		case OPEN:
+			// Requests sent before the circuit opened.  Nothing more to learn from them.
+			break;
+		}
+	}
+
+	/**
+	 * A request that was allowed through ended without telling anything about the HCP.
+	 */
+	synchronized void abandoned() {
+		if (State.HALF_OPEN == eState) {
+			bTrialInFlight = false;
+		}
+	}
+
+	private void open() {
+		logger.warn("Circuit for {} opened after {} failed requests in a row. Refusing requests for {} seconds",
+				mHost, iConsecutiveFailures, mOpenMillis / 1000);
+
+		eState = State.OPEN;
+		mOpenUntil = System.currentTimeMillis() + mOpenMillis;
+		iOpenCount++;
+	}
+}
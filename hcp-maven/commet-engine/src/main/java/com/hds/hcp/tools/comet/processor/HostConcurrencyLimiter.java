@@ -0,0 +1,384 @@
+package com.hds.hcp.tools.comet.processor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import com.hds.hcp.tools.comet.CometProperties;
+
+/**
+ * Adaptive limit on the number of requests in flight to each HCP system, keyed by scheme and host.
+ *
+ * The limit follows AIMD (additive increase, multiplicative decrease).  It grows by about one
+ * request for every limit's worth of requests that complete without trouble, and is cut back
+ * when HCP answers with a 5xx (503 when its nodes are busy), a request fails without a response,
+ * or the round trip time of small requests climbs well above the lowest seen recently, which means
+ * requests are queueing up on HCP.  It is cut at most once per round trip, so a burst of errors
+ * from requests that were all sent before the first cut does not collapse the limit.
+ *
+ * Requests that send object content take as long as the transfer does, so only requests without
+ * a large entity are used to measure round trip time.
+ *
+ * Processor threads block in acquire() until their HCP has room.  The asynchronous processor uses
+ * acquire(HttpRequest, Waiter) instead, which hands over the permit once there is room without
+ * blocking the caller.
+ *
+ * Each limiter also holds the HostCircuitBreaker of its HCP, so requests are refused with a
+ * CircuitOpenException instead of being sent while the HCP is known to be failing.
+ *
+ * With execution.processor.concurrency.adaptive=false requests are never held back, but in-flight
+ * requests and round trip times are still measured for the statistics.
+ */
+public class HostConcurrencyLimiter {
+	private static Logger logger = LogManager.getLogger();
+
+	private static final long LATENCY_SAMPLE_MAX_BYTES = 64*1024;
+	private static final int BASE_RTT_WINDOW = 1000;  // Latency samples before the lowest RTT is found again.
+	private static final double RTT_SMOOTHING = 0.1;
+	private static final double FAILURE_BACKOFF = 0.5;
+	private static final double LATENCY_BACKOFF = 0.9;
+	private static final long MIN_BACKOFF_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private static ConcurrentHashMap<String, HostConcurrencyLimiter> sLimiters = new ConcurrentHashMap<String, HostConcurrencyLimiter>();
+
+	/**
+	 * Get the limiter for the HCP system inDestination points at.
+	 */
+	static HostConcurrencyLimiter forHost(CometProperties inProps, URI inDestination) {
+		String key = inDestination.getScheme() + "://" + inDestination.getHost()
+				+ (-1 == inDestination.getPort() ? "" : ":" + inDestination.getPort());
+
+		HostConcurrencyLimiter retval = sLimiters.get(key);
+		if (null == retval) {
+			HostConcurrencyLimiter newLimiter = new HostConcurrencyLimiter(key, inProps);
+
+			retval = sLimiters.putIfAbsent(key, newLimiter);
+			if (null == retval) {
+				retval = newLimiter;
+
+				if (retval.bAdaptive) {
+					logger.info("Adaptive concurrency limit for {} starts at {} (range {}-{})", key,
+							(int)retval.mLimit, (int)retval.mMinLimit, (int)retval.mMaxLimit);
+				}
+			}
+		}
+
+		return retval;
+	}
+
+	/**
+	 * Execute a request on a blocking client within the limit of the HCP it is sent to.  The
+	 * permit is given back once the response headers are in, so any response content must be
+	 * small.
+	 */
+	static HttpResponse execute(HttpClient inHttpClient, HttpUriRequest inRequest, CometProperties inProps) throws IOException {
+		Permit permit;
+		try {
+			permit = forHost(inProps, inRequest.getURI()).acquire(inRequest);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting to send " + inRequest.getRequestLine());
+		}
+
+		HttpResponse retval;
+		try {
+			retval = inHttpClient.execute(inRequest);
+		} catch (IOException | RuntimeException e) {
+			permit.release(e);
+			throw e;
+		}
+
+		permit.release(retval);
+		return retval;
+	}
+
+	// Log the state of every limiter at the INFO level.
+	public static void logStats(String inLabel) {
+		logStats(Level.INFO, inLabel);
+	}
+
+	// Log the state of every limiter at the specified level.
+	public static void logStats(Level inLevel, String inLabel) {
+		if (sLimiters.isEmpty()) return;
+
+		synchronized(logger) {
+			logger.log(inLevel, inLabel + ":");
+			logger.log(inLevel, "                     (Limit, In Flight, RTT ms, Lowest RTT ms, Requests, Backoffs, Circuit)");
+			for (HostConcurrencyLimiter oneLimiter : sLimiters.values()) {
+				synchronized (oneLimiter) {
+					logger.log(inLevel, "    {}: ({}, {}, {}, {}, {}, {}, {})",
+							oneLimiter.mHost,
+							(oneLimiter.bAdaptive ? String.valueOf((int)oneLimiter.mLimit) : "none"),
+							oneLimiter.mInFlight,
+							String.format("%.1f", oneLimiter.mSmoothedRTT / 1000000.0),
+							(Long.MAX_VALUE == oneLimiter.mBaseRTT ? "-" : String.format("%.1f", oneLimiter.mBaseRTT / 1000000.0)),
+							oneLimiter.iRequests,
+							oneLimiter.iBackoffs,
+							oneLimiter.mBreaker.getState() + (0 < oneLimiter.mBreaker.getOpenCount()
+									? " (opened " + oneLimiter.mBreaker.getOpenCount() + " times)" : ""));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Receives a permit from acquire(HttpRequest, Waiter), or the reason there will be none.
+	 */
+	interface Waiter {
+		void granted(Permit inPermit);
+		void refused(IOException inReason);
+	}
+
+	/**
+	 * One request in flight.  Must be released exactly once.
+	 */
+	class Permit {
+		private Permit(boolean inLatencySample) {
+			bLatencySample = inLatencySample;
+		}
+
+		private final long mStartedAt = System.nanoTime();
+		private final boolean bLatencySample;
+		private long mStoppedAt;
+		private boolean bStopped;
+		private boolean bReleased;
+
+		/**
+		 * Stop the round trip clock.  For callers that release the permit some time after the
+		 * response arrived.
+		 */
+		void stop() {
+			if (bStopped) return;
+
+			mStoppedAt = System.nanoTime();
+			bStopped = true;
+		}
+
+		/**
+		 * The request got a response.
+		 */
+		void release(HttpResponse inResponse) {
+			stop();
+			complete(this, inResponse.getStatusLine().getStatusCode());
+		}
+
+		/**
+		 * The request failed without a response.  Only I/O failures count against HCP, and not
+		 * plain interruptions (cancelled requests) although timeouts do.
+		 */
+		void release(Exception inException) {
+			stop();
+			complete(this, (inException instanceof IOException
+					&& InterruptedIOException.class != inException.getClass() ? 0 : -1));
+		}
+	}
+
+	private static class PendingGrant {
+		PendingGrant(boolean inLatencySample, Waiter inWaiter) {
+			bLatencySample = inLatencySample;
+			mWaiter = inWaiter;
+		}
+
+		final boolean bLatencySample;
+		final Waiter mWaiter;
+	}
+
+	private HostConcurrencyLimiter(String inHost, CometProperties inProps) {
+		mHost = inHost;
+		bAdaptive = inProps.shouldProcessorConcurrencyAdapt();
+		mMinLimit = Math.max(1, inProps.getProcessorConcurrencyMinLimit());
+		mMaxLimit = Math.max(mMinLimit, inProps.getProcessorConcurrencyMaxLimit());
+		mLimit = Math.min(mMaxLimit, Math.max(mMinLimit, inProps.getProcessorConcurrencyInitialLimit()));
+		mLatencyTolerance = inProps.getProcessorConcurrencyLatencyTolerance();
+		mLastBackoffAt = System.nanoTime() - MIN_BACKOFF_INTERVAL;
+		mBreaker = new HostCircuitBreaker(inHost, inProps);
+	}
+
+	private final String mHost;
+	private final boolean bAdaptive;
+	private final double mMinLimit;
+	private final double mMaxLimit;
+	private final double mLatencyTolerance;
+	private final HostCircuitBreaker mBreaker;
+
+	// All guarded by this.
+	private double mLimit;
+	private int mInFlight;
+	private double mSmoothedRTT;   // Nanoseconds.  0 until the first sample.
+	private long mBaseRTT = Long.MAX_VALUE;
+	private long mWindowMinRTT = Long.MAX_VALUE;
+	private int mWindowSamples;
+	private long mLastBackoffAt;
+	private long iRequests;
+	private long iBackoffs;
+	private LinkedList<PendingGrant> mPending = new LinkedList<PendingGrant>();
+
+	private boolean hasRoom() {
+		return ! bAdaptive || mInFlight < (int)mLimit;
+	}
+
+	private static boolean isLatencySample(HttpRequest inRequest) {
+		if ( ! (inRequest instanceof HttpEntityEnclosingRequest)) return true;
+
+		HttpEntity entity = ((HttpEntityEnclosingRequest)inRequest).getEntity();
+		return (null == entity || (0 <= entity.getContentLength() && entity.getContentLength() <= LATENCY_SAMPLE_MAX_BYTES));
+	}
+
+	/**
+	 * Wait until there is room for inRequest.  Throws once there is room if the circuit is open.
+	 */
+	Permit acquire(HttpRequest inRequest) throws InterruptedException, HostCircuitBreaker.CircuitOpenException {
+		synchronized (this) {
+			while ( ! hasRoom() || ! mPending.isEmpty()) {
+				wait();
+			}
+
+			// Only asked once the permit is sure to be granted, since in HALF_OPEN this claims the
+			//   one trial request, which only the completion of the request gives back.
+			mBreaker.checkAllowed();
+			mInFlight++;
+		}
+
+		return new Permit(isLatencySample(inRequest));
+	}
+
+	/**
+	 * Hand inWaiter a permit for inRequest once there is room.  This happens right away on the
+	 * calling thread if there is room now, otherwise later on the thread giving back a permit.
+	 * If the circuit is open once there is room, inWaiter is refused instead, on the same thread.
+	 */
+	void acquire(HttpRequest inRequest, Waiter inWaiter) {
+		boolean bLatencySample = isLatencySample(inRequest);
+
+		try {
+			synchronized (this) {
+				if ( ! hasRoom() || ! mPending.isEmpty()) {
+					mPending.add(new PendingGrant(bLatencySample, inWaiter));
+					return;
+				}
+
+				// As for the blocking acquire(), only once the permit is sure to be granted.
+				mBreaker.checkAllowed();
+				mInFlight++;
+			}
+		} catch (HostCircuitBreaker.CircuitOpenException e) {
+			inWaiter.refused(e);
+			return;
+		}
+
+		inWaiter.granted(new Permit(bLatencySample));
+	}
+
+	/*
+	 * inStatusCode is the HTTP status, 0 for an I/O failure, or -1 for a failure that says
+	 *   nothing about HCP.
+	 */
+	private void complete(Permit inPermit, int inStatusCode) {
+		LinkedList<PendingGrant> granted = new LinkedList<PendingGrant>();
+		LinkedList<PendingGrant> refused = new LinkedList<PendingGrant>();
+		HostCircuitBreaker.CircuitOpenException refusal = null;
+
+		synchronized (this) {
+			if (inPermit.bReleased) {
+				logger.warn("Programming Error. Concurrency permit for {} released twice", mHost);
+				return;
+			}
+			inPermit.bReleased = true;
+
+			mInFlight--;
+			iRequests++;
+
+			long now = System.nanoTime();
+			boolean bFailed = (0 == inStatusCode || 5 == inStatusCode / 100);
+
+			if (0 <= inStatusCode) {
+				mBreaker.record(bFailed);
+			} else {
+				mBreaker.abandoned();
+			}
+
+			if (0 < inStatusCode && inPermit.bLatencySample) {
+				addLatencySample(inPermit.mStoppedAt - inPermit.mStartedAt);
+			}
+
+			// Slow responses and growth only mean something while the limit is actually being used.
+			boolean bBusy = (mInFlight + 1 >= mLimit / 2);
+
+			if (bAdaptive && 0 <= inStatusCode) {
+				if (bFailed) {
+					backoff(FAILURE_BACKOFF, now);
+				} else if (bBusy && inPermit.bLatencySample && mSmoothedRTT > mBaseRTT * mLatencyTolerance) {
+					backoff(LATENCY_BACKOFF, now);
+				} else if (bBusy) {
+					mLimit = Math.min(mMaxLimit, mLimit + 1 / mLimit);
+				}
+			}
+
+			while ( ! mPending.isEmpty() && hasRoom()) {
+				PendingGrant oneGrant = mPending.poll();
+				try {
+					mBreaker.checkAllowed();
+				} catch (HostCircuitBreaker.CircuitOpenException e) {
+					refused.add(oneGrant);
+					refusal = e;
+					continue;
+				}
+
+				granted.add(oneGrant);
+				mInFlight++;
+			}
+
+			if (hasRoom()) {
+				notifyAll();
+			}
+		}
+
+		for (PendingGrant oneGrant : refused) {
+			oneGrant.mWaiter.refused(refusal);
+		}
+
+		for (PendingGrant oneGrant : granted) {
+			oneGrant.mWaiter.granted(new Permit(oneGrant.bLatencySample));
+		}
+	}
+
+	private void addLatencySample(long inRTT) {
+		mSmoothedRTT = (0 == mSmoothedRTT ? inRTT : mSmoothedRTT + RTT_SMOOTHING * (inRTT - mSmoothedRTT));
+
+		mBaseRTT = Math.min(mBaseRTT, inRTT);
+		mWindowMinRTT = Math.min(mWindowMinRTT, inRTT);
+
+		// Let the lowest RTT rise again if HCP has become slower for good.
+		if (BASE_RTT_WINDOW <= ++mWindowSamples) {
+			mBaseRTT = mWindowMinRTT;
+			mWindowMinRTT = Long.MAX_VALUE;
+			mWindowSamples = 0;
+		}
+	}
+
+	private void backoff(double inFactor, long inNow) {
+		if (inNow - mLastBackoffAt < Math.max((long)mSmoothedRTT, MIN_BACKOFF_INTERVAL)) return;
+
+		mLastBackoffAt = inNow;
+		iBackoffs++;
+
+		double oldLimit = mLimit;
+		mLimit = Math.max(mMinLimit, mLimit * inFactor);
+
+		logger.debug("Concurrency limit for {} lowered from {} to {}", mHost, (int)oldLimit, (int)mLimit);
+	}
+}
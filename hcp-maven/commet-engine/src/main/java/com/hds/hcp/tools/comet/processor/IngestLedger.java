@@ -0,0 +1,365 @@
+package com.hds.hcp.tools.comet.processor;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.hds.hcp.tools.comet.BaseWorkItem;
+import com.hds.hcp.tools.comet.FileSystemItem;
+import com.hds.hcp.tools.comet.utils.StaticUtils;
+
+/**
+ * Persistent record of every object successfully written to HCP.
+ *
+ * Each successful write appends one record (destination URI, source path, size, modification
+ * time, HCP hash, and custom metadata annotations) to an append-only log file. The log is
+ * loaded into an in-memory index keyed by destination URI when opened, so a processor can
+ * tell whether an object and its custom metadata already exist on HCP without a HEAD request,
+ * as long as the source item has not changed since it was written.
+ *
+ * Records are length prefixed and carry a CRC. A record torn by a crash is detected when the
+ * log is opened and the log is truncated back to the last good record. When the log contains
+ * many superseded records it is compacted into a new file that replaces the old one.
+ *
+ * The ledger is shared by all processor threads using the same file. Use open() and
+ * release() to obtain and give back the shared instance.
+ */
+public class IngestLedger {
+	private static Logger logger = LogManager.getLogger();
+
+	private static final int RECORD_HEADER_SIZE = 8; // Length + CRC
+	private static final int MAX_RECORD_SIZE = 1024*1024;
+	private static final int COMPACTION_MIN_RECORDS = 10000;
+	private static final int SYNC_RECORD_INTERVAL = 1000;
+
+	/*
+	 * Shared instances by canonical ledger file path.
+	 */
+	private static final Map<String, IngestLedger> sLedgers = new HashMap<String, IngestLedger>();
+
+	public static IngestLedger open(String inFileName) throws IOException {
+		File ledgerFile = new File(inFileName).getCanonicalFile();
+
+		synchronized (sLedgers) {
+			IngestLedger retval = sLedgers.get(ledgerFile.getPath());
+			if (null == retval) {
+				retval = new IngestLedger(ledgerFile);
+				sLedgers.put(ledgerFile.getPath(), retval);
+			}
+			retval.mRefCount++;
+
+			return retval;
+		}
+	}
+
+	public void release() {
+		synchronized (sLedgers) {
+			if (0 < --mRefCount) return;
+
+			sLedgers.remove(mFile.getPath());
+		}
+
+		close();
+	}
+
+	/**
+	 * One ledger record.  Immutable once constructed.
+	 */
+	public static class Entry {
+		Entry(String inURI, String inSourcePath, long inSize, long inModifiedTime, String inHash, Set<String> inAnnotations) {
+			mURI = inURI;
+			mSourcePath = inSourcePath;
+			mSize = inSize;
+			mModifiedTime = inModifiedTime;
+			mHash = (null == inHash ? "" : inHash);
+			mAnnotations = Collections.unmodifiableSet(new HashSet<String>(inAnnotations));
+		}
+
+		private final String mURI;
+		private final String mSourcePath;
+		private final long mSize;
+		private final long mModifiedTime;
+		private final String mHash;
+		private final Set<String> mAnnotations;
+
+		public String getURI() { return mURI; }
+		public String getSourcePath() { return mSourcePath; }
+		public long getSize() { return mSize; }
+		public long getModifiedTime() { return mModifiedTime; }
+		public String getHash() { return mHash; }
+		public Set<String> getAnnotations() { return mAnnotations; }
+
+		byte[] toBytes() throws IOException {
+			ByteArrayOutputStream byteStream = new ByteArrayOutputStream(256);
+			DataOutputStream out = new DataOutputStream(byteStream);
+
+			out.writeUTF(mURI);
+			out.writeUTF(mSourcePath);
+			out.writeLong(mSize);
+			out.writeLong(mModifiedTime);
+			out.writeUTF(mHash);
+			out.writeShort(mAnnotations.size());
+			for (String oneAnnotation : mAnnotations) {
+				out.writeUTF(oneAnnotation);
+			}
+			out.flush();
+
+			return byteStream.toByteArray();
+		}
+
+		static Entry fromBytes(byte[] inBytes) throws IOException {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(inBytes));
+
+			String uri = in.readUTF();
+			String sourcePath = in.readUTF();
+			long size = in.readLong();
+			long modifiedTime = in.readLong();
+			String hash = in.readUTF();
+			int count = in.readShort();
+			Set<String> annotations = new HashSet<String>();
+			for (int i = 0; i < count; i++) {
+				annotations.add(in.readUTF());
+			}
+
+			return new Entry(uri, sourcePath, size, modifiedTime, hash, annotations);
+		}
+	}
+
+	private File mFile;
+	private int mRefCount = 0;
+	private FileChannel mChannel;
+	private ConcurrentHashMap<String, Entry> mIndex = new ConcurrentHashMap<String, Entry>();
+	private long mRecordCount = 0;
+	private int mUnsyncedCount = 0;
+
+	private IngestLedger(File inFile) throws IOException {
+		mFile = inFile;
+
+		load();
+
+		// Too many superseded records?  Rewrite with only the live ones.
+		if (COMPACTION_MIN_RECORDS < mRecordCount && mRecordCount > 2 * mIndex.size()) {
+			compact();
+		}
+
+		mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+		mChannel.position(mChannel.size());
+
+		logger.info("Opened ingest ledger {} ({} objects)", mFile.getPath(), mIndex.size());
+	}
+
+	/*
+	 * Read all good records into the index.  Anything after the last good record is a torn
+	 * write from a crash and is cut off.
+	 */
+	private void load() throws IOException {
+		StaticUtils.TRACE_METHOD_ENTER(logger);
+
+		if ( ! mFile.exists()) {
+			StaticUtils.TRACE_METHOD_EXIT(logger, "New ledger");
+			return;
+		}
+
+		RandomAccessFile ledgerFile = new RandomAccessFile(mFile, "rw");
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					Channels.newInputStream(ledgerFile.getChannel()), 64*1024));
+			long goodLength = 0;
+			CRC32 crc = new CRC32();
+
+			while (true) {
+				int length, storedCRC;
+				byte[] payload;
+				try {
+					length = in.readInt();
+					storedCRC = in.readInt();
+					if (length <= 0 || length > MAX_RECORD_SIZE) break;
+
+					payload = new byte[length];
+					in.readFully(payload);
+				} catch (EOFException e) {
+					break;
+				}
+
+				crc.reset();
+				crc.update(payload, 0, payload.length);
+				if ((int)crc.getValue() != storedCRC) break;
+
+				Entry oneEntry = Entry.fromBytes(payload);
+				mIndex.put(oneEntry.getURI(), oneEntry);
+				mRecordCount++;
+
+				goodLength += RECORD_HEADER_SIZE + length;
+			}
+
+			if (goodLength < ledgerFile.length()) {
+				logger.warn("Ingest ledger {} has an incomplete record at offset {}. Truncating.", mFile.getPath(), goodLength);
+				ledgerFile.getChannel().truncate(goodLength);
+			}
+		} finally {
+			ledgerFile.close();
+		}
+
+		StaticUtils.TRACE_METHOD_EXIT(logger);
+	}
+
+	private synchronized void compact() throws IOException {
+		logger.info("Compacting ingest ledger {} ({} records, {} objects)", mFile.getPath(), mRecordCount, mIndex.size());
+
+		File tmpFile = new File(mFile.getPath() + ".compact");
+		FileChannel tmpChannel = new RandomAccessFile(tmpFile, "rw").getChannel();
+		try {
+			tmpChannel.truncate(0);
+			for (Entry oneEntry : mIndex.values()) {
+				writeRecord(tmpChannel, oneEntry);
+			}
+			tmpChannel.force(true);
+		} finally {
+			tmpChannel.close();
+		}
+
+		Files.move(tmpFile.toPath(), mFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		mRecordCount = mIndex.size();
+	}
+
+	private static void writeRecord(FileChannel inChannel, Entry inEntry) throws IOException {
+		byte[] payload = inEntry.toBytes();
+
+		CRC32 crc = new CRC32();
+		crc.update(payload, 0, payload.length);
+
+		ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+		buffer.putInt(payload.length);
+		buffer.putInt((int)crc.getValue());
+		buffer.put(payload);
+		buffer.flip();
+
+		while (buffer.hasRemaining()) {
+			inChannel.write(buffer);
+		}
+	}
+
+	private synchronized void close() {
+		if (null == mChannel) return;
+
+		try {
+			mChannel.force(true);
+			mChannel.close();
+		} catch (IOException e) {
+			logger.warn("Unexpected exception closing ingest ledger " + mFile.getPath(), e);
+		}
+		mChannel = null;
+	}
+
+	/**
+	 * The ledger can only vouch for items it can identify by file size and modification time.
+	 */
+	static boolean canTrack(BaseWorkItem inItem) {
+		return (inItem.getHandle() instanceof File);
+	}
+
+	/*
+	 * Size and modification time of the source file.  The scanner may already have read them.
+	 */
+	private static long getSize(BaseWorkItem inItem) {
+		return (inItem instanceof FileSystemItem ? ((FileSystemItem)inItem).getSize() : ((File)inItem.getHandle()).length());
+	}
+
+	private static long getLastModified(BaseWorkItem inItem) {
+		return (inItem instanceof FileSystemItem ? ((FileSystemItem)inItem).getLastModified() : ((File)inItem.getHandle()).lastModified());
+	}
+
+	/**
+	 * Look up the object written to inURI from inItem.  Returns null if the ledger has no record
+	 * of it, or the source item has changed since the record was written.
+	 */
+	public Entry lookup(String inURI, BaseWorkItem inItem) {
+		if ( ! canTrack(inItem)) return null;
+
+		Entry retval = mIndex.get(inURI);
+		if (null == retval) return null;
+
+		if (retval.getSize() != getSize(inItem) || retval.getModifiedTime() != getLastModified(inItem)) {
+			logger.debug("Ledger record for {} is stale. Source item changed.", inURI);
+			return null;
+		}
+
+		return retval;
+	}
+
+	/**
+	 * Record a successful write of inItem to inURI.
+	 */
+	public void record(String inURI, BaseWorkItem inItem, String inHash, Set<String> inAnnotations) {
+		if ( ! canTrack(inItem)) return;
+
+		Entry newEntry = new Entry(inURI, ((File)inItem.getHandle()).getPath(), getSize(inItem), getLastModified(inItem),
+				inHash, inAnnotations);
+
+		// Nothing to do if the ledger already says exactly this.
+		Entry oldEntry = mIndex.get(inURI);
+		if (null != oldEntry && oldEntry.getSize() == newEntry.getSize()
+				&& oldEntry.getModifiedTime() == newEntry.getModifiedTime()
+				&& oldEntry.getHash().equals(newEntry.getHash())
+				&& oldEntry.getAnnotations().equals(newEntry.getAnnotations())) {
+			return;
+		}
+
+		synchronized (this) {
+			if (null == mChannel) return;
+
+			long offset = -1;
+			try {
+				offset = mChannel.position();
+				writeRecord(mChannel, newEntry);
+				mRecordCount++;
+
+				if (SYNC_RECORD_INTERVAL <= ++mUnsyncedCount) {
+					mChannel.force(false);
+					mUnsyncedCount = 0;
+				}
+			} catch (IOException e) {
+				// Not fatal.  Worst case the next run will do a HEAD for this object.
+				logger.warn("Failed to write ingest ledger record for " + inURI, e);
+
+				// Take back whatever part of the record was written.  Left in the middle of the log, it
+				//   would make load() drop every record written after it.
+				if (0 <= offset) {
+					try {
+						mChannel.truncate(offset);
+						mChannel.position(offset);
+					} catch (IOException e2) {
+						logger.warn("Unable to remove partial record from ingest ledger " + mFile.getPath() + ". Closing it.", e2);
+						close();
+					}
+				}
+				return;
+			}
+
+			// Under the same lock as the write, so the index never runs ahead of or behind the file.
+			mIndex.put(inURI, newEntry);
+		}
+	}
+}
@@ -0,0 +1,435 @@
+package com.hds.hcp.tools.comet.processor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.InputMismatchException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+
+import com.hds.hcp.apihelpers.FileChannelEntity;
+import com.hds.hcp.apihelpers.HCPUtils;
+import com.hds.hcp.tools.comet.BaseWorkItem;
+import com.hds.hcp.tools.comet.CometProperties;
+import com.hds.hcp.tools.comet.FileSystemItem;
+import com.hds.hcp.tools.comet.WorkItemStatus;
+import com.hds.hcp.tools.comet.utils.StaticUtils;
+import com.hds.hcp.tools.comet.utils.URIWrapper;
+
+/**
+ * Writes the content of one large file to HCP with a multipart upload.
+ *
+ * The file is split into parts that are uploaded concurrently over pooled connections
+ * by a thread pool shared by all processor threads. The object only appears on HCP once
+ * the upload is completed. If any part still fails after its retries, the upload is
+ * aborted and nothing is left behind.
+ *
+ * When hash validation is configured, each part is hashed while it is sent and checked
+ * against the ETag (MD5) HCP returns for the part. Part progress is reported through
+ * WorkItemStatus.setPartStatus().
+ */
+class MultipartUploader {
+	private static Logger logger = LogManager.getLogger();
+
+	static final float MIN_HCP_VERSION = 8.0f;
+
+	private static final long MEGABYTE = 1024*1024;
+	private static final long MIN_PART_SIZE = 5 * MEGABYTE;  // Except for the last part.
+	private static final int MAX_PARTS = 10000;
+
+	/*
+	 * Part upload threads shared by all processor instances.
+	 */
+	private static final Object sSharedLock = new Object();
+	private static int sSharedRefCount = 0;
+	private static ExecutorService sPartExecutor;
+
+	static void acquire(CometProperties inProps) {
+		synchronized (sSharedLock) {
+			if (0 == sSharedRefCount) {
+				sPartExecutor = Executors.newFixedThreadPool(inProps.getProcessorMultipartThreadCount());
+			}
+			sSharedRefCount++;
+		}
+	}
+
+	static void release() {
+		synchronized (sSharedLock) {
+			if (0 == --sSharedRefCount) {
+				sPartExecutor.shutdownNow();
+				sPartExecutor = null;
+			}
+		}
+	}
+
+	/**
+	 * Only local files at or above the configured threshold are uploaded in parts.
+	 */
+	static boolean shouldUse(CometProperties inProps, BaseWorkItem inItem) {
+		long threshold = inProps.getProcessorMultipartThresholdInMB() * MEGABYTE;
+
+		return (0 < threshold && inItem instanceof FileSystemItem
+				&& threshold <= ((FileSystemItem)inItem).getSize());
+	}
+
+	MultipartUploader(HttpClient inHttpClient, CometProperties inProps, Header inAuthHeader,
+			URIWrapper inObjectURI, File inFile, WorkItemStatus inStatus) {
+		mHttpClient = inHttpClient;
+		mProps = inProps;
+		mAuthHeader = inAuthHeader;
+		mObjectURI = inObjectURI;
+		mFile = inFile;
+		mStatus = inStatus;
+	}
+
+	private HttpClient mHttpClient;
+	private CometProperties mProps;
+	private Header mAuthHeader;
+	private URIWrapper mObjectURI;
+	private File mFile;
+	private WorkItemStatus mStatus;
+
+	private String mUploadId;
+	private AtomicInteger mPartsWritten = new AtomicInteger(0);
+	private AtomicInteger mPartRetries = new AtomicInteger(0);
+
+	// Part uploads running, and whether they are being stopped.  Guarded by mPartLock.
+	private final Object mPartLock = new Object();
+	private int mPartsRunning = 0;
+	private boolean bStopping = false;
+
+	/**
+	 * Upload the file.  Throws if the object could not be written.
+	 */
+	void upload() throws Exception {
+		StaticUtils.TRACE_METHOD_ENTER(logger);
+
+		long fileLength = mFile.length();
+		long partSize = Math.max(mProps.getProcessorMultipartPartSizeInMB() * MEGABYTE, MIN_PART_SIZE);
+		if (MAX_PARTS < (fileLength + partSize - 1) / partSize) {
+			partSize = (fileLength + MAX_PARTS - 1) / MAX_PARTS;
+		}
+		int partCount = (int)((fileLength + partSize - 1) / partSize);
+
+		mStatus.setPartStatus(partCount, 0, 0);
+
+		initiate();
+
+		logger.debug("Uploading {} in {} parts of {} bytes (Upload ID {})", mObjectURI.toString(), partCount, partSize, mUploadId);
+
+		List<Future<String>> partResults = new ArrayList<Future<String>>(partCount);
+		try {
+			for (int partIdx = 0; partIdx < partCount; partIdx++) {
+				long offset = partIdx * partSize;
+				partResults.add(sPartExecutor.submit(
+						new PartTask(partIdx + 1, offset, Math.min(partSize, fileLength - offset))));
+			}
+
+			List<String> eTags = new ArrayList<String>(partCount);
+			for (Future<String> onePart : partResults) {
+				try {
+					eTags.add(onePart.get());
+				} catch (ExecutionException e) {
+					throw (e.getCause() instanceof Exception ? (Exception)e.getCause() : e);
+				}
+			}
+
+			complete(eTags);
+		} catch (Exception e) {
+			stopParts(partResults);
+
+			abort();
+
+			throw e;
+		} finally {
+			mStatus.setPartStatus(partCount, mPartsWritten.get(), mPartRetries.get());
+		}
+
+		StaticUtils.TRACE_METHOD_EXIT(logger);
+	}
+
+	/*
+	 * Cancel the parts not started yet and wait for the running ones to finish, so no part can
+	 * complete after the upload is aborted.  Running parts are not interrupted, as that would close
+	 * the file channel under the HTTP client; parts backing off are woken and do not retry again.
+	 */
+	private void stopParts(List<Future<String>> inParts) {
+		synchronized (mPartLock) {
+			bStopping = true;
+			mPartLock.notifyAll();
+		}
+
+		for (Future<String> onePart : inParts) {
+			onePart.cancel(false);
+		}
+
+		boolean bInterrupted = false;
+		synchronized (mPartLock) {
+			while (0 < mPartsRunning) {
+				try {
+					mPartLock.wait();
+				} catch (InterruptedException e) {
+					bInterrupted = true;
+				}
+			}
+		}
+
+		if (bInterrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private boolean isStopping() {
+		synchronized (mPartLock) {
+			return bStopping;
+		}
+	}
+
+	/*
+	 * Back off before retrying a part.  Returns false if the upload is being stopped.
+	 */
+	private boolean backOff(long inDelay) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + inDelay;
+
+		synchronized (mPartLock) {
+			long remaining = inDelay;
+			while ( ! bStopping && 0 < remaining) {
+				mPartLock.wait(remaining);
+				remaining = deadline - System.currentTimeMillis();
+			}
+
+			return ! bStopping;
+		}
+	}
+
+	/*
+	 * Upload of one part, retried on I/O failures, 5xx responses and hash mismatches, backing off
+	 * between attempts like the retry of whole items.  A refusal by the open circuit breaker of the
+	 * HCP is not retried here; the item as a whole is retried once the breaker lets requests through.
+	 */
+	private class PartTask implements Callable<String> {
+		PartTask(int inPartNumber, long inOffset, long inLength) {
+			mPartNumber = inPartNumber;
+			mOffset = inOffset;
+			mLength = inLength;
+		}
+
+		private int mPartNumber;
+		private long mOffset;
+		private long mLength;
+
+		public String call() throws Exception {
+			synchronized (mPartLock) {
+				if (bStopping) throw new InterruptedException("Multipart upload of " + mObjectURI.toString() + " stopped");
+
+				mPartsRunning++;
+			}
+
+			try {
+				return putPartWithRetries();
+			} finally {
+				synchronized (mPartLock) {
+					mPartsRunning--;
+					mPartLock.notifyAll();
+				}
+			}
+		}
+
+		private String putPartWithRetries() throws Exception {
+			int retriesLeft = mProps.getProcessorMultipartPartRetryCount();
+			int attempt = 0;
+
+			while (true) {
+				Exception failure;
+				try {
+					return putPart();
+				} catch (HostCircuitBreaker.CircuitOpenException e) {
+					throw e;
+				} catch (HttpResponseException e) {
+					if (5 != e.getStatusCode() / 100 || 0 >= retriesLeft || isStopping()) throw e;
+
+					logger.warn("Retrying part {} of {} ({})", mPartNumber, mObjectURI.toString(), e.getMessage());
+					failure = e;
+				} catch (IOException | InputMismatchException e) {
+					if (0 >= retriesLeft || isStopping()) throw e;
+
+					logger.warn("Retrying part {} of {} ({})", mPartNumber, mObjectURI.toString(), e.getMessage());
+					failure = e;
+				}
+
+				retriesLeft--;
+				mPartRetries.incrementAndGet();
+
+				if ( ! backOff(RetryScheduler.getBackoffDelay(mProps, attempt++))) throw failure;
+			}
+		}
+
+		private String putPart() throws Exception {
+			URIWrapper partURI = new URIWrapper(mObjectURI);
+			partURI.addQueryParam("uploadId", mUploadId);
+			partURI.addQueryParam("partNumber", String.valueOf(mPartNumber));
+
+			HttpPut httpRequest = new HttpPut(partURI.toString());
+
+			MessageDigest partDigest = (mProps.getProcessorValidateHash() ? MessageDigest.getInstance("MD5") : null);
+			httpRequest.setEntity(new FileChannelEntity(mFile, mOffset, mLength, null, partDigest));
+
+			HttpResponse httpResponse = execute(httpRequest);
+			try {
+				Header eTagHeader = httpResponse.getFirstHeader("ETag");
+				if (null == eTagHeader) {
+					throw new HttpResponseException(httpResponse.getStatusLine().getStatusCode(),
+							"Expected HTTP header ETag is missing from part upload response");
+				}
+				String eTag = eTagHeader.getValue().replace("\"", "");
+
+				if (null != partDigest) {
+					String computedHash = HCPHashValidator.toHexString(partDigest.digest());
+					if ( ! computedHash.equalsIgnoreCase(eTag)) {
+						throw new InputMismatchException("HCP hash of part " + mPartNumber + " (" + eTag
+								+ ") does not match computed hash (" + computedHash + ")");
+					}
+				}
+
+				mPartsWritten.incrementAndGet();
+
+				return eTag;
+			} finally {
+				EntityUtils.consume(httpResponse.getEntity());
+			}
+		}
+	}
+
+	private void initiate() throws Exception {
+		URIWrapper initiateURI = new URIWrapper(mObjectURI);
+		initiateURI.addQueryParam("uploads");
+
+		HttpResponse httpResponse = execute(new HttpPost(initiateURI.toString()));
+		try {
+			mUploadId = readElementText(httpResponse.getEntity().getContent(), "UploadId");
+		} finally {
+			EntityUtils.consume(httpResponse.getEntity());
+		}
+
+		if (null == mUploadId) {
+			throw new HttpResponseException(httpResponse.getStatusLine().getStatusCode(),
+					"No UploadId returned when starting multipart upload");
+		}
+	}
+
+	private void complete(List<String> inETags) throws Exception {
+		URIWrapper completeURI = new URIWrapper(mObjectURI);
+		completeURI.addQueryParam("uploadId", mUploadId);
+
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		XMLStreamWriter xmlWriter = XMLOutputFactory.newInstance().createXMLStreamWriter(body, "UTF-8");
+		xmlWriter.writeStartDocument("UTF-8", "1.0");
+		xmlWriter.writeStartElement("CompleteMultipartUpload");
+		for (int partIdx = 0; partIdx < inETags.size(); partIdx++) {
+			xmlWriter.writeStartElement("Part");
+			xmlWriter.writeStartElement("PartNumber");
+			xmlWriter.writeCharacters(String.valueOf(partIdx + 1));
+			xmlWriter.writeEndElement();
+			xmlWriter.writeStartElement("ETag");
+			xmlWriter.writeCharacters("\"" + inETags.get(partIdx) + "\"");
+			xmlWriter.writeEndElement();
+			xmlWriter.writeEndElement();
+		}
+		xmlWriter.writeEndElement();
+		xmlWriter.writeEndDocument();
+		xmlWriter.close();
+
+		HttpPost httpRequest = new HttpPost(completeURI.toString());
+		httpRequest.setEntity(new ByteArrayEntity(body.toByteArray(), ContentType.APPLICATION_XML));
+
+		EntityUtils.consume(execute(httpRequest).getEntity());
+
+		logger.debug("Completed multipart upload of {}", mObjectURI.toString());
+	}
+
+	private void abort() {
+		if (null == mUploadId) return;
+
+		try {
+			URIWrapper abortURI = new URIWrapper(mObjectURI);
+			abortURI.addQueryParam("uploadId", mUploadId);
+
+			EntityUtils.consume(execute(new HttpDelete(abortURI.toString())).getEntity());
+		} catch (Exception e) {
+			logger.warn("Failed to abort multipart upload of " + mObjectURI.toString() + " (Upload ID " + mUploadId + ")", e);
+		}
+	}
+
+	/*
+	 * Execute the request and throw for anything but a 2xx response.
+	 */
+	private HttpResponse execute(HttpUriRequest inRequest) throws IOException {
+		inRequest.setHeader(mAuthHeader);
+
+		HttpResponse httpResponse = HostConcurrencyLimiter.execute(mHttpClient, inRequest, mProps);
+
+		// For debugging purposes, dump out the HTTP Response.
+		if (mProps.shouldDumpHTTPHeaders())
+			HCPUtils.dumpHttpResponse(httpResponse);
+
+		if (2 != httpResponse.getStatusLine().getStatusCode() / 100) {
+			// Clean up after ourselves and release the HTTP connection to the
+			// connection manager.
+			EntityUtils.consume(httpResponse.getEntity());
+
+			throw new HttpResponseException(httpResponse.getStatusLine()
+					.getStatusCode(), "Unexpected status returned from "
+					+ inRequest.getMethod() + " ("
+					+ httpResponse.getStatusLine().getStatusCode() + ": "
+					+ httpResponse.getStatusLine().getReasonPhrase() + ")");
+		}
+
+		return httpResponse;
+	}
+
+	private static String readElementText(InputStream inStream, String inElement) throws XMLStreamException {
+		XMLStreamReader xmlReader = XMLInputFactory.newInstance().createXMLStreamReader(inStream);
+		try {
+			while (xmlReader.hasNext()) {
+				if (XMLStreamConstants.START_ELEMENT == xmlReader.next()
+						&& inElement.equals(xmlReader.getLocalName())) {
+					return xmlReader.getElementText().trim();
+				}
+			}
+		} finally {
+			xmlReader.close();
+		}
+
+		return null;
+	}
+}
@@ -43,7 +43,7 @@ public class ProcessorEchoHCPItem extends BaseItemProcessor {
 				throw new java.lang.ClassCastException("Invalid object type for input parameter inInitBlob");
 			}
 			
-			mMetadataGenerator = new MetadataExtractor();
+			mMetadataGenerator = new MetadataExtractor(mProps);
 			
 			bIsInitialized = true;
 		}
@@ -51,6 +51,14 @@ public class ProcessorEchoHCPItem extends BaseItemProcessor {
 		StaticUtils.TRACE_METHOD_EXIT(logger);
 	}
 
+	@Override
+	public void close() {
+		if (null != mMetadataGenerator) {
+			mMetadataGenerator.close();
+			mMetadataGenerator = null;
+		}
+	}
+
 	public boolean process(BaseWorkItem inElement) {
 		StaticUtils.TRACE_METHOD_ENTER(logger);
 
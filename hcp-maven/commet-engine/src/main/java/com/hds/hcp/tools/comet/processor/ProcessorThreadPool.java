@@ -1,6 +1,6 @@
 package com.hds.hcp.tools.comet.processor;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -11,8 +11,12 @@ import org.apache.http.client.HttpClient;
 import com.hds.hcp.apihelpers.HCPUtils;
 import com.hds.hcp.tools.comet.BaseWorkItem;
 import com.hds.hcp.tools.comet.CometProperties;
+import com.hds.hcp.tools.comet.FairWorkItemQueue;
+import com.hds.hcp.tools.comet.LinkedWorkItemQueue;
 import com.hds.hcp.tools.comet.PauseStopProcessor;
+import com.hds.hcp.tools.comet.RingBufferWorkItemQueue;
 import com.hds.hcp.tools.comet.ThreadPoolQueueInterface;
+import com.hds.hcp.tools.comet.WorkItemQueue;
 import com.hds.hcp.tools.comet.WorkItemStatus.WriteStatus;
 import com.hds.hcp.tools.comet.utils.StaticUtils;
 
@@ -29,8 +33,9 @@ public class ProcessorThreadPool implements ThreadPoolQueueInterface {
 	
 	private CometProperties mProps;
 	private HttpClient mHttpClient;
+	private RetryScheduler mRetryScheduler;
 	
-	private LinkedBlockingQueue<BaseWorkItem> itemQueue;
+	private WorkItemQueue itemQueue;
 	
 	public void initialize() throws Exception {
 		StaticUtils.TRACE_METHOD_ENTER(logger);
@@ -52,8 +57,21 @@ public class ProcessorThreadPool implements ThreadPoolQueueInterface {
 				mProps.getHttpClientMaxConnectionsPerRoute());
 
 		// Allocate the item input queue
-		itemQueue = new LinkedBlockingQueue<BaseWorkItem>(mProps.getProcessorTaskQueueSize());
+		if ("ring".equalsIgnoreCase(mProps.getProcessorQueueType())) {
+			logger.info("Using ring buffer processor queue");
+
+			itemQueue = new RingBufferWorkItemQueue(mProps.getProcessorTaskQueueSize());
+		} else if ("fair".equalsIgnoreCase(mProps.getProcessorQueueType())) {
+			logger.info("Using fair processor queue across source items");
+
+			itemQueue = new FairWorkItemQueue(mProps.getProcessorTaskQueueSize(), mProps.getProcessorFairQuantum());
+		} else {
+			itemQueue = new LinkedWorkItemQueue(mProps.getProcessorTaskQueueSize());
+		}
 		
+		// Items that failed for a transient reason wait here to be put back on the item queue.
+		mRetryScheduler = new RetryScheduler(mProps, this);
+
  	    bIsInitialized = true;
 
 		StaticUtils.TRACE_METHOD_EXIT(logger);
@@ -65,6 +83,9 @@ public class ProcessorThreadPool implements ThreadPoolQueueInterface {
 	public boolean itemAdd(BaseWorkItem inItem, long inTimeout) throws InterruptedException {
 		return itemQueue.offer(inItem, inTimeout, TimeUnit.SECONDS);
 	}
+	public int itemAddAll(List<BaseWorkItem> inItems, long inTimeout) throws InterruptedException {
+		return itemQueue.offerAll(inItems, inTimeout, TimeUnit.SECONDS);
+	}
 	
 	public BaseWorkItem itemTake() throws InterruptedException { return itemQueue.take(); }
 	
@@ -76,8 +97,9 @@ public class ProcessorThreadPool implements ThreadPoolQueueInterface {
 	
 			logger.debug("Thread Start");
 
+			BaseItemProcessor itemProcessor = null;
+
 			try {
-				BaseItemProcessor itemProcessor;
 				BaseWorkItem oneItem;
 
 				mPauseStopProcessor = new PauseStopProcessor(mProps);
@@ -91,6 +113,7 @@ public class ProcessorThreadPool implements ThreadPoolQueueInterface {
 				Class<BaseItemProcessor> processorClass = (Class<BaseItemProcessor>) Class.forName(mProps.getProcessorClass());
 				
 				itemProcessor = (BaseItemProcessor)processorClass.newInstance();
+				itemProcessor.setRetryScheduler(mRetryScheduler);
 				itemProcessor.initialize(mProps, mHttpClient);
 				
 				/**
@@ -115,11 +138,17 @@ public class ProcessorThreadPool implements ThreadPoolQueueInterface {
 					
 					logger.debug("Received Item: {}", oneItem.getName());
 					
+					// Asynchronous processors complete the item themselves once they accept it.
+					boolean bHandedOff = false;
 					try {
-						itemProcessor.process(oneItem);
+						bHandedOff = itemProcessor.process(oneItem) && itemProcessor.isAsynchronous();
 						
-						oneItem.getStatus().setObjectStatus(itemProcessor.getStatus().getObjectStatus());
-						oneItem.getStatus().setCustomMetadataStatus(itemProcessor.getStatus().getCustomMetadataStatus());
+						if ( ! bHandedOff ) {
+							oneItem.getStatus().setObjectStatus(itemProcessor.getStatus().getObjectStatus());
+							oneItem.getStatus().setCustomMetadataStatus(itemProcessor.getStatus().getCustomMetadataStatus());
+							oneItem.getStatus().setPartStatus(itemProcessor.getStatus());
+							oneItem.getStatus().setException(itemProcessor.getStatus().getException());
+						}
 					} catch (Exception e) {
 						// Save exception for this failure.
 						oneItem.getStatus().setException(e);
@@ -136,10 +165,13 @@ public class ProcessorThreadPool implements ThreadPoolQueueInterface {
 						} else {
 							oneItem.getStatus().setCustomMetadataStatus(itemProcessor.getStatus().getCustomMetadataStatus());
 						}
+						oneItem.getStatus().setPartStatus(itemProcessor.getStatus());
 					}
 	
-					// Mark this one complete.
-					oneItem.markProcessed();
+					// Mark this one complete, unless it failed in a way worth another try.
+					if ( ! bHandedOff && ! mRetryScheduler.retryLater(oneItem) ) {
+						oneItem.markProcessed();
+					}
 
 					// Dereference to prepare for next.
 					oneItem = null;
@@ -164,6 +196,10 @@ public class ProcessorThreadPool implements ThreadPoolQueueInterface {
 				return;
 			} catch (Exception e) {
 				logger.fatal("Thread Aborted (Unhandled Exception)", e);
+			} finally {
+				if (null != itemProcessor) {
+					itemProcessor.close();
+				}
 			}
 			
 			logger.debug("Thread Exiting");
@@ -180,6 +216,8 @@ public class ProcessorThreadPool implements ThreadPoolQueueInterface {
 			return false;
 		}
 		
+		mRetryScheduler.start();
+
 		// Start up the number of threads that is configured (default is 1).
 		int numThreads = mProps.getProcessorThreadCount();
 		mThreadArray = new Thread[numThreads];
@@ -216,6 +254,8 @@ public class ProcessorThreadPool implements ThreadPoolQueueInterface {
 			mThreadArray[i].join(mProps.getProcessorThreadMaxJoinWait() * 1000);
 		}
 
+		mRetryScheduler.stop();
+
 		StaticUtils.TRACE_METHOD_EXIT(logger);
 		return true;
 	}
@@ -7,9 +7,7 @@ import java.io.InputStream;
 import java.io.SequenceInputStream;
 import java.net.URISyntaxException;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.HashSet;
-import java.util.InputMismatchException;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.ListIterator;
@@ -32,9 +30,11 @@ import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.util.EntityUtils;
 
+import com.hds.hcp.apihelpers.FileChannelEntity;
 import com.hds.hcp.apihelpers.HCPUtils;
 import com.hds.hcp.tools.comet.BaseWorkItem;
 import com.hds.hcp.tools.comet.CometProperties;
+import com.hds.hcp.tools.comet.FileSystemItem;
 import com.hds.hcp.tools.comet.MetadataExtractor;
 import com.hds.hcp.tools.comet.WorkItemStatus.WriteStatus;
 import com.hds.hcp.tools.comet.generator.CustomMetadataContainer;
@@ -45,22 +45,19 @@ import com.hds.hcp.tools.comet.utils.URIWrapper;
 
 //
 // TODO:
-// TODO:  Need retry processor (5xx errors) and better error reporting for HTTP failures (4xx).
+// TODO:  Need better error reporting for HTTP failures (4xx).
 // TODO:
 
 public class ProcessorToHCP extends BaseItemProcessor {
 	private static Logger logger = LogManager.getLogger();
 
 	// Local member variables.
-	private Boolean bCanUseWholeIO = false;
-	private Boolean bCanUseAuthorizationHeader = false;
-	private Boolean bCanUseAnnotations = false;
+	private Boolean bUsingMultipart = false;
 	private HttpClient mHttpClient;
-	private String sHCPVersion;
+	private HCPCapabilities.Features mFeatures;  // Of the HCP the current object goes to.
 	private MetadataExtractor mMetadataGenerator;
-
-	private static String UNKNOWN_HCP_VERSION = "<unknown>";
-	private static final int HASH_READ_BUFFER_SIZE = 8*1024;
+	private IngestLedger mLedger;
+	private String sLastObjectHash;
 
 	public enum ObjectStateEnum {
 		OBJECT_DOES_NOT_EXIST, OBJECT_ONLY, OBJECT_AND_CUSTOM_METADATA
@@ -82,10 +79,14 @@ public class ProcessorToHCP extends BaseItemProcessor {
 			mAnnotationList.add(inName);
 			mState = ObjectStateEnum.OBJECT_AND_CUSTOM_METADATA;
 		}
+
+		public HashSet<String> getAnnotations() {
+			return mAnnotationList;
+		}
 	}
 
 	private Header constructAuthorizationHeader(ObjectContainer inMetadata) {
-		if (!bCanUseAuthorizationHeader) {
+		if (!mFeatures.bCanUseAuthorizationHeader) {
 			// Pre-6.0 Style
 			return new BasicHeader("Cookie", HCPUtils.NS_AUTH_COOKIE_LEGACY
 					+ "=" + inMetadata.getSystemMetadata().getCredentials());
@@ -121,29 +122,23 @@ public class ProcessorToHCP extends BaseItemProcessor {
 
 			mHttpClient = (HttpClient) inInitBlob;
 
-			mMetadataGenerator = new MetadataExtractor();
+			mMetadataGenerator = new MetadataExtractor(mProps);
 
-			// Determine if we can use Whole I/O by looking at the version
-			// number.
-			sHCPVersion = GetHCPVersion(mProps.getDestinationRootPath());
-			logger.debug("Detected HCP Version: {}", sHCPVersion);
-			try {
-				Float tmpValue = Float.valueOf(sHCPVersion.substring(0, 3));
-				if (4.1 <= tmpValue) {
-					bCanUseWholeIO = true;
+			// Use the ingest ledger to avoid HEAD requests for objects already written.
+			String ledgerFile = mProps.getProcessorLedgerFile();
+			if (null != ledgerFile) {
+				mLedger = IngestLedger.open(ledgerFile);
+			}
 
-					logger.debug("Will be using Whole I/O for content");
-				}
-				if (6.0 <= tmpValue) {
-					bCanUseAuthorizationHeader = true;
-					bCanUseAnnotations = true;
+			// Find out what the destination HCP supports.  This is shared by all processor
+			// threads, so only the first one to get here actually asks HCP.
+			mFeatures = HCPCapabilities.get(mHttpClient, mProps, new URIWrapper(mProps.getDestinationRootPath()),
+					mProps.getEncodedDestinationUserName() + ":" + mProps.getEncodedDestinationPassword());
+			logger.debug("Detected HCP Version: {}", mFeatures.mVersion);
 
-					logger.debug("Will be using Authorization Header and Annotations");
-				}
-			} catch (NumberFormatException x) {
-				if (!sHCPVersion.equals(UNKNOWN_HCP_VERSION)) {
-					throw x;
-				}
+			if (0 < mProps.getProcessorMultipartThresholdInMB()) {
+				MultipartUploader.acquire(mProps);
+				bUsingMultipart = true;
 			}
 
 			bIsInitialized = true;
@@ -152,103 +147,22 @@ public class ProcessorToHCP extends BaseItemProcessor {
 		StaticUtils.TRACE_METHOD_EXIT(logger);
 	}
 
-	/**
-	 * Internal function to look at the HCP machine and determine the passed
-	 * object exists on the system and whether it has custom-metadata or not. It
-	 * accomplishes this by doing an HCP HTTP REST HEAD request to the object
-	 * and looks at the metadata returned about the object.
-	 * 
-	 * @param inDestinationPath
-	 *            URL to HCP file to retrieve state.
-	 * @return ObjectState enumeration value as to the state on the HCP system.
-	 * @throws ClientProtocolException
-	 * @throws IOException
-	 * @throws HttpResponseException
-	 */
-	private String GetHCPVersion(String inDestination)
-			throws ClientProtocolException, IOException, HttpResponseException {
-
-		StaticUtils.TRACE_METHOD_ENTER(logger);
-		
-		String retVal = UNKNOWN_HCP_VERSION;
-
-		try {
-			logger.debug("Getting HCP Version");
-			URIWrapper toplevel = null;
-
-			try {
-				URIWrapper destURI = new URIWrapper(inDestination);
-
-				toplevel = new URIWrapper(destURI.getScheme(),
-						destURI.getHost(), "/rest", null);
-			} catch (URISyntaxException x) {
-				logger.warn("Failed to formulate URI to get HCP version.  Falling back to <unknown>.");
-
-				StaticUtils.TRACE_METHOD_EXIT(logger);
-				return retVal;
-			}
-
-			/*
-			 * Setup the HEAD request to check existence top level path.
-			 */
-			HttpHead httpRequest = new HttpHead(toplevel.toString());
-
-			// Must use old HCP Authentication since it is lowest common
-			// denominator.
-			httpRequest.setHeader("Cookie", HCPUtils.NS_AUTH_COOKIE_LEGACY
-					+ "=" + mProps.getEncodedDestinationUserName() + ":"
-					+ mProps.getEncodedDestinationPassword());
-
-			/*
-			 * Now execute the HEAD request.
-			 */
-			HttpResponse httpResponse = mHttpClient.execute(httpRequest);
-
-			// For debugging purposes, dump out the HTTP Response.
-			if (mProps.shouldDumpHTTPHeaders())
-				HCPUtils.dumpHttpResponse(httpResponse);
-
-			// If we don't have a 404 (Not Found) response, need to further
-			// dig..
-			if (404 != httpResponse.getStatusLine().getStatusCode()) {
-
-				// If the return code is anything BUT 200 range indicating
-				// success, we have to throw an exception.
-				if (2 != (int) (httpResponse.getStatusLine().getStatusCode() / 100)) {
-					// Clean up after ourselves and release the HTTP connection
-					// to the connection manager.
-					EntityUtils.consume(httpResponse.getEntity());
-
-					throw new HttpResponseException(httpResponse
-							.getStatusLine().getStatusCode(),
-							"Unexpected status returned from "
-									+ httpRequest.getMethod()
-									+ " ("
-									+ httpResponse.getStatusLine()
-											.getStatusCode()
-									+ ": "
-									+ httpResponse.getStatusLine()
-											.getReasonPhrase() + ")");
-				}
-
-				// Get the header value indicating custom metadata.
-				Header cmHeader = httpResponse
-						.getFirstHeader("X-HCP-SoftwareVersion");
-
-				if (null != cmHeader)
-					retVal = cmHeader.getValue();
-			}
-
-			// Clean up after ourselves and release the HTTP connection to the
-			// connection manager.
-			EntityUtils.consume(httpResponse.getEntity());
+	@Override
+	public void close() {
+		if (null != mMetadataGenerator) {
+			mMetadataGenerator.close();
+			mMetadataGenerator = null;
+		}
 
-		} catch (Exception x) {
-			logger.warn("Unable to determine HCP Version", x);
+		if (null != mLedger) {
+			mLedger.release();
+			mLedger = null;
 		}
 
-		StaticUtils.TRACE_METHOD_EXIT(logger);
-		return retVal;
+		if (bUsingMultipart) {
+			MultipartUploader.release();
+			bUsingMultipart = false;
+		}
 	}
 
 	@Override
@@ -277,6 +191,8 @@ public class ProcessorToHCP extends BaseItemProcessor {
 		
 		mStatus.setObjectStatus(WriteStatus.WRITE_NOT_ATTEMPTED);
 		mStatus.setCustomMetadataStatus(WriteStatus.WRITE_NOT_ATTEMPTED);
+		mStatus.setPartStatus(0, 0, 0);
+		mStatus.setException(null);
 
 		if (!inItem.exists()) {
 			logger.warn("Item does not exist: {} (Skipping)", inItem.getName());
@@ -326,7 +242,7 @@ public class ProcessorToHCP extends BaseItemProcessor {
 		/*
 		 * Now execute the HEAD request.
 		 */
-		HttpResponse httpResponse = mHttpClient.execute(httpRequest);
+		HttpResponse httpResponse = HostConcurrencyLimiter.execute(mHttpClient, httpRequest, mProps);
 
 		// For debugging purposes, dump out the HTTP Response.
 		if (mProps.shouldDumpHTTPHeaders())
@@ -349,6 +265,10 @@ public class ProcessorToHCP extends BaseItemProcessor {
 						+ httpResponse.getStatusLine().getReasonPhrase() + ")");
 			}
 
+			// Existing objects tell us the hash algorithm of the namespace.
+			HCPHashValidator.learnAlgorithm(inMetadata.getSystemMetadata().toURIWrapper().getHost(), httpResponse);
+			sLastObjectHash = getHashHeaderValue(httpResponse);
+
 			/*
 			 * At this point we know we have an object on the remote system, so
 			 * need to determine if it has custom-metadata or not.
@@ -364,7 +284,7 @@ public class ProcessorToHCP extends BaseItemProcessor {
 			if (Boolean.valueOf(cmHeader.getValue())) {
 
 				// Check for the specific annotation existence.
-				if (bCanUseAnnotations) {
+				if (mFeatures.bCanUseAnnotations) {
 					// If we can have annotations, check to see if the
 					// annotation exists.
 					Header annotationHeader = httpResponse
@@ -401,85 +321,61 @@ public class ProcessorToHCP extends BaseItemProcessor {
 		StaticUtils.TRACE_METHOD_EXIT(logger);
 		return retVal;
 	}
-	
-	private void ValidateHash(HttpResponse inResponse, InputStream inItemStream) throws Exception {
-		// Only do it if we are configured to do it.
-		if (mProps.getProcessorValidateHash()) {
-			
-			// Retrieve the header for the hash.
-			Header hashValueHeader = inResponse.getFirstHeader("X-HCP-Hash");
-			
-			if (null == hashValueHeader) {
-				logger.fatal("Configuration requested to validate object Hash, but hash value does not exist in response.");
 
-				StaticUtils.TRACE_METHOD_EXIT(logger);
-				
-				throw new HttpResponseException(inResponse.getStatusLine()
-						.getStatusCode(), "Expected HTTP header X-HCP-Hash is missing from response");
-			}
+	/**
+	 * Construct the object state from what the ingest ledger recorded when the object was
+	 * last written, instead of asking HCP.
+	 */
+	private ObjectState ObjectStateFromLedger(IngestLedger.Entry inEntry) {
+		ObjectState retVal = new ObjectState();
 
-			// There must be two parts:  HashType HashValue
-			String parts[] = hashValueHeader.getValue().split(" ");
-			if (parts.length != 2) {
-				logger.fatal("Hash value header returned from HCP is in an unexpected format.");
-				
-				StaticUtils.TRACE_METHOD_EXIT(logger);
-				
-				throw new HttpResponseException(inResponse.getStatusLine()
-						.getStatusCode(), "Unexpected HTTP header X-HCP-Hash format encountered");
-			}
-			
-			String hashType = parts[0];
-			String hashValue = parts[1];
-			
-			logger.debug("Received object Hash: [{}] {}", hashType, hashValue);
-
-			// Compute the digest from the input stream.
-			MessageDigest md = null;
-			try {
-				md = MessageDigest.getInstance(hashType);
-			} catch (NoSuchAlgorithmException e) {
-				logger.fatal("Hash type returned from HCP is not supported by this software.", e);
-				
-				throw e;
-			}
-			
-			try {
-				byte buffer[] = new byte[HASH_READ_BUFFER_SIZE];
-				int numBytes;
-				numBytes = inItemStream.read(buffer);
-				while (0 < numBytes) {
-					md.update(buffer, 0, numBytes);
-					
-					numBytes = inItemStream.read(buffer);
-				} 
-			} catch (IOException e) {
-				logger.fatal("Unexpected I/O failure reading file to compute hash.", e);
-				
-				throw e;
-			}
+		retVal.setState(ObjectStateEnum.OBJECT_ONLY);
+		for (String oneAnnotation : inEntry.getAnnotations()) {
+			retVal.addAnnotation(oneAnnotation);
+		}
+		sLastObjectHash = inEntry.getHash();
 
-			// Build a string out of it.
-			StringBuffer computedHashString = new StringBuffer();
-			
-			byte[] computedHash = md.digest();
-			
-			for (int i = 0; i < computedHash.length; i++) {
-				String hex = Integer.toHexString(0xff & computedHash[i]).toUpperCase();
-				if (hex.length() == 1) { computedHashString.append('0'); }
-				computedHashString.append(hex);
-			}
-			
-			logger.debug("Computed object Hash: [{}] {}", hashType, computedHashString.toString());
-			
-			if ( ! hashValue.equals(computedHashString.toString())) {
-				logger.fatal("Computed Hash ({}) does not match HCP hash ({}).", computedHashString.toString(), hashValue);
-				
-				throw new InputMismatchException("HCP Ingest hash does not match computed hash.");
+		return retVal;
+	}
+
+	/**
+	 * Record in the ingest ledger what now exists on HCP for the object after a successful
+	 * pass through WriteToHCP.
+	 */
+	private void RecordInLedger(String inObjectURI, ObjectContainer inMetadata, BaseWorkItem inItem,
+			ObjectState inPriorState) {
+		HashSet<String> annotations = new HashSet<String>(inPriorState.getAnnotations());
+
+		// Without annotation support HCP only says there is custom metadata.
+		if (ObjectStateEnum.OBJECT_AND_CUSTOM_METADATA == inPriorState.getState() && annotations.isEmpty()) {
+			annotations.add(CustomMetadataContainer.DEFAULT_ANNOTATION);
+		}
+
+		// Custom metadata is only written if it did not exist or was asked to be updated.
+		if (ObjectStateEnum.OBJECT_AND_CUSTOM_METADATA != inPriorState.getState()
+				|| inMetadata.getCustomMetadata().shouldUpdateCustomMetadata()) {
+			Iterator<Entry<String, byte[]>> iter = inMetadata.getCustomMetadata().iterator();
+			while (iter.hasNext()) {
+				Entry<String, byte[]> oneItem = iter.next();
+
+				byte[] value = oneItem.getValue();
+				if (null != value && 0 != value.length) {
+					annotations.add(oneItem.getKey());
+				} else if (inMetadata.getCustomMetadata().shouldDeleteExistingCustomMetadataOnEmpty()) {
+					annotations.remove(oneItem.getKey());
+				}
 			}
 		}
+
+		mLedger.record(inObjectURI, inItem, sLastObjectHash, annotations);
 	}
 
+	private static String getHashHeaderValue(HttpResponse inResponse) {
+		Header hashValueHeader = inResponse.getFirstHeader(HCPHashValidator.HASH_HEADER);
+
+		return (null == hashValueHeader ? null : hashValueHeader.getValue());
+	}
+	
 	/**
 	 * This method performs a PUT of an object data file and/or custom metadata
 	 * depending on the state of the object on the HCP system and the
@@ -520,9 +416,13 @@ public class ProcessorToHCP extends BaseItemProcessor {
 				SystemMetadataContainer objSystemMetadata = currentItem
 						.getSystemMetadata();
 
+				// What the HCP this object goes to supports.
+				mFeatures = HCPCapabilities.get(mHttpClient, mProps, objSystemMetadata.toURIWrapper(),
+						objSystemMetadata.getCredentials());
+
 				// Fail if metadata has annotations returned from the modules,
 				// but HCP doesn't support it.
-				if (!bCanUseAnnotations
+				if (!mFeatures.bCanUseAnnotations
 						&& (1 < currentItem.getCustomMetadata().count() || (1 == currentItem
 								.getCustomMetadata().count() && null == currentItem
 								.getCustomMetadata()
@@ -540,9 +440,26 @@ public class ProcessorToHCP extends BaseItemProcessor {
 				 * See what the state of this object is on HCP system. No
 				 * object, object only, object with custom-metadata.
 				 * 
+				 * The ingest ledger knows this for objects we wrote before, as
+				 * long as the source item has not changed.  Otherwise ask HCP.
+				 * 
 				 * Act accordingly based on configuration.
 				 */
-				ObjectState oneObject = CheckExistanceOnHCP(currentItem);
+				String objectURI = objSystemMetadata.toPathOnlyURI().toString();
+				sLastObjectHash = null;
+
+				IngestLedger.Entry ledgerEntry = null;
+				if (null != mLedger && ! mProps.shouldProcessorLedgerAlwaysCheckHCP()) {
+					ledgerEntry = mLedger.lookup(objectURI, inItem);
+				}
+
+				ObjectState oneObject;
+				if (null != ledgerEntry) {
+					logger.debug("Ingest ledger has state for {}", objectURI);
+					oneObject = ObjectStateFromLedger(ledgerEntry);
+				} else {
+					oneObject = CheckExistanceOnHCP(currentItem);
+				}
 
 				switch (oneObject.getState()) {
 
@@ -589,10 +506,21 @@ public class ProcessorToHCP extends BaseItemProcessor {
 					logger.fatal("***** BUG! BUG! Silly function is not returning a invalid value!! *****");
 					break;
 				}
+
+				if (null != mLedger) {
+					RecordInLedger(objectURI, currentItem, inItem, oneObject);
+				}
 			}
 		} catch (IOException x) {
-			logger.error("Failed to write/update content to HCP (Skipping). ", x);
+			if (x instanceof HostCircuitBreaker.CircuitOpenException) {
+				// Nothing was sent.  No need for the stack trace.
+				logger.warn("Failed to write/update content to HCP (Skipping). {}", x.getMessage());
+			} else {
+				logger.error("Failed to write/update content to HCP (Skipping). ", x);
+			}
 
+			// Keep it so the item can be retried if it is worth it.
+			mStatus.setException(x);
 			retVal = Boolean.FALSE;
 		}
 
@@ -610,15 +538,25 @@ public class ProcessorToHCP extends BaseItemProcessor {
 		 */
 		HttpPut httpRequest = new HttpPut(inMetadata.getSystemMetadata().toURIWrapper().toString());
 
-		InputStream itemStream = inItem.getItemInputStream();
-		if (null == itemStream) {
-			logger.error("No input stream available to write object content.  Object no object written.");
+		// Compute the hash while the content is sent, if we need to validate it.
+		String namespaceHost = inMetadata.getSystemMetadata().toURIWrapper().getHost();
+		MessageDigest streamDigest = HCPHashValidator.newDigest(mProps, namespaceHost);
 
-			throw new FileNotFoundException("No input stream availble for item.");
+		InputStream itemStream = null;
+		if (inItem instanceof FileSystemItem) {
+			// Known length content read straight from the file.
+			httpRequest.setEntity(new FileChannelEntity(((FileSystemItem)inItem).getFile(), null, streamDigest));
+		} else {
+			itemStream = inItem.getItemInputStream();
+			if (null == itemStream) {
+				logger.error("No input stream available to write object content.  Object no object written.");
+
+				throw new FileNotFoundException("No input stream availble for item.");
+			}
+
+			// Point the HttpRequest to the input stream.
+			httpRequest.setEntity(new InputStreamEntity(HCPHashValidator.wrapStream(itemStream, streamDigest), -1));
 		}
-		
-		// Point the HttpRequest to the input stream.
-		httpRequest.setEntity(new InputStreamEntity(itemStream, -1));
 
 		// Construct the most appropriate HCP Authentication
 		httpRequest.setHeader(constructAuthorizationHeader(inMetadata));
@@ -626,7 +564,12 @@ public class ProcessorToHCP extends BaseItemProcessor {
 		/*
 		 * Now execute the PUT request.
 		 */
-		HttpResponse httpResponse = mHttpClient.execute(httpRequest);
+		HttpResponse httpResponse;
+		try {
+			httpResponse = HostConcurrencyLimiter.execute(mHttpClient, httpRequest, mProps);
+		} finally {
+			if (null != itemStream) itemStream.close();
+		}
 
 		// For debugging purposes, dump out the HTTP Response.
 		if (mProps.shouldDumpHTTPHeaders())
@@ -652,7 +595,7 @@ public class ProcessorToHCP extends BaseItemProcessor {
 
 		// See if we should validate the hash returned.
 		try {
-			ValidateHash(httpResponse, inItem.getItemInputStream());
+			HCPHashValidator.validate(mProps, namespaceHost, httpResponse, streamDigest, inItem);
 		} catch (Exception e) {
 			// Clean up after ourselves and release the HTTP connection to the
 			// connection manager.
@@ -667,6 +610,8 @@ public class ProcessorToHCP extends BaseItemProcessor {
 		// connection manager.
 		EntityUtils.consume(httpResponse.getEntity());
 
+		sLastObjectHash = getHashHeaderValue(httpResponse);
+
 		logger.debug("Successfully wrote \"{}\" to \"{}\"",
 				inItem.getName(), inMetadata.getSystemMetadata().toPathOnlyURI().toString());
 		mStatus.setObjectStatus(WriteStatus.WRITE_SUCCESS);
@@ -707,7 +652,7 @@ public class ProcessorToHCP extends BaseItemProcessor {
 		/*
 		 * Now execute the POST request.
 		 */
-		HttpResponse httpResponse = mHttpClient.execute(httpRequest);
+		HttpResponse httpResponse = HostConcurrencyLimiter.execute(mHttpClient, httpRequest, mProps);
 
 		// For debugging purposes, dump out the HTTP Response.
 		if (mProps.shouldDumpHTTPHeaders())
@@ -760,9 +705,15 @@ public class ProcessorToHCP extends BaseItemProcessor {
 		StaticUtils.TRACE_METHOD_ENTER(logger);
 		
 		/*
-		 * Either do Whole Object I/O or in two pieces.
+		 * Either do Multipart upload, Whole Object I/O or in two pieces.
 		 */
-		if (this.bCanUseWholeIO && 1 == inMetadata.getCustomMetadata().count()) {
+		if (bUsingMultipart && mFeatures.bCanUseMultipart && MultipartUploader.shouldUse(mProps, inItem)) {
+			logger.debug("Performing multipart upload of object and then Custom Metadata to HCP");
+
+			WriteObjectMultipartToHCP(inMetadata, inItem);
+
+			WriteCustomMetadataToHCP(inMetadata);
+		} else if (mFeatures.bCanUseWholeIO && 1 == inMetadata.getCustomMetadata().count()) {
 			WriteWholeObjectToHCP(inMetadata, inItem);
 		} else {
 			logger.debug("Performing two operations to transfer object and Custom Metadata to HCP");
@@ -779,6 +730,44 @@ public class ProcessorToHCP extends BaseItemProcessor {
 		StaticUtils.TRACE_METHOD_EXIT(logger);
 	}
 
+	/**
+	 * Write the object data of a large file in parts that are uploaded in parallel.
+	 * 
+	 * @param inMetadata
+	 * @param inItem
+	 * @throws Exception
+	 */
+	private void WriteObjectMultipartToHCP(ObjectContainer inMetadata, BaseWorkItem inItem)
+			throws Exception {
+
+		StaticUtils.TRACE_METHOD_ENTER(logger);
+
+		MultipartUploader uploader = new MultipartUploader(mHttpClient, mProps,
+				constructAuthorizationHeader(inMetadata), inMetadata.getSystemMetadata().toPathOnlyURI(),
+				((FileSystemItem)inItem).getFile(), mStatus);
+		try {
+			uploader.upload();
+		} catch (Exception e) {
+			mStatus.setObjectStatus(WriteStatus.WRITE_FAILURE);
+
+			StaticUtils.TRACE_METHOD_EXIT(logger);
+
+			throw e;
+		}
+
+		// HCP does not report the hash of the assembled object.
+		sLastObjectHash = null;
+
+		logger.debug("Successfully wrote \"{}\" to \"{}\" in parts",
+				inItem.getName(), inMetadata.getSystemMetadata().toPathOnlyURI().toString());
+		mStatus.setObjectStatus(WriteStatus.WRITE_SUCCESS);
+
+		// System metadata can not be given when the upload starts, so set it now.
+		UpdateSystemMetadataToHCP(inMetadata);
+
+		StaticUtils.TRACE_METHOD_EXIT(logger);
+	}
+
 	/**
 	 * Delete custom-metadata ONLY to an already existing object in HCP.
 	 * 
@@ -802,7 +791,7 @@ public class ProcessorToHCP extends BaseItemProcessor {
 		URIWrapper deleteURI = inMetadata.getSystemMetadata().toURIWrapper();
 		deleteURI.clearQueryParams();
 		deleteURI.addQueryParam("type", "custom-metadata");
-		if (this.bCanUseAnnotations) {
+		if (mFeatures.bCanUseAnnotations) {
 			deleteURI.addQueryParam("annotation", "inName");
 		}
 
@@ -814,7 +803,7 @@ public class ProcessorToHCP extends BaseItemProcessor {
 		/*
 		 * Now execute the DELETE request.
 		 */
-		HttpResponse httpResponse = mHttpClient.execute(httpRequest);
+		HttpResponse httpResponse = HostConcurrencyLimiter.execute(mHttpClient, httpRequest, mProps);
 
 		// For debugging purposes, dump out the HTTP Response.
 		if (mProps.shouldDumpHTTPHeaders())
@@ -892,7 +881,7 @@ public class ProcessorToHCP extends BaseItemProcessor {
 			URIWrapper writeURI = inMetadata.getSystemMetadata().toURIWrapper();
 			writeURI.clearQueryParams();
 			writeURI.addQueryParam("type", "custom-metadata");
-			if (bCanUseAnnotations)
+			if (mFeatures.bCanUseAnnotations)
 				writeURI.addQueryParam("annotation", oneItem.getKey());
 
 			HttpPut httpRequest = new HttpPut(writeURI.toString());
@@ -907,7 +896,7 @@ public class ProcessorToHCP extends BaseItemProcessor {
 			/*
 			 * Now execute the PUT request.
 			 */
-			HttpResponse httpResponse = mHttpClient.execute(httpRequest);
+			HttpResponse httpResponse = HostConcurrencyLimiter.execute(mHttpClient, httpRequest, mProps);
 
 			// For debugging purposes, dump out the HTTP Response.
 			if (mProps.shouldDumpHTTPHeaders())
@@ -1003,7 +992,7 @@ public class ProcessorToHCP extends BaseItemProcessor {
 		// First construct a URI with whole-object and annotation added.
 		URIWrapper writeURI = inMetadata.getSystemMetadata().toURIWrapper();
 		writeURI.addQueryParam("type", "whole-object");
-		if (bCanUseAnnotations)
+		if (mFeatures.bCanUseAnnotations)
 			writeURI.addQueryParam("annotation", inMetadata.getCustomMetadata()
 					.iterator().next().getKey());
 
@@ -1017,25 +1006,45 @@ public class ProcessorToHCP extends BaseItemProcessor {
 		 * metadata
 		 */
 
-		// Create our data file InputStream
-		InputStream dataFile = inItem.getItemInputStream();
-		
-		// Create our custom metadata stream
-		ByteArrayInputStream cmDataIS = new ByteArrayInputStream(cmData);
+		// Hash only the data portion while it is sent, if we need to validate it.
+		String namespaceHost = writeURI.getHost();
+		MessageDigest streamDigest = HCPHashValidator.newDigest(mProps, namespaceHost);
+
+		InputStream dataFile = null;
+		if (inItem instanceof FileSystemItem) {
+			// Data followed by the custom metadata, with the exact data length known.
+			FileChannelEntity wholeEntity = new FileChannelEntity(((FileSystemItem)inItem).getFile(), cmData, streamDigest);
+			httpRequest.setEntity(wholeEntity);
 
-		// Point the HttpRequest to the input stream with a Sequenced stream
-		httpRequest.setEntity(new InputStreamEntity(new SequenceInputStream(
-				dataFile, cmDataIS), -1));
+			// Put the size of the data portion of the whole object into the
+			// X-HCP-Size header value.
+			httpRequest.setHeader("X-HCP-Size", String.valueOf(wholeEntity.getFileLength()));
+		} else {
+			// Create our data file InputStream
+			dataFile = inItem.getItemInputStream();
 
-		// Put the size of the data portion of the whole object into the
-		// X-HCP-Size header value.
-		httpRequest.setHeader("X-HCP-Size",
-				String.valueOf(dataFile.available()));
+			// Create our custom metadata stream
+			ByteArrayInputStream cmDataIS = new ByteArrayInputStream(cmData);
+
+			// Point the HttpRequest to the input stream with a Sequenced stream
+			httpRequest.setEntity(new InputStreamEntity(new SequenceInputStream(
+					HCPHashValidator.wrapStream(dataFile, streamDigest), cmDataIS), -1));
+
+			// Put the size of the data portion of the whole object into the
+			// X-HCP-Size header value.  Only the item knows if this is the full size.
+			httpRequest.setHeader("X-HCP-Size",
+					String.valueOf(dataFile.available()));
+		}
 
 		/*
 		 * Now execute the PUT request.
 		 */
-		HttpResponse httpResponse = mHttpClient.execute(httpRequest);
+		HttpResponse httpResponse;
+		try {
+			httpResponse = HostConcurrencyLimiter.execute(mHttpClient, httpRequest, mProps);
+		} finally {
+			if (null != dataFile) dataFile.close();
+		}
 
 		// For debugging purposes, dump out the HTTP Response.
 		if (mProps.shouldDumpHTTPHeaders())
@@ -1060,14 +1069,12 @@ public class ProcessorToHCP extends BaseItemProcessor {
 
 		// See if we should validate the hash returned.
 		try {
-			ValidateHash(httpResponse, inItem.getItemInputStream());
+			HCPHashValidator.validate(mProps, namespaceHost, httpResponse, streamDigest, inItem);
 		} catch (HttpResponseException e) {
 			// Clean up after ourselves and release the HTTP connection to the
 			// connection manager.
 			EntityUtils.consume(httpResponse.getEntity());
 
-			dataFile.close();
-			
 			StaticUtils.TRACE_METHOD_EXIT(logger);
 			
 			throw e;
@@ -1077,7 +1084,7 @@ public class ProcessorToHCP extends BaseItemProcessor {
 		// connection manager.
 		EntityUtils.consume(httpResponse.getEntity());
 
-		dataFile.close();
+		sLastObjectHash = getHashHeaderValue(httpResponse);
 
 		mStatus.setObjectStatus(WriteStatus.WRITE_SUCCESS);
 		mStatus.setCustomMetadataStatus(WriteStatus.WRITE_SUCCESS);
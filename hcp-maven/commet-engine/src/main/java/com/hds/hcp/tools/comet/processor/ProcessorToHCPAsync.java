@@ -0,0 +1,819 @@
+package com.hds.hcp.tools.comet.processor;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
+
+import com.hds.hcp.apihelpers.FileChannelEntity;
+import com.hds.hcp.apihelpers.HCPUtils;
+import com.hds.hcp.tools.comet.BaseWorkItem;
+import com.hds.hcp.tools.comet.CometProperties;
+import com.hds.hcp.tools.comet.FileSystemItem;
+import com.hds.hcp.tools.comet.MetadataExtractor;
+import com.hds.hcp.tools.comet.WorkItemStatus;
+import com.hds.hcp.tools.comet.WorkItemStatus.WriteStatus;
+import com.hds.hcp.tools.comet.generator.CustomMetadataContainer;
+import com.hds.hcp.tools.comet.generator.ObjectContainer;
+import com.hds.hcp.tools.comet.utils.StaticUtils;
+import com.hds.hcp.tools.comet.utils.URIWrapper;
+
+/**
+ * Non-blocking variant of ProcessorToHCP.
+ *
+ * The processor thread only generates the metadata for an item and then hands the item to a
+ * state machine that walks the same HEAD -> PUT -> validate -> custom-metadata sequence as
+ * ProcessorToHCP. Every request is issued on a process-wide asynchronous HTTP client, so the
+ * number of requests in flight is bounded by execution.processor.async.maxInFlightItems
+ * instead of execution.processor.threadCount.
+ *
+ * Responses are handled on a small callback thread pool (never on the I/O reactor threads)
+ * because the next step may open files, occasionally re-read content for hash validation,
+ * or block on the scanner completion queue in BaseWorkItem.markProcessed().
+ */
+public class ProcessorToHCPAsync extends BaseItemProcessor {
+	private static Logger logger = LogManager.getLogger();
+
+	/*
+	 * Resources shared by all processor instances (one per processor thread).
+	 */
+	private static final Object sSharedLock = new Object();
+	private static int sSharedRefCount = 0;
+	private static CloseableHttpAsyncClient sAsyncClient;
+	private static CloseableHttpClient sProbeClient;
+	private static ExecutorService sCallbackExecutor;
+	private static Semaphore sInFlightItems;
+	private static int sInFlightLimit;
+
+	// Local member variables.
+	private HttpClient mHttpClient;  // Only used to probe HCP capabilities.
+	private MetadataExtractor mMetadataGenerator;
+	private IngestLedger mLedger;
+
+	private enum StepType {
+		CHECK_EXISTENCE, WRITE_OBJECT, WRITE_WHOLE_OBJECT, WRITE_CUSTOM_METADATA, DELETE_CUSTOM_METADATA, UPDATE_SYSTEM_METADATA
+	};
+
+	// One HTTP request in the sequence for an object.
+	private class Step {
+		Step(StepType inType) { this(inType, null, null); }
+		Step(StepType inType, String inAnnotation, byte[] inData) {
+			mType = inType; mAnnotation = inAnnotation; mData = inData;
+		}
+
+		StepType mType;
+		String mAnnotation;
+		byte[] mData;
+	}
+
+	private HCPCapabilities.Features getFeatures(ObjectContainer inMetadata) throws URISyntaxException, InterruptedException {
+		return HCPCapabilities.get(mHttpClient, mProps, inMetadata.getSystemMetadata().toURIWrapper(),
+				inMetadata.getSystemMetadata().getCredentials());
+	}
+
+	private static Header constructAuthorizationHeader(HCPCapabilities.Features inFeatures, ObjectContainer inMetadata) {
+		if (!inFeatures.bCanUseAuthorizationHeader) {
+			// Pre-6.0 Style
+			return new BasicHeader("Cookie", HCPUtils.NS_AUTH_COOKIE_LEGACY
+					+ "=" + inMetadata.getSystemMetadata().getCredentials());
+		}
+
+		return new BasicHeader("Authorization", "HCP "
+				+ inMetadata.getSystemMetadata().getCredentials());
+	}
+
+	private static HttpResponseException constructResponseException(HttpUriRequest inRequest, HttpResponse inResponse) {
+		return new HttpResponseException(inResponse.getStatusLine()
+				.getStatusCode(), "Unexpected status returned from "
+				+ inRequest.getMethod() + " ("
+				+ inResponse.getStatusLine().getStatusCode() + ": "
+				+ inResponse.getStatusLine().getReasonPhrase() + ")");
+	}
+
+	@Override
+	public boolean isAsynchronous() { return true; }
+
+	@Override
+	public void initialize(CometProperties inProps, Object inInitBlob)
+			throws Exception {
+
+		StaticUtils.TRACE_METHOD_ENTER(logger);
+
+		if (!bIsInitialized) // Only initialize if we haven't already
+		{
+			mProps = inProps;
+
+			// The blocking client passed in is not used.  The clients shared by all instances are
+			//   set up below.
+
+			mMetadataGenerator = new MetadataExtractor(mProps);
+
+			// Use the ingest ledger to avoid HEAD requests for objects already written.
+			String ledgerFile = mProps.getProcessorLedgerFile();
+			if (null != ledgerFile) {
+				mLedger = IngestLedger.open(ledgerFile);
+			}
+
+			// Get a reference on the shared client, creating it if we are the first.
+			synchronized (sSharedLock) {
+				if (0 == sSharedRefCount) {
+					sProbeClient = HCPUtils.initCloseableHttpClient(
+							mProps.getHttpClientConnectionTimeout(),
+							mProps.getHttpClientMaxConnections(),
+							mProps.getHttpClientMaxConnectionsPerRoute());
+					sAsyncClient = HCPUtils.initHttpAsyncClient(
+							mProps.getHttpClientConnectionTimeout(),
+							mProps.getHttpClientMaxConnections(),
+							mProps.getHttpClientMaxConnectionsPerRoute(),
+							mProps.getProcessorAsyncIOThreadCount());
+					sCallbackExecutor = Executors.newFixedThreadPool(mProps.getProcessorAsyncCallbackThreadCount());
+					sInFlightLimit = mProps.getProcessorAsyncMaxInFlightItems();
+					sInFlightItems = new Semaphore(sInFlightLimit);
+				}
+				sSharedRefCount++;
+			}
+
+			// From here on close() releases what was set up, also if the probe below fails.
+			bIsInitialized = true;
+
+			// The blocking client is only used to probe HCP capabilities.  These are shared by
+			// all processor threads, so only the first one to get here actually asks HCP.
+			mHttpClient = sProbeClient;
+			HCPCapabilities.Features features = HCPCapabilities.get(mHttpClient, mProps,
+					new URIWrapper(mProps.getDestinationRootPath()),
+					mProps.getEncodedDestinationUserName() + ":" + mProps.getEncodedDestinationPassword());
+			logger.debug("Detected HCP Version: {}", features.mVersion);
+		}
+
+		StaticUtils.TRACE_METHOD_EXIT(logger);
+	}
+
+	@Override
+	public void close() {
+		if ( ! bIsInitialized ) return;
+
+		bIsInitialized = false;
+
+		mMetadataGenerator.close();
+
+		if (null != mLedger) {
+			mLedger.release();
+			mLedger = null;
+		}
+
+		// Last one out shuts down the shared client, once the items in flight have completed.
+		//   Otherwise their callbacks are dropped and they are never marked processed.
+		synchronized (sSharedLock) {
+			if (0 == --sSharedRefCount) {
+				long deadline = System.currentTimeMillis() + mProps.getProcessorAsyncMaxCloseWait() * 1000L;
+				try {
+					if (sInFlightItems.tryAcquire(sInFlightLimit, mProps.getProcessorAsyncMaxCloseWait(), TimeUnit.SECONDS)) {
+						sInFlightItems.release(sInFlightLimit);
+					} else {
+						logger.warn("Closing asynchronous processor with {} items still in flight",
+								sInFlightLimit - sInFlightItems.availablePermits());
+					}
+
+					sCallbackExecutor.shutdown();
+					if ( ! sCallbackExecutor.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+						logger.warn("Asynchronous processor callbacks did not finish in time");
+					}
+				} catch (InterruptedException e) {
+					logger.warn("Interrupted while waiting for items in flight to complete");
+					Thread.currentThread().interrupt();
+				}
+				sCallbackExecutor.shutdownNow();
+
+				try {
+					sAsyncClient.close();
+				} catch (IOException e) {
+					logger.warn("Unexpected exception closing asynchronous HTTP client", e);
+				}
+				try {
+					sProbeClient.close();
+				} catch (IOException e) {
+					logger.warn("Unexpected exception closing HTTP client", e);
+				}
+				sAsyncClient = null;
+				sProbeClient = null;
+				sCallbackExecutor = null;
+				sInFlightItems = null;
+			}
+		}
+	}
+
+	@Override
+	public boolean process(BaseWorkItem inItem) throws Exception {
+		StaticUtils.TRACE_METHOD_ENTER(logger);
+
+		if ( ! bIsInitialized ) {
+			logger.fatal("Programming Error. Object Not Initialized");
+			StaticUtils.TRACE_METHOD_EXIT(logger);
+			return false;
+		}
+
+		if ( null == inItem) {
+			logger.fatal("Invalid input parameter.  inElement is null");
+			StaticUtils.TRACE_METHOD_EXIT(logger);
+			return false;
+		}
+
+		if ( null == inItem.getHandle()) {
+			logger.fatal("Invalid input parameter.  inElement.getHandle() is null");
+			StaticUtils.TRACE_METHOD_EXIT(logger);
+			return false;
+		}
+
+		logger.debug("Processing Item: {}", inItem.getName());
+
+		mStatus.setObjectStatus(WriteStatus.WRITE_NOT_ATTEMPTED);
+		mStatus.setCustomMetadataStatus(WriteStatus.WRITE_NOT_ATTEMPTED);
+
+		if (!inItem.exists()) {
+			logger.warn("Item does not exist: {} (Skipping)", inItem.getName());
+			StaticUtils.TRACE_METHOD_EXIT(logger);
+			return false;
+		}
+
+		LinkedList<ObjectContainer> objectMetadataList = mMetadataGenerator.getMetadataList(inItem);
+
+		/*
+		 * If we didn't get any, just exit now.
+		 */
+		if (null == objectMetadataList) {
+			logger.info("No metadata returned for object. Skipping");
+
+			StaticUtils.TRACE_METHOD_EXIT(logger);
+			return false;
+		}
+
+		// Fail if metadata has annotations returned from the modules,
+		// but HCP doesn't support it.  This also gets the capabilities of every
+		// destination HCP known before any callback thread needs them.
+		for (ObjectContainer currentItem : objectMetadataList) {
+			if (getFeatures(currentItem).bCanUseAnnotations) continue;
+
+			CustomMetadataContainer customMetadata = currentItem.getCustomMetadata();
+			if (1 < customMetadata.count() || (1 == customMetadata.count()
+					&& null == customMetadata.get(CustomMetadataContainer.DEFAULT_ANNOTATION))) {
+				logger.fatal("Extraction modules returning annotations and the version of HCP does not support it");
+				mStatus.setObjectStatus(WriteStatus.WRITE_FAILURE);
+
+				StaticUtils.TRACE_METHOD_EXIT(logger);
+				return false;
+			}
+		}
+
+		// Wait for room in the pipeline.  This is what throttles the processor threads.
+		sInFlightItems.acquire();
+
+		inItem.getStatus().setObjectStatus(WriteStatus.WRITE_NOT_ATTEMPTED);
+		inItem.getStatus().setCustomMetadataStatus(WriteStatus.WRITE_NOT_ATTEMPTED);
+
+		new ItemTask(inItem, objectMetadataList).next();
+
+		StaticUtils.TRACE_METHOD_EXIT(logger);
+		return true;
+	}
+
+	/**
+	 * Tracks one work item through all of its destination objects.  Objects are written one
+	 * after another, like ProcessorToHCP does, so only one callback for the item is ever
+	 * active at a time and the item status needs no further synchronization.
+	 */
+	private class ItemTask {
+		ItemTask(BaseWorkItem inItem, LinkedList<ObjectContainer> inObjects) {
+			mItem = inItem;
+			mObjectIterator = inObjects.listIterator();
+		}
+
+		private BaseWorkItem mItem;
+		private ListIterator<ObjectContainer> mObjectIterator;
+
+		void next() {
+			if ( ! mObjectIterator.hasNext()) {
+				complete(null);
+				return;
+			}
+
+			new ObjectTask(this, mObjectIterator.next()).start();
+		}
+
+		void complete(Exception inException) {
+			if (null != inException) {
+				mItem.getStatus().setException(inException);
+
+				// Worth another try later?  Then it is not done yet.
+				if (null != mRetryScheduler && mRetryScheduler.retryLater(mItem)) {
+					sInFlightItems.release();
+					return;
+				}
+			}
+
+			try {
+				mItem.markProcessed();
+			} catch (InterruptedException e) {
+				logger.warn("Interrupted while marking item processed: {}", mItem.getName());
+			} finally {
+				sInFlightItems.release();
+			}
+		}
+	}
+
+	/**
+	 * State machine for a single destination object.  It starts with the HEAD request and
+	 * builds the remaining list of requests from the state of the object on HCP.  If the
+	 * ingest ledger already knows the state of the object, the HEAD request is skipped.
+	 */
+	private class ObjectTask implements FutureCallback<HttpResponse> {
+		ObjectTask(ItemTask inParent, ObjectContainer inMetadata) {
+			mParent = inParent;
+			mMetadata = inMetadata;
+			mItemStatus = inParent.mItem.getStatus();
+		}
+
+		private ItemTask mParent;
+		private ObjectContainer mMetadata;
+		private WorkItemStatus mItemStatus;
+		private LinkedList<Step> mSteps = new LinkedList<Step>();
+		private Step mCurrentStep;
+		private HttpUriRequest mCurrentRequest;
+		private InputStream mCurrentStream;
+		private MessageDigest mCurrentDigest;
+		private HostConcurrencyLimiter.Permit mCurrentPermit;
+		private HCPCapabilities.Features mFeatures;
+
+		// What is known to exist on HCP for the object, for the ingest ledger.
+		private HashSet<String> mAnnotations = new HashSet<String>();
+		private String mObjectHash;
+
+		void start() {
+			IngestLedger.Entry ledgerEntry = null;
+			try {
+				mFeatures = getFeatures(mMetadata);
+
+				if (null != mLedger && ! mProps.shouldProcessorLedgerAlwaysCheckHCP()) {
+					ledgerEntry = mLedger.lookup(mMetadata.getSystemMetadata().toPathOnlyURI().toString(), mParent.mItem);
+				}
+
+				if (null == ledgerEntry) {
+					mSteps.add(new Step(StepType.CHECK_EXISTENCE));
+				} else {
+					logger.debug("Ingest ledger has state for {}", mMetadata.getSystemMetadata().toPathOnlyURI().toString());
+
+					mAnnotations.addAll(ledgerEntry.getAnnotations());
+					mObjectHash = ledgerEntry.getHash();
+					planObjectExists( ! mAnnotations.isEmpty());
+				}
+			} catch (URISyntaxException | InterruptedException e) {
+				fail(e);
+				return;
+			}
+
+			nextStep();
+		}
+
+		private void nextStep() {
+			mCurrentStep = mSteps.poll();
+			if (null == mCurrentStep) {
+				// All requests for the object succeeded.
+				if (null != mLedger) {
+					try {
+						mLedger.record(mMetadata.getSystemMetadata().toPathOnlyURI().toString(), mParent.mItem,
+								mObjectHash, mAnnotations);
+					} catch (URISyntaxException e) {
+						logger.warn("Unable to record object in ingest ledger", e);
+					}
+				}
+
+				mParent.next();
+				return;
+			}
+
+			try {
+				mCurrentRequest = constructRequest(mCurrentStep);
+			} catch (Exception e) {
+				fail(e);
+				return;
+			}
+
+			// Some steps may decide there is nothing to send.
+			if (null == mCurrentRequest) {
+				nextStep();
+				return;
+			}
+
+			mCurrentRequest.setHeader(constructAuthorizationHeader(mFeatures, mMetadata));
+
+			// Send once the destination HCP has room for another request.
+			HostConcurrencyLimiter.forHost(mProps, mCurrentRequest.getURI()).acquire(mCurrentRequest,
+					new HostConcurrencyLimiter.Waiter() {
+						public void granted(HostConcurrencyLimiter.Permit inPermit) {
+							mCurrentPermit = inPermit;
+							sAsyncClient.execute(mCurrentRequest, ObjectTask.this);
+						}
+
+						public void refused(IOException inReason) {
+							closeCurrentStream();
+							fail(inReason);
+						}
+					});
+		}
+
+		@Override
+		public void completed(final HttpResponse inResponse) {
+			mCurrentPermit.stop();
+
+			sCallbackExecutor.execute(new Runnable() {
+				public void run() {
+					mCurrentPermit.release(inResponse);
+					closeCurrentStream();
+
+					try {
+						// For debugging purposes, dump out the HTTP Response.
+						if (mProps.shouldDumpHTTPHeaders())
+							HCPUtils.dumpHttpResponse(inResponse);
+
+						try {
+							handleResponse(mCurrentStep, inResponse);
+						} finally {
+							EntityUtils.consume(inResponse.getEntity());
+						}
+					} catch (Exception e) {
+						fail(e);
+						return;
+					}
+
+					nextStep();
+				}
+			});
+		}
+
+		@Override
+		public void failed(final Exception inException) {
+			mCurrentPermit.stop();
+
+			sCallbackExecutor.execute(new Runnable() {
+				public void run() {
+					mCurrentPermit.release(inException);
+					closeCurrentStream();
+
+					fail(inException);
+				}
+			});
+		}
+
+		@Override
+		public void cancelled() {
+			failed(new InterruptedIOException("Request cancelled: " + mCurrentRequest.getRequestLine()));
+		}
+
+		private void closeCurrentStream() {
+			if (null != mCurrentStream) {
+				try {
+					mCurrentStream.close();
+				} catch (IOException e) {
+					logger.warn("Unexpected exception closing item stream", e);
+				}
+				mCurrentStream = null;
+			}
+		}
+
+		private void fail(Exception inException) {
+			if (inException instanceof HostCircuitBreaker.CircuitOpenException) {
+				// Nothing was sent.  No need for the stack trace.
+				logger.warn("Failed to write/update content to HCP (Skipping). {}", inException.getMessage());
+			} else {
+				logger.error("Failed to write/update content to HCP (Skipping). ", inException);
+			}
+
+			// Mirror what ProcessorToHCP reports for the step that failed.
+			switch (null == mCurrentStep ? StepType.CHECK_EXISTENCE : mCurrentStep.mType) {
+			case WRITE_OBJECT:
+			case UPDATE_SYSTEM_METADATA:
+				mItemStatus.setObjectStatus(WriteStatus.WRITE_FAILURE);
+				break;
+			case WRITE_WHOLE_OBJECT:
+				mItemStatus.setObjectStatus(WriteStatus.WRITE_FAILURE);
+				mItemStatus.setCustomMetadataStatus(WriteStatus.WRITE_FAILURE);
+				break;
+			case WRITE_CUSTOM_METADATA:
+				if (mItemStatus.getCustomMetadataStatus() != WriteStatus.WRITE_PARTIAL_SUCCESS)
+					mItemStatus.setCustomMetadataStatus(WriteStatus.WRITE_FAILURE);
+				break;
+			default:
+				break;
+			}
+
+			mParent.complete(inException);
+		}
+
+		private HttpUriRequest constructRequest(Step inStep) throws Exception {
+			URIWrapper requestURI;
+
+			switch (inStep.mType) {
+			case CHECK_EXISTENCE:
+				logger.debug("Checking for Object Existance on HCP: {}", mMetadata.getSystemMetadata().toPathOnlyURI().toString());
+
+				return new HttpHead(mMetadata.getSystemMetadata().toPathOnlyURI().toString());
+
+			case WRITE_OBJECT:
+				HttpPut objectRequest = new HttpPut(mMetadata.getSystemMetadata().toURIWrapper().toString());
+
+				mCurrentDigest = HCPHashValidator.newDigest(mProps, getNamespaceHost());
+
+				if (mParent.mItem instanceof FileSystemItem) {
+					// Known length, and sent without copying when no digest is needed.
+					objectRequest.setEntity(new FileChannelEntity(((FileSystemItem)mParent.mItem).getFile(), null, mCurrentDigest));
+					return objectRequest;
+				}
+
+				mCurrentStream = mParent.mItem.getItemInputStream();
+				if (null == mCurrentStream) {
+					logger.error("No input stream available to write object content.  Object no object written.");
+
+					throw new FileNotFoundException("No input stream availble for item.");
+				}
+
+				objectRequest.setEntity(new InputStreamEntity(HCPHashValidator.wrapStream(mCurrentStream, mCurrentDigest), -1));
+				return objectRequest;
+
+			case WRITE_WHOLE_OBJECT:
+				requestURI = mMetadata.getSystemMetadata().toURIWrapper();
+				requestURI.addQueryParam("type", "whole-object");
+				if (mFeatures.bCanUseAnnotations)
+					requestURI.addQueryParam("annotation", inStep.mAnnotation);
+
+				HttpPut wholeRequest = new HttpPut(requestURI.toString());
+
+				mCurrentDigest = HCPHashValidator.newDigest(mProps, getNamespaceHost());
+
+				// Only planned for files, see planObjectDoesNotExist().
+				FileChannelEntity wholeEntity = new FileChannelEntity(((FileSystemItem)mParent.mItem).getFile(),
+						inStep.mData, mCurrentDigest);
+				wholeRequest.setEntity(wholeEntity);
+				wholeRequest.setHeader("X-HCP-Size", String.valueOf(wholeEntity.getFileLength()));
+				return wholeRequest;
+
+			case WRITE_CUSTOM_METADATA:
+				logger.debug("Sending PUT Custom Metadata ({}) to URL: {}",
+						inStep.mAnnotation, mMetadata.getSystemMetadata().toPathOnlyURI().toString());
+
+				requestURI = mMetadata.getSystemMetadata().toURIWrapper();
+				requestURI.clearQueryParams();
+				requestURI.addQueryParam("type", "custom-metadata");
+				if (mFeatures.bCanUseAnnotations)
+					requestURI.addQueryParam("annotation", inStep.mAnnotation);
+
+				HttpPut cmRequest = new HttpPut(requestURI.toString());
+				cmRequest.setEntity(new InputStreamEntity(new ByteArrayInputStream(inStep.mData), -1));
+				return cmRequest;
+
+			case DELETE_CUSTOM_METADATA:
+				logger.info("Deleting existing Custom Metadata on URL:  {}",
+						mMetadata.getSystemMetadata().toPathOnlyURI().toString());
+
+				requestURI = mMetadata.getSystemMetadata().toURIWrapper();
+				requestURI.clearQueryParams();
+				requestURI.addQueryParam("type", "custom-metadata");
+				if (mFeatures.bCanUseAnnotations)
+					requestURI.addQueryParam("annotation", inStep.mAnnotation);
+
+				return new HttpDelete(requestURI.toString());
+
+			case UPDATE_SYSTEM_METADATA:
+				String queryParam = mMetadata.getSystemMetadata().toURIWrapper().getQuery();
+				if (null == queryParam || 0 == queryParam.length()) {
+					logger.info("No System Metadata to update");
+					return null;
+				}
+
+				HttpPost postRequest = new HttpPost(mMetadata.getSystemMetadata().toURIWrapper().toString());
+				postRequest.setEntity(new InputStreamEntity(new ByteArrayInputStream(queryParam.getBytes()), -1));
+				return postRequest;
+			}
+
+			return null;
+		}
+
+		private void handleResponse(Step inStep, HttpResponse inResponse) throws Exception {
+			int statusCode = inResponse.getStatusLine().getStatusCode();
+
+			switch (inStep.mType) {
+			case CHECK_EXISTENCE:
+				if (404 == statusCode) {
+					planObjectDoesNotExist();
+					return;
+				}
+				if (2 != statusCode / 100) {
+					throw constructResponseException(mCurrentRequest, inResponse);
+				}
+				HCPHashValidator.learnAlgorithm(getNamespaceHost(), inResponse);
+				mObjectHash = getHashHeaderValue(inResponse);
+				planObjectExists(readCustomMetadataState(inResponse));
+				return;
+
+			case DELETE_CUSTOM_METADATA:
+				// Same as ProcessorToHCP, a failed delete is only logged.
+				if (2 != statusCode / 100) {
+					logger.error(constructResponseException(mCurrentRequest, inResponse).getMessage());
+				} else {
+					mAnnotations.remove(inStep.mAnnotation);
+				}
+				return;
+
+			default:
+				if (2 != statusCode / 100) {
+					throw constructResponseException(mCurrentRequest, inResponse);
+				}
+				break;
+			}
+
+			switch (inStep.mType) {
+			case WRITE_OBJECT:
+				validateHash(inResponse);
+				mObjectHash = getHashHeaderValue(inResponse);
+
+				logger.debug("Successfully wrote \"{}\" to \"{}\"",
+						mParent.mItem.getName(), mMetadata.getSystemMetadata().toPathOnlyURI().toString());
+				mItemStatus.setObjectStatus(WriteStatus.WRITE_SUCCESS);
+				break;
+
+			case WRITE_WHOLE_OBJECT:
+				validateHash(inResponse);
+				mObjectHash = getHashHeaderValue(inResponse);
+				mAnnotations.add(inStep.mAnnotation);
+
+				mItemStatus.setObjectStatus(WriteStatus.WRITE_SUCCESS);
+				mItemStatus.setCustomMetadataStatus(WriteStatus.WRITE_SUCCESS);
+				break;
+
+			case WRITE_CUSTOM_METADATA:
+				mAnnotations.add(inStep.mAnnotation);
+				customMetadataWritten();
+				break;
+
+			case UPDATE_SYSTEM_METADATA:
+				logger.debug("Successfully updated system metadata on \"{}\"",
+						mMetadata.getSystemMetadata().toPathOnlyURI().toString());
+				mItemStatus.setObjectStatus(WriteStatus.WRITE_SUCCESS);
+				break;
+
+			default:
+				break;
+			}
+		}
+
+		private void validateHash(HttpResponse inResponse) throws Exception {
+			HCPHashValidator.validate(mProps, getNamespaceHost(), inResponse, mCurrentDigest, mParent.mItem);
+		}
+
+		private String getHashHeaderValue(HttpResponse inResponse) {
+			Header hashValueHeader = inResponse.getFirstHeader(HCPHashValidator.HASH_HEADER);
+
+			return (null == hashValueHeader ? null : hashValueHeader.getValue());
+		}
+
+		/*
+		 * Collect the custom metadata annotations from the HEAD response.  Returns whether the
+		 * object has any custom metadata.
+		 */
+		private boolean readCustomMetadataState(HttpResponse inResponse) {
+			Header cmHeader = inResponse.getFirstHeader("X-HCP-Custom-Metadata");
+			if (null == cmHeader || ! Boolean.valueOf(cmHeader.getValue())) {
+				return false;
+			}
+
+			Header annotationHeader = (mFeatures.bCanUseAnnotations
+					? inResponse.getFirstHeader("X-HCP-CustomMetadataAnnotations") : null);
+			if (null == annotationHeader) {
+				// No annotations used (yet), so it is the default one.
+				mAnnotations.add(CustomMetadataContainer.DEFAULT_ANNOTATION);
+			} else {
+				for (String oneAnnotation : annotationHeader.getValue().split(";")) {
+					mAnnotations.add(oneAnnotation);
+				}
+			}
+
+			return true;
+		}
+
+		private String getNamespaceHost() throws URISyntaxException {
+			return mMetadata.getSystemMetadata().toURIWrapper().getHost();
+		}
+
+		private void customMetadataWritten() {
+			// Partial success until the last annotation for this object is written.
+			mItemStatus.setCustomMetadataStatus(WriteStatus.WRITE_PARTIAL_SUCCESS);
+			for (Step oneStep : mSteps) {
+				if (StepType.WRITE_CUSTOM_METADATA == oneStep.mType) {
+					return;
+				}
+			}
+			mItemStatus.setCustomMetadataStatus(WriteStatus.WRITE_SUCCESS);
+		}
+
+		/*
+		 * Object is not on HCP.  Either do Whole Object I/O or in two pieces.  Whole Object I/O needs
+		 * the size of the object data up front, which is only known for files.
+		 */
+		private void planObjectDoesNotExist() throws URISyntaxException {
+			logger.debug("Performing Addition of both Object and Metadata to {}",
+					mMetadata.getSystemMetadata().toPathOnlyURI().toString());
+
+			if (mFeatures.bCanUseWholeIO && mParent.mItem instanceof FileSystemItem
+					&& 1 == mMetadata.getCustomMetadata().count()) {
+				Entry<String, byte[]> cmInfo = mMetadata.getCustomMetadata().iterator().next();
+
+				// If there is no custom metadata, then don't do a Whole I/O.
+				byte[] cmData = (cmInfo == null ? null : cmInfo.getValue());
+				if (null != cmData && 0 != cmData.length) {
+					mSteps.add(new Step(StepType.WRITE_WHOLE_OBJECT, cmInfo.getKey(), cmData));
+					return;
+				}
+
+				logger.debug("No Custom Metdata. Only writing Object, not doing whole I/O");
+				mSteps.add(new Step(StepType.WRITE_OBJECT));
+				return;
+			}
+
+			logger.debug("Performing two operations to transfer object and Custom Metadata to HCP");
+			mSteps.add(new Step(StepType.WRITE_OBJECT));
+			planCustomMetadata();
+		}
+
+		/*
+		 * Object is on HCP.  Decide on custom and system metadata updates.
+		 */
+		private void planObjectExists(boolean bHasCustomMetadata) throws URISyntaxException {
+			if ( ! bHasCustomMetadata ) {
+				logger.debug("Performing Addition/Update of Metadata to {}",
+						mMetadata.getSystemMetadata().toPathOnlyURI().toString());
+				planCustomMetadata();
+			} else if (mMetadata.getCustomMetadata().shouldUpdateCustomMetadata()) {
+				logger.debug("Performing Replacement/Update of Custom-Metadata to {}",
+						mMetadata.getSystemMetadata().toPathOnlyURI().toString());
+				planCustomMetadata();
+			} else {
+				logger.debug("Custom Metadata already exists.  Not updated.");
+			}
+
+			if (mMetadata.getSystemMetadata().shouldUpdateSystemMetadata()) {
+				logger.debug("Requested to update System Metadata on existing object: {}",
+						mMetadata.getSystemMetadata().toPathOnlyURI().toString());
+				mSteps.add(new Step(StepType.UPDATE_SYSTEM_METADATA));
+			}
+		}
+
+		private void planCustomMetadata() throws URISyntaxException {
+			Iterator<Entry<String, byte[]>> iter = mMetadata.getCustomMetadata().iterator();
+			while (iter.hasNext()) {
+				Entry<String, byte[]> oneItem = iter.next();
+
+				byte[] value = oneItem.getValue();
+				if (null == value || 0 == value.length) {
+					logger.info("No data for annotation ({}) for object: {}",
+							oneItem.getKey(), mMetadata.getSystemMetadata().toPathOnlyURI().toString());
+
+					if (mMetadata.getCustomMetadata().shouldDeleteExistingCustomMetadataOnEmpty()) {
+						mSteps.add(new Step(StepType.DELETE_CUSTOM_METADATA, oneItem.getKey(), null));
+					}
+					continue;
+				}
+
+				mSteps.add(new Step(StepType.WRITE_CUSTOM_METADATA, oneItem.getKey(), value));
+			}
+		}
+	}
+}
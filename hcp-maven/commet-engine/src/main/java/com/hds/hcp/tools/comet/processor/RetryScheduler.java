@@ -0,0 +1,170 @@
+package com.hds.hcp.tools.comet.processor;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.InputMismatchException;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpResponseException;
+
+import com.hds.hcp.tools.comet.BaseWorkItem;
+import com.hds.hcp.tools.comet.CometProperties;
+import com.hds.hcp.tools.comet.ThreadPoolQueueInterface;
+import com.hds.hcp.tools.comet.utils.StaticUtils;
+
+/**
+ * Retries work items that failed for reasons that are likely to go away on their own: a 5xx
+ * response from HCP, a connection failure or timeout, a hash mismatch, or a refused request
+ * because the circuit of the HCP is open.
+ *
+ * A failed item is put in a time-ordered delay queue instead of being completed.  Nothing holds
+ * on to a processor thread while it waits.  A single dispatcher thread puts items back on the
+ * processor queue as their time comes.  The delay doubles with every attempt, starting at
+ * execution.processor.retry.initialDelayInMillis up to execution.processor.retry.maxDelayInSeconds,
+ * and only the upper half of it is fixed (the rest is random) so items that failed together do
+ * not all come back together.  An item refused by an open circuit waits at least until the HCP
+ * is tried again.
+ *
+ * After execution.processor.retry.count attempts the item is completed with its last failure.
+ */
+class RetryScheduler {
+	private static Logger logger = LogManager.getLogger();
+
+	RetryScheduler(CometProperties inProps, ThreadPoolQueueInterface inTarget) {
+		mProps = inProps;
+		mTarget = inTarget;
+	}
+
+	private CometProperties mProps;
+	private ThreadPoolQueueInterface mTarget;
+	private DelayQueue<DelayedItem> mQueue = new DelayQueue<DelayedItem>();
+	private Thread mDispatcher;
+
+	private static class DelayedItem implements Delayed {
+		DelayedItem(BaseWorkItem inItem, long inDelayMillis) {
+			mItem = inItem;
+			mDueAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(inDelayMillis);
+		}
+
+		final BaseWorkItem mItem;
+		final long mDueAt;
+
+		@Override
+		public long getDelay(TimeUnit inUnit) {
+			return inUnit.convert(mDueAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed inOther) {
+			long diff = getDelay(TimeUnit.NANOSECONDS) - inOther.getDelay(TimeUnit.NANOSECONDS);
+
+			return (diff < 0 ? -1 : (diff > 0 ? 1 : 0));
+		}
+	}
+
+	void start() {
+		mDispatcher = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while (true) {
+						BaseWorkItem oneItem = mQueue.take().mItem;
+
+						logger.debug("Retrying Item: {}", oneItem.getName());
+
+						oneItem.getStatus().setException(null);
+						mTarget.itemAdd(oneItem);
+					}
+				} catch (InterruptedException e) {
+					logger.debug("Retry dispatcher stopped with {} items waiting", mQueue.size());
+				}
+			}
+		});
+		mDispatcher.setName("RetryDispatcher(" + mDispatcher.getId() + ")");
+		mDispatcher.setDaemon(true);
+		mDispatcher.start();
+	}
+
+	void stop() throws InterruptedException {
+		if (null == mDispatcher) return;
+
+		mDispatcher.interrupt();
+		mDispatcher.join(mProps.getProcessorThreadMaxJoinWait() * 1000);
+	}
+
+	/**
+	 * Whether a failure is worth trying again later.
+	 */
+	static boolean isRetriable(Exception inException) {
+		if (inException instanceof HttpResponseException) {
+			return 5 == ((HttpResponseException)inException).getStatusCode() / 100;
+		}
+
+		// Source item gone, malformed request or response, or asked to stop.
+		if (inException instanceof FileNotFoundException
+				|| inException instanceof ClientProtocolException
+				|| InterruptedIOException.class == inException.getClass()) {
+			return false;
+		}
+
+		return (inException instanceof IOException || inException instanceof InputMismatchException);
+	}
+
+	/**
+	 * How long to wait before attempt number inAttempt + 1: doubling with every attempt up to the
+	 * maximum, with jitter so failures together are not retried together.
+	 */
+	static long getBackoffDelay(CometProperties inProps, int inAttempt) {
+		long maxDelay = inProps.getProcessorRetryMaxDelayInSeconds() * 1000L;
+		long delay = Math.min(maxDelay, (long)inProps.getProcessorRetryInitialDelayInMillis() << Math.min(inAttempt, 30));
+
+		return delay / 2 + (long)(ThreadLocalRandom.current().nextDouble() * (delay / 2));
+	}
+
+	/**
+	 * Schedule inItem to be processed again if its failure is retriable and it has attempts left.
+	 * Returns false if the item should be completed as it is.
+	 */
+	boolean retryLater(BaseWorkItem inItem) {
+		StaticUtils.TRACE_METHOD_ENTER(logger);
+
+		Exception failure = inItem.getStatus().getException();
+		if (null == failure || ! isRetriable(failure) || null == mDispatcher) {
+			StaticUtils.TRACE_METHOD_EXIT(logger);
+			return false;
+		}
+
+		int attempt = inItem.getStatus().getRetryCount();
+		if (mProps.getProcessorRetryCount() <= attempt) {
+			if (0 < attempt) {
+				logger.warn("Giving up on {} after {} retries", inItem.getName(), attempt);
+			}
+
+			StaticUtils.TRACE_METHOD_EXIT(logger);
+			return false;
+		}
+		inItem.getStatus().setRetryCount(attempt + 1);
+
+		long delay = getBackoffDelay(mProps, attempt);
+
+		// No point coming back before the HCP will be tried again.
+		if (failure instanceof HostCircuitBreaker.CircuitOpenException) {
+			delay = Math.max(delay, ((HostCircuitBreaker.CircuitOpenException)failure).getRetryAfter());
+		}
+
+		logger.info("Retry {} of {} in {} ms ({}: {})", attempt + 1, inItem.getName(), delay,
+				failure.getClass().getSimpleName(), failure.getMessage());
+
+		mQueue.put(new DelayedItem(inItem, delay));
+
+		StaticUtils.TRACE_METHOD_EXIT(logger);
+		return true;
+	}
+}
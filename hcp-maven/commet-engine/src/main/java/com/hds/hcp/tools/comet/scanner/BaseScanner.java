@@ -7,10 +7,26 @@ public abstract class BaseScanner {
 
 //	protected ScannerProperties mProps;
 	protected ScannerCompletionInterface mCompletionCallback;
+
+	// Journal of scan progress.  Null when not configured.
+	protected ScanJournal mJournal;
+	
+	public void setJournal(ScanJournal inJournal) { mJournal = inJournal; }
 	
 	public abstract void initialize() throws Exception;
 	public abstract void initialize(Object inBaseSpec, Object inStartItem, ScannerCompletionInterface inCompletionCallback) throws Exception;
 	public abstract BaseWorkItem getNextItem();
 	
 	public abstract boolean deleteItem(BaseWorkItem inItem);
+
+	/**
+	 * An item handed over by getNextItem() has completed, successfully or not.  Called on the
+	 * scanner thread.
+	 */
+	public void itemCompleted(BaseWorkItem inItem) {}
+
+	/**
+	 * Release any resources held by the scanner. Called when the owning thread exits.
+	 */
+	public void close() {}
 }
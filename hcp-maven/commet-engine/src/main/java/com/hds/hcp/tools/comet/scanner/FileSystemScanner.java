@@ -3,10 +3,10 @@ package com.hds.hcp.tools.comet.scanner;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Stack;
-import java.util.regex.PatternSyntaxException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -15,7 +15,7 @@ import com.hds.hcp.tools.comet.BaseWorkItem;
 import com.hds.hcp.tools.comet.FileSystemItem;
 import com.hds.hcp.tools.comet.scanner.delete.RecursiveDeleteUsingFileTree;
 import com.hds.hcp.tools.comet.utils.DirectoryAndPropFilenameFilter;
-import com.hds.hcp.tools.comet.utils.RegExprMatcher;
+import com.hds.hcp.tools.comet.utils.FileNameRules;
 import com.hds.hcp.tools.comet.utils.StaticUtils;
 
 public class FileSystemScanner extends BaseScanner {
@@ -40,22 +40,31 @@ public class FileSystemScanner extends BaseScanner {
 		
 		boolean bFileListSorted = false;
 		boolean isDeependStartTrigerSetOnTop = false;
+		boolean bListed = false;
+		boolean bJournalled = false;
+		boolean bFilesHandedOver = false;
 	}
 	
 	private static Logger logger = LogManager.getLogger();
 	
-	private ScannerProperties mProps;
+	protected ScannerProperties mProps;
 	private Stack<ContextEntry> contextStack = new Stack<ContextEntry>();
 	private ContextEntry mCurrentContext;
 	
-	private File mBaseFolder, mFolderStartPath;
+	protected File mBaseFolder;
+	protected File mFolderStartPath;
 	private FilenameFilter mComboFilter;
 	
-	private LinkedList<RegExprMatcher> mLastFileMatcher = new LinkedList<RegExprMatcher>();
+	private FileNameRules mLastFileRules = new FileNameRules();
 
 	private boolean isInitialized = false;
 	private boolean bStartPathTriggered = false;
 
+	// Files to write last and folder removal wait per folder.  See FolderBarriers.
+	FolderBarriers mBarriers = new FolderBarriers();
+	boolean bUseBarriers = false;
+	boolean bTreeHandedOver = false;
+
 	@Override
 	public void initialize(Object inBaseFolder, Object inFolderStartPath, ScannerCompletionInterface inCompletionCallback)
 			throws Exception {
@@ -84,25 +93,19 @@ public class FileSystemScanner extends BaseScanner {
 		mBaseFolder = (File)inBaseFolder;
 		mFolderStartPath = (File)inFolderStartPath;
 
-		mLastFileMatcher = new LinkedList<RegExprMatcher>();
-
-		LinkedList<String> writeLastFilter = mProps.getSourceWriteLastItemList();
-		while ( ! writeLastFilter.isEmpty()) {
-			// Construct the item and translate to a regular expression.
-			String item = writeLastFilter.removeFirst();
-
-			try {
-				mLastFileMatcher.add(new RegExprMatcher(item));
-			} catch (PatternSyntaxException e) {
-				logger.warn("Invalid Regular Expression \"" 
-				               + item 
-				               + "\" constructed from source.writeLastFileList configuration property. Value ignored.", e);
-			}
-		}
+		FileNameRules lastFileRules = new FileNameRules();
+		lastFileRules.addAll(FileNameRules.WRITE_LAST, mProps.getSourceWriteLastItemList(), "source.writeLastFileList");
+		mLastFileRules = lastFileRules;
 		
 		// Need to reset so next user starts all over again.
 		bStartPathTriggered = false;
 
+		// Without a completion callback there is nothing to wait with.
+		mBarriers.clear();
+		bUseBarriers = (null != mCompletionCallback
+				&& (mLastFileRules.hasRules(FileNameRules.WRITE_LAST) || mProps.shouldDeleteSourceEmptyContainers()));
+		bTreeHandedOver = false;
+
 		StaticUtils.TRACE_METHOD_EXIT(logger);
 	}
 
@@ -148,6 +151,10 @@ public class FileSystemScanner extends BaseScanner {
 		StaticUtils.TRACE_METHOD_ENTER(logger);
 		
 		mCurrentContext = new ContextEntry(inFolder);
+
+		if (bUseBarriers) {
+			mBarriers.folderStarted(inFolder, (contextStack.isEmpty() ? null : contextStack.peek().currentFolder));
+		}
 		
 		logger.info("Processing directory: {}", mCurrentContext.currentFolder.getAbsolutePath());
 
@@ -156,49 +163,16 @@ public class FileSystemScanner extends BaseScanner {
 		mCurrentContext.writeLastFileList = new LinkedList<File>();
 	
 		// Split out regular files from folders.
-		File[] children = mCurrentContext.currentFolder.listFiles(mComboFilter);
-		if (null != children) {
-			// Add them to the List.
-			for (int i=0 ; i < children.length ; i++) {
-				File item = children[i];
-				if (null != item) {
-					if (item.isFile()) {
+		mCurrentContext.bListed = listFolder(mCurrentContext.currentFolder, mCurrentContext.filesList, mCurrentContext.foldersList);
 
-						// Is there a Last File matcher pattern?
-						if ( ! mLastFileMatcher.isEmpty()) {
-				    		boolean foundMatch = false;
-				    		
-					    	// See if it matches any of the inclusion specifications.
-					    	Iterator<RegExprMatcher> iter = mLastFileMatcher.iterator();
-							while ( iter.hasNext() ) {
-								if (iter.next().isMatch(item.getName())) {
-									mCurrentContext.writeLastFileList.add(item);
-									
-									foundMatch = true;
-									break;
-								}
-							}
-
-							// Did we match something?
-							if (foundMatch) {
-								continue;  // Yes. All done with this item
-							}
-				    	}
-
-						// Reached this point, must be just a regular file to add to the list.
-						mCurrentContext.filesList.add(item);
+		// Leave out what a previous run already completed.
+		if (null != mJournal) {
+			mJournal.removeDone(mCurrentContext.filesList, mCurrentContext.foldersList);
+		}
 
-					} else if (item.isDirectory()) {
-						mCurrentContext.foldersList.add(item);
-					}
-				}
+		// Hold back the files that must be written last.
+		splitWriteLastFiles(mCurrentContext.filesList, mCurrentContext.writeLastFileList);
 
-				// Remove reference to help with memory management
-				children[i] = null;
-			}
-			children = null;
-		}
-		
 		// Sort the directories so that when they are processed, it is done in some order.
 		if (mProps.shouldSortContainers()) {
 			Collections.sort(mCurrentContext.foldersList);
@@ -215,19 +189,87 @@ public class FileSystemScanner extends BaseScanner {
 	}
 	
 	
+	/**
+	 * Add the regular files in inFolder that pass the source filters to outFiles, and all of its
+	 *   folders to outFolders, both in the order they are listed.
+	 * @return false if the folder could not be listed
+	 */
+	protected boolean listFolder(File inFolder, LinkedList<File> outFiles, LinkedList<File> outFolders) {
+		File[] children = inFolder.listFiles(mComboFilter);
+		if (null == children) {
+			logger.warn("Unable to list directory {}", inFolder.getAbsolutePath());
+			return false;
+		} else {
+			// Add them to the List.
+			for (int i=0 ; i < children.length ; i++) {
+				File item = children[i];
+				if (null != item) {
+					if (item.isFile()) {
+						outFiles.add(item);
+					} else if (item.isDirectory()) {
+						outFolders.add(item);
+					}
+				}
+
+				// Remove reference to help with memory management
+				children[i] = null;
+			}
+			children = null;
+		}
+		return true;
+	}
+
+	/**
+	 * Move the files in inFiles that match source.writeLastItemList to outWriteLastFiles.
+	 */
+	protected void splitWriteLastFiles(LinkedList<File> inFiles, LinkedList<File> outWriteLastFiles) {
+		// Is there a Last File matcher pattern?
+		if ( ! mLastFileRules.hasRules(FileNameRules.WRITE_LAST) ) {
+			return;
+		}
+
+		Iterator<File> fileIter = inFiles.iterator();
+		while (fileIter.hasNext()) {
+			File item = fileIter.next();
+
+			if (0 != (mLastFileRules.match(item.getName()) & FileNameRules.WRITE_LAST)) {
+				fileIter.remove();
+				outWriteLastFiles.add(item);
+			}
+		}
+	}
+
+	/**
+	 * Construct the work item passed back for a file returned by listFolder().
+	 */
+	protected FileSystemItem newItem(File inFile) {
+		return new FileSystemItem(inFile, mBaseFolder);
+	}
+
 	/**
 	 * Checks for exact match or partial match.
 	 *  If found remove the exact match or a level able partial match and add the respective items on the top of the list
 	 */
 	private void addStartTriggerPathAsFirstItemAndSetStartTrigger() {
+		if (moveStartTriggerFirst(mCurrentContext.foldersList)) {
+			mCurrentContext.isDeependStartTrigerSetOnTop = true;
+		}
+	}
+
+	/**
+	 * Does the work of addStartTriggerPathAsFirstItemAndSetStartTrigger() on the sub-folders of one folder.
+	 * @return true if the start trigger path was put on top of inFolders
+	 */
+	protected boolean moveStartTriggerFirst(LinkedList<File> inFolders) {
+		boolean retVal = false;
 		if(mFolderStartPath!=null && mFolderStartPath.getAbsolutePath()!=null) {
 			String startPathTrigger = mFolderStartPath.getAbsolutePath();
 			File deepestStartTriggerItem = null;
-			if(mCurrentContext.foldersList.contains(mFolderStartPath)) { // Exact match of start trigger path
+			if(inFolders.contains(mFolderStartPath)) { // Exact match of start trigger path
 				deepestStartTriggerItem = mFolderStartPath;
-				mCurrentContext.foldersList.remove(deepestStartTriggerItem);
-				mCurrentContext.foldersList.addFirst(deepestStartTriggerItem);			
-				mCurrentContext.isDeependStartTrigerSetOnTop = true;
+				inFolders.remove(deepestStartTriggerItem);
+				inFolders.addFirst(deepestStartTriggerItem);			
+				retVal = true;
 			} else { // Partial match of start trigger path		
 				String folderSep = startPathTrigger.indexOf("/")!=-1?"/":"\\"; /*Detect folder path separator*/
 				String bestPossibleMatchTriggerPath =  startPathTrigger;
@@ -241,16 +283,37 @@ public class FileSystemScanner extends BaseScanner {
 					if(deepestStartTriggerItem==null && bestPossibleMatchTriggerDir.exists()) {
 						deepestStartTriggerItem = bestPossibleMatchTriggerDir;
 					}
-					if(mCurrentContext.foldersList.contains(new File(bestPossibleMatchTriggerPath))) {
-						mCurrentContext.foldersList.remove(new File(bestPossibleMatchTriggerPath));
-						mCurrentContext.foldersList.addFirst(deepestStartTriggerItem);
-						mCurrentContext.isDeependStartTrigerSetOnTop = true;
+					if(inFolders.contains(new File(bestPossibleMatchTriggerPath))) {
+						inFolders.remove(new File(bestPossibleMatchTriggerPath));
+						inFolders.addFirst(deepestStartTriggerItem);
+						retVal = true;
 					}
 				}
 			}
 		}
+		return retVal;
 	}	
 
+	/**
+	 * The folders moveStartTriggerFirst() looks for: the start trigger path and each folder above it.
+	 *  Worked out from the path alone, so it is cheap to check many folders against it.
+	 */
+	protected HashSet<File> getStartTriggerPaths() {
+		HashSet<File> retVal = new HashSet<File>();
+		if(mFolderStartPath!=null && mFolderStartPath.getAbsolutePath()!=null) {
+			retVal.add(mFolderStartPath);
+
+			String startPathTrigger = mFolderStartPath.getAbsolutePath();
+			String folderSep = startPathTrigger.indexOf("/")!=-1?"/":"\\"; /*Detect folder path separator*/
+			String path = startPathTrigger;
+			while (path.indexOf(folderSep) !=-1) {
+				path = path.substring(0, path.lastIndexOf(folderSep));
+				retVal.add(new File(path));
+			}
+		}
+		return retVal;
+	}
+
 	/**
 	 * Sets the start path trigger flag
 	 * @return boolean 
@@ -291,6 +354,21 @@ public class FileSystemScanner extends BaseScanner {
 		if ( ! isInitialized )
 			throw new IllegalStateException("Object not initialized before attempted use");
 		
+		// Files to write last whose folder has completed go first.
+		if (bUseBarriers) {
+			File readyFile = mBarriers.nextReadyItem();
+			if (null != readyFile) {
+				StaticUtils.TRACE_METHOD_EXIT(logger, "Returning WriteLastFile " 
+				         + readyFile.getParentFile().getName() + File.separator + readyFile.getName());
+				return newItem(readyFile);
+			}
+		}
+
+		// Only the files to write last left to wait for?
+		if (bTreeHandedOver) {
+			return waitForFolders();
+		}
+		
 		// Is this the first time this is called?
 		if (null == mCurrentContext) {
 			// Make sure directory provided actually exists.
@@ -306,6 +384,12 @@ public class FileSystemScanner extends BaseScanner {
 				return null;
 			}
 
+			if (null != mJournal && mJournal.isFolderDone(mBaseFolder)) {
+				logger.info("Directory completed by a previous run: \"" + mBaseFolder.getAbsolutePath() + "\"");
+				StaticUtils.TRACE_METHOD_EXIT(logger);
+				return null;
+			}
+
 			setContext(mBaseFolder);
 		}
 		
@@ -316,6 +400,17 @@ public class FileSystemScanner extends BaseScanner {
 			// If we haven't been triggered yet, then let's see if it is time.
 			setStartPathTriggered();
 
+			// Now that it is known what will be handed over from this folder, tell the journal.
+			//   A folder whose files are left out as the start path is not reached yet is not journalled.
+			if (null != mJournal && mCurrentContext.bListed && ! mCurrentContext.bJournalled) {
+				if (bStartPathTriggered) {
+					mJournal.folderListed(mCurrentContext.currentFolder,
+							mCurrentContext.filesList.size() + mCurrentContext.writeLastFileList.size(),
+							mCurrentContext.foldersList.size());
+				}
+				mCurrentContext.bJournalled = true;
+			}
+
 			// If the file list is not yet sorted and we need to, then do so.
 			if ( bStartPathTriggered && ! mCurrentContext.bFileListSorted && mProps.shouldSortItems() ) {
 				// Sort them so they are in a understandable order.
@@ -329,12 +424,24 @@ public class FileSystemScanner extends BaseScanner {
 						+ mCurrentContext.filesList.peek().getParentFile().getName()
 				        + File.separator
    		                + mCurrentContext.filesList.peek().getName());
-				return new FileSystemItem(mCurrentContext.filesList.remove(), mBaseFolder);
+				File file = mCurrentContext.filesList.remove();
+				if (bUseBarriers) {
+					mBarriers.itemHandedOver(file);
+				}
+				return newItem(file);
 			}
 
 			// At this point all, regular files have been processed.
 			//  So now process all the ones to write last.
-			if ( ! mCurrentContext.writeLastFileList.isEmpty() ) {
+			if (bUseBarriers) {
+				// They go once the files of this folder have completed.  Carry on with the
+				//   sub-folders meanwhile.
+				if ( ! mCurrentContext.bFilesHandedOver ) {
+					mBarriers.filesHandedOver(mCurrentContext.currentFolder, mCurrentContext.writeLastFileList);
+					mCurrentContext.writeLastFileList.clear();
+					mCurrentContext.bFilesHandedOver = true;
+				}
+			} else if ( ! mCurrentContext.writeLastFileList.isEmpty() ) {
 				logger.debug("Processing WriteLastFile element: {}", mCurrentContext.writeLastFileList.peekFirst().getAbsolutePath());
 				
 				// Wait for all pending operations to complete since the file(s) to be written here must
@@ -354,7 +461,7 @@ public class FileSystemScanner extends BaseScanner {
 				         + mCurrentContext.writeLastFileList.peek().getParentFile().getName()
 				         + File.separator
   		                 + mCurrentContext.writeLastFileList.peek().getName());
-				return new FileSystemItem(mCurrentContext.writeLastFileList.remove(), mBaseFolder);
+				return newItem(mCurrentContext.writeLastFileList.remove());
 			}
 
 			// Reached this point, so either there are not files, or all files have already been passed
@@ -374,9 +481,11 @@ public class FileSystemScanner extends BaseScanner {
 			}
 
 			// See if we are supposed to do folder removal when empty.
-			// If directed to do folder removal, it will be less efficient in that for every
-			//  folder the scanner must wait for the folder items to complete.
-			if (mProps.shouldDeleteSourceEmptyContainers()) {
+			// The folder is removed once its items and sub-folders have completed.
+			if (bUseBarriers) {
+				mBarriers.folderHandedOver(mCurrentContext.currentFolder);
+				removeFinishedFolders();
+			} else if (mProps.shouldDeleteSourceEmptyContainers()) {
 				// Wait for all pending operations to complete.
 				try {
 					if (null != mCompletionCallback)
@@ -387,7 +496,7 @@ public class FileSystemScanner extends BaseScanner {
 				}
 				
 				// Now remove the folder since the files have been completed and also removed.
-				deleteFolder();   // Ignoring any failures.
+				deleteFolder(mCurrentContext.currentFolder);   // Ignoring any failures.
 			}
 			
 			
@@ -395,7 +504,9 @@ public class FileSystemScanner extends BaseScanner {
 			
 			// Have we popped all the context and thus all done?
 			if (null == mCurrentContext) {
-				break; // Yes.  Just break out of loop and return null;
+				// Yes.  Anything left is waiting for its folder to complete.
+				bTreeHandedOver = true;
+				return waitForFolders();
 			}
 		}
 		
@@ -403,23 +514,78 @@ public class FileSystemScanner extends BaseScanner {
 		return null;  // No more to process.
 	}
 
-	private boolean deleteFolder() {
+	/*
+	 * All of the tree has been handed over, except for files to write last still waiting for their
+	 *   folder.  Wait for completions until one is ready.  Returns null when all is done.
+	 */
+	FileSystemItem waitForFolders() {
+		while (bUseBarriers && mBarriers.isWaiting()) {
+			File readyFile = mBarriers.nextReadyItem();
+			if (null != readyFile) {
+				StaticUtils.TRACE_METHOD_EXIT(logger, "Returning WriteLastFile " 
+				         + readyFile.getParentFile().getName() + File.separator + readyFile.getName());
+				return newItem(readyFile);
+			}
+
+			try {
+				if (0 == mCompletionCallback.finalizeCompleteItems() && null == (readyFile = mBarriers.nextReadyItem())) {
+					// Nothing outstanding, so nothing more will become ready.
+					logger.warn("Directories still waiting for items that are not outstanding: {}", mBaseFolder.getAbsolutePath());
+					break;
+				}
+				if (null != readyFile) {
+					return newItem(readyFile);
+				}
+			} catch (InterruptedException e) {
+				logger.info("Received interrupt while waiting for completed items in getNextItem()");
+				break;  // Just leave the loop and we'll return no item.
+			}
+		}
+
+		mBarriers.clear();
+		bTreeHandedOver = false;
+
+		StaticUtils.TRACE_METHOD_EXIT(logger, "No more files to process");
+		return null;  // No more to process.
+	}
+
+	@Override
+	public void itemCompleted(BaseWorkItem inItem) {
+		if (bUseBarriers && inItem.getHandle() instanceof File) {
+			mBarriers.itemCompleted((File)inItem.getHandle());
+			removeFinishedFolders();
+		}
+	}
+
+	/*
+	 * Remove the folders whose items and sub-folders have all completed, if so configured.
+	 */
+	void removeFinishedFolders() {
+		File folder;
+		while (null != (folder = mBarriers.nextFinishedFolder())) {
+			if (mProps.shouldDeleteSourceEmptyContainers()) {
+				deleteFolder(folder);   // Ignoring any failures.
+			}
+		}
+	}
+
+	protected boolean deleteFolder(File inFolder) {
 		StaticUtils.TRACE_METHOD_ENTER(logger);
 		
 		boolean retval = false;
 		
-		logger.debug("Deleting Folder: " + mCurrentContext.currentFolder.getAbsolutePath());
+		logger.debug("Deleting Folder: " + inFolder.getAbsolutePath());
 		
-		//if ( mCurrentContext.currentFolder.delete() ) {
+		//if ( inFolder.delete() ) {
 		//	retval = true;
 		//} else {
 			if (mProps.shouldForceDeleteSourceItems()) {
-				if ( mCurrentContext.currentFolder.setWritable(true, true)) {
+				if ( inFolder.setWritable(true, true)) {
 					logger.debug("Forced delete of folder succeeded.");
-					RecursiveDeleteUsingFileTree.recursiveDeleteUsingFileTree(mCurrentContext.currentFolder.getAbsolutePath());
+					RecursiveDeleteUsingFileTree.recursiveDeleteUsingFileTree(inFolder.getAbsolutePath());
 					retval = true; 
 				} else {
-					logger.warn("Failed to remove folder: {}", mCurrentContext.currentFolder.getAbsolutePath());
+					logger.warn("Failed to remove folder: {}", inFolder.getAbsolutePath());
 				}
 			}
 		//}
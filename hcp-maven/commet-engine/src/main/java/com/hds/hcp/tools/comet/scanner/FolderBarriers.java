@@ -0,0 +1,153 @@
+package com.hds.hcp.tools.comet.scanner;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps track of what each folder being scanned still waits for, so a folder's files to write
+ * last and its removal only wait for that folder instead of for everything the scanner submitted.
+ *
+ * For each folder it counts the items handed over that have not completed.  Once all regular
+ * files of a folder have been handed over and have completed, its files to write last become
+ * ready one at a time, each after the one before has completed.  A folder is finished once those
+ * have completed too and all its sub-folders are finished.  Meanwhile the scanner carries on with
+ * other folders.
+ *
+ * Only used from the scanner thread.
+ */
+class FolderBarriers {
+	private static Logger logger = LogManager.getLogger();
+
+	private static class Folder {
+		Folder(File inFolder, Folder inParent) {
+			mFolder = inFolder;
+			mParent = inParent;
+		}
+
+		final File mFolder;
+		final Folder mParent;
+
+		int mPending = 0;       // Handed over, not yet completed.
+		int mOpenFolders = 0;   // Sub-folders not finished.
+		LinkedList<File> mWriteLastFiles = new LinkedList<File>();
+		boolean bFilesHandedOver = false;
+		boolean bFolderHandedOver = false;
+	}
+
+	private HashMap<String, Folder> mFolders = new HashMap<String, Folder>();
+	private LinkedList<File> mReadyItems = new LinkedList<File>();
+	private LinkedList<File> mFinishedFolders = new LinkedList<File>();
+
+	void clear() {
+		mFolders.clear();
+		mReadyItems.clear();
+		mFinishedFolders.clear();
+	}
+
+	/**
+	 * Whether there are folders not finished yet.
+	 */
+	boolean isWaiting() {
+		return ! mFolders.isEmpty() || ! mReadyItems.isEmpty();
+	}
+
+	/**
+	 * The scanner starts handing over from inFolder, a sub-folder of inParent.  inParent is null
+	 * for the top folder.
+	 */
+	void folderStarted(File inFolder, File inParent) {
+		Folder parent = (null == inParent ? null : mFolders.get(inParent.getAbsolutePath()));
+
+		mFolders.put(inFolder.getAbsolutePath(), new Folder(inFolder, parent));
+		if (null != parent) {
+			parent.mOpenFolders++;
+		}
+	}
+
+	void itemHandedOver(File inItem) {
+		Folder folder = mFolders.get(inItem.getAbsoluteFile().getParent());
+		if (null != folder) {
+			folder.mPending++;
+		}
+	}
+
+	/**
+	 * All regular files of inFolder have been handed over.  inWriteLastFiles are to be handed
+	 * over once they have completed.
+	 */
+	void filesHandedOver(File inFolder, LinkedList<File> inWriteLastFiles) {
+		Folder folder = mFolders.get(inFolder.getAbsolutePath());
+		if (null == folder) return;
+
+		folder.mWriteLastFiles.addAll(inWriteLastFiles);
+		folder.bFilesHandedOver = true;
+
+		check(folder);
+	}
+
+	/**
+	 * Everything in inFolder and its sub-folders has been handed over, except for files to write
+	 * last that are waiting.
+	 */
+	void folderHandedOver(File inFolder) {
+		Folder folder = mFolders.get(inFolder.getAbsolutePath());
+		if (null == folder) return;
+
+		folder.bFilesHandedOver = true;
+		folder.bFolderHandedOver = true;
+
+		check(folder);
+	}
+
+	void itemCompleted(File inItem) {
+		Folder folder = mFolders.get(inItem.getAbsoluteFile().getParent());
+		if (null == folder || 0 == folder.mPending) return;
+
+		folder.mPending--;
+
+		check(folder);
+	}
+
+	/**
+	 * A file to write last that may be handed over now, or null if there is none.
+	 */
+	File nextReadyItem() {
+		return mReadyItems.poll();
+	}
+
+	/**
+	 * A folder that is finished, or null if there is none.
+	 */
+	File nextFinishedFolder() {
+		return mFinishedFolders.poll();
+	}
+
+	private void check(Folder inFolder) {
+		if ( ! inFolder.bFilesHandedOver || 0 < inFolder.mPending) return;
+
+		// Next file to write last.  It counts as pending until it has completed.
+		if ( ! inFolder.mWriteLastFiles.isEmpty() ) {
+			logger.debug("Files of folder complete. Releasing WriteLastFile: {}", inFolder.mWriteLastFiles.peek().getAbsolutePath());
+
+			mReadyItems.add(inFolder.mWriteLastFiles.remove());
+			inFolder.mPending++;
+			return;
+		}
+
+		if ( ! inFolder.bFolderHandedOver || 0 < inFolder.mOpenFolders) return;
+
+		logger.debug("All items for folder complete: {}", inFolder.mFolder.getAbsolutePath());
+
+		mFolders.remove(inFolder.mFolder.getAbsolutePath());
+		mFinishedFolders.add(inFolder.mFolder);
+
+		if (null != inFolder.mParent) {
+			inFolder.mParent.mOpenFolders--;
+			check(inFolder.mParent);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package com.hds.hcp.tools.comet.scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedList;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.hds.hcp.tools.comet.FileSystemItem;
+import com.hds.hcp.tools.comet.utils.PropsFilenameFilter;
+
+/**
+ * FileSystemScanner that lists folders with a NIO DirectoryStream and reads the attributes of
+ * each entry just once.
+ *
+ * File.listFiles() with the source filters followed by isFile()/isDirectory() stats every entry
+ * two or three times, which adds up on network file systems with millions of files.  Here each
+ * entry gets a single readAttributes() call, the source filters only look at the name, and the
+ * size and modification time found are carried on the FileSystemItem so generators and the
+ * processor do not have to stat the file again.
+ *
+ * Otherwise behaves exactly like FileSystemScanner.  Select it with
+ *   scanner.class=com.hds.hcp.tools.comet.scanner.NIOFileSystemScanner
+ */
+public class NIOFileSystemScanner extends FileSystemScanner {
+	private static Logger logger = LogManager.getLogger();
+
+	/*
+	 * A listed file along with the attributes read for it.
+	 */
+	private static class ScannedFile extends File {
+		private static final long serialVersionUID = 1L;
+
+		ScannedFile(Path inPath, BasicFileAttributes inAttributes) {
+			super(inPath.toString());
+			mAttributes = inAttributes;
+		}
+
+		final transient BasicFileAttributes mAttributes;
+	}
+
+	protected PropsFilenameFilter mFileFilter;
+
+	@Override
+	public void initialize() throws Exception {
+		super.initialize();
+
+		if (null == mFileFilter) {
+			// Not strict.  We already know it is a regular file without asking the file system.
+			mFileFilter = new PropsFilenameFilter(mProps, false);
+		}
+	}
+
+	@Override
+	protected boolean listFolder(File inFolder, LinkedList<File> outFiles, LinkedList<File> outFolders) {
+		try (DirectoryStream<Path> children = Files.newDirectoryStream(inFolder.toPath())) {
+			for (Path child : children) {
+				BasicFileAttributes attributes;
+				try {
+					attributes = Files.readAttributes(child, BasicFileAttributes.class);
+				} catch (IOException e) {
+					// Most likely removed since it was listed.
+					logger.warn("Unable to read attributes of {} (Skipping). {}", child, e.toString());
+					continue;
+				}
+
+				if (attributes.isDirectory()) {
+					outFolders.add(child.toFile());
+				} else if (attributes.isRegularFile()
+						&& mFileFilter.accept(inFolder, child.getFileName().toString())) {
+					outFiles.add(new ScannedFile(child, attributes));
+				}
+			}
+		} catch (IOException e) {
+			logger.warn("Unable to list directory {}. {}", inFolder.getAbsolutePath(), e.toString());
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	protected FileSystemItem newItem(File inFile) {
+		if (inFile instanceof ScannedFile) {
+			return new FileSystemItem(new File(inFile.getPath()), mBaseFolder, ((ScannedFile)inFile).mAttributes);
+		}
+
+		return super.newItem(inFile);
+	}
+}
@@ -0,0 +1,382 @@
+package com.hds.hcp.tools.comet.scanner;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.hds.hcp.tools.comet.FileSystemItem;
+import com.hds.hcp.tools.comet.utils.StaticUtils;
+
+/**
+ * NIOFileSystemScanner that enumerates one source tree with many threads.
+ *
+ * Every folder is listed by its own task on a ForkJoinPool shared by all scanner threads, so
+ * idle pool threads steal sub-folders from busy ones and a single huge source item no longer
+ * gets listed by one thread.  The tasks hand the files they find to getNextItem() through a
+ * bounded queue (execution.parallelScan.queueSize), which keeps the scanner thread in charge of
+ * submitting to the processors and of completions just like the other scanners.
+ *
+ * Ordering that matters is kept:
+ *   - Files of a folder are handed over in order, sorted if source.sortItems is set, but not
+ *     together: the files of folders listed at the same time are interleaved.  Folders are
+ *     sorted if source.sortContainers is set and started in that order.
+ *   - Files matching source.writeLastItemList are handed over after all other files of their
+ *     folder, and getNextItem() waits for everything submitted so far to complete before
+ *     returning each of them.
+ *   - Until the start trigger path is found, folders are walked one at a time in the same order
+ *     as FileSystemScanner, skipping their files.  Only then is the work spread out.
+ *   - With execution.deleteSourceEmptyContainers, a folder is deleted only after everything below
+ *     it has been listed and completed.
+ *
+ * Select it with
+ *   scanner.class=com.hds.hcp.tools.comet.scanner.ParallelFileSystemScanner
+ */
+public class ParallelFileSystemScanner extends NIOFileSystemScanner {
+	private static Logger logger = LogManager.getLogger();
+
+	// One pool for all scanner threads so they can steal from each other too.  The last scanner
+	//   to close shuts it down.
+	private static ForkJoinPool sPool;
+	private static int sPoolRefCount = 0;
+
+	private static synchronized ForkJoinPool acquirePool(int inThreadCount) {
+		if (null == sPool) {
+			logger.info("Starting parallel scan pool with {} threads", inThreadCount);
+
+			sPool = new ForkJoinPool(Math.max(inThreadCount, 1));
+		}
+		sPoolRefCount++;
+
+		return sPool;
+	}
+
+	private static synchronized void releasePool() {
+		if (0 == --sPoolRefCount) {
+			logger.info("Stopping parallel scan pool");
+
+			// Tasks of cancelled scans finish on their own without listing anything more.
+			sPool.shutdown();
+			sPool = null;
+		}
+	}
+
+	private enum Kind { ITEM, WRITE_LAST_ITEM, FOLDER_DONE, END_OF_SCAN }
+
+	/*
+	 * What the folder tasks hand over to getNextItem().
+	 */
+	private static final class Found {
+		Found(Kind inKind, File inFile) {
+			eKind = inKind;
+			mFile = inFile;
+		}
+
+		final Kind eKind;
+		final File mFile;
+	}
+
+	/*
+	 * State of the scan of one source item.
+	 */
+	private static final class Scan {
+		Scan(int inQueueSize, boolean inTriggered) {
+			mFound = new LinkedBlockingQueue<Found>(Math.max(inQueueSize, 1));
+			bStartPathTriggered = new AtomicBoolean(inTriggered);
+		}
+
+		final LinkedBlockingQueue<Found> mFound;
+		final AtomicBoolean bStartPathTriggered;
+		volatile boolean bCancelled = false;
+		boolean bFinished = false;
+
+		/*
+		 * Blocks while the queue is full.  Returns false if the scan was abandoned in the meantime.
+		 *
+		 * The pool is shared by all scans, so the wait is managed: while this worker is parked behind
+		 * a slow consumer, the pool may start another thread so the other scans keep going.
+		 */
+		boolean put(Found inFound) {
+			PutBlocker blocker = new PutBlocker(inFound);
+			try {
+				ForkJoinPool.managedBlock(blocker);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			return blocker.bPut;
+		}
+
+		private final class PutBlocker implements ForkJoinPool.ManagedBlocker {
+			PutBlocker(Found inFound) {
+				mItem = inFound;
+			}
+
+			private final Found mItem;
+			boolean bPut = false;
+
+			public boolean isReleasable() {
+				if ( ! bPut && ! bCancelled ) {
+					bPut = mFound.offer(mItem);
+				}
+
+				return bPut || bCancelled;
+			}
+
+			public boolean block() throws InterruptedException {
+				while ( ! bPut && ! bCancelled ) {
+					bPut = mFound.offer(mItem, 1, TimeUnit.SECONDS);
+				}
+
+				return true;
+			}
+		}
+	}
+
+	/*
+	 * Lists one folder, hands over its files and starts tasks for its sub-folders.
+	 *
+	 * Counts itself plus each sub-folder task still running.  When the count drops to zero the
+	 * whole sub-tree has been handed over, which is when the folder may be deleted and the parent
+	 * is told.
+	 */
+	private final class FolderTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		FolderTask(Scan inScan, FolderTask inParent, File inFolder) {
+			mScan = inScan;
+			mParent = inParent;
+			mFolder = inFolder;
+		}
+
+		private final Scan mScan;
+		private final FolderTask mParent;
+		private final File mFolder;
+		private final AtomicInteger mPending = new AtomicInteger(1);
+
+		@Override
+		protected void compute() {
+			try {
+				if ( ! mScan.bCancelled ) {
+					scanFolder();
+				}
+			} catch (RuntimeException e) {
+				logger.error("Unexpected failure scanning directory " + mFolder.getAbsolutePath() + " (Skipping)", e);
+			} finally {
+				subTaskDone();
+			}
+		}
+
+		private void scanFolder() {
+			logger.info("Processing directory: {}", mFolder.getAbsolutePath());
+
+			LinkedList<File> filesList = new LinkedList<File>();
+			LinkedList<File> foldersList = new LinkedList<File>();
+			LinkedList<File> writeLastFileList = new LinkedList<File>();
+
+			if ( ! listFolder(mFolder, filesList, foldersList) ) {
+				// Never counts down, so the journal leaves the folder open for the next run.
+				return;
+			}
+
+			// Leave out what a previous run already completed.
+			if (null != mJournal) {
+				mJournal.removeDone(filesList, foldersList);
+			}
+
+			// Hold back the files that must be written last.
+			splitWriteLastFiles(filesList, writeLastFileList);
+
+			if (mProps.shouldSortContainers()) {
+				Collections.sort(foldersList);
+			}
+
+			boolean bTriggered = mScan.bStartPathTriggered.get();
+			if ( ! bTriggered && moveStartTriggerFirst(foldersList)) {
+				logger.info("Start Path triggered.  Passed/Found path specified. Requested({}) Found:({})",
+						mFolderStartPath.getAbsolutePath(), mFolder.getAbsolutePath());
+
+				mScan.bStartPathTriggered.set(true);
+				bTriggered = true;
+			}
+
+			logger.info("Number of Children Directories: {}", foldersList.size());
+			logger.info("Number of Children Files: {}", filesList.size());
+
+			// Its files are left out if the start path is not reached yet, so then it is not journalled.
+			if (null != mJournal && bTriggered) {
+				mJournal.folderListed(mFolder, filesList.size() + writeLastFileList.size(), foldersList.size());
+			}
+
+			if (bTriggered) {
+				if (mProps.shouldSortItems()) {
+					Collections.sort(filesList);
+				}
+
+				for (File file : filesList) {
+					if ( ! mScan.put(new Found(Kind.ITEM, file)) ) return;
+				}
+				for (File file : writeLastFileList) {
+					if ( ! mScan.put(new Found(Kind.WRITE_LAST_ITEM, file)) ) return;
+				}
+
+				// Fork in reverse so this thread works on the first folder next and thieves take
+				//   from the end of the list.
+				mPending.addAndGet(foldersList.size());
+				ListIterator<File> iter = foldersList.listIterator(foldersList.size());
+				while (iter.hasPrevious()) {
+					new FolderTask(mScan, this, iter.previous()).fork();
+				}
+			} else {
+				logger.debug("Start Path NOT yet triggered.");
+
+				// Nothing to process at this level.  Walk the folders in order, like FileSystemScanner
+				//   does, until the start path is found.
+				for (File folder : foldersList) {
+					mPending.incrementAndGet();
+					new FolderTask(mScan, this, folder).invoke();
+				}
+			}
+		}
+
+		private void subTaskDone() {
+			if (0 != mPending.decrementAndGet()) {
+				return;
+			}
+
+			logger.debug("All files for folder handed over: {}", mFolder.getAbsolutePath());
+
+			if (mProps.shouldDeleteSourceEmptyContainers()) {
+				mScan.put(new Found(Kind.FOLDER_DONE, mFolder));
+			}
+
+			if (null != mParent) {
+				mParent.subTaskDone();
+			} else {
+				mScan.put(new Found(Kind.END_OF_SCAN, null));
+			}
+		}
+	}
+
+	private Scan mCurrentScan;
+	private ForkJoinPool mPool;
+
+	@Override
+	public void initialize(Object inBaseFolder, Object inFolderStartPath, ScannerCompletionInterface inCompletionCallback)
+			throws Exception {
+		super.initialize(inBaseFolder, inFolderStartPath, inCompletionCallback);
+
+		// Folders are listed out of order on other threads, so this scanner keeps waiting for
+		//   all outstanding items before files to write last and folder removal.
+		bUseBarriers = false;
+
+		// Stop what is left of a scan that was not read to the end.
+		if (null != mCurrentScan) {
+			mCurrentScan.bCancelled = true;
+			mCurrentScan = null;
+		}
+	}
+
+	@Override
+	public FileSystemItem getNextItem() {
+		StaticUtils.TRACE_METHOD_ENTER(logger);
+
+		// Is this the first time this is called?
+		if (null == mCurrentScan) {
+			// Make sure directory provided actually exists.
+			if ( ! mBaseFolder.exists() ) {
+				logger.warn("Directory does not exist: \"" + mBaseFolder.getAbsolutePath() + "\"");
+				StaticUtils.TRACE_METHOD_EXIT(logger);
+				return null;
+			}
+
+			if ( ! mBaseFolder.isDirectory() ) {
+				logger.warn("File specified is not a directory: \"" + mBaseFolder.getAbsolutePath() + "\"");
+				StaticUtils.TRACE_METHOD_EXIT(logger);
+				return null;
+			}
+
+			if (null != mJournal && mJournal.isFolderDone(mBaseFolder)) {
+				logger.info("Directory completed by a previous run: \"" + mBaseFolder.getAbsolutePath() + "\"");
+				StaticUtils.TRACE_METHOD_EXIT(logger);
+				return null;
+			}
+
+			mCurrentScan = new Scan(mProps.getParallelScanQueueSize(), null == mFolderStartPath);
+
+			if (null == mPool) {
+				mPool = acquirePool(mProps.getParallelScanThreadCount());
+			}
+			mPool.execute(new FolderTask(mCurrentScan, null, mBaseFolder));
+		}
+
+		try {
+			while ( ! mCurrentScan.bFinished ) {
+				Found next = mCurrentScan.mFound.take();
+
+				switch (next.eKind) {
+				case ITEM:
+					StaticUtils.TRACE_METHOD_EXIT(logger, "Returning " + next.mFile.getParentFile().getName()
+							+ File.separator + next.mFile.getName());
+					return newItem(next.mFile);
+
+				case WRITE_LAST_ITEM:
+					logger.debug("Processing WriteLastFile element: {}", next.mFile.getAbsolutePath());
+
+					// Wait for all pending operations to complete since the file(s) to be written here must
+					//   be last and if multiple written serially.
+					if (null != mCompletionCallback)
+						mCompletionCallback.finalizeCompleteItems();
+					else
+						logger.warn("No CompletionCallback provided.  finalizeCompleteItems not called.");
+
+					StaticUtils.TRACE_METHOD_EXIT(logger, "Returning WriteLastFile " + next.mFile.getParentFile().getName()
+							+ File.separator + next.mFile.getName());
+					return newItem(next.mFile);
+
+				case FOLDER_DONE:
+					// Wait for all pending operations to complete, then remove the folder.
+					if (null != mCompletionCallback)
+						mCompletionCallback.finalizeCompleteItems();
+
+					deleteFolder(next.mFile);   // Ignoring any failures.
+					break;
+
+				case END_OF_SCAN:
+					mCurrentScan.bFinished = true;
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			logger.info("Received interrupt while waiting for items in getNextItem()");
+
+			mCurrentScan.bCancelled = true;
+			Thread.currentThread().interrupt();
+		}
+
+		StaticUtils.TRACE_METHOD_EXIT(logger, "No more files to process");
+		return null;  // No more to process.
+	}
+
+	@Override
+	public void close() {
+		if (null != mCurrentScan) {
+			mCurrentScan.bCancelled = true;
+			mCurrentScan = null;
+		}
+
+		if (null != mPool) {
+			releasePool();
+			mPool = null;
+		}
+	}
+}
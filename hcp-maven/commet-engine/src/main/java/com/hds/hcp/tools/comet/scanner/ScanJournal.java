@@ -0,0 +1,376 @@
+package com.hds.hcp.tools.comet.scanner;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.hds.hcp.tools.comet.BaseWorkItem;
+import com.hds.hcp.tools.comet.utils.StaticUtils;
+
+/**
+ * Crash-safe journal of scan progress, so an interrupted run can pick up where it stopped.
+ *
+ * Two kinds of records are appended to the journal file: an item that completed without error,
+ * and a folder whose items and sub-folders have all completed.  A scanner lists a folder, tells
+ * the journal how many items and sub-folders it is going to hand over with folderListed(), and
+ * the journal counts them down as items complete and sub-folders finish.  The folders that are
+ * counting down are the frontier of the scan.
+ *
+ * When a journal with records is opened, the scanners skip folders recorded as complete without
+ * listing them and skip completed items in the folders of the old frontier.  An item that failed
+ * is not recorded, so its folder is listed again and the item retried on the next run.
+ *
+ * Records are length prefixed and carry a CRC, like the IngestLedger.  A record torn by a crash
+ * is cut off when the journal is opened.  The file is forced to disk at most every
+ * execution.scanner.journal.syncIntervalInSeconds and when closed.  The journal is emptied with
+ * reset() once all source items have been completed.
+ */
+public class ScanJournal {
+	private static Logger logger = LogManager.getLogger();
+
+	private static final int RECORD_HEADER_SIZE = 8; // Length + CRC
+	private static final int MAX_RECORD_SIZE = 64*1024;
+	private static final int COMPACTION_MIN_RECORDS = 10000;
+
+	private static final byte ITEM_DONE = 1;
+	private static final byte FOLDER_DONE = 2;
+
+	public ScanJournal(String inFileName, int inSyncIntervalInSeconds) throws IOException {
+		mFile = new File(inFileName).getCanonicalFile();
+		mSyncIntervalMillis = inSyncIntervalInSeconds * 1000L;
+
+		load();
+
+		// Drop the records made redundant by a completed folder above them.
+		long liveCount = prune();
+		if (COMPACTION_MIN_RECORDS < mRecordCount && mRecordCount > 2 * liveCount) {
+			compact();
+		}
+
+		mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+		mChannel.position(mChannel.size());
+		mLastSync = System.currentTimeMillis();
+
+		if (isResuming()) {
+			logger.info("Resuming from scan journal {} ({} folders and {} items already complete)",
+					mFile.getPath(), mDoneFolders.size(), mDoneItems.size());
+		} else {
+			logger.info("Opened scan journal {}", mFile.getPath());
+		}
+	}
+
+	private File mFile;
+	private long mSyncIntervalMillis;
+	private FileChannel mChannel;
+	private long mRecordCount = 0;
+	private long mLastSync;
+
+	// What a previous run completed.  Only read once loaded.
+	private Set<String> mDoneFolders = new HashSet<String>();
+	private Set<String> mDoneItems = new HashSet<String>();
+
+	// Folders of this run still waiting on items or sub-folders, with the count outstanding.
+	private ConcurrentHashMap<String, AtomicInteger> mFrontier = new ConcurrentHashMap<String, AtomicInteger>();
+
+	/**
+	 * Whether a previous run left records to resume from.
+	 */
+	public synchronized boolean isResuming() {
+		return ! (mDoneFolders.isEmpty() && mDoneItems.isEmpty());
+	}
+
+	/**
+	 * Whether a previous run completed inFolder and everything below it.
+	 */
+	public synchronized boolean isFolderDone(File inFolder) {
+		return mDoneFolders.contains(inFolder.getAbsolutePath());
+	}
+
+	/**
+	 * Whether a previous run completed inItem.
+	 */
+	public synchronized boolean isItemDone(File inItem) {
+		return mDoneItems.contains(inItem.getAbsolutePath());
+	}
+
+	/**
+	 * Remove the files and folders that a previous run completed from the listing of a folder.
+	 */
+	public void removeDone(LinkedList<File> inFiles, LinkedList<File> inFolders) {
+		if ( ! isResuming()) return;
+
+		Iterator<File> iter = inFiles.iterator();
+		while (iter.hasNext()) {
+			if (isItemDone(iter.next())) iter.remove();
+		}
+
+		iter = inFolders.iterator();
+		while (iter.hasNext()) {
+			File folder = iter.next();
+			if (isFolderDone(folder)) {
+				logger.info("Skipping directory completed by a previous run: {}", folder.getAbsolutePath());
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * A scanner has listed inFolder and is going to hand over inItemCount items from it and
+	 * descend into inFolderCount of its sub-folders.  Must be called before any of those
+	 * complete.  Not to be called for a folder whose items are left out because the start path
+	 * has not been reached yet, as that folder is not complete once the rest is.
+	 */
+	public void folderListed(File inFolder, int inItemCount, int inFolderCount) {
+		int pending = inItemCount + inFolderCount;
+		if (0 == pending) {
+			folderDone(inFolder.getAbsolutePath());
+			return;
+		}
+
+		mFrontier.put(inFolder.getAbsolutePath(), new AtomicInteger(pending));
+	}
+
+	/**
+	 * An item handed over by a scanner has completed.
+	 */
+	public void itemCompleted(BaseWorkItem inItem) {
+		if ( ! (inItem.getHandle() instanceof File)) return;
+
+		// Not done.  Leave the folder open so the item is tried again next time.
+		if (null != inItem.getStatus().getException()) return;
+
+		File item = (File)inItem.getHandle();
+
+		// Only items of folders being counted down belong to the journalled scan.
+		String folder = item.getAbsoluteFile().getParent();
+		if (null == folder || ! mFrontier.containsKey(folder)) return;
+
+		writeRecord(ITEM_DONE, item.getAbsolutePath());
+
+		countDown(folder);
+	}
+
+	private void countDown(String inFolder) {
+		if (null == inFolder) return;
+
+		AtomicInteger pending = mFrontier.get(inFolder);
+		if (null == pending || 0 != pending.decrementAndGet()) return;
+
+		mFrontier.remove(inFolder);
+		folderDone(inFolder);
+	}
+
+	private void folderDone(String inFolder) {
+		logger.debug("Scan journal: Directory complete: {}", inFolder);
+
+		writeRecord(FOLDER_DONE, inFolder);
+
+		countDown(new File(inFolder).getParent());
+	}
+
+	/**
+	 * Everything has been completed.  Start over with an empty journal.
+	 */
+	public synchronized void reset() {
+		logger.debug("Resetting scan journal {}", mFile.getPath());
+
+		mDoneFolders.clear();
+		mDoneItems.clear();
+		mFrontier.clear();
+		mRecordCount = 0;
+
+		if (null == mChannel) return;
+
+		try {
+			mChannel.truncate(0);
+			mChannel.force(true);
+			mLastSync = System.currentTimeMillis();
+		} catch (IOException e) {
+			logger.warn("Failed to reset scan journal " + mFile.getPath(), e);
+		}
+	}
+
+	public synchronized void close() {
+		if (null == mChannel) return;
+
+		try {
+			mChannel.force(true);
+			mChannel.close();
+		} catch (IOException e) {
+			logger.warn("Unexpected exception closing scan journal " + mFile.getPath(), e);
+		}
+		mChannel = null;
+	}
+
+	private synchronized void writeRecord(byte inType, String inPath) {
+		if (null == mChannel) return;
+
+		try {
+			writeRecord(mChannel, inType, inPath);
+			mRecordCount++;
+
+			long now = System.currentTimeMillis();
+			if (mSyncIntervalMillis <= now - mLastSync) {
+				mChannel.force(false);
+				mLastSync = now;
+			}
+		} catch (IOException e) {
+			// Not fatal.  Worst case the next run does this part of the scan again.
+			logger.warn("Failed to write scan journal record for " + inPath, e);
+		}
+	}
+
+	private static void writeRecord(FileChannel inChannel, byte inType, String inPath) throws IOException {
+		ByteArrayOutputStream byteStream = new ByteArrayOutputStream(128);
+		DataOutputStream out = new DataOutputStream(byteStream);
+		out.writeByte(inType);
+		out.writeUTF(inPath);
+		out.flush();
+		byte[] payload = byteStream.toByteArray();
+
+		CRC32 crc = new CRC32();
+		crc.update(payload, 0, payload.length);
+
+		ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+		buffer.putInt(payload.length);
+		buffer.putInt((int)crc.getValue());
+		buffer.put(payload);
+		buffer.flip();
+
+		while (buffer.hasRemaining()) {
+			inChannel.write(buffer);
+		}
+	}
+
+	/*
+	 * Read all good records.  Anything after the last good record is a torn write from a crash
+	 * and is cut off.
+	 */
+	private void load() throws IOException {
+		StaticUtils.TRACE_METHOD_ENTER(logger);
+
+		if ( ! mFile.exists()) {
+			StaticUtils.TRACE_METHOD_EXIT(logger, "New journal");
+			return;
+		}
+
+		RandomAccessFile journalFile = new RandomAccessFile(mFile, "rw");
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					Channels.newInputStream(journalFile.getChannel()), 64*1024));
+			long goodLength = 0;
+			CRC32 crc = new CRC32();
+
+			while (true) {
+				int length, storedCRC;
+				byte[] payload;
+				try {
+					length = in.readInt();
+					storedCRC = in.readInt();
+					if (length <= 0 || length > MAX_RECORD_SIZE) break;
+
+					payload = new byte[length];
+					in.readFully(payload);
+				} catch (EOFException e) {
+					break;
+				}
+
+				crc.reset();
+				crc.update(payload, 0, payload.length);
+				if ((int)crc.getValue() != storedCRC) break;
+
+				DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+				byte type = record.readByte();
+				String path = record.readUTF();
+				if (FOLDER_DONE == type) {
+					mDoneFolders.add(path);
+				} else {
+					mDoneItems.add(path);
+				}
+				mRecordCount++;
+
+				goodLength += RECORD_HEADER_SIZE + length;
+			}
+
+			if (goodLength < journalFile.length()) {
+				logger.warn("Scan journal {} has an incomplete record at offset {}. Truncating.", mFile.getPath(), goodLength);
+				journalFile.getChannel().truncate(goodLength);
+			}
+		} finally {
+			journalFile.close();
+		}
+
+		StaticUtils.TRACE_METHOD_EXIT(logger);
+	}
+
+	/*
+	 * Forget items and folders below a completed folder.  A scanner never gets that far down.
+	 * Returns the number of records left.
+	 */
+	private long prune() {
+		Iterator<String> iter = mDoneFolders.iterator();
+		while (iter.hasNext()) {
+			if (hasDoneAncestor(iter.next())) iter.remove();
+		}
+
+		iter = mDoneItems.iterator();
+		while (iter.hasNext()) {
+			if (hasDoneAncestor(iter.next())) iter.remove();
+		}
+
+		return mDoneFolders.size() + mDoneItems.size();
+	}
+
+	private boolean hasDoneAncestor(String inPath) {
+		for (File parent = new File(inPath).getParentFile(); null != parent; parent = parent.getParentFile()) {
+			if (mDoneFolders.contains(parent.getPath())) return true;
+		}
+
+		return false;
+	}
+
+	private void compact() throws IOException {
+		logger.info("Compacting scan journal {} ({} records, {} folders and {} items)",
+				mFile.getPath(), mRecordCount, mDoneFolders.size(), mDoneItems.size());
+
+		File tmpFile = new File(mFile.getPath() + ".compact");
+		FileChannel tmpChannel = new RandomAccessFile(tmpFile, "rw").getChannel();
+		try {
+			tmpChannel.truncate(0);
+			for (String onePath : mDoneFolders) {
+				writeRecord(tmpChannel, FOLDER_DONE, onePath);
+			}
+			for (String onePath : mDoneItems) {
+				writeRecord(tmpChannel, ITEM_DONE, onePath);
+			}
+			tmpChannel.force(true);
+		} finally {
+			tmpChannel.close();
+		}
+
+		Files.move(tmpFile.toPath(), mFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		mRecordCount = mDoneFolders.size() + mDoneItems.size();
+	}
+}
@@ -119,5 +119,48 @@ public class ScannerProperties {
 	public Boolean shouldDeleteSourceEmptyContainers() {
 		return new Boolean(mProps.getProperty("execution.deleteSourceEmptyContainers", "false"));
 	}
-	
+
+	/***
+	 * 
+	 * PARALLEL SCANNING PROPERTIES (ParallelFileSystemScanner)
+	 * 
+	 ***/
+
+	public Integer getParallelScanThreadCount() {
+		return new Integer(mProps.getProperty("execution.parallelScan.threadCount",
+				String.valueOf(Runtime.getRuntime().availableProcessors())));
+	}
+
+	public Integer getParallelScanQueueSize() {
+		return new Integer(mProps.getProperty("execution.parallelScan.queueSize", "1000"));
+	}
+
+	/***
+	 * 
+	 * STREAMING SCAN PROPERTIES (StreamingFileSystemScanner)
+	 * 
+	 ***/
+
+	public Integer getStreamingScanBatchSize() {
+		return new Integer(mProps.getProperty("execution.streamingScan.batchSize", "10000"));
+	}
+
+	public String getStreamingScanSpillFolder() {
+		return StaticUtils.resolveEnvVars(mProps.getProperty("execution.streamingScan.spillFolder",
+				System.getProperty("java.io.tmpdir")));
+	}
+
+	/***
+	 * 
+	 * WATCH PROPERTIES (WatchingFileSystemScanner)
+	 * 
+	 ***/
+
+	public Integer getWatchSettleTimeInSeconds() {
+		return new Integer(mProps.getProperty("execution.watch.settleTimeInSeconds", "5"));
+	}
+
+	public Integer getWatchReconcileIntervalInMinutes() {
+		return new Integer(mProps.getProperty("execution.watch.reconcileIntervalInMinutes", "60"));
+	}
 }
@@ -1,5 +1,7 @@
 package com.hds.hcp.tools.comet.scanner;
 
+import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -13,6 +15,7 @@ import com.hds.hcp.tools.comet.PauseCallbackInterface;
 import com.hds.hcp.tools.comet.PauseStopProcessor;
 import com.hds.hcp.tools.comet.ThreadPoolQueueInterface;
 import com.hds.hcp.tools.comet.WorkItemStatus.WriteStatus;
+import com.hds.hcp.tools.comet.processor.HostConcurrencyLimiter;
 import com.hds.hcp.tools.comet.utils.StaticUtils;
 import com.hds.hcp.tools.comet.utils.StatisticsCollector;
 
@@ -39,6 +42,11 @@ public class ScannerThreadPool {
 	
 	private LinkedBlockingQueue<BaseWorkItem> itemQueue;
 
+	// Journal of scan progress shared by all the scanners.  Null when not configured.
+	private ScanJournal mJournal;
+
+	public void setJournal(ScanJournal inJournal) { mJournal = inJournal; }
+
 	public void initialize() throws Exception {
 		StaticUtils.TRACE_METHOD_ENTER(logger);
 		
@@ -73,6 +81,9 @@ public class ScannerThreadPool {
 		LinkedBlockingQueue<BaseWorkItem> mCompletionQueue = new LinkedBlockingQueue<BaseWorkItem>(mProps.getScannerTaskQueueSize());
 		
 		long mOutstandingItemCount = 0;
+		
+		// Items collected to be submitted to the processor pool together.
+		LinkedList<BaseWorkItem> mSubmitBatch = new LinkedList<BaseWorkItem>();
 		BaseScanner mScanner;
 
 		StatisticsCollector mScannerItemStatistics;
@@ -117,6 +128,7 @@ public class ScannerThreadPool {
 				Class<BaseScanner> theClass = (Class<BaseScanner>) Class.forName(mProps.getScannerClass());
 
 				mScanner = (BaseScanner)theClass.newInstance();
+				mScanner.setJournal(mJournal);
 				
 				/**
 				 *  Keep processing forever, until shutdown via interrupt or asked nicely by PauseStopProcessor.
@@ -142,7 +154,9 @@ public class ScannerThreadPool {
 					logger.info("STARTING: {}", mScannerItemName);
 					
 					mOutstandingItemCount = 0;
+					mSubmitBatch.clear();
 					mScannerItemStatistics = new StatisticsCollector();  // Get a freshy each time.
+					mScannerItemStatistics.setSource(oneItem.getSource());
 					
 					// Process the item, but don't crash the thread if something goes bad.
 					try {
@@ -154,8 +168,6 @@ public class ScannerThreadPool {
 							logger.warn("Nothing for scanner to work on. ");
 						}
 
-						int maxWaitTime = mProps.getScannerMaxSubmitWaitTimeInSeconds();
-		
 						// While we have items to add...
 						while (null != scannerItem) {
 							
@@ -178,27 +190,13 @@ public class ScannerThreadPool {
 								throw e;
 							}
 
-							// Submit an item to the Processor thread pool.
+							// Collect the item for the Processor thread pool, submitting once there are enough.
 							logger.debug("Adding item to Processor Queue: {}", scannerItem.getName());
 							scannerItem.setCompletionQueue(mCompletionQueue);
-							if ( ! mProcessorPool.itemAdd(scannerItem, maxWaitTime) ) {
-								long count = processCompleteItems((long)mProps.getScannerCompletionProcessingThreshold());
-								mOutstandingItemCount -= count;
-								
-								logger.debug("ItemAdd wait timeout. Processed {} completed items. {} items still outstanding.", count, mOutstandingItemCount);
-
-								continue;  // Back to the top and try the item again.
-							}
-
-							// Update Counters because we submitted an item.
-							mOutstandingItemCount++;
-
-							// See if it is time to do the periodic processing of completed items.
-							if (mOutstandingItemCount > mProps.getScannerCheckCompleteQueueThreshold()) {
-								long count = processCompleteItems((long)mProps.getScannerCompletionProcessingThreshold());
-								mOutstandingItemCount -= count;
-								
-								logger.debug("Periodic processing of {} completed items. {} items still outstanding.", count, mOutstandingItemCount);
+							scannerItem.setSource(oneItem.getSource());
+							mSubmitBatch.add(scannerItem);
+							if (mSubmitBatch.size() >= mProps.getScannerSubmitBatchSize()) {
+								submitBatch();
 							}
 
 							// Go get another one and process that now.
@@ -253,12 +251,58 @@ public class ScannerThreadPool {
 				return;
 			} catch (Exception e) {
 				logger.fatal("Unexpected Exception. Thread Crashed.", e);
+			} finally {
+				if (null != mScanner) {
+					mScanner.close();
+				}
 			}
 			
 			logger.debug("Thread Exiting");
 			StaticUtils.TRACE_METHOD_EXIT(logger);
 		}
 
+		/*
+		 * Submit the collected items to the Processor thread pool.  While the pool is full, process
+		 *   completed items instead of just waiting.
+		 */
+		void submitBatch() throws InterruptedException {
+			int maxWaitTime = mProps.getScannerMaxSubmitWaitTimeInSeconds();
+
+			while ( ! mSubmitBatch.isEmpty() ) {
+				int submitted = mProcessorPool.itemAddAll(mSubmitBatch, maxWaitTime);
+				mSubmitBatch.subList(0, submitted).clear();
+
+				// Update Counters because we submitted items.
+				mOutstandingItemCount += submitted;
+
+				if ( ! mSubmitBatch.isEmpty() ) {
+					long count = processCompleteItems((long)mProps.getScannerCompletionProcessingThreshold());
+					mOutstandingItemCount -= count;
+					
+					logger.debug("ItemAdd wait timeout. Processed {} completed items. {} items still outstanding.", count, mOutstandingItemCount);
+
+					// See if we should keep processing.
+					try {
+						mPauseStopProcessor.checkContinue();
+					} catch (InterruptedException e) {
+						if (mPauseStopProcessor.stopRequested()) {
+							bIsStopRequested.set(true);
+						}
+						
+						throw e;
+					}
+				}
+			}
+
+			// See if it is time to do the periodic processing of completed items.
+			if (mOutstandingItemCount > mProps.getScannerCheckCompleteQueueThreshold()) {
+				long count = processCompleteItems((long)mProps.getScannerCompletionProcessingThreshold());
+				mOutstandingItemCount -= count;
+				
+				logger.debug("Periodic processing of {} completed items. {} items still outstanding.", count, mOutstandingItemCount);
+			}
+		}
+
 		void processBaseWorkItem(BaseWorkItem inItem) {
 			StaticUtils.TRACE_METHOD_ENTER(logger);
 			
@@ -269,6 +313,13 @@ public class ScannerThreadPool {
 			
 			logString.append("Item Status: [" + inItem.getStatus().getObjectStatus() + ", " 
 					+ inItem.getStatus().getCustomMetadataStatus());
+			if (0 < inItem.getStatus().getPartCount()) {
+				logString.append(", Parts " + inItem.getStatus().getPartsWritten() + "/" + inItem.getStatus().getPartCount()
+						+ " (" + inItem.getStatus().getPartRetries() + " retries)");
+			}
+			if (0 < inItem.getStatus().getRetryCount()) {
+				logString.append(", Retries " + inItem.getStatus().getRetryCount());
+			}
 			if (null != theException) {
 				logString.append(", " + inItem.getStatus().getException().getClass().getName());
 			}
@@ -279,8 +330,17 @@ public class ScannerThreadPool {
 
 			logger.info(logString);
 
+			// Record the progress so a later run can resume from here.
+			if (null != mJournal) {
+				mJournal.itemCompleted(inItem);
+			}
+
 			// Update Scanner level Statistics.
 			mScannerItemStatistics.update(inItem.getStatus().getObjectStatus(), inItem.getStatus().getCustomMetadataStatus());
+			mScannerItemStatistics.update(inItem.getStatus().getMetadataCacheStatus());
+			if (0 <= inItem.getStatus().getGeneratorCalls()) {
+				mScannerItemStatistics.updateGeneratorRouting(inItem.getStatus().getGeneratorCalls(), inItem.getStatus().isMetadataGenerated());
+			}
 			
 			// If the write to HCP succeeded and we should delete the item from the source, then do it.
 			if ( mProps.shouldScannerDeleteSourceItemsOnSuccess()
@@ -299,9 +359,13 @@ public class ScannerThreadPool {
 				}
 			}
 
+			// Let the scanner know, for what is waiting for this item.
+			mScanner.itemCompleted(inItem);
+
 			// Periodically report on statistics.
 			if (0 >= --mStatsThreshold) {
 				mScannerItemStatistics.logStats("Periodic Statistics (" + mScannerItemName + ")");
+				HostConcurrencyLimiter.logStats("Periodic HCP Concurrency");
 				mStatsThreshold = mProps.getStatsReportingThreshold();
 			}
 			
@@ -315,8 +379,13 @@ public class ScannerThreadPool {
 			long itemCount = 0;
 
 			try {
+				// Whatever has been collected must be submitted before it can complete.
+				submitBatch();
+
 				logger.debug("finalizeCompleteItems: Outstanding Item Count: " + mOutstandingItemCount);
 				
+				ArrayList<BaseWorkItem> completedItems = new ArrayList<BaseWorkItem>();
+				
 				// Process until all outstanding items are completed.
 				while (itemCount < mOutstandingItemCount) {
 					// First see if we were asked to kindly pause/stop.
@@ -324,16 +393,24 @@ public class ScannerThreadPool {
 	
 					// Coming out of a pause, the items might have already been collected!!
 					
-					BaseWorkItem oneItem = mCompletionQueue.poll();
-					if (null != oneItem) {
-						// Set to go.  Process an item.
-						processBaseWorkItem(oneItem);
-						
-						itemCount++;
+					// Take all that have completed at once, instead of locking the queue for each.
+					if (0 < mCompletionQueue.drainTo(completedItems, (int)Math.min(mOutstandingItemCount - itemCount, Integer.MAX_VALUE))) {
+						// Set to go.  Process the items.
+						for (BaseWorkItem oneItem : completedItems) {
+							processBaseWorkItem(oneItem);
+							
+							itemCount++;
+						}
+						completedItems.clear();
 					} else {
-						logger.debug("finalizeCompletedItems: Sleeping for {} milliseconds", mProps.getScannerCompletionPollSleep());
-						
-						Thread.sleep(mProps.getScannerCompletionPollSleep());
+						// Wait for the next one.  BaseWorkItem.markProcessed() wakes us up as soon as it is
+						//   put on the queue, the timeout is only there to check for pause/stop now and then.
+						BaseWorkItem oneItem = mCompletionQueue.poll(mProps.getScannerCompletionPollSleep(), TimeUnit.MILLISECONDS);
+						if (null != oneItem) {
+							processBaseWorkItem(oneItem);
+							
+							itemCount++;
+						}
 					}
 				}
 			} catch (InterruptedException e) {
@@ -362,16 +439,23 @@ public class ScannerThreadPool {
 			
 			long itemCount = 0;
 
-			BaseWorkItem oneItem;
-			while (null != (oneItem = mCompletionQueue.poll()) ) {
-				processBaseWorkItem(oneItem);
-				
-				itemCount++;
+			ArrayList<BaseWorkItem> completedItems = new ArrayList<BaseWorkItem>();
+			
+			// See if we have processed all we were asked to.  -1 means until empty.
+			while (inMaxToProcess <= 0 || itemCount < inMaxToProcess) {
+				int maxItems = (inMaxToProcess > 0 ? (int)Math.min(inMaxToProcess - itemCount, Integer.MAX_VALUE) : Integer.MAX_VALUE);
 				
-				// See if we have processed all we were asked to.  -1 means until empty.
-				if (inMaxToProcess > 0 && itemCount >= inMaxToProcess) {
+				// Take what is there at once, instead of locking the queue for each item.
+				if (0 == mCompletionQueue.drainTo(completedItems, maxItems)) {
 					break;
 				}
+				
+				for (BaseWorkItem oneItem : completedItems) {
+					processBaseWorkItem(oneItem);
+					
+					itemCount++;
+				}
+				completedItems.clear();
 			}
 
 			StaticUtils.TRACE_METHOD_EXIT(logger);
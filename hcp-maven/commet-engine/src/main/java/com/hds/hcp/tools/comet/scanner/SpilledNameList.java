@@ -0,0 +1,264 @@
+package com.hds.hcp.tools.comet.scanner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.PriorityQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * List of names that keeps at most a fixed number of them in memory.
+ *
+ * Names are added in one pass, then read back once with next(), either in the order added or
+ * sorted.  Every time inBatchSize names have been added they are written to a run file in the
+ * spill folder, sorted first if the list is sorted.  Reading merges the run files with the names
+ * still in memory.  When there are more runs than can be merged at once, groups of runs are
+ * merged into bigger runs first.
+ */
+class SpilledNameList {
+	private static Logger logger = LogManager.getLogger();
+
+	private static final int MAX_MERGE_RUNS = 64;
+	private static final int RUN_BUFFER_SIZE = 64*1024;
+
+	SpilledNameList(int inBatchSize, boolean inSorted, File inSpillFolder) {
+		mBatchSize = Math.max(inBatchSize, 1);
+		bSorted = inSorted;
+		mSpillFolder = inSpillFolder;
+	}
+
+	private final int mBatchSize;
+	private final boolean bSorted;
+	private final File mSpillFolder;
+
+	private ArrayList<String> mBuffer = new ArrayList<String>();
+	private LinkedList<File> mRuns = new LinkedList<File>();
+	private long mSize = 0;
+
+	// Set up by the first next().
+	private LinkedList<Cursor> mCursors;
+	private PriorityQueue<Cursor> mMergeQueue;
+
+	/*
+	 * Reads one run, or the names in memory, one name at a time.
+	 */
+	private static abstract class Cursor implements Comparable<Cursor> {
+		String mHead;
+
+		// Moves mHead to the next name, or null when there are no more.
+		abstract void advance() throws IOException;
+
+		void close() {}
+
+		public int compareTo(Cursor inOther) { return mHead.compareTo(inOther.mHead); }
+	}
+
+	private static class RunCursor extends Cursor {
+		RunCursor(File inRun) throws IOException {
+			mIn = new DataInputStream(new BufferedInputStream(new FileInputStream(inRun), RUN_BUFFER_SIZE));
+			advance();
+		}
+
+		private DataInputStream mIn;
+
+		void advance() throws IOException {
+			try {
+				mHead = mIn.readUTF();
+			} catch (EOFException e) {
+				mHead = null;
+				close();
+			}
+		}
+
+		void close() {
+			try {
+				mIn.close();
+			} catch (IOException e) {
+				// Only read from.  Nothing lost.
+			}
+		}
+	}
+
+	private static class MemoryCursor extends Cursor {
+		MemoryCursor(Iterator<String> inNames) {
+			mNames = inNames;
+			advance();
+		}
+
+		private Iterator<String> mNames;
+
+		void advance() {
+			mHead = (mNames.hasNext() ? mNames.next() : null);
+		}
+	}
+
+	long size() { return mSize; }
+
+	void add(String inName) throws IOException {
+		mBuffer.add(inName);
+		mSize++;
+
+		if (mBatchSize <= mBuffer.size()) {
+			if (bSorted) {
+				Collections.sort(mBuffer);
+			}
+			mRuns.add(writeRun(mBuffer.iterator()));
+			mBuffer.clear();
+		}
+	}
+
+	/**
+	 * The next name, or null when all have been read.
+	 */
+	String next() throws IOException {
+		if (null == mCursors) {
+			startReading();
+		}
+
+		Cursor cursor;
+		if (bSorted) {
+			cursor = mMergeQueue.poll();
+		} else {
+			while (null != (cursor = mCursors.peek()) && null == cursor.mHead) {
+				mCursors.remove();
+			}
+		}
+		if (null == cursor || null == cursor.mHead) return null;
+
+		String retVal = cursor.mHead;
+		cursor.advance();
+
+		if (bSorted && null != cursor.mHead) {
+			mMergeQueue.add(cursor);
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Delete the run files.  Nothing can be read after this.
+	 */
+	void close() {
+		if (null != mCursors) {
+			for (Cursor cursor : mCursors) {
+				cursor.close();
+			}
+		}
+
+		for (File run : mRuns) {
+			if ( ! run.delete() ) {
+				logger.warn("Failed to delete scan spill file {}", run.getPath());
+			}
+		}
+		mRuns.clear();
+		mBuffer = new ArrayList<String>();
+	}
+
+	private void startReading() throws IOException {
+		if (bSorted) {
+			Collections.sort(mBuffer);
+
+			// Too many runs to have open at once?  Merge groups of them into bigger ones.
+			while (MAX_MERGE_RUNS < mRuns.size()) {
+				LinkedList<File> group = new LinkedList<File>();
+				for (int i = 0; i < MAX_MERGE_RUNS; i++) {
+					group.add(mRuns.removeFirst());
+				}
+				mRuns.addLast(mergeRuns(group));
+			}
+		}
+
+		mCursors = new LinkedList<Cursor>();
+		for (File run : mRuns) {
+			mCursors.add(new RunCursor(run));
+		}
+		mCursors.add(new MemoryCursor(mBuffer.iterator()));
+
+		if (bSorted) {
+			mMergeQueue = new PriorityQueue<Cursor>(mCursors.size());
+			for (Cursor cursor : mCursors) {
+				if (null != cursor.mHead) mMergeQueue.add(cursor);
+			}
+		}
+	}
+
+	private File mergeRuns(LinkedList<File> inRuns) throws IOException {
+		logger.debug("Merging {} scan spill files", inRuns.size());
+
+		final PriorityQueue<Cursor> queue = new PriorityQueue<Cursor>(inRuns.size());
+		LinkedList<Cursor> cursors = new LinkedList<Cursor>();
+		try {
+			for (File run : inRuns) {
+				Cursor cursor = new RunCursor(run);
+				cursors.add(cursor);
+				if (null != cursor.mHead) queue.add(cursor);
+			}
+
+			return writeRun(new Iterator<String>() {
+				public boolean hasNext() { return ! queue.isEmpty(); }
+
+				public String next() {
+					Cursor cursor = queue.poll();
+					String retVal = cursor.mHead;
+					try {
+						cursor.advance();
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+					if (null != cursor.mHead) queue.add(cursor);
+
+					return retVal;
+				}
+
+				public void remove() { throw new UnsupportedOperationException(); }
+			});
+		} catch (IllegalStateException e) {
+			if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+			throw e;
+		} finally {
+			for (Cursor cursor : cursors) {
+				cursor.close();
+			}
+			for (File run : inRuns) {
+				run.delete();
+			}
+		}
+	}
+
+	private File writeRun(Iterator<String> inNames) throws IOException {
+		// Deleted by close(), not deleteOnExit(), which would remember every run until the process ends.
+		File run = File.createTempFile("comet-scan-", ".run", mSpillFolder);
+
+		boolean bWritten = false;
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), RUN_BUFFER_SIZE));
+			try {
+				while (inNames.hasNext()) {
+					out.writeUTF(inNames.next());
+				}
+			} finally {
+				out.close();
+			}
+			bWritten = true;
+		} finally {
+			// Not in mRuns yet, so close() would not find a partly written run.
+			if ( ! bWritten && ! run.delete() ) {
+				logger.warn("Failed to delete scan spill file {}", run.getPath());
+			}
+		}
+
+		return run;
+	}
+}
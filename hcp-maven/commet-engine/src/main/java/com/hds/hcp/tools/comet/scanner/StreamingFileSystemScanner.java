@@ -0,0 +1,334 @@
+package com.hds.hcp.tools.comet.scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Stack;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.hds.hcp.tools.comet.FileSystemItem;
+import com.hds.hcp.tools.comet.utils.StaticUtils;
+
+/**
+ * NIOFileSystemScanner for folders with millions of entries.
+ *
+ * FileSystemScanner keeps the whole listing of a folder in memory and sorts it there.  This
+ * scanner reads a folder with a single pass of a DirectoryStream into lists that keep only
+ * execution.streamingScan.batchSize names in memory.  Each time a batch fills up it is written
+ * to a run file in execution.streamingScan.spillFolder, sorted first when source.sortItems or
+ * source.sortContainers asks for it, and the runs are merged while the items are handed over.
+ * So memory use depends on the batch size and the folder depth, not on the size of the folders.
+ *
+ * Otherwise behaves like FileSystemScanner, including source.writeLastItemList,
+ * source.startTriggerItems, execution.deleteSourceEmptyContainers and the scan journal.  The
+ * attributes read while listing are not kept, so each file is looked at again when handed over.
+ *
+ * Select it with
+ *   scanner.class=com.hds.hcp.tools.comet.scanner.StreamingFileSystemScanner
+ */
+public class StreamingFileSystemScanner extends NIOFileSystemScanner {
+	private static Logger logger = LogManager.getLogger();
+
+	/*
+	 * Listing of one folder being handed over.
+	 */
+	private static class FolderContext {
+		FolderContext(File inFolder) {
+			mFolder = inFolder;
+		}
+
+		final File mFolder;
+		SpilledNameList mFiles;
+		SpilledNameList mFolders;
+		LinkedList<File> mWriteLastFiles = new LinkedList<File>();
+		LinkedList<File> mFirstFolders = new LinkedList<File>();  // Start trigger path.
+		boolean bStartTriggerFound = false;
+
+		void close() {
+			if (null != mFiles) mFiles.close();
+			if (null != mFolders) mFolders.close();
+		}
+	}
+
+	private Stack<FolderContext> mContextStack = new Stack<FolderContext>();
+	private FolderContext mCurrentContext;
+	private boolean bStartPathTriggered = false;
+
+	@Override
+	public void initialize(Object inBaseFolder, Object inFolderStartPath, ScannerCompletionInterface inCompletionCallback)
+			throws Exception {
+		super.initialize(inBaseFolder, inFolderStartPath, inCompletionCallback);
+
+		// Clean up what is left of a scan that was not read to the end.
+		closeContexts();
+
+		bStartPathTriggered = (null == mFolderStartPath);
+	}
+
+	private void closeContexts() {
+		if (null != mCurrentContext) {
+			mCurrentContext.close();
+			mCurrentContext = null;
+		}
+		while ( ! mContextStack.isEmpty() ) {
+			mContextStack.pop().close();
+		}
+
+		mBarriers.clear();
+		bTreeHandedOver = false;
+	}
+
+	/*
+	 * List inFolder in one pass, spilling the names beyond the batch size to disk.
+	 */
+	private FolderContext openFolder(File inFolder) throws IOException {
+		StaticUtils.TRACE_METHOD_ENTER(logger);
+
+		logger.info("Processing directory: {}", inFolder.getAbsolutePath());
+
+		FolderContext context = new FolderContext(inFolder);
+		if (bUseBarriers) {
+			mBarriers.folderStarted(inFolder, (null == mCurrentContext ? null : mCurrentContext.mFolder));
+		}
+		File spillFolder = new File(mProps.getStreamingScanSpillFolder());
+		context.mFiles = new SpilledNameList(mProps.getStreamingScanBatchSize(), mProps.shouldSortItems(), spillFolder);
+		context.mFolders = new SpilledNameList(mProps.getStreamingScanBatchSize(), mProps.shouldSortContainers(), spillFolder);
+
+		// The folders on the way to the start trigger path.  Only the child that is one of them needs
+		//   the file system checks of moveStartTriggerFirst().
+		HashSet<File> startTriggerPaths = (bStartPathTriggered ? null : getStartTriggerPaths());
+
+		boolean bListed = true;
+		try (DirectoryStream<Path> children = Files.newDirectoryStream(inFolder.toPath())) {
+			for (Path child : children) {
+				BasicFileAttributes attributes;
+				try {
+					attributes = Files.readAttributes(child, BasicFileAttributes.class);
+				} catch (IOException e) {
+					// Most likely removed since it was listed.
+					logger.warn("Unable to read attributes of {} (Skipping). {}", child, e.toString());
+					continue;
+				}
+
+				String name = child.getFileName().toString();
+				File childFile = new File(inFolder, name);
+
+				if (attributes.isDirectory()) {
+					// Leave out what a previous run already completed.
+					if (null != mJournal && mJournal.isFolderDone(childFile)) {
+						logger.info("Skipping directory completed by a previous run: {}", childFile.getAbsolutePath());
+						continue;
+					}
+
+					// Does it lead to the start trigger path?
+					if ( null != startTriggerPaths && startTriggerPaths.contains(childFile) ) {
+						LinkedList<File> candidate = new LinkedList<File>();
+						candidate.add(childFile);
+						if (moveStartTriggerFirst(candidate)) {
+							context.mFirstFolders.addAll(candidate);
+							context.bStartTriggerFound = true;
+							continue;
+						}
+					}
+
+					context.mFolders.add(name);
+				} else if (attributes.isRegularFile() && mFileFilter.accept(inFolder, name)) {
+					if (null != mJournal && mJournal.isItemDone(childFile)) {
+						continue;
+					}
+
+					// Hold back the files that must be written last.  There are few of those.
+					LinkedList<File> candidate = new LinkedList<File>();
+					candidate.add(childFile);
+					splitWriteLastFiles(candidate, context.mWriteLastFiles);
+					if ( ! candidate.isEmpty() ) {
+						context.mFiles.add(name);
+					}
+				}
+			}
+		} catch (IOException e) {
+			logger.warn("Unable to list directory {}. {}", inFolder.getAbsolutePath(), e.toString());
+			bListed = false;
+		}
+
+		// If we haven't been triggered yet, then let's see if it is time.
+		if ( ! bStartPathTriggered ) {
+			if (context.bStartTriggerFound) {
+				logger.info("Start Path triggered.  Passed/Found path specified. Requested({}) Found:({})",
+						mFolderStartPath.getAbsolutePath(), inFolder.getAbsolutePath());
+				bStartPathTriggered = true;
+			} else {
+				logger.debug("Start Path NOT yet triggered.");
+
+				// Nothing to process at this level.
+				context.mFiles.close();
+				context.mFiles = new SpilledNameList(1, false, spillFolder);
+				context.mWriteLastFiles.clear();
+			}
+		}
+
+		logger.info("Number of Children Directories: {}", context.mFirstFolders.size() + context.mFolders.size());
+		logger.info("Number of Children Files: {}", context.mFiles.size() + context.mWriteLastFiles.size());
+
+		// Until the start path is triggered the files were dropped above, and the folder is not complete
+		//   when the rest is.
+		if (null != mJournal && bListed && bStartPathTriggered) {
+			mJournal.folderListed(inFolder, (int)(context.mFiles.size() + context.mWriteLastFiles.size()),
+					(int)(context.mFirstFolders.size() + context.mFolders.size()));
+		}
+
+		StaticUtils.TRACE_METHOD_EXIT(logger);
+		return context;
+	}
+
+	@Override
+	public FileSystemItem getNextItem() {
+		StaticUtils.TRACE_METHOD_ENTER(logger);
+
+		try {
+			// Files to write last whose folder has completed go first.
+			if (bUseBarriers) {
+				File readyFile = mBarriers.nextReadyItem();
+				if (null != readyFile) {
+					StaticUtils.TRACE_METHOD_EXIT(logger, "Returning WriteLastFile "
+							+ readyFile.getParentFile().getName() + File.separator + readyFile.getName());
+					return newItem(readyFile);
+				}
+			}
+
+			// Only the files to write last left to wait for?
+			if (bTreeHandedOver) {
+				return waitForFolders();
+			}
+
+			// Is this the first time this is called?
+			if (null == mCurrentContext) {
+				// Make sure directory provided actually exists.
+				if ( ! mBaseFolder.exists() ) {
+					logger.warn("Directory does not exist: \"" + mBaseFolder.getAbsolutePath() + "\"");
+					StaticUtils.TRACE_METHOD_EXIT(logger);
+					return null;
+				}
+
+				if ( ! mBaseFolder.isDirectory() ) {
+					logger.warn("File specified is not a directory: \"" + mBaseFolder.getAbsolutePath() + "\"");
+					StaticUtils.TRACE_METHOD_EXIT(logger);
+					return null;
+				}
+
+				if (null != mJournal && mJournal.isFolderDone(mBaseFolder)) {
+					logger.info("Directory completed by a previous run: \"" + mBaseFolder.getAbsolutePath() + "\"");
+					StaticUtils.TRACE_METHOD_EXIT(logger);
+					return null;
+				}
+
+				mCurrentContext = openFolder(mBaseFolder);
+			}
+
+			/*
+			 * First pass back files, then the ones to write last, otherwise go down a folder level.
+			 */
+			while (true) {
+				String fileName = mCurrentContext.mFiles.next();
+				if (null != fileName) {
+					StaticUtils.TRACE_METHOD_EXIT(logger, "Returning " + mCurrentContext.mFolder.getName()
+							+ File.separator + fileName);
+					File file = new File(mCurrentContext.mFolder, fileName);
+					if (bUseBarriers) {
+						mBarriers.itemHandedOver(file);
+					}
+					return newItem(file);
+				}
+
+				if (bUseBarriers) {
+					// They go once the files of this folder have completed.  See FileSystemScanner.
+					if ( ! mCurrentContext.mWriteLastFiles.isEmpty() ) {
+						mBarriers.filesHandedOver(mCurrentContext.mFolder, mCurrentContext.mWriteLastFiles);
+						mCurrentContext.mWriteLastFiles.clear();
+					}
+				} else if ( ! mCurrentContext.mWriteLastFiles.isEmpty() ) {
+					logger.debug("Processing WriteLastFile element: {}", mCurrentContext.mWriteLastFiles.peekFirst().getAbsolutePath());
+
+					// Wait for all pending operations to complete since the file(s) to be written here must
+					//   be last and if multiple written serially.
+					if (null != mCompletionCallback)
+						mCompletionCallback.finalizeCompleteItems();
+					else
+						logger.warn("No CompletionCallback provided.  finalizeCompleteItems not called.");
+
+					StaticUtils.TRACE_METHOD_EXIT(logger, "Returning WriteLastFile "
+							+ mCurrentContext.mFolder.getName() + File.separator + mCurrentContext.mWriteLastFiles.peek().getName());
+					return newItem(mCurrentContext.mWriteLastFiles.remove());
+				}
+
+				logger.debug("All files for folder complete: {}", mCurrentContext.mFolder.getAbsolutePath());
+
+				// Are there any folders at the current context?
+				File subFolder = null;
+				if ( ! mCurrentContext.mFirstFolders.isEmpty() ) {
+					subFolder = mCurrentContext.mFirstFolders.remove();
+				} else {
+					String folderName = mCurrentContext.mFolders.next();
+					if (null != folderName) {
+						subFolder = new File(mCurrentContext.mFolder, folderName);
+					}
+				}
+
+				if (null != subFolder) {
+					// Done with the files of this folder.  Free up the spill files before going down.
+					mCurrentContext.mFiles.close();
+
+					mContextStack.push(mCurrentContext);
+					mCurrentContext = openFolder(subFolder);
+
+					continue; // Looping back to the top.
+				}
+
+				// See if we are supposed to do folder removal when empty.
+				if (bUseBarriers) {
+					mBarriers.folderHandedOver(mCurrentContext.mFolder);
+					removeFinishedFolders();
+				} else if (mProps.shouldDeleteSourceEmptyContainers()) {
+					// Wait for all pending operations to complete.
+					if (null != mCompletionCallback)
+						mCompletionCallback.finalizeCompleteItems();
+
+					// Now remove the folder since the files have been completed and also removed.
+					deleteFolder(mCurrentContext.mFolder);   // Ignoring any failures.
+				}
+
+				mCurrentContext.close();
+				mCurrentContext = (mContextStack.isEmpty() ? null : mContextStack.pop());
+
+				// Have we popped all the context and thus all done?
+				if (null == mCurrentContext) {
+					// Yes.  Anything left is waiting for its folder to complete.
+					bTreeHandedOver = true;
+					return waitForFolders();
+				}
+
+				logger.debug("Returning to folder: {}", mCurrentContext.mFolder.getAbsolutePath());
+			}
+		} catch (InterruptedException e) {
+			logger.info("Received interrupt while waiting for completed items in getNextItem()");
+
+			closeContexts();
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			logger.error("Failed to read or write scan spill files in " + mProps.getStreamingScanSpillFolder()
+					+ ". Abandoning scan of " + mBaseFolder.getAbsolutePath(), e);
+
+			closeContexts();
+		}
+
+		StaticUtils.TRACE_METHOD_EXIT(logger, "No more files to process");
+		return null;  // No more to process.
+	}
+}
@@ -0,0 +1,367 @@
+package com.hds.hcp.tools.comet.scanner;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.hds.hcp.tools.comet.FileSystemItem;
+import com.hds.hcp.tools.comet.utils.StaticUtils;
+
+/**
+ * NIOFileSystemScanner that keeps watching the source tree for new files after scanning it.
+ *
+ * Made for execution.loopCount=-1.  Instead of scanning the whole tree again every
+ * execution.loopSleepInSeconds, the tree is scanned once and every folder listed is registered
+ * with a WatchService (inotify on Linux).  From then on only files that were created or written
+ * are handed over, once no event has been seen for them for execution.watch.settleTimeInSeconds,
+ * meaning the writer is most likely done with them.  Folders created later are registered and
+ * their files picked up the same way.  Between arrivals the scanner thread waits for events and
+ * uses no CPU and does no file system calls.
+ *
+ * Events can get lost, for example when the kernel event queue overflows or on network file
+ * systems that do not report changes made by other clients.  So the tree is scanned in full again
+ * every execution.watch.reconcileIntervalInMinutes, and right away after an overflow.
+ *
+ * Files matching source.writeLastItemList are handed over after the other files that settled at
+ * the same time, each after everything submitted before has completed.  The scan journal is not
+ * used, the first scan of a restart finds whatever was left.  Since the folders are being
+ * watched, do not combine with execution.deleteSourceEmptyContainers.
+ *
+ * Select it with
+ *   scanner.class=com.hds.hcp.tools.comet.scanner.WatchingFileSystemScanner
+ */
+public class WatchingFileSystemScanner extends NIOFileSystemScanner {
+	private static Logger logger = LogManager.getLogger();
+
+	private WatchService mWatcher;
+	private Map<WatchKey, Path> mWatchedFolders = new HashMap<WatchKey, Path>();
+
+	// Files with events, by the time of their last event.  Oldest first.
+	private LinkedHashMap<Path, Long> mSettling = new LinkedHashMap<Path, Long>();
+
+	// Settled files waiting to be handed over.
+	private LinkedList<File> mReadyList = new LinkedList<File>();
+	private LinkedList<File> mReadyLastList = new LinkedList<File>();
+
+	// Modification time of the files handed over, so neither events nor reconciliation scans
+	//   hand over a file again unless it changed.  Kept across reconciliation scans, which drop
+	//   the files they no longer find.
+	private Map<Path, Long> mHandedOver = new HashMap<Path, Long>();
+
+	// Files found by the full scan in progress.
+	private Set<Path> mScanned = new HashSet<Path>();
+
+	private boolean bScanning;
+	private long mNextReconcile;
+
+	@Override
+	public void setJournal(ScanJournal inJournal) {
+		if (null != inJournal) {
+			logger.info("Scan journal not used when watching. The first scan after a restart finds what is left.");
+		}
+	}
+
+	@Override
+	public void initialize(Object inBaseFolder, Object inFolderStartPath, ScannerCompletionInterface inCompletionCallback)
+			throws Exception {
+		super.initialize(inBaseFolder, inFolderStartPath, inCompletionCallback);
+
+		closeWatcher();
+
+		mWatcher = FileSystems.getDefault().newWatchService();
+		mWatchedFolders.clear();
+		mSettling.clear();
+		mReadyList.clear();
+		mReadyLastList.clear();
+		mHandedOver.clear();
+		mScanned.clear();
+		bScanning = true;
+	}
+
+	private void closeWatcher() {
+		if (null == mWatcher) return;
+
+		try {
+			mWatcher.close();
+		} catch (IOException e) {
+			logger.debug("Failed to close watch service. {}", e.toString());
+		}
+		mWatcher = null;
+	}
+
+	/*
+	 * Register the folder before listing it, so nothing created in between is missed.
+	 */
+	@Override
+	protected boolean listFolder(File inFolder, LinkedList<File> outFiles, LinkedList<File> outFolders) {
+		watchFolder(inFolder.toPath());
+
+		return super.listFolder(inFolder, outFiles, outFolders);
+	}
+
+	private void watchFolder(Path inFolder) {
+		try {
+			mWatchedFolders.put(inFolder.register(mWatcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), inFolder);
+		} catch (IOException e) {
+			logger.warn("Unable to watch directory {}. Only reconciliation scans will find its new files. {}",
+					inFolder, e.toString());
+		}
+	}
+
+	@Override
+	public FileSystemItem getNextItem() {
+		StaticUtils.TRACE_METHOD_ENTER(logger);
+
+		try {
+			while (true) {
+				// Full scan of the tree, at the start and for reconciliation.
+				if (bScanning) {
+					FileSystemItem item = super.getNextItem();
+					if (null != item) {
+						Path file = item.getFile().toPath();
+						mScanned.add(file);
+
+						Long handedOverTime = mHandedOver.put(file, item.getLastModified());
+						if (null != handedOverTime && handedOverTime == item.getLastModified()) {
+							continue;  // Unchanged since handed over.
+						}
+
+						StaticUtils.TRACE_METHOD_EXIT(logger);
+						return item;
+					}
+
+					// Forget the files that are gone, whether or not their delete event was seen.
+					mHandedOver.keySet().retainAll(mScanned);
+					mScanned.clear();
+
+					bScanning = false;
+					mNextReconcile = System.currentTimeMillis()
+							+ TimeUnit.MINUTES.toMillis(mProps.getWatchReconcileIntervalInMinutes());
+
+					logger.info("Scan of {} complete. Watching {} directories for new files.",
+							mBaseFolder.getAbsolutePath(), mWatchedFolders.size());
+				}
+
+				if ( ! mReadyList.isEmpty() ) {
+					FileSystemItem item = handOver(mReadyList.remove());
+					if (null == item) continue;
+
+					StaticUtils.TRACE_METHOD_EXIT(logger);
+					return item;
+				}
+
+				if ( ! mReadyLastList.isEmpty() ) {
+					// Wait for all pending operations to complete since the file(s) to be written here must
+					//   be last and if multiple written serially.
+					if (null != mCompletionCallback)
+						mCompletionCallback.finalizeCompleteItems();
+
+					FileSystemItem item = handOver(mReadyLastList.remove());
+					if (null == item) continue;
+
+					StaticUtils.TRACE_METHOD_EXIT(logger);
+					return item;
+				}
+
+				// Nothing to hand over.  Let the completions be processed before going idle.
+				if (null != mCompletionCallback)
+					mCompletionCallback.finalizeCompleteItems();
+
+				if (mNextReconcile <= System.currentTimeMillis()) {
+					logger.info("Reconciliation scan of {}", mBaseFolder.getAbsolutePath());
+
+					mSettling.clear();
+					bScanning = true;
+					continue;
+				}
+
+				waitForEvents();
+			}
+		} catch (InterruptedException e) {
+			logger.info("Received interrupt while watching {}", mBaseFolder.getAbsolutePath());
+
+			closeWatcher();
+			Thread.currentThread().interrupt();
+		}
+
+		StaticUtils.TRACE_METHOD_EXIT(logger, "No more files to process");
+		return null;
+	}
+
+	/*
+	 * Null if a reconciliation scan already handed over the file as it is now.
+	 */
+	private FileSystemItem handOver(File inFile) {
+		FileSystemItem item = newItem(inFile);
+
+		Long handedOverTime = mHandedOver.put(inFile.toPath(), item.getLastModified());
+		if (null != handedOverTime && handedOverTime == item.getLastModified()) {
+			return null;
+		}
+
+		return item;
+	}
+
+	/*
+	 * Wait until a file settles or it is time for reconciliation, collecting events meanwhile.
+	 */
+	private void waitForEvents() throws InterruptedException {
+		long settleMillis = TimeUnit.SECONDS.toMillis(mProps.getWatchSettleTimeInSeconds());
+
+		while (mReadyList.isEmpty() && mReadyLastList.isEmpty()) {
+			long now = System.currentTimeMillis();
+			if (mNextReconcile <= now) return;
+
+			long waitUntil = mNextReconcile;
+			if ( ! mSettling.isEmpty()) {
+				waitUntil = Math.min(waitUntil, mSettling.values().iterator().next() + settleMillis);
+			}
+
+			WatchKey key = mWatcher.poll(Math.max(waitUntil - now, 1), TimeUnit.MILLISECONDS);
+			while (null != key) {
+				processEvents(key);
+
+				key = mWatcher.poll();
+			}
+
+			collectSettled(settleMillis);
+		}
+	}
+
+	private void processEvents(WatchKey inKey) {
+		Path folder = mWatchedFolders.get(inKey);
+
+		for (WatchEvent<?> event : inKey.pollEvents()) {
+			if (OVERFLOW == event.kind()) {
+				logger.warn("File system events were lost. Reconciling {} now.", mBaseFolder.getAbsolutePath());
+				mNextReconcile = 0;
+				continue;
+			}
+			if (null == folder) continue;
+
+			Path child = folder.resolve((Path)event.context());
+
+			if (ENTRY_DELETE == event.kind()) {
+				mSettling.remove(child);
+				mHandedOver.remove(child);
+				continue;
+			}
+
+			BasicFileAttributes attributes;
+			try {
+				attributes = Files.readAttributes(child, BasicFileAttributes.class);
+			} catch (IOException e) {
+				continue;  // Gone already.
+			}
+
+			if (attributes.isDirectory()) {
+				if (ENTRY_CREATE == event.kind()) {
+					watchNewFolder(child);
+				}
+			} else if (attributes.isRegularFile()) {
+				settling(child);
+			}
+		}
+
+		if ( ! inKey.reset() ) {
+			logger.debug("No longer watching {}", folder);
+			mWatchedFolders.remove(inKey);
+		}
+	}
+
+	/*
+	 * A folder created after the scan.  Watch it and whatever got into it before it was watched.
+	 */
+	private void watchNewFolder(Path inFolder) {
+		logger.info("Watching new directory: {}", inFolder);
+
+		watchFolder(inFolder);
+
+		try (DirectoryStream<Path> children = Files.newDirectoryStream(inFolder)) {
+			for (Path child : children) {
+				if (Files.isDirectory(child)) {
+					watchNewFolder(child);
+				} else {
+					settling(child);
+				}
+			}
+		} catch (IOException e) {
+			logger.warn("Unable to list directory {}. {}", inFolder, e.toString());
+		}
+	}
+
+	private void settling(Path inFile) {
+		if ( ! mFileFilter.accept(inFile.getParent().toFile(), inFile.getFileName().toString())) return;
+
+		// Re-insert so the order stays by last event.
+		mSettling.remove(inFile);
+		mSettling.put(inFile, System.currentTimeMillis());
+	}
+
+	/*
+	 * Move the files without events for the settle time to the ready lists.
+	 */
+	private void collectSettled(long inSettleMillis) {
+		long settledBefore = System.currentTimeMillis() - inSettleMillis;
+
+		LinkedList<File> settled = new LinkedList<File>();
+		Iterator<Map.Entry<Path, Long>> iter = mSettling.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<Path, Long> entry = iter.next();
+			if (settledBefore < entry.getValue()) break;  // The rest are younger.
+
+			iter.remove();
+
+			Path file = entry.getKey();
+			try {
+				Long handedOverTime = mHandedOver.get(file);
+				if (null != handedOverTime && handedOverTime == Files.getLastModifiedTime(file).toMillis()) {
+					continue;  // Unchanged since handed over.
+				}
+			} catch (IOException e) {
+				continue;  // Gone already.
+			}
+
+			settled.add(file.toFile());
+		}
+
+		if (settled.isEmpty()) return;
+
+		logger.debug("{} new files settled", settled.size());
+
+		LinkedList<File> writeLast = new LinkedList<File>();
+		splitWriteLastFiles(settled, writeLast);
+
+		if (mProps.shouldSortItems()) {
+			Collections.sort(settled);
+			Collections.sort(writeLast);
+		}
+
+		mReadyList.addAll(settled);
+		mReadyLastList.addAll(writeLast);
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ *   Copyright (c) 2012 Hitachi Data Systems, Inc.
+ *
+ *   Permission is hereby granted to  this software and associated
+ *   documentation files (the "Software"), subject to the terms and
+ *   conditions of the Sample Source Code License (SSCL) delivered
+ *   with this Software. If you do not agree to the terms and
+ *   conditions of the SSCL,
+ *
+ *     (i)  you must close this file and delete all copies of the
+ *          Software, and
+ *     (ii) any permission to use the Software is expressly denied.
+ *
+ * Disclaimer: This code is only a sample and is provided for educational purposes.
+ * The consumer of this sample assumes full responsibility for any effects due to
+ * coding errors.
+ *
+ */
+package com.hds.hcp.tools.comet.utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Components shared by all the threads of the process, such as metadata generators and the
+ * property sets they read.  Each is created once under its key by the first thread asking for it;
+ * threads asking at the same time wait for that one instead of creating their own.
+ *
+ * A component that failed to be created is not remembered, so the next thread asking tries again.
+ */
+public class ComponentRegistry {
+
+	public interface Factory<T> {
+		T create() throws Exception;
+	}
+
+	private static final ConcurrentHashMap<String, FutureTask<Object>> sComponents = new ConcurrentHashMap<String, FutureTask<Object>>();
+
+	private ComponentRegistry() { }
+
+	/**
+	 * The component registered under inKey, created with inFactory if there is none yet.
+	 */
+	public static <T> T get(String inKey, Class<T> inType, final Factory<? extends T> inFactory) throws Exception {
+		FutureTask<Object> task = sComponents.get(inKey);
+		if (null == task) {
+			FutureTask<Object> newTask = new FutureTask<Object>(new Callable<Object>() {
+				public Object call() throws Exception {
+					return inFactory.create();
+				}
+			});
+
+			task = sComponents.putIfAbsent(inKey, newTask);
+			if (null == task) {
+				task = newTask;
+				task.run();
+			}
+		}
+
+		try {
+			return inType.cast(task.get());
+		} catch (ExecutionException e) {
+			sComponents.remove(inKey, task);
+
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) throw (Exception)cause;
+			if (cause instanceof Error) throw (Error)cause;
+			throw e;
+		}
+	}
+
+	/**
+	 * Forget the component registered under inKey, so the next get() creates it again.
+	 */
+	public static void remove(String inKey) {
+		sComponents.remove(inKey);
+	}
+}
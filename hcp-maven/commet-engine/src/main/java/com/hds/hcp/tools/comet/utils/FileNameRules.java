@@ -0,0 +1,225 @@
+package com.hds.hcp.tools.comet.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Compiled set of file name rules, evaluated together in one pass per name.
+ *
+ * Each rule is a regular expression as made by StaticUtils.convertFilePatternToRegExpr() and
+ * belongs to a rule kind (INCLUDE, EXCLUDE, WRITE_LAST, SHRED, RETENTION).  match() returns the
+ * kinds that had at least one rule matching the whole name, as a bit mask.
+ *
+ * Most configured patterns are plain names or simple wildcards like *.txt or abc*, so those are
+ * not run as regular expressions at all: exact names and extensions are looked up in hash maps,
+ * other literal prefixes and suffixes are compared directly.  The remaining expressions are
+ * combined into a single alternation that is tried first, so a name that matches none of them
+ * costs one regular expression match no matter how many there are.
+ *
+ * Add the rules, then share the instance.  match() does not change anything and may be called
+ * from many threads.
+ */
+public class FileNameRules {
+	private static Logger logger = LogManager.getLogger();
+
+	public static final int INCLUDE = 0x01;
+	public static final int EXCLUDE = 0x02;
+	public static final int WRITE_LAST = 0x04;
+	public static final int SHRED = 0x08;
+	public static final int RETENTION = 0x10;
+
+	private static final String ANY = ".*";
+	private static final String REGEXPR_META_CHARS = "^$.|?*+()[]{}";
+
+	private int mRuleKinds = 0;
+	private int mAnyNameKinds = 0;
+
+	private HashMap<String, Integer> mExactNames = new HashMap<String, Integer>();
+	private HashMap<String, Integer> mExtensions = new HashMap<String, Integer>();
+
+	// Literal prefix and/or suffix with anything in between.  Either may be empty.
+	private ArrayList<String> mPrefixes = new ArrayList<String>();
+	private ArrayList<String> mSuffixes = new ArrayList<String>();
+	private ArrayList<Integer> mAffixKinds = new ArrayList<Integer>();
+
+	private ArrayList<Pattern> mRegExprs = new ArrayList<Pattern>();
+	private ArrayList<Integer> mRegExprKinds = new ArrayList<Integer>();
+	private Pattern mAnyRegExpr;  // All of mRegExprs in one.
+
+	/**
+	 * Add a rule of kind inKind.  Throws PatternSyntaxException if inRegExpr is not a valid
+	 * regular expression.  Empty expressions are ignored.
+	 */
+	public void add(int inKind, String inRegExpr) throws PatternSyntaxException {
+		if (null == inRegExpr || inRegExpr.isEmpty()) return;
+
+		Pattern pattern = Pattern.compile(inRegExpr);
+
+		mRuleKinds |= inKind;
+
+		if (ANY.equals(inRegExpr)) {
+			mAnyNameKinds |= inKind;
+			return;
+		}
+
+		String literal = toLiteral(inRegExpr);
+		if (null != literal) {
+			addKind(mExactNames, literal, inKind);
+			return;
+		}
+
+		// Literal on either side of a single ".*"?
+		int anyIndex = inRegExpr.indexOf(ANY);
+		if (0 <= anyIndex) {
+			String prefix = toLiteral(inRegExpr.substring(0, anyIndex));
+			String suffix = toLiteral(inRegExpr.substring(anyIndex + ANY.length()));
+			if (null != prefix && null != suffix) {
+				if (prefix.isEmpty() && isExtension(suffix)) {
+					addKind(mExtensions, suffix, inKind);
+				} else {
+					mPrefixes.add(prefix);
+					mSuffixes.add(suffix);
+					mAffixKinds.add(inKind);
+				}
+				return;
+			}
+		}
+
+		mRegExprs.add(pattern);
+		mRegExprKinds.add(inKind);
+
+		combineRegExprs();
+	}
+
+	/**
+	 * Add a rule of kind inKind for each expression in inRegExprs.  Invalid ones are logged with
+	 * inPropertyName and left out.
+	 */
+	public void addAll(int inKind, List<String> inRegExprs, String inPropertyName) {
+		for (String regExpr : inRegExprs) {
+			try {
+				add(inKind, regExpr);
+			} catch (PatternSyntaxException e) {
+				logger.warn("Invalid Regular Expression \""
+				               + regExpr
+				               + "\" constructed from " + inPropertyName + " configuration property. Value ignored.", e);
+			}
+		}
+	}
+
+	/**
+	 * Whether any rule of the kinds in inKinds was added.
+	 */
+	public boolean hasRules(int inKinds) {
+		return 0 != (mRuleKinds & inKinds);
+	}
+
+	/**
+	 * The kinds of the rules matching inName, or 0 for none.
+	 */
+	public int match(String inName) {
+		int retVal = mAnyNameKinds;
+		if (0 == mRuleKinds) return retVal;
+
+		Integer kinds = mExactNames.get(inName);
+		if (null != kinds) retVal |= kinds;
+
+		if ( ! mExtensions.isEmpty() ) {
+			int dotIndex = inName.lastIndexOf('.');
+			if (0 <= dotIndex) {
+				kinds = mExtensions.get(inName.substring(dotIndex));
+				if (null != kinds) retVal |= kinds;
+			}
+		}
+
+		for (int i = 0; i < mAffixKinds.size(); i++) {
+			String prefix = mPrefixes.get(i);
+			String suffix = mSuffixes.get(i);
+			if (inName.length() >= prefix.length() + suffix.length()
+					&& inName.startsWith(prefix) && inName.endsWith(suffix)) {
+				retVal |= mAffixKinds.get(i);
+			}
+		}
+
+		if ( ! mRegExprs.isEmpty() ) {
+			if (null == mAnyRegExpr || mAnyRegExpr.matcher(inName).matches()) {
+				for (int i = 0; i < mRegExprs.size(); i++) {
+					// No need to check rules of kinds already matched.
+					int ruleKind = mRegExprKinds.get(i);
+					if (0 == (retVal & ruleKind) && mRegExprs.get(i).matcher(inName).matches()) {
+						retVal |= ruleKind;
+					}
+				}
+			}
+		}
+
+		return retVal;
+	}
+
+	/*
+	 * Build the alternation of all the regular expressions, when there is more than one and
+	 *   they can be combined.
+	 */
+	private void combineRegExprs() {
+		mAnyRegExpr = null;
+		if (mRegExprs.size() < 2) return;
+
+		StringBuilder combined = new StringBuilder();
+		for (Pattern pattern : mRegExprs) {
+			// Group numbers shift when combined, which changes what back references refer to.
+			if (pattern.pattern().matches(".*\\\\[0-9].*")) return;
+
+			if (0 < combined.length()) combined.append('|');
+			combined.append("(?:").append(pattern.pattern()).append(')');
+		}
+
+		try {
+			mAnyRegExpr = Pattern.compile(combined.toString());
+		} catch (PatternSyntaxException e) {
+			logger.debug("Unable to combine file name expressions. Matching them one at a time. {}", e.toString());
+		}
+	}
+
+	private static void addKind(HashMap<String, Integer> inMap, String inKey, int inKind) {
+		Integer kinds = inMap.get(inKey);
+		inMap.put(inKey, (null == kinds ? inKind : kinds | inKind));
+	}
+
+	/*
+	 * A suffix like ".txt" that is all of the name after the last dot.
+	 */
+	private static boolean isExtension(String inSuffix) {
+		return inSuffix.startsWith(".") && inSuffix.indexOf('.', 1) < 0;
+	}
+
+	/*
+	 * The text matched by inRegExpr if it only matches that one text, otherwise null.
+	 */
+	private static String toLiteral(String inRegExpr) {
+		StringBuilder retVal = new StringBuilder(inRegExpr.length());
+
+		for (int i = 0; i < inRegExpr.length(); i++) {
+			char c = inRegExpr.charAt(i);
+			if ('\\' == c) {
+				// Escaped punctuation stands for itself.  Escaped letters and digits are classes,
+				//   back references and the like.
+				if (i + 1 >= inRegExpr.length() || Character.isLetterOrDigit(inRegExpr.charAt(i + 1))) {
+					return null;
+				}
+				retVal.append(inRegExpr.charAt(++i));
+			} else if (0 <= REGEXPR_META_CHARS.indexOf(c)) {
+				return null;
+			} else {
+				retVal.append(c);
+			}
+		}
+
+		return retVal.toString();
+	}
+}
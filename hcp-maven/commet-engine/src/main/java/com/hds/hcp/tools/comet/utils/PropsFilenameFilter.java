@@ -2,59 +2,23 @@ package com.hds.hcp.tools.comet.utils;
 
 import java.io.File;
 import java.io.FilenameFilter;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.regex.PatternSyntaxException;
-
-import org.apache.logging.log4j.Logger;
-import org.apache.logging.log4j.LogManager;
 
 import com.hds.hcp.tools.comet.scanner.ScannerProperties;
 
 public class PropsFilenameFilter implements FilenameFilter {
-	private static Logger logger = LogManager.getLogger();
 
 	private ScannerProperties mProps;
-	private LinkedList<RegExprMatcher> mInclusionList, mExclusionList;
+	private FileNameRules mRules;
 	private boolean bIsStrict = true;
 	
 	public PropsFilenameFilter(ScannerProperties inProps, boolean inIsStrict) {
 		mProps = inProps;
 		bIsStrict = inIsStrict;
 
-		mInclusionList = new LinkedList<RegExprMatcher>();
-		mExclusionList = new LinkedList<RegExprMatcher>();
-
-		// Build the FileExtension list.  Important to do the exclusion list first
-		//  because any dups in the inclusion list will override this.
-		LinkedList<String> exclusionList = mProps.getSourceExclusionList();
-		while ( ! exclusionList.isEmpty()) {
-			// Construct the item and translate to a regular expression.
-			String item = exclusionList.removeFirst();
-
-			try {
-				mExclusionList.add(new RegExprMatcher(item));
-			} catch (PatternSyntaxException e) {
-				logger.warn("Invalid Regular Expression \"" 
-				               + item 
-				               + "\" constructed from source.fileExclusion configuration property. Value ignored.", e); 
-			}
-		}
-		
-		LinkedList<String> inclusionList = mProps.getSourceInclusionList();
-		while ( ! inclusionList.isEmpty()) {
-			// Construct the item and translate to a regular expression.
-			String item = inclusionList.removeFirst();
-
-			try {
-				mInclusionList.add(new RegExprMatcher(item));
-			} catch (PatternSyntaxException e) {
-				logger.warn("Invalid Regular Expression \"" 
-				               + item 
-				               + "\" constructed from source.fileInclusion configuration property. Value ignored.", e);
-			}
-		}
-		
+		// All inclusion and exclusion patterns get evaluated at once.
+		mRules = new FileNameRules();
+		mRules.addAll(FileNameRules.EXCLUDE, mProps.getSourceExclusionList(), "source.fileExclusion");
+		mRules.addAll(FileNameRules.INCLUDE, mProps.getSourceInclusionList(), "source.fileInclusion");
 	}
 	public PropsFilenameFilter(ScannerProperties inProps) {
 		this(inProps, true);
@@ -74,7 +38,7 @@ public class PropsFilenameFilter implements FilenameFilter {
     	 */
     	
     	// Short circuit: No specifications
-    	if ( mInclusionList.isEmpty() && mExclusionList.isEmpty()) {
+    	if ( ! mRules.hasRules(FileNameRules.INCLUDE | FileNameRules.EXCLUDE) ) {
     		return retVal;
     	}
     	
@@ -86,34 +50,17 @@ public class PropsFilenameFilter implements FilenameFilter {
         	}
     	}
 
-    	// First check the exclusion and return if any matches.
-    	if ( ! mExclusionList.isEmpty() ) {
-    		Iterator<RegExprMatcher> iter = mExclusionList.iterator();
-    		
-    		while ( iter.hasNext() ) {
-    			if (iter.next().isMatch(inName)) {
-    				// Matched against one exclusion, don't accept.
-    				retVal = false;
-    				break;  // Done searching.
-    			}
-    		}
+    	int matches = mRules.match(inName);
+
+    	// Matched against one exclusion, don't accept.
+    	if (0 != (matches & FileNameRules.EXCLUDE)) {
+    		retVal = false;
     	}
     	
     	// If the exclusion list did not block the file, process 
     	//  the inclusion list.
-    	if ( (true == retVal) && ! mInclusionList.isEmpty() ) {
-    		
-    		retVal = false; // Since we have an inclusion list
-    		                // going to assume we don't find a match.
-    		
-    		Iterator<RegExprMatcher> iter = mInclusionList.iterator();
-    		
-    		while ( iter.hasNext() ) {
-    			if (iter.next().isMatch(inName)) {
-    				retVal = true;
-    				break; // Found a match, done looking.
-    			}
-    		}
+    	if ( (true == retVal) && mRules.hasRules(FileNameRules.INCLUDE) ) {
+    		retVal = (0 != (matches & FileNameRules.INCLUDE));
     	}
 
 		return retVal;
@@ -4,6 +4,8 @@ import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.hds.hcp.tools.comet.WorkItemSource;
+import com.hds.hcp.tools.comet.WorkItemStatus.CacheStatus;
 import com.hds.hcp.tools.comet.WorkItemStatus.WriteStatus;
 
 public class StatisticsCollector {
@@ -18,6 +20,16 @@ public class StatisticsCollector {
 	private long iPartialSuccessCM;
 	private long iFailureCM;
 	private long iNotProcessedCM;
+	private long iMetadataCacheHits;
+	private long iMetadataCacheMisses;
+	private long iGeneratorRouted;
+	private long iGeneratorRoutingMisses;
+	private long iGeneratorUnrouted;
+
+	// Source these statistics are for, with its dispatch count and time when set.
+	private WorkItemSource mSource;
+	private long iSourceDispatchedStart;
+	private long iSourceTimeStart;
 	
 	public long getObjectSuccesses() { return iSuccessObject; };
 	public long getObjectPartialSuccesses() { return iPartialSuccessObject; };
@@ -29,13 +41,33 @@ public class StatisticsCollector {
 	public long getCustomMetadataFailures() { return iFailureCM; };
 	public long getCustomMetadataNotProcessed() { return iNotProcessedCM; };
 
+	public long getMetadataCacheHits() { return iMetadataCacheHits; };
+	public long getMetadataCacheMisses() { return iMetadataCacheMisses; };
+
+	public long getGeneratorRouted() { return iGeneratorRouted; };
+	public long getGeneratorRoutingMisses() { return iGeneratorRoutingMisses; };
+	public long getGeneratorUnrouted() { return iGeneratorUnrouted; };
+
 	public StatisticsCollector() {
 		reset();
 	}
+
+	/**
+	 * Also report on the processor queue of inSource.  Throughput is counted from now.
+	 */
+	public synchronized void setSource(WorkItemSource inSource) {
+		mSource = inSource;
+		if (null != mSource) {
+			iSourceDispatchedStart = mSource.getDispatched();
+			iSourceTimeStart = System.currentTimeMillis();
+		}
+	}
 	
 	public synchronized void reset() {
 		iSuccessObject = iPartialSuccessCM = iFailureObject = iNotProcessedObject = 0;
 		iSuccessCM = iPartialSuccessCM = iFailureCM = iNotProcessedCM = 0;
+		iMetadataCacheHits = iMetadataCacheMisses = 0;
+		iGeneratorRouted = iGeneratorRoutingMisses = iGeneratorUnrouted = 0;
 	}
 	
 	public synchronized void update(StatisticsCollector inStats) {
@@ -48,6 +80,40 @@ public class StatisticsCollector {
 		iPartialSuccessCM += inStats.getCustomMetadataPartialSuccesses();
 		iFailureCM += inStats.getCustomMetadataFailures();
 		iNotProcessedCM += inStats.getCustomMetadataNotProcessed();
+
+		iMetadataCacheHits += inStats.getMetadataCacheHits();
+		iMetadataCacheMisses += inStats.getMetadataCacheMisses();
+
+		iGeneratorRouted += inStats.getGeneratorRouted();
+		iGeneratorRoutingMisses += inStats.getGeneratorRoutingMisses();
+		iGeneratorUnrouted += inStats.getGeneratorUnrouted();
+	}
+
+	/**
+	 * Count how metadata generation went: inCalls generators were asked, and whether one made metadata.
+	 *   Every generator asked that did not make any is a routing miss.
+	 */
+	public synchronized void updateGeneratorRouting(int inCalls, boolean inGenerated) {
+		if (inGenerated) {
+			iGeneratorRouted++;
+			iGeneratorRoutingMisses += inCalls - 1;
+		} else {
+			iGeneratorUnrouted++;
+			iGeneratorRoutingMisses += inCalls;
+		}
+	}
+
+	public synchronized void update(CacheStatus inMetadataCache) {
+		switch(inMetadataCache) {
+		case CACHE_HIT:
+			iMetadataCacheHits++;
+			break;
+		case CACHE_MISS:
+			iMetadataCacheMisses++;
+			break;
+		case NOT_CACHED:
+			break;
+		}
 	}
 	
 	public synchronized void update(WriteStatus inObject, WriteStatus inCM) {
@@ -109,7 +175,39 @@ public class StatisticsCollector {
 					getCustomMetadataPartialSuccesses(),
 					getCustomMetadataFailures(),
 					getCustomMetadataNotProcessed());
-			
+
+			// Only when metadata was generated.
+			if (0 < getGeneratorRouted() + getGeneratorUnrouted()) {
+				logger.log(inLevel, "                     (Routed, Routing Misses, No Generator)");
+				logger.log(inLevel, "    Generators:      ({}, {}, {})",
+						getGeneratorRouted(),
+						getGeneratorRoutingMisses(),
+						getGeneratorUnrouted());
+			}
+
+			// Only when there is a metadata cache.
+			long lookups = getMetadataCacheHits() + getMetadataCacheMisses();
+			if (0 < lookups) {
+				logger.log(inLevel, "                     (Hits, Misses, Hit Ratio)");
+				logger.log(inLevel, "    Metadata Cache:  ({}, {}, {})",
+						getMetadataCacheHits(),
+						getMetadataCacheMisses(),
+						String.format("%.1f%%", getMetadataCacheHits() * 100.0 / lookups));
+			}
+
+			// Only the fair processor queue keeps count per source.
+			if (null != mSource && mSource.isScheduled()) {
+				long dispatched = mSource.getDispatched() - iSourceDispatchedStart;
+				long elapsed = Math.max(System.currentTimeMillis() - iSourceTimeStart, 1);
+
+				logger.log(inLevel, "                     (Weight, Priority, Queue Depth, Dispatched, Items/sec)");
+				logger.log(inLevel, "    Source Queue:    ({}, {}, {}, {}, {})",
+						mSource.getWeight(),
+						mSource.getPriority(),
+						mSource.getQueueDepth(),
+						dispatched,
+						String.format("%.1f", dispatched * 1000.0 / elapsed));
+			}
 		}
 	}
 }
@@ -0,0 +1,68 @@
+/*
+ *   Copyright (c) 2012 Hitachi Data Systems, Inc.
+ *
+ *   Permission is hereby granted to  this software and associated
+ *   documentation files (the "Software"), subject to the terms and
+ *   conditions of the Sample Source Code License (SSCL) delivered
+ *   with this Software. If you do not agree to the terms and
+ *   conditions of the SSCL,
+ *
+ *     (i)  you must close this file and delete all copies of the
+ *          Software, and
+ *     (ii) any permission to use the Software is expressly denied.
+ *
+ * Disclaimer: This code is only a sample and is provided for educational purposes.
+ * The consumer of this sample assumes full responsibility for any effects due to
+ * coding errors.
+ *
+ */
+package com.hds.hcp.tools.comet.utils;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * A date format that can be shared by threads.  SimpleDateFormat is not thread safe, so each
+ * thread formats with its own copy, made the first time it needs one.
+ */
+public class ThreadLocalDateFormat {
+
+	private final String mPattern;
+	private final TimeZone mTimeZone;
+
+	private final ThreadLocal<SimpleDateFormat> mFormat = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			SimpleDateFormat retVal = new SimpleDateFormat(mPattern);
+			if (null != mTimeZone) {
+				retVal.setTimeZone(mTimeZone);
+			}
+			return retVal;
+		}
+	};
+
+	/**
+	 * Format with inPattern in the time zone of the executing system.
+	 */
+	public ThreadLocalDateFormat(String inPattern) {
+		this(inPattern, null);
+	}
+
+	public ThreadLocalDateFormat(String inPattern, TimeZone inTimeZone) {
+		// Fail here on a bad pattern rather than on first use.
+		new SimpleDateFormat(inPattern);
+
+		mPattern = inPattern;
+		mTimeZone = inTimeZone;
+	}
+
+	public String format(Date inDate) {
+		return mFormat.get().format(inDate);
+	}
+
+	public Date parse(String inText) throws ParseException {
+		return mFormat.get().parse(inText);
+	}
+}
@@ -122,7 +122,7 @@ public class URIWrapper {
 		String value = inValue;
 		
 		try {
-			value = URIWrapper.encode(inValue);
+			if (null != inValue) value = URIWrapper.encode(inValue);
 		} catch (URISyntaxException e) {
 			// Did our best.  Just pass through.
 		}
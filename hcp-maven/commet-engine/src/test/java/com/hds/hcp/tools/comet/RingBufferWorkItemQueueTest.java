@@ -0,0 +1,287 @@
+package com.hds.hcp.tools.comet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class RingBufferWorkItemQueueTest {
+
+	private static BaseWorkItem[] newItems(String inPrefix, int inCount) {
+		BaseWorkItem[] retVal = new BaseWorkItem[inCount];
+		for (int i = 0; i < inCount; i++) {
+			retVal[i] = new FileSystemItem(new File(inPrefix + i), null);
+		}
+		return retVal;
+	}
+
+	@Test
+	public void capacityIsRoundedUpToPowerOfTwo() {
+		RingBufferWorkItemQueue queue = new RingBufferWorkItemQueue(5);
+		BaseWorkItem[] items = newItems("item", 9);
+
+		for (int i = 0; i < 8; i++) {
+			assertTrue(queue.offer(items[i]));
+		}
+		assertFalse(queue.offer(items[8]));
+		assertEquals(8, queue.size());
+	}
+
+	@Test
+	public void capacityIsAtLeastTwo() {
+		RingBufferWorkItemQueue queue = new RingBufferWorkItemQueue(1);
+		BaseWorkItem[] items = newItems("item", 3);
+
+		assertTrue(queue.offer(items[0]));
+		assertTrue(queue.offer(items[1]));
+		assertFalse(queue.offer(items[2]));
+		assertSame(items[0], queue.poll());
+		assertSame(items[1], queue.poll());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void fullAndEmpty() throws InterruptedException {
+		RingBufferWorkItemQueue queue = new RingBufferWorkItemQueue(4);
+		BaseWorkItem[] items = newItems("item", 5);
+
+		assertNull(queue.poll());
+		assertEquals(0, queue.drainTo(new ArrayList<BaseWorkItem>(), 10));
+
+		for (int i = 0; i < 4; i++) {
+			assertTrue(queue.offer(items[i], 0, TimeUnit.MILLISECONDS));
+		}
+		assertFalse(queue.offer(items[4]));
+		assertFalse(queue.offer(items[4], 20, TimeUnit.MILLISECONDS));
+		assertEquals(0, queue.offerAll(Arrays.asList(items[4]), 20, TimeUnit.MILLISECONDS));
+		assertEquals(4, queue.size());
+
+		for (int i = 0; i < 4; i++) {
+			assertSame(items[i], queue.poll());
+		}
+		assertNull(queue.poll());
+		assertEquals(0, queue.size());
+	}
+
+	@Test
+	public void offerAllTakesWhatFits() throws InterruptedException {
+		RingBufferWorkItemQueue queue = new RingBufferWorkItemQueue(4);
+		BaseWorkItem[] items = newItems("item", 6);
+
+		assertEquals(4, queue.offerAll(Arrays.asList(items), 0, TimeUnit.MILLISECONDS));
+
+		List<BaseWorkItem> drained = new ArrayList<BaseWorkItem>();
+		assertEquals(3, queue.drainTo(drained, 3));
+		assertEquals(Arrays.asList(items).subList(0, 3), drained);
+		assertSame(items[3], queue.poll());
+	}
+
+	@Test
+	public void keepsOrderAcrossWraparound() throws InterruptedException {
+		RingBufferWorkItemQueue queue = new RingBufferWorkItemQueue(4);
+		BaseWorkItem[] items = newItems("item", 3000);
+
+		// Runs of 3 on a ring of 4 start at every slot, so single and run operations cross the end.
+		List<BaseWorkItem> received = new ArrayList<BaseWorkItem>();
+		for (int start = 0; start < items.length; start += 3) {
+			List<BaseWorkItem> run = Arrays.asList(items).subList(start, start + 3);
+			if (0 == start % 2) {
+				assertEquals(3, queue.offerAll(run, 0, TimeUnit.MILLISECONDS));
+				received.add(queue.poll());
+				assertEquals(2, queue.drainTo(received, 10));
+			} else {
+				for (BaseWorkItem item : run) {
+					assertTrue(queue.offer(item));
+				}
+				assertEquals(3, queue.drainTo(received, 10));
+			}
+			assertEquals(0, queue.size());
+		}
+
+		assertEquals(Arrays.asList(items), received);
+	}
+
+	@Test(timeout = 10000)
+	public void takeWaitsForAnItem() throws InterruptedException {
+		final RingBufferWorkItemQueue queue = new RingBufferWorkItemQueue(2);
+		final BaseWorkItem[] items = newItems("item", 1);
+		final AtomicReference<BaseWorkItem> taken = new AtomicReference<BaseWorkItem>();
+		final CountDownLatch started = new CountDownLatch(1);
+
+		Thread consumer = new Thread() {
+			public void run() {
+				started.countDown();
+				try {
+					taken.set(queue.take());
+				} catch (InterruptedException e) {
+					// Test fails below.
+				}
+			}
+		};
+		consumer.start();
+		started.await();
+		Thread.sleep(50);
+
+		queue.put(items[0]);
+		consumer.join(5000);
+
+		assertSame(items[0], taken.get());
+	}
+
+	@Test(timeout = 10000)
+	public void putWaitsForRoom() throws InterruptedException {
+		final RingBufferWorkItemQueue queue = new RingBufferWorkItemQueue(2);
+		final BaseWorkItem[] items = newItems("item", 3);
+		queue.put(items[0]);
+		queue.put(items[1]);
+
+		Thread producer = new Thread() {
+			public void run() {
+				try {
+					queue.put(items[2]);
+				} catch (InterruptedException e) {
+					// Test fails below.
+				}
+			}
+		};
+		producer.start();
+		Thread.sleep(50);
+		assertTrue(producer.isAlive());
+
+		assertSame(items[0], queue.take());
+		producer.join(5000);
+
+		assertSame(items[1], queue.take());
+		assertSame(items[2], queue.take());
+	}
+
+	/*
+	 * Several producers and consumers on a small queue, so it keeps going full and empty and wraps
+	 * around many times.  Every item must come out exactly once, and the items of one producer in
+	 * the order they were put for each consumer.
+	 */
+	@Test(timeout = 60000)
+	public void manyProducersAndConsumers() throws Exception {
+		final int producerCount = 4;
+		final int consumerCount = 3;
+		final int itemsPerProducer = 50000;
+
+		final RingBufferWorkItemQueue queue = new RingBufferWorkItemQueue(16);
+		final BaseWorkItem[][] items = new BaseWorkItem[producerCount][];
+		for (int p = 0; p < producerCount; p++) {
+			items[p] = newItems("producer" + p + "-", itemsPerProducer);
+		}
+
+		final AtomicInteger remaining = new AtomicInteger(producerCount * itemsPerProducer);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final List<List<BaseWorkItem>> received = new ArrayList<List<BaseWorkItem>>();
+		List<Thread> threads = new LinkedList<Thread>();
+
+		for (int p = 0; p < producerCount; p++) {
+			final BaseWorkItem[] mine = items[p];
+			final boolean bInRuns = (0 == p % 2);
+			threads.add(new Thread() {
+				public void run() {
+					try {
+						if (bInRuns) {
+							List<BaseWorkItem> all = Arrays.asList(mine);
+							int next = 0;
+							while (next < all.size()) {
+								next += queue.offerAll(all.subList(next, Math.min(next + 5, all.size())), 1, TimeUnit.SECONDS);
+							}
+						} else {
+							for (BaseWorkItem item : mine) {
+								queue.put(item);
+							}
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+		}
+
+		for (int c = 0; c < consumerCount; c++) {
+			final List<BaseWorkItem> mine = new ArrayList<BaseWorkItem>();
+			final boolean bDrain = (0 == c % 2);
+			received.add(mine);
+			threads.add(new Thread() {
+				public void run() {
+					try {
+						while (0 < remaining.get()) {
+							if (bDrain) {
+								int count = queue.drainTo(mine, 7);
+								if (0 == count) {
+									Thread.yield();
+								}
+								remaining.addAndGet(-count);
+							} else {
+								BaseWorkItem item = queue.poll();
+								if (null == item) {
+									Thread.yield();
+									continue;
+								}
+								mine.add(item);
+								remaining.decrementAndGet();
+							}
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		if (null != failure.get()) {
+			throw new AssertionError(failure.get());
+		}
+		assertEquals(0, queue.size());
+		assertNull(queue.poll());
+
+		// Where each item was put: producer and position.
+		IdentityHashMap<BaseWorkItem, int[]> origin = new IdentityHashMap<BaseWorkItem, int[]>();
+		for (int p = 0; p < producerCount; p++) {
+			for (int i = 0; i < itemsPerProducer; i++) {
+				origin.put(items[p][i], new int[] { p, i });
+			}
+		}
+
+		int total = 0;
+		for (List<BaseWorkItem> consumed : received) {
+			int[] lastPosition = new int[producerCount];
+			Arrays.fill(lastPosition, -1);
+
+			for (BaseWorkItem item : consumed) {
+				int[] from = origin.remove(item);
+				assertTrue("Item received twice or never put", null != from);
+				assertTrue("Items of a producer out of order", from[1] > lastPosition[from[0]]);
+				lastPosition[from[0]] = from[1];
+			}
+			total += consumed.size();
+		}
+
+		assertEquals(producerCount * itemsPerProducer, total);
+		assertTrue(origin.isEmpty());
+	}
+}
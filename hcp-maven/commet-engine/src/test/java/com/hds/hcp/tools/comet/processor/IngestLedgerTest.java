@@ -0,0 +1,176 @@
+package com.hds.hcp.tools.comet.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hds.hcp.tools.comet.BaseWorkItem;
+import com.hds.hcp.tools.comet.FileSystemItem;
+
+public class IngestLedgerTest {
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private File mLedgerFile;
+	private BaseWorkItem[] mItems;
+
+	@Before
+	public void setUp() throws IOException {
+		mLedgerFile = new File(mFolder.getRoot(), "ledger.log");
+
+		mItems = new BaseWorkItem[3];
+		for (int i = 0; i < mItems.length; i++) {
+			File source = mFolder.newFile("source" + i);
+			FileOutputStream out = new FileOutputStream(source);
+			try {
+				out.write(new byte[100 * (i + 1)]);
+			} finally {
+				out.close();
+			}
+			mItems[i] = new FileSystemItem(source, mFolder.getRoot());
+		}
+	}
+
+	private static String uriOf(int inIndex) {
+		return "https://ns.tenant.hcp.example.com/rest/source" + inIndex;
+	}
+
+	private static Set<String> annotations(String... inNames) {
+		return new HashSet<String>(Arrays.asList(inNames));
+	}
+
+	/*
+	 * Write a record for each of the first inCount items and return the ledger length after each one.
+	 */
+	private long[] writeRecords(int inCount) throws IOException {
+		long[] retVal = new long[inCount];
+
+		IngestLedger ledger = IngestLedger.open(mLedgerFile.getPath());
+		try {
+			for (int i = 0; i < inCount; i++) {
+				ledger.record(uriOf(i), mItems[i], "SHA-256:" + i, annotations("default", "extra" + i));
+				retVal[i] = mLedgerFile.length();
+			}
+		} finally {
+			ledger.release();
+		}
+
+		return retVal;
+	}
+
+	@Test
+	public void recordsSurviveReopen() throws IOException {
+		writeRecords(3);
+
+		IngestLedger ledger = IngestLedger.open(mLedgerFile.getPath());
+		try {
+			for (int i = 0; i < 3; i++) {
+				IngestLedger.Entry entry = ledger.lookup(uriOf(i), mItems[i]);
+				assertNotNull(entry);
+				assertEquals("SHA-256:" + i, entry.getHash());
+				assertEquals(100 * (i + 1), entry.getSize());
+				assertEquals(annotations("default", "extra" + i), entry.getAnnotations());
+			}
+			assertNull(ledger.lookup(uriOf(0), mItems[1]));
+		} finally {
+			ledger.release();
+		}
+	}
+
+	@Test
+	public void tornTailIsTruncated() throws IOException {
+		long[] lengths = writeRecords(3);
+
+		// Cut the last record in half, as a crash in the middle of the write would.
+		long tornLength = lengths[1] + (lengths[2] - lengths[1]) / 2;
+		RandomAccessFile file = new RandomAccessFile(mLedgerFile, "rw");
+		try {
+			file.setLength(tornLength);
+		} finally {
+			file.close();
+		}
+
+		IngestLedger ledger = IngestLedger.open(mLedgerFile.getPath());
+		try {
+			assertEquals(lengths[1], mLedgerFile.length());
+			assertNotNull(ledger.lookup(uriOf(0), mItems[0]));
+			assertNotNull(ledger.lookup(uriOf(1), mItems[1]));
+			assertNull(ledger.lookup(uriOf(2), mItems[2]));
+
+			// Records written after the truncation are found again on the next open.
+			ledger.record(uriOf(2), mItems[2], "SHA-256:again", annotations("default"));
+		} finally {
+			ledger.release();
+		}
+
+		ledger = IngestLedger.open(mLedgerFile.getPath());
+		try {
+			assertNotNull(ledger.lookup(uriOf(1), mItems[1]));
+			assertEquals("SHA-256:again", ledger.lookup(uriOf(2), mItems[2]).getHash());
+		} finally {
+			ledger.release();
+		}
+	}
+
+	@Test
+	public void tornHeaderIsTruncated() throws IOException {
+		long[] lengths = writeRecords(2);
+
+		// Only part of the length field of a third record made it out.
+		FileOutputStream out = new FileOutputStream(mLedgerFile, true);
+		try {
+			out.write(new byte[] { 0, 0 });
+		} finally {
+			out.close();
+		}
+
+		IngestLedger ledger = IngestLedger.open(mLedgerFile.getPath());
+		try {
+			assertEquals(lengths[1], mLedgerFile.length());
+			assertNotNull(ledger.lookup(uriOf(0), mItems[0]));
+			assertNotNull(ledger.lookup(uriOf(1), mItems[1]));
+		} finally {
+			ledger.release();
+		}
+	}
+
+	@Test
+	public void badCRCTailIsDropped() throws IOException {
+		long[] lengths = writeRecords(3);
+
+		// Flip a bit in the payload of the last record.
+		RandomAccessFile file = new RandomAccessFile(mLedgerFile, "rw");
+		try {
+			file.seek(lengths[2] - 1);
+			int last = file.read();
+			file.seek(lengths[2] - 1);
+			file.write(last ^ 0x01);
+		} finally {
+			file.close();
+		}
+
+		IngestLedger ledger = IngestLedger.open(mLedgerFile.getPath());
+		try {
+			assertEquals(lengths[1], mLedgerFile.length());
+			assertNotNull(ledger.lookup(uriOf(0), mItems[0]));
+			assertNotNull(ledger.lookup(uriOf(1), mItems[1]));
+			assertNull(ledger.lookup(uriOf(2), mItems[2]));
+		} finally {
+			ledger.release();
+		}
+	}
+}
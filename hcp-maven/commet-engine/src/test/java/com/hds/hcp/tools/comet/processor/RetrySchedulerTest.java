@@ -0,0 +1,168 @@
+package com.hds.hcp.tools.comet.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpResponseException;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hds.hcp.tools.comet.BaseWorkItem;
+import com.hds.hcp.tools.comet.CometProperties;
+import com.hds.hcp.tools.comet.FileSystemItem;
+import com.hds.hcp.tools.comet.ThreadPoolQueueInterface;
+
+public class RetrySchedulerTest {
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private RetryScheduler mScheduler;
+
+	@After
+	public void tearDown() throws InterruptedException {
+		if (null != mScheduler) {
+			mScheduler.stop();
+		}
+	}
+
+	/*
+	 * Stands in for the processor queue.  Collects the items handed back.
+	 */
+	private static class CollectingQueue implements ThreadPoolQueueInterface {
+		final LinkedBlockingQueue<BaseWorkItem> mItems = new LinkedBlockingQueue<BaseWorkItem>();
+
+		public void itemAdd(BaseWorkItem inItem) throws InterruptedException { mItems.put(inItem); }
+		public boolean itemAdd(BaseWorkItem inItem, long inTimeout) throws InterruptedException { return mItems.add(inItem); }
+		public int itemAddAll(List<BaseWorkItem> inItems, long inTimeout) throws InterruptedException { mItems.addAll(inItems); return inItems.size(); }
+		public BaseWorkItem itemTake() throws InterruptedException { return mItems.take(); }
+	}
+
+	private CometProperties newProperties(int inCount, int inInitialDelayInMillis, int inMaxDelayInSeconds) throws IOException {
+		File propertiesFile = mFolder.newFile("comet.properties");
+		FileWriter out = new FileWriter(propertiesFile);
+		try {
+			out.write("execution.processor.retry.count=" + inCount + "\n");
+			out.write("execution.processor.retry.initialDelayInMillis=" + inInitialDelayInMillis + "\n");
+			out.write("execution.processor.retry.maxDelayInSeconds=" + inMaxDelayInSeconds + "\n");
+		} finally {
+			out.close();
+		}
+
+		return new CometProperties(propertiesFile.getPath());
+	}
+
+	private BaseWorkItem newFailedItem(Exception inFailure) {
+		BaseWorkItem retVal = new FileSystemItem(new File(mFolder.getRoot(), "item"), mFolder.getRoot());
+		retVal.getStatus().setException(inFailure);
+		return retVal;
+	}
+
+	@Test
+	public void backoffDoublesWithJitter() throws IOException {
+		CometProperties props = newProperties(5, 100, 60);
+
+		for (int attempt = 0; attempt < 8; attempt++) {
+			long full = 100L << attempt;
+			for (int i = 0; i < 200; i++) {
+				long delay = RetryScheduler.getBackoffDelay(props, attempt);
+				assertTrue("Attempt " + attempt + " delay " + delay, full / 2 <= delay && delay <= full);
+			}
+		}
+	}
+
+	@Test
+	public void backoffIsCappedAtMaxDelay() throws IOException {
+		CometProperties props = newProperties(5, 100, 2);
+
+		for (int attempt = 5; attempt < 100; attempt++) {
+			long delay = RetryScheduler.getBackoffDelay(props, attempt);
+			assertTrue("Attempt " + attempt + " delay " + delay, 1000 <= delay && delay <= 2000);
+		}
+	}
+
+	@Test
+	public void onlyTransientFailuresAreRetriable() {
+		assertTrue(RetryScheduler.isRetriable(new HttpResponseException(503, "Service Unavailable")));
+		assertTrue(RetryScheduler.isRetriable(new SocketTimeoutException()));
+		assertTrue(RetryScheduler.isRetriable(new HostCircuitBreaker.CircuitOpenException("hcp", 1000)));
+
+		assertFalse(RetryScheduler.isRetriable(new HttpResponseException(404, "Not Found")));
+		assertFalse(RetryScheduler.isRetriable(new FileNotFoundException()));
+		assertFalse(RetryScheduler.isRetriable(new ClientProtocolException()));
+		assertFalse(RetryScheduler.isRetriable(new IllegalStateException()));
+	}
+
+	@Test
+	public void givesUpAfterRetryCount() throws IOException {
+		mScheduler = new RetryScheduler(newProperties(2, 60000, 60), new CollectingQueue());
+		mScheduler.start();
+
+		BaseWorkItem item = newFailedItem(new IOException("Connection reset"));
+
+		assertTrue(mScheduler.retryLater(item));
+		assertTrue(mScheduler.retryLater(item));
+		assertFalse(mScheduler.retryLater(item));
+		assertEquals(2, item.getStatus().getRetryCount());
+	}
+
+	@Test
+	public void permanentFailureIsNotRetried() throws IOException {
+		mScheduler = new RetryScheduler(newProperties(5, 10, 60), new CollectingQueue());
+		mScheduler.start();
+
+		BaseWorkItem item = newFailedItem(new HttpResponseException(403, "Forbidden"));
+
+		assertFalse(mScheduler.retryLater(item));
+		assertEquals(0, item.getStatus().getRetryCount());
+	}
+
+	@Test
+	public void notRetriedUntilStarted() throws IOException {
+		mScheduler = new RetryScheduler(newProperties(5, 10, 60), new CollectingQueue());
+
+		assertFalse(mScheduler.retryLater(newFailedItem(new IOException("Connection reset"))));
+	}
+
+	@Test(timeout = 10000)
+	public void itemIsHandedBackWithFailureCleared() throws Exception {
+		CollectingQueue target = new CollectingQueue();
+		mScheduler = new RetryScheduler(newProperties(5, 10, 60), target);
+		mScheduler.start();
+
+		BaseWorkItem item = newFailedItem(new HttpResponseException(500, "Internal Server Error"));
+		assertTrue(mScheduler.retryLater(item));
+
+		assertSame(item, target.mItems.poll(5, TimeUnit.SECONDS));
+		assertNull(item.getStatus().getException());
+		assertEquals(1, item.getStatus().getRetryCount());
+	}
+
+	@Test(timeout = 10000)
+	public void openCircuitDelaysUntilRetryAfter() throws Exception {
+		CollectingQueue target = new CollectingQueue();
+		mScheduler = new RetryScheduler(newProperties(5, 1, 60), target);
+		mScheduler.start();
+
+		long start = System.nanoTime();
+		assertTrue(mScheduler.retryLater(newFailedItem(new HostCircuitBreaker.CircuitOpenException("hcp", 300))));
+
+		assertTrue(null != target.mItems.poll(5, TimeUnit.SECONDS));
+		assertTrue(300 <= TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+	}
+}
@@ -54,6 +54,10 @@ public class CMXItem extends BaseWorkItem {
 	public AllianceCallMetadata getMetadata() { return mMetadata; }
     public void setMetadata(AllianceCallMetadata inMetadata) { mMetadata = inMetadata; }
 
+	// The metadata is generated from the listing line too.
+	@Override
+	public String getMetadataCacheTag() { return (null == mMetadata ? "" : mMetadata.toString()); }
+
 	public File getFile() { return (File)getHandle(); }
 	public File getBaseFolder() { return (File)getBaseSpecification(); }
 	
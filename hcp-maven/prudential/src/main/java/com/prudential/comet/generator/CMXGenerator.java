@@ -1,44 +1,36 @@
 package com.prudential.comet.generator;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.net.URISyntaxException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.TimeZone;
 import java.util.regex.Pattern;
 
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.UnsupportedAudioFileException;
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamWriter;
-
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.hds.hcp.tools.comet.BaseWorkItem;
 import com.hds.hcp.tools.comet.generator.BaseGeneratorProperties;
 import com.hds.hcp.tools.comet.generator.BaseMetadataGenerator;
+import com.hds.hcp.tools.comet.generator.GeneratorClaim;
+import com.hds.hcp.tools.comet.generator.MetadataTemplate;
 import com.hds.hcp.tools.comet.generator.ObjectContainer;
 import com.hds.hcp.tools.comet.generator.SystemMetadataContainer;
 import com.hds.hcp.tools.comet.utils.StaticUtils;
+import com.hds.hcp.tools.comet.utils.ThreadLocalDateFormat;
 import com.hds.hcp.tools.comet.utils.URIWrapper;
 import com.prudential.comet.AllianceCallMetadata;
 import com.prudential.comet.CMXItem;
+import com.prudential.tools.WAVDuration;
 
 public class CMXGenerator extends BaseMetadataGenerator {
 
 	private static Logger logger = LogManager.getLogger();
 	
 	static final String BASE_FILENAME_PROPERTY = "com.prudential.properties.file";
-	protected SimpleDateFormat mOutputDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+	// Output will be in GMT (Greenwich)
+	protected ThreadLocalDateFormat mOutputDateFormat = new ThreadLocalDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", TimeZone.getTimeZone("Greenwich"));
 	
 	protected static final int RETENTION_PERIOD_YEARS = 7;
 
@@ -50,6 +42,31 @@ public class CMXGenerator extends BaseMetadataGenerator {
 	
 	protected File mSoxIToolFile;
 	
+	// The custom metadata, unless metadata.templateFile configures another.  ANI set means an
+	//   inbound call.
+	static final String DEFAULT_TEMPLATE =
+			  "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<CallRecording type=\"${type}\">\n"
+			+ "    <CallID>${CallID}</CallID>\n"
+			+ "    <Channel>${Channel}</Channel>\n"
+			+ "    <Server>${Server}</Server>${?AgentId}\n"
+			+ "    <AgentId>${AgentId}</AgentId>${/AgentId}${?Agent}\n"
+			+ "    <Agent>${Agent}</Agent>${/Agent}${?Extension}\n"
+			+ "    <Extension>${Extension}</Extension>${/Extension}\n"
+			+ "    <DateTime>\n"
+			+ "        <Start>${Start}</Start>${?End}\n"
+			+ "        <End>${End}</End>${/End}\n"
+			+ "    </DateTime>${?Duration}\n"
+			+ "    <Duration>${Duration}</Duration>${/Duration}\n"
+			+ "    ${?ANI}<Direction>Inbound</Direction>\n"
+			+ "    <ANI>${ANI}</ANI>${?DNIS}\n"
+			+ "    <DNIS>${DNIS}</DNIS>${/DNIS}${?Skill}\n"
+			+ "    <Skill>${Skill}</Skill>${/Skill}${/ANI}${!ANI}<Direction>Outbound</Direction>${?DialedNumber}\n"
+			+ "    <DialedNumber>${DialedNumber}</DialedNumber>${/DialedNumber}${/ANI}\n"
+			+ "</CallRecording>";
+
+	protected MetadataTemplate mTemplate;
+
 	/*
 	 * Construct a private properties class to construct module specific information.
 	 */
@@ -76,11 +93,10 @@ public class CMXGenerator extends BaseMetadataGenerator {
 		
 		mProps = new AllianceProperties();
 
+		mTemplate = mProps.getMetadataTemplate(DEFAULT_TEMPLATE);
+
 		isInitialized = true;
 		
-		// Output will be in GMT (Greenwich)
-		mOutputDateFormat.setTimeZone(TimeZone.getTimeZone("Greenwich"));
-		
 		// Get the SOXi tool path.
 		String toolPath = mProps.getSoxiToolPath();
 		// If operating on windows add the .exe, if needed.
@@ -98,6 +114,29 @@ public class CMXGenerator extends BaseMetadataGenerator {
 		}
 	}
 
+	@Override
+	public String getConfigurationSignature() {
+		return super.getConfigurationSignature() + ":" + mProps.getSignature() + ":" + mTemplate.getSignature();
+	}
+
+	// All per item state is in local variables, and the date format is per thread.
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	// The metadata comes from the CMX listing line the item was read from, which the cache does not see.
+	@Override
+	public boolean isCacheable() {
+		return false;
+	}
+
+	// Only items from the CMX listing.
+	@Override
+	public GeneratorClaim getClaim() {
+		return new GeneratorClaim(CMXItem.class, null);
+	}
+
 	@Override
 	public LinkedList<ObjectContainer> getMetadataList(BaseWorkItem inItem) {
 		StaticUtils.TRACE_METHOD_ENTER(logger);
@@ -218,53 +257,17 @@ public class CMXGenerator extends BaseMetadataGenerator {
 	}
 
 	private byte[] buildCustomMetadata(File inSrcFile, AllianceCallMetadata inMetadata) {
-		OutputStream outputStream = new ByteArrayOutputStream();
-
 		try {
 			// Extract the needed information from the filename
 			Integer Channel = new Integer(inSrcFile.getName().substring(14, 17));
 			Integer Server = new Integer(inSrcFile.getName().substring(17, 19));
 
 			//
-			// Extract the Call Duration from the WAV file.
+			// Extract the Call Duration from the WAV file header.  The soxi utility configured
+			//   is only run for formats the header reader does not know.
 			//
-			Long Duration = null;
-			Float GranularDuration = null;
-			
-			// First try to use the soxi utility configured.
-			if (null != mSoxIToolFile) {
-				try {
-					ProcessBuilder soxiProcessBuilder = new ProcessBuilder(mSoxIToolFile.getAbsolutePath(), "-D", inSrcFile.getAbsolutePath());
-
-					Process soxiProcess = soxiProcessBuilder.start();
-					
-					BufferedReader br = new BufferedReader(new InputStreamReader(soxiProcess.getInputStream()));
-	 				String retString = br.readLine();
-					
-	 				// If we have a string, let's process it.
-	 				if (null != retString && ! retString.isEmpty()) {
-						GranularDuration = new Float(retString);
-						if (0 != GranularDuration) {
-							Duration = new Long((long)(GranularDuration + 0.5));  // And round then to long
-						}
-					}
-				} catch (IOException e) {
-					logger.warn("Failed to obtain WAV file duration using soxi utility", e);
-				}
-			}
-			
-			if (null == Duration) {
-				try {
-					// Get the Duration from the file.
-					AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(inSrcFile);
-					AudioFormat format = audioInputStream.getFormat();
-					long frames = audioInputStream.getFrameLength();
-					float granularDuration = (frames / format.getFrameRate());
-					Duration = new Long((long)(granularDuration + 0.5));  // And round then to long
-				} catch (UnsupportedAudioFileException | IOException e) {
-					logger.warn("Failed to obtain WAV file duration using Java javax.sound library.", e);
-				}			
-			}
+			Float GranularDuration = WAVDuration.getDuration(inSrcFile, mSoxIToolFile);
+			Long Duration = WAVDuration.round(GranularDuration);
 
 			// Report debugger information on duration
 			if (null != Duration) {
@@ -284,134 +287,36 @@ public class CMXGenerator extends BaseMetadataGenerator {
 
 			// Now let's put the information into the XML 
 
-			XMLStreamWriter serializer;
-
-			serializer = XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream, "UTF-8");
-			serializer.writeStartDocument("UTF-8", null);
-			serializer.writeCharacters("\n");
-
 			// Recording Information
-			serializer.writeStartElement("CallRecording");
 			String fileType="";
 			String[] fileNameParts = inSrcFile.getName().split("\\.");
 			fileType=(fileNameParts.length > 1 ? fileNameParts[fileNameParts.length - 1] : "");
-			
-			serializer.writeAttribute("type", fileType);
-
-			serializer.writeCharacters("\n    ");
-			serializer.writeStartElement("CallID");
-			serializer.writeCharacters(inMetadata.CallID.toString());
-			serializer.writeEndElement();
-
-			serializer.writeCharacters("\n    ");
-			serializer.writeStartElement("Channel");
-			serializer.writeCharacters(Channel.toString());
-			serializer.writeEndElement();
-
-			serializer.writeCharacters("\n    ");
-			serializer.writeStartElement("Server");
-			serializer.writeCharacters(Server.toString());
-			serializer.writeEndElement();
-
-			if (null != inMetadata.AgentId) {
-				serializer.writeCharacters("\n    ");
-				serializer.writeStartElement("AgentId");
-				serializer.writeCharacters(inMetadata.AgentId.toString());
-				serializer.writeEndElement();
-			}
 
-			if (null != inMetadata.Agent){
-				serializer.writeCharacters("\n    ");
-				serializer.writeStartElement("Agent");
-				serializer.writeCharacters(inMetadata.Agent);
-				serializer.writeEndElement();
-			}
-
-			if (null != inMetadata.Extension){
-				serializer.writeCharacters("\n    ");
-				serializer.writeStartElement("Extension");
-				serializer.writeCharacters(inMetadata.Extension.toString());
-				serializer.writeEndElement();
-			}
-
-			serializer.writeCharacters("\n    ");
-			serializer.writeStartElement("DateTime");
-			serializer.writeCharacters("\n        ");
-			serializer.writeStartElement("Start");
-			serializer.writeCharacters(StartTime);
-			serializer.writeEndElement();
-			if (null != EndTime) {
-				serializer.writeCharacters("\n        ");
-				serializer.writeStartElement("End");
-				serializer.writeCharacters(EndTime);
-				serializer.writeEndElement();
-			}
-
-			// DateTime End
-			serializer.writeCharacters("\n    ");
-			serializer.writeEndElement();
-
-			if (null != Duration) {
-				serializer.writeCharacters("\n    ");
-				serializer.writeStartElement("Duration");
-				serializer.writeCharacters(null != Duration ? Duration.toString() : null);
-				serializer.writeEndElement();
-			}
-
-			serializer.writeCharacters("\n    ");
-			if (null != inMetadata.ANI) {
-				// Must be Inbound
-				serializer.writeStartElement("Direction");
-				serializer.writeCharacters("Inbound");
-				serializer.writeEndElement();
-
-				if (null != inMetadata.ANI){
-					serializer.writeCharacters("\n    ");
-					serializer.writeStartElement("ANI");
-					serializer.writeCharacters(inMetadata.ANI);
-					serializer.writeEndElement();
-				}
-
-				if (null != inMetadata.DNIS){
-					serializer.writeCharacters("\n    ");
-					serializer.writeStartElement("DNIS");
-					serializer.writeCharacters(inMetadata.DNIS.toString());
-					serializer.writeEndElement();
-				}
-
-				if (null != inMetadata.Skill){
-					serializer.writeCharacters("\n    ");
-					serializer.writeStartElement("Skill");
-					serializer.writeCharacters(inMetadata.Skill);
-					serializer.writeEndElement();
-				}
-			} else {
-				// Must be Outbound
-				serializer.writeStartElement("Direction");
-				serializer.writeCharacters("Outbound");
-				serializer.writeEndElement();
-
-				if (null != inMetadata.Phone) {
-					serializer.writeCharacters("\n    ");
-					serializer.writeStartElement("DialedNumber");
-					serializer.writeCharacters(inMetadata.Phone.toString());
-					serializer.writeEndElement();
-				}
-			}
-
-			// CallRecording End
-			serializer.writeCharacters("\n");
-			serializer.writeEndElement();
-
-			serializer.writeEndDocument();
+			MetadataTemplate.Values values = mTemplate.threadValues();
+			values.set("type", fileType);
+			values.set("CallID", inMetadata.CallID);
+			values.set("Channel", Channel);
+			values.set("Server", Server);
+			values.set("AgentId", inMetadata.AgentId);
+			values.set("Agent", inMetadata.Agent);
+			values.set("Extension", inMetadata.Extension);
+			values.set("Start", StartTime);
+			values.set("End", EndTime);
+			values.set("Duration", Duration);
+
+			// ANI set means Inbound, else Outbound.
+			values.set("ANI", inMetadata.ANI);
+			values.set("DNIS", inMetadata.DNIS);
+			values.set("Skill", inMetadata.Skill);
+			values.set("DialedNumber", inMetadata.Phone);
+
+			return mTemplate.render(values);
 		}
 		catch (Exception e)
 		{
-			logger.fatal("Failed to formulate XML in BasicFileInfoGenerator", e);
+			logger.fatal("Failed to formulate XML in CMXGenerator", e);
 			return null;
 		}
-		
-		return outputStream.toString().getBytes();
 	}
 
 }
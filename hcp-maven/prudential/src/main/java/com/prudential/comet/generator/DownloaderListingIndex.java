@@ -0,0 +1,172 @@
+package com.prudential.comet.generator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Downloader listing files read once and looked up by recording name, shared by all generator
+ * instances and processor threads.
+ *
+ * The answer is always the first line with the name anywhere in it, as the line by line search
+ * of the file gave.  Each line is also indexed by the name like tokens in it: the runs of
+ * characters between white space, path separators, dots and the like.  When the name is such a
+ * token of some line, only the lines before that one need to be searched, since the name may also
+ * be part of a longer token there (X_1 in X_10).  Otherwise all lines are searched, but in memory.
+ *
+ * A listing is read again when its size or modification time is not what it was when read.
+ */
+class DownloaderListingIndex {
+
+	private static Logger logger = LogManager.getLogger();
+
+	// Listings kept in memory.  The least recently used goes first.
+	private static final int MAX_LISTINGS = 64;
+
+	private static Map<String, Slot> sListings = new LinkedHashMap<String, Slot>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Slot> inEldest) {
+			return size() > MAX_LISTINGS;
+		}
+	};
+
+	/*
+	 * The contents of a listing file, as of the size and modification time recorded.
+	 */
+	private static class Listing {
+		long mLength;
+		long mLastModified;
+
+		ArrayList<String> mLines = new ArrayList<String>();
+		HashMap<String, Integer> mTokens = new HashMap<String, Integer>();
+	}
+
+	/*
+	 * Where the Listing of one file is kept.  Only one thread reads the file; the others wait for it.
+	 */
+	private static class Slot {
+		private volatile Listing mListing;
+
+		Listing get(File inListingFile) throws IOException {
+			BasicFileAttributes attributes = Files.readAttributes(inListingFile.toPath(), BasicFileAttributes.class);
+			long length = attributes.size();
+			long lastModified = attributes.lastModifiedTime().toMillis();
+
+			Listing retVal = mListing;
+			if (null != retVal && retVal.mLength == length && retVal.mLastModified == lastModified) {
+				return retVal;
+			}
+
+			synchronized (this) {
+				retVal = mListing;
+				if (null == retVal || retVal.mLength != length || retVal.mLastModified != lastModified) {
+					retVal = load(inListingFile, length, lastModified);
+					mListing = retVal;
+				}
+			}
+
+			return retVal;
+		}
+	}
+
+	/**
+	 * The first line of the listing file with inName in it, or null if there is none.
+	 */
+	static String findLine(File inListingFile, String inName) throws IOException {
+		Listing listing = getSlot(inListingFile).get(inListingFile);
+
+		// A line with inName as a token has it in it, so no later line can be the first one.
+		Integer tokenLine = listing.mTokens.get(inName);
+		int searchEnd = (null == tokenLine ? listing.mLines.size() : tokenLine.intValue());
+
+		for (int i = 0; i < searchEnd; i++) {
+			String line = listing.mLines.get(i);
+			if (-1 != line.indexOf(inName)) {
+				return line;
+			}
+		}
+
+		return (null == tokenLine ? null : listing.mLines.get(tokenLine));
+	}
+
+	private static Slot getSlot(File inListingFile) throws IOException {
+		String key = inListingFile.getCanonicalPath();
+
+		synchronized (sListings) {
+			Slot retVal = sListings.get(key);
+			if (null == retVal) {
+				retVal = new Slot();
+				sListings.put(key, retVal);
+			}
+
+			return retVal;
+		}
+	}
+
+	private static Listing load(File inListingFile, long inLength, long inLastModified) throws IOException {
+		logger.debug("Reading listing file \"{}\"", inListingFile.getPath());
+
+		Listing retVal = new Listing();
+		retVal.mLength = inLength;
+		retVal.mLastModified = inLastModified;
+
+		BufferedReader reader = new BufferedReader(new FileReader(inListingFile));
+		try {
+			String line;
+			while (null != (line = reader.readLine())) {
+				addTokens(retVal.mTokens, line, retVal.mLines.size());
+				retVal.mLines.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+
+		retVal.mLines.trimToSize();
+
+		logger.debug("Indexed {} lines of listing file \"{}\"", retVal.mLines.size(), inListingFile.getPath());
+
+		return retVal;
+	}
+
+	private static void addTokens(HashMap<String, Integer> inTokens, String inLine, int inLineNumber) {
+		Integer lineNumber = null;
+
+		int length = inLine.length();
+		int start = 0;
+		while (start < length) {
+			while (start < length && ! isTokenChar(inLine.charAt(start))) {
+				start++;
+			}
+			int end = start;
+			while (end < length && isTokenChar(inLine.charAt(end))) {
+				end++;
+			}
+
+			if (start < end) {
+				String token = inLine.substring(start, end);
+				if ( ! inTokens.containsKey(token) ) {
+					if (null == lineNumber) lineNumber = Integer.valueOf(inLineNumber);
+
+					inTokens.put(token, lineNumber);
+				}
+			}
+			start = end;
+		}
+	}
+
+	private static boolean isTokenChar(char inChar) {
+		return Character.isLetterOrDigit(inChar) || '_' == inChar || '-' == inChar;
+	}
+}
@@ -2,7 +2,6 @@ package com.prudential.comet.generator;
 
 import java.io.File;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -19,18 +18,19 @@ public class LoggerType2NoMappingFile extends PrudentialBaseFiles {
 
 			mFileType = "wav"; 
 			mPatternMatch = FILE_PATTERN;
+			mFileExtensions = new String[] { "wav" };
 			
-			// Setup the date formatter for this recording type.  The timezone information
+			// Setup the date format for this recording type.  The timezone information
 			//   will be set in the "super" initialization routine.
-			mInputDateFormat = new SimpleDateFormat("MMddyy");
+			mInputDatePattern = "MMddyy";
 			
 			super.initialize();
 		}
 	}
 	
-	protected String getCustomMetadata(File inSourceFile) {
+	protected byte[] getCustomMetadata(File inSourceFile) {
 		
-		String retVal = null;
+		byte[] retVal = null;
 		
 		try {
 			/*
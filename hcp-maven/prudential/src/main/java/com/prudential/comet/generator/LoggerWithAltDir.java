@@ -3,8 +3,6 @@ package com.prudential.comet.generator;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.text.ParseException;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
 import java.util.regex.Pattern;
 
 import org.apache.logging.log4j.LogManager;
@@ -86,6 +84,7 @@ public class LoggerWithAltDir extends PrudentialBaseFiles {
 
 			mFileType = "wav"; 
 			mPatternMatch = FILE_PATTERN;
+			mFileExtensions = new String[] { "wav" };
 			
 			mFolderFilter = new FolderFilter(LISTING_FOLDER_PATTERN);
 			mListingFileFilter = new ListingFileFilter(LISTING_FILE_PATTERN);
@@ -95,9 +94,15 @@ public class LoggerWithAltDir extends PrudentialBaseFiles {
 		}
 	}
 	
-	protected String getCustomMetadata(File inSourceFile) {
+	// The metadata comes from a listing file, which the cache does not see.
+	@Override
+	public boolean isCacheable() {
+		return false;
+	}
+
+	protected byte[] getCustomMetadata(File inSourceFile) {
 		
-		String retVal = null;
+		byte[] retVal = null;
 		
 		try {
 			/*
@@ -215,36 +220,19 @@ public class LoggerWithAltDir extends PrudentialBaseFiles {
 					return null;
 				}
 
-				logger.debug("Scanning for file \"" + fileNameParts[0] + "\" in file \"" + ListingFile.getPath() );				
+				logger.debug("Looking for file \"" + fileNameParts[0] + "\" in file \"" + ListingFile.getPath() );				
 
 				/*
-				 * Let's start scanning the current file.
+				 * Let's look in the current file.  It is read once and shared by all files on the tape.
 				 */
-				String currentLine = null;
-				Scanner fileScanner = new Scanner(ListingFile);
-		
-				try {
-					// Keep searching through the file looking for the filename.
-					//  Note: It will throw an exception when the EOF is reached.
-					//    The null test below it to keep Java happy.
-					while( (currentLine = fileScanner.nextLine()) != null )
-					{
-						if (-1 != currentLine.indexOf(fileNameParts[0]))
-						{
-					    	break;  // Found the string
-					    }
-					}
-				} catch (NoSuchElementException e) {
+				String currentLine = DownloaderListingIndex.findLine(ListingFile, fileNameParts[0]);
+				if (null == currentLine) {
 					// Oops!!  Didn't find it.  
 					logger.debug("Unable to find file \"" + fileName + "\" in listing file.");
 					
-					fileScanner.close();
-
 					// Move on to next one.
 					continue;
 				}
-				
-				fileScanner.close();
 			
 				/*
 				 * Well... If we got here, that means we found a line in the file that matches our
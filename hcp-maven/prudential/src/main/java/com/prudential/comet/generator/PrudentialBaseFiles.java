@@ -19,18 +19,12 @@
 package com.prudential.comet.generator;
 
 import java.io.File;
-import java.io.ByteArrayOutputStream;
-import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.LinkedList;
 import java.util.TimeZone;
 import java.util.regex.Pattern;
 
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamWriter;
-
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -38,9 +32,12 @@ import com.hds.hcp.apihelpers.HCPUtils;
 import com.hds.hcp.tools.comet.BaseWorkItem;
 import com.hds.hcp.tools.comet.generator.BaseGeneratorProperties;
 import com.hds.hcp.tools.comet.generator.BaseMetadataGenerator;
+import com.hds.hcp.tools.comet.generator.GeneratorClaim;
+import com.hds.hcp.tools.comet.generator.MetadataTemplate;
 import com.hds.hcp.tools.comet.generator.ObjectContainer;
 import com.hds.hcp.tools.comet.generator.SystemMetadataContainer;
 import com.hds.hcp.tools.comet.utils.StaticUtils;
+import com.hds.hcp.tools.comet.utils.ThreadLocalDateFormat;
 import com.hds.hcp.tools.comet.utils.URIWrapper;
 
 abstract class PrudentialBaseFiles extends BaseMetadataGenerator {
@@ -51,12 +48,32 @@ abstract class PrudentialBaseFiles extends BaseMetadataGenerator {
 	
 	protected String mFileType = "";
 	protected String mPatternMatch = "";
+	protected String[] mFileExtensions = new String[0];  // Those mPatternMatch allows.
 	protected boolean isInitialized;
-	protected SimpleDateFormat mInputDateFormat;
-	protected SimpleDateFormat mOutputDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+	protected String mInputDatePattern = "MM/dd/yyyy hh:mm:ss a";
+	protected ThreadLocalDateFormat mInputDateFormat;
+	protected ThreadLocalDateFormat mOutputDateFormat;
 	
 	protected static final int RETENTION_PERIOD_YEARS = 7;
 
+	// The custom metadata, unless metadata.templateFile configures another.
+	static final String DEFAULT_TEMPLATE =
+			  "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<CallRecording type=\"${type}\">\n"
+			+ "    <Logger>${Logger}</Logger>${?Channel}\n"
+			+ "    <Channel>${Channel}</Channel>${/Channel}${?Server}\n"
+			+ "    <Server>${Server}</Server>${/Server}${?Session}\n"
+			+ "    <Session>${Session}</Session>${/Session}${?CLSCallID}\n"
+			+ "    <CLSCallID>${CLSCallID}</CLSCallID>${/CLSCallID}${?AgentId}\n"
+			+ "    <AgentId>${AgentId}</AgentId>${/AgentId}\n"
+			+ "    <DateTime>\n"
+			+ "        <Start>${Start}</Start>\n"
+			+ "        <End>${End}</End>\n"
+			+ "    </DateTime>\n"
+			+ "</CallRecording>";
+
+	protected MetadataTemplate mTemplate;
+
 	// Used for efficient pattern matching by compiling the pattern once.
 	protected Pattern mFilePattern;
 	
@@ -132,12 +149,10 @@ abstract class PrudentialBaseFiles extends BaseMetadataGenerator {
 	public void initialize() {
 		mFilePattern = Pattern.compile(mPatternMatch);
 
+		mTemplate = mProps.getMetadataTemplate(DEFAULT_TEMPLATE);
+
 		isInitialized = true;
 		
-		if (null == mInputDateFormat) {
-			mInputDateFormat = new SimpleDateFormat("MM/dd/yyyy hh:mm:ss a");
-		}
-
 		// Setup input date/time timezone based on configuration, if any.
 		TimeZone tz = TimeZone.getDefault();
 		String timeZoneName = mProps.getMetadataTimeZone();
@@ -148,13 +163,46 @@ abstract class PrudentialBaseFiles extends BaseMetadataGenerator {
 			}
 		}
 		logger.debug("Using time zone ({}) for input date/time values.", tz.getID());
-		mInputDateFormat.setTimeZone(tz);
+		mInputDateFormat = new ThreadLocalDateFormat(mInputDatePattern, tz);
 
 		// Output will be in GMT (Greenwich)
-		mOutputDateFormat.setTimeZone(TimeZone.getTimeZone("Greenwich"));
+		mOutputDateFormat = new ThreadLocalDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", TimeZone.getTimeZone("Greenwich"));
+	}
+
+	// All per file state is in local variables, and the date formats are per thread.
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	// The metadata comes from the file name and the file itself.  Modules that also read a listing
+	//   file must say otherwise.
+	@Override
+	public boolean isCacheable() {
+		return true;
+	}
+
+	@Override
+	public boolean restoreCredentials(LinkedList<ObjectContainer> inMetadata) {
+		for (ObjectContainer oneObject : inMetadata) {
+			oneObject.getSystemMetadata().setCredentials(mProps.getDestEncodedUserName("destination"),
+                                                         mProps.getDestEncodedPassword("destination"));
+		}
+		return true;
+	}
+
+	@Override
+	public String getConfigurationSignature() {
+		return super.getConfigurationSignature() + ":" + mProps.getSignature() + ":" + mTemplate.getSignature();
+	}
+
+	// Only files matching the file pattern of the module.
+	@Override
+	public GeneratorClaim getClaim() {
+		return new GeneratorClaim(mPatternMatch, mFileExtensions);
 	}
 		
-	protected abstract String getCustomMetadata(File inSourceFile);
+	protected abstract byte[] getCustomMetadata(File inSourceFile);
 	
 	@Override
 	public LinkedList<ObjectContainer> getMetadataList(BaseWorkItem inItem) {
@@ -188,8 +236,8 @@ abstract class PrudentialBaseFiles extends BaseMetadataGenerator {
 		/*
 		 * First see if this file will construct custom metadata
 		 */
-		String customMetadata = getCustomMetadata(inSrcFile);
-		if (null == customMetadata || 0 == customMetadata.length()) {
+		byte[] customMetadata = getCustomMetadata(inSrcFile);
+		if (null == customMetadata || 0 == customMetadata.length) {
 			// Nope. Probably not the correct file pattern for this module.
 			return null;
 		}
@@ -263,7 +311,11 @@ abstract class PrudentialBaseFiles extends BaseMetadataGenerator {
 	
 	protected final static int FIELD_SIZE=20;
 	
-	protected String processDownloaderMetadata(Logger inLogger, String inBaseFileName, String inDataLine) throws ParseException {
+	protected byte[] processDownloaderMetadata(Logger inLogger, String inBaseFileName, String inDataLine) throws ParseException {
+		return processDownloaderMetadata(inLogger, mFileType, inBaseFileName, inDataLine);
+	}
+
+	protected byte[] processDownloaderMetadata(Logger inLogger, String inFileType, String inBaseFileName, String inDataLine) throws ParseException {
 		// For the most part, the fields are in 20 character columns and consist of the following fields:
 		//   Filename, Aud/Wav, TalkingClock, StartTime, StopTime, CLSCallID, Session, Extension, PhoneNumber,
 		//   Logger, LocationLogger, Channel, ServerID, AgentID, UserID, CustomerID, Flags,
@@ -347,94 +399,37 @@ abstract class PrudentialBaseFiles extends BaseMetadataGenerator {
 		AgentID = dataFields.substring(curFieldPos, curFieldPos+FIELD_SIZE).trim();
 		
 		// Now let's put the information into the XML
-		return writeXML(inLogger, StartDate, EndDate, CLSCallID, Session, Logger, Channel, Server, AgentID);
+		return writeXML(inLogger, inFileType, StartDate, EndDate, CLSCallID, Session, Logger, Channel, Server, AgentID);
 	}
 		
-	protected String writeXML(Logger inLogger, String inStartDate, String inEndDate, 
+	protected byte[] writeXML(Logger inLogger, String inStartDate, String inEndDate, 
 			             String inCLSCallID, String inSession, 
 			             String inCallLogger, String inChannel, 
 			             String inServer, String inAgentID) {
+		return writeXML(inLogger, mFileType, inStartDate, inEndDate, inCLSCallID, inSession, inCallLogger, inChannel, inServer, inAgentID);
+	}
 
-		OutputStream outputStream = new ByteArrayOutputStream();
-
-		try {
-			// Now let's put the information into the XML 
-
-			XMLStreamWriter serializer;
-
-			serializer = XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream, "UTF-8");
-			serializer.writeStartDocument("UTF-8", null);
-			serializer.writeCharacters("\n");
-
-			// Recording Information
-			serializer.writeStartElement("CallRecording");
-			serializer.writeAttribute("type", mFileType);
-			
-			serializer.writeCharacters("\n    ");
-			serializer.writeStartElement("Logger");
-			serializer.writeCharacters(inCallLogger);
-			serializer.writeEndElement();
-
-			if (! (null == inChannel || inChannel.isEmpty()) ) {
-				serializer.writeCharacters("\n    ");
-				serializer.writeStartElement("Channel");
-				serializer.writeCharacters(inChannel);
-				serializer.writeEndElement();
-			}
-
-			if (! (null == inServer || inServer.isEmpty()) ) {
-				serializer.writeCharacters("\n    ");
-				serializer.writeStartElement("Server");
-				serializer.writeCharacters(inServer);
-				serializer.writeEndElement();
-			}
-
-			if (! (null == inSession || inSession.isEmpty()) ) {
-				serializer.writeCharacters("\n    ");
-				serializer.writeStartElement("Session");
-				serializer.writeCharacters(inSession);
-				serializer.writeEndElement();
-			}
-
-			if (! (null == inCLSCallID || inCLSCallID.isEmpty()) ) {
-				serializer.writeCharacters("\n    ");
-				serializer.writeStartElement("CLSCallID");
-				serializer.writeCharacters(inCLSCallID);
-				serializer.writeEndElement();
-			}
-
-			if (! (null == inAgentID || inAgentID.isEmpty()) ) {
-				serializer.writeCharacters("\n    ");
-				serializer.writeStartElement("AgentId");
-				serializer.writeCharacters(inAgentID);
-				serializer.writeEndElement();
-			}
-
-			serializer.writeCharacters("\n    ");
-			serializer.writeStartElement("DateTime");
-			serializer.writeCharacters("\n        ");
-			serializer.writeStartElement("Start");
-			serializer.writeCharacters(inStartDate);
-			serializer.writeEndElement();
-			serializer.writeCharacters("\n        ");
-			serializer.writeStartElement("End");
-			serializer.writeCharacters(inEndDate);
-			serializer.writeEndElement();
-			
-			serializer.writeCharacters("\n    ");
-			serializer.writeEndElement();
+	protected byte[] writeXML(Logger inLogger, String inFileType, String inStartDate, String inEndDate, 
+			             String inCLSCallID, String inSession, 
+			             String inCallLogger, String inChannel, 
+			             String inServer, String inAgentID) {
 
-			serializer.writeCharacters("\n");
-			serializer.writeEndElement(); // Call Recording End
+		// Now let's put the information into the XML.  Empty fields are left out.
+		MetadataTemplate.Values values = mTemplate.threadValues();
+		values.set("type", inFileType);
+		values.set("Logger", inCallLogger);
+		values.set("Channel", emptyToNull(inChannel));
+		values.set("Server", emptyToNull(inServer));
+		values.set("Session", emptyToNull(inSession));
+		values.set("CLSCallID", emptyToNull(inCLSCallID));
+		values.set("AgentId", emptyToNull(inAgentID));
+		values.set("Start", inStartDate);
+		values.set("End", inEndDate);
+
+		return mTemplate.render(values);
+	}
 
-			serializer.writeEndDocument();
-		}
-		catch (Exception e)
-		{
-			inLogger.fatal("Failed to formulate XML in BasicFileInfoGenerator: " + e.getMessage());
-			e.printStackTrace();
-		}
-		
-		return outputStream.toString();
+	private static String emptyToNull(String inValue) {
+		return (null == inValue || inValue.isEmpty() ? null : inValue);
 	}
 }
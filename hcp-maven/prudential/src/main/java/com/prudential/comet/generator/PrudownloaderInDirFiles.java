@@ -20,8 +20,6 @@ package com.prudential.comet.generator;
 
 import java.io.File;
 import java.text.ParseException;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -40,14 +38,21 @@ public class PrudownloaderInDirFiles extends PrudentialBaseFiles {
 		if ( ! isInitialized ) {
 			mFileType = "wav"; 
 			mPatternMatch = FILE_PATTERN;
+			mFileExtensions = new String[] { "wav", "aud" };
 			
 			super.initialize();
 		}
 	}
 	
-	protected String getCustomMetadata(File inSourceFile) {
+	// The metadata comes from a listing file, which the cache does not see.
+	@Override
+	public boolean isCacheable() {
+		return false;
+	}
+
+	protected byte[] getCustomMetadata(File inSourceFile) {
 		
-		String retVal = "";
+		byte[] retVal = null;
 		
 		try {
 			/*
@@ -76,7 +81,7 @@ public class PrudownloaderInDirFiles extends PrudentialBaseFiles {
 	
 			// We can have different file types with this pattern, so need to set the file type for every
 			//   file.
-			mFileType = (fileNameParts[1].equals("aud") ? "Aud" : "wav");
+			String fileType = (fileNameParts[1].equals("aud") ? "Aud" : "wav");
 			
 			File ListingFile = new File(inSourceFile.getParentFile().getAbsolutePath() + File.separator + mListingFile1);
 			
@@ -97,37 +102,21 @@ public class PrudownloaderInDirFiles extends PrudentialBaseFiles {
 				return null;
 			}
 	
-			String currentLine = null;
-			Scanner fileScanner = new Scanner(ListingFile);
-	
-			try {
-				// Keep searching through the file looking for the filename.
-				//  Note: It will throw an exception when the EOF is reached.
-				//    The null test below it to keep Java happy.
-				while( (currentLine = fileScanner.nextLine()) != null )
-				{
-					if (-1 != currentLine.indexOf(fileNameParts[0]))
-					{
-				    	break;  // Found the string
-				    }
-				}
-			} catch (NoSuchElementException e) {
+			// The listing is read once and shared by all files in the folder.
+			String currentLine = DownloaderListingIndex.findLine(ListingFile, fileNameParts[0]);
+			if (null == currentLine) {
 				// Oops!!  Didn't find it.  
 				logger.fatal("Unable to find file \"" + fileName + "\" in listing file.");
 				
-				fileScanner.close();
-				
 				return null;
 			}
 			
-			fileScanner.close();
-			
 			/*
 			 * Well... If we got here, that means we found a line in the file that matches our
 			 *   file name.  So time to go through the fun and parse it.
 			 */
 			try {
-				retVal = processDownloaderMetadata(logger, fileNameParts[0], currentLine);
+				retVal = processDownloaderMetadata(logger, fileType, fileNameParts[0], currentLine);
 			} catch (ParseException e) {
 				logger.fatal("Unexpected date string format encountered for file (" 
 			                  + fileName 
@@ -20,7 +20,6 @@ package com.prudential.comet.generator;
 
 import java.io.File;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 
 import org.apache.logging.log4j.LogManager;
@@ -34,8 +33,6 @@ public class SCFiles extends PrudentialBaseFiles {
 
 	private static String FILE_PATTERN = "SC_\\d{1,8}_\\d{8}_\\d{6}_.*\\.Aud";
 
-	private String mFields[] = null;
-
 	// Should be of the form SC_<logger>_<start-mmddyyyy>_<start-HHmmss>_<end-mmddyyyy>_<end-HHmmss>_<channel>_<CLSCallID>_<AgentID>.Aud
 	// And the trailing _<AgentID> can be optional.
 	// NOTE: Index 0 is just the file preface.
@@ -52,39 +49,41 @@ public class SCFiles extends PrudentialBaseFiles {
 		if ( ! isInitialized ) {
 			mFileType = "Aud"; 
 			mPatternMatch = FILE_PATTERN;
+			mFileExtensions = new String[] { "Aud" };
 			
-			// Setup the date formatter for this recording type.  The timezone information
+			// Setup the date format for this recording type.  The timezone information
 			//   will be set in the "super" initialization routine.
-			mInputDateFormat = new SimpleDateFormat("ddMMyyyy HHmmss");
+			mInputDatePattern = "ddMMyyyy HHmmss";
 
 			super.initialize();
 		}
 	}
 
-	private void parseFields(String inFileName) {
+	// The fields of the file name, or null if it is not well formatted.
+	private String[] parseFields(String inFileName) {
 
-		mFields = null;
-		
 		// Split apart the fields.
 		String fileNameParts[] = inFileName.split("\\.");
 		if (fileNameParts.length != 2) {
 			// Bad.  Not simple name.ext format.
 			logger.warn("File name not well formatted (too many \".\" in name): \"" + inFileName + "\"");
-			return;
+			return null;
 		}
 
-		mFields = fileNameParts[0].split("_");
+		String fields[] = fileNameParts[0].split("_");
 		
-		if (mFields.length != 9 && mFields.length != 8) {
+		if (fields.length != 9 && fields.length != 8) {
 			// Bad. Not enough fields
 			logger.warn("File name does not have 8 or 9 fields: \"" + inFileName + "\"");
 			
-			mFields = null;
+			return null;
 		}
+
+		return fields;
 	}
 	
-	protected String getCustomMetadata(File inSourceFile) {
-		String retVal = "";
+	protected byte[] getCustomMetadata(File inSourceFile) {
+		byte[] retVal = null;
 
 		try {
 			/*
@@ -104,26 +103,26 @@ public class SCFiles extends PrudentialBaseFiles {
 				return null;
 			}
 
-			// Break up the file name into all the needed fields into mFields
-			parseFields(fileName);
+			// Break up the file name into all the needed fields.
+			String fields[] = parseFields(fileName);
 
 			// If we failed to parse the filename, don't return metadata.
-			if (null == mFields) {
+			if (null == fields) {
 				return null;
 			}
 			
 			String StartDate, EndDate, CLSCallID, Session, Logger, Channel, Server, AgentID;
 			try {
-				StartDate = mOutputDateFormat.format(mInputDateFormat.parse(mFields[START_DATE] + " " + mFields[START_TIME]));
-				EndDate = mOutputDateFormat.format(mInputDateFormat.parse(mFields[END_DATE] + " " + mFields[END_TIME]));
+				StartDate = mOutputDateFormat.format(mInputDateFormat.parse(fields[START_DATE] + " " + fields[START_TIME]));
+				EndDate = mOutputDateFormat.format(mInputDateFormat.parse(fields[END_DATE] + " " + fields[END_TIME]));
 				
-				CLSCallID = mFields[CLS_CALL_ID];
+				CLSCallID = fields[CLS_CALL_ID];
 				Session = null;
-				Logger = mFields[LOGGER];
-				Channel = mFields[CHANNEL];
+				Logger = fields[LOGGER];
+				Channel = fields[CHANNEL];
 				Server = null;
-				if (mFields.length == 9) {
-					AgentID = mFields[AGENT_ID];
+				if (fields.length == 9) {
+					AgentID = fields[AGENT_ID];
 				} else {
 					AgentID = null;
 				}
@@ -165,17 +164,20 @@ public class SCFiles extends PrudentialBaseFiles {
 			return null;
 		}
 
-		// Break up the file name into all the needed fields into mFields
-		parseFields(fileName);
+		// Break up the file name into all the needed fields.
+		String fields[] = parseFields(fileName);
+		if (null == fields) {
+			return null;
+		}
 
 		try {
 			// Set up retention on this file to be 'RETENTION_PERIOD_YEARS' years past the start time.
 			
 			Calendar c = Calendar.getInstance();
-			c.setTime(mInputDateFormat.parse(mFields[START_DATE] + " " + mFields[START_TIME]));
+			c.setTime(mInputDateFormat.parse(fields[START_DATE] + " " + fields[START_TIME]));
 			c.add(Calendar.YEAR, RETENTION_PERIOD_YEARS);  // Add a retention for 7 years from call start date.
 			
-			inBaseMetadata.setRetention(mHCPRetentionDateFormat.format(c.getTime()));
+			inBaseMetadata.setRetention(mSharedHCPRetentionDateFormat.format(c.getTime()));
 		} catch (ParseException e) {
 			logger.fatal("Unexpected date string format encountered in file name (" + fileName + ")", e);
 			return null;
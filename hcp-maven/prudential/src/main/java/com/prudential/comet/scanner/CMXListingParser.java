@@ -0,0 +1,167 @@
+package com.prudential.comet.scanner;
+
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import com.prudential.comet.AllianceCallMetadata;
+
+/**
+ * Parses one line of a CMX listing file straight from its bytes, with the same outcome as
+ * AllianceCallMetadata.load() but without splitting the line into Strings with a regular
+ * expression first.  Only the text fields become Strings.
+ *
+ * Dates in the usual yyyy-MM-ddTHH:mm:ss form are converted with a Calendar; anything else goes
+ * to the SimpleDateFormat, as before.
+ *
+ * Not thread safe.  Each parsing thread needs its own.
+ */
+class CMXListingParser {
+	private static final int MAX_FIELDS = 10;
+	private static final int DATE_LENGTH = 19;  // yyyy-MM-ddTHH:mm:ss
+
+	CMXListingParser(SimpleDateFormat inDateFormat, Charset inCharset) {
+		mDateFormat = (SimpleDateFormat)inDateFormat.clone();
+		mCharset = inCharset;
+
+		TimeZone timeZone = inDateFormat.getTimeZone();
+		mCalendar = new GregorianCalendar(timeZone);
+		mCalendar.setLenient(true);
+	}
+
+	private final SimpleDateFormat mDateFormat;
+	private final Charset mCharset;
+	private final GregorianCalendar mCalendar;
+
+	// Start and end of each field in the line being parsed.
+	private int[] mFieldStarts = new int[MAX_FIELDS];
+	private int[] mFieldEnds = new int[MAX_FIELDS];
+
+	/**
+	 * Fill in outMetadata from the bytes inLine[inStart, inEnd), without the line terminator.
+	 */
+	void parse(byte[] inLine, int inStart, int inEnd, AllianceCallMetadata outMetadata)
+			throws ParseException, IllegalArgumentException {
+		// Same as split("\\|", 10): the last field takes the rest of the line.
+		int fieldCount = 0;
+		int fieldStart = inStart;
+		for (int i = inStart; i < inEnd && fieldCount < MAX_FIELDS - 1; i++) {
+			if ('|' == inLine[i]) {
+				mFieldStarts[fieldCount] = fieldStart;
+				mFieldEnds[fieldCount] = i;
+				fieldCount++;
+				fieldStart = i + 1;
+			}
+		}
+		mFieldStarts[fieldCount] = fieldStart;
+		mFieldEnds[fieldCount] = inEnd;
+		fieldCount++;
+
+		if (fieldCount != 7 && fieldCount != 9) {
+			throw new IllegalArgumentException("Input String does not have correct number of field");
+		}
+
+		outMetadata.WAVEPath = text(inLine, 0);
+		outMetadata.DateTime = date(inLine, 1);
+		outMetadata.CallID = Integer.valueOf((int)number(inLine, 2, Integer.MIN_VALUE, Integer.MAX_VALUE));
+		outMetadata.AgentId = (isEmpty(3) ? null : Integer.valueOf((int)number(inLine, 3, Integer.MIN_VALUE, Integer.MAX_VALUE)));
+		outMetadata.Agent = (isEmpty(4) ? null : text(inLine, 4));
+		// As load() does, Extension goes with Agent.
+		outMetadata.Extension = (isEmpty(4) ? null : Integer.valueOf((int)number(inLine, 5, Integer.MIN_VALUE, Integer.MAX_VALUE)));
+		if (fieldCount == 7) {
+			outMetadata.Phone = (isEmpty(6) ? null : Long.valueOf(number(inLine, 6, Long.MIN_VALUE, Long.MAX_VALUE)));
+			outMetadata.ANI = null;
+			outMetadata.DNIS = null;
+			outMetadata.Skill = null;
+		} else {
+			outMetadata.Phone = null;
+			outMetadata.ANI = (isEmpty(6) ? null : text(inLine, 6));
+			// As load() does, DNIS may not be empty.
+			outMetadata.DNIS = Integer.valueOf((int)number(inLine, 7, Integer.MIN_VALUE, Integer.MAX_VALUE));
+			outMetadata.Skill = (isEmpty(8) ? null : text(inLine, 8));
+		}
+	}
+
+	private boolean isEmpty(int inField) {
+		return mFieldStarts[inField] == mFieldEnds[inField];
+	}
+
+	private String text(byte[] inLine, int inField) {
+		return new String(inLine, mFieldStarts[inField], mFieldEnds[inField] - mFieldStarts[inField], mCharset);
+	}
+
+	/*
+	 * Decimal number in the range given, like Integer.parseInt() and Long.parseLong() accept.
+	 */
+	private long number(byte[] inLine, int inField, long inMin, long inMax) throws NumberFormatException {
+		int start = mFieldStarts[inField];
+		int end = mFieldEnds[inField];
+
+		boolean bNegative = false;
+		if (start < end && ('-' == inLine[start] || '+' == inLine[start])) {
+			bNegative = ('-' == inLine[start]);
+			start++;
+		}
+		if (start >= end) {
+			throw new NumberFormatException("For input string: \"" + text(inLine, inField) + "\"");
+		}
+
+		// Accumulate negatively so the minimum value fits too.
+		long limit = (bNegative ? inMin : -inMax);
+		long retVal = 0;
+		for (int i = start; i < end; i++) {
+			int digit = inLine[i] - '0';
+			if (digit < 0 || digit > 9 || retVal < limit / 10) {
+				throw new NumberFormatException("For input string: \"" + text(inLine, inField) + "\"");
+			}
+			retVal *= 10;
+			if (retVal < limit + digit) {
+				throw new NumberFormatException("For input string: \"" + text(inLine, inField) + "\"");
+			}
+			retVal -= digit;
+		}
+
+		return (bNegative ? retVal : -retVal);
+	}
+
+	private Date date(byte[] inLine, int inField) throws ParseException {
+		int start = mFieldStarts[inField];
+
+		if (DATE_LENGTH == mFieldEnds[inField] - start
+				&& '-' == inLine[start + 4] && '-' == inLine[start + 7] && 'T' == inLine[start + 10]
+				&& ':' == inLine[start + 13] && ':' == inLine[start + 16]) {
+			int year = digits(inLine, start, 4);
+			int month = digits(inLine, start + 5, 2);
+			int day = digits(inLine, start + 8, 2);
+			int hour = digits(inLine, start + 11, 2);
+			int minute = digits(inLine, start + 14, 2);
+			int second = digits(inLine, start + 17, 2);
+
+			if (0 <= year && 0 <= month && 0 <= day && 0 <= hour && 0 <= minute && 0 <= second) {
+				mCalendar.clear();
+				mCalendar.set(year, month - 1, day, hour, minute, second);
+				return mCalendar.getTime();
+			}
+		}
+
+		return mDateFormat.parse(text(inLine, inField));
+	}
+
+	/*
+	 * Value of the inCount digits at inStart, or -1 if they are not all digits.
+	 */
+	private static int digits(byte[] inLine, int inStart, int inCount) {
+		int retVal = 0;
+		for (int i = inStart; i < inStart + inCount; i++) {
+			int digit = inLine[i] - '0';
+			if (digit < 0 || digit > 9) return -1;
+
+			retVal = retVal * 10 + digit;
+		}
+
+		return retVal;
+	}
+}
@@ -0,0 +1,254 @@
+package com.prudential.comet.scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.hds.hcp.tools.comet.utils.PropsFilenameFilter;
+import com.prudential.comet.AllianceCallMetadata;
+
+/**
+ * Reads a CMX listing file in chunks that are parsed in parallel.
+ *
+ * The file is cut at line boundaries into chunks of about the chunk size.  Each chunk is memory
+ * mapped and parsed by a task on the pool given, which also applies the file name filter and
+ * checks the file each line refers to.  A few chunks more than there are pool threads are parsed
+ * ahead, and next() hands the lines over in the order of the file.
+ *
+ * Lines end with \n or \r\n.  The text is in the default character set, as FileReader reads it.
+ */
+class CMXListingReader {
+	enum Status { OK, INVALID_LINE, FILTERED, INVALID_FILE }
+
+	/*
+	 * One line of the listing.
+	 */
+	static class Entry {
+		long mOffset;  // Of the line in the listing file.
+		Status mStatus = Status.OK;
+
+		AllianceCallMetadata mMetadata;
+		File mFile;
+
+		// For INVALID_LINE, what was wrong.
+		String mLine;
+		Exception mException;
+	}
+
+	private static final int BOUNDARY_READ_SIZE = 8192;
+
+	CMXListingReader(File inListingFile, long inStartOffset, String inBasePath, PropsFilenameFilter inFilter,
+			SimpleDateFormat inDateFormat, int inChunkSize, ExecutorService inPool, int inReadAhead) throws IOException {
+		mBasePath = inBasePath;
+		mFilter = inFilter;
+		mDateFormat = inDateFormat;
+		mChunkSize = Math.max(inChunkSize, 1);
+		mPool = inPool;
+		mReadAhead = Math.max(inReadAhead, 1);
+
+		mChannel = FileChannel.open(inListingFile.toPath(), StandardOpenOption.READ);
+		mLength = mChannel.size();
+
+		mStartOffset = (isLineStart(inStartOffset) ? inStartOffset : 0);
+		mNextChunk = mStartOffset;
+	}
+
+	private final String mBasePath;
+	private final PropsFilenameFilter mFilter;
+	private final SimpleDateFormat mDateFormat;
+	private final Charset mCharset = Charset.defaultCharset();
+	private final int mChunkSize;
+	private final ExecutorService mPool;
+	private final int mReadAhead;
+
+	private FileChannel mChannel;
+	private final long mLength;
+	private final long mStartOffset;
+	private long mNextChunk;  // Start of the next chunk to submit.
+
+	private LinkedList<Future<List<Entry>>> mChunks = new LinkedList<Future<List<Entry>>>();
+	private Iterator<Entry> mCurrentChunk;
+
+	/**
+	 * Where reading starts.  The start offset asked for, unless that is not the start of a line.
+	 */
+	long getStartOffset() { return mStartOffset; }
+
+	/**
+	 * The next line, or null at the end of the file.
+	 */
+	Entry next() throws IOException, InterruptedException {
+		while (null == mCurrentChunk || ! mCurrentChunk.hasNext()) {
+			submitChunks();
+			if (mChunks.isEmpty()) return null;
+
+			try {
+				mCurrentChunk = mChunks.removeFirst().get().iterator();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+
+				throw new IOException("Failed to parse listing file chunk", e.getCause());
+			}
+		}
+
+		return mCurrentChunk.next();
+	}
+
+	void close() {
+		// Parsing may be in the middle of mapping, which interrupting would break off, so let it finish.
+		for (Future<List<Entry>> chunk : mChunks) {
+			chunk.cancel(false);
+		}
+		mChunks.clear();
+		mCurrentChunk = null;
+
+		try {
+			mChannel.close();
+		} catch (IOException e) {
+			// Only reading.  Nothing lost.
+		}
+	}
+
+	/*
+	 * Keep the pool busy with the chunks that follow.
+	 */
+	private void submitChunks() throws IOException {
+		while (mChunks.size() < mReadAhead && mNextChunk < mLength) {
+			long start = mNextChunk;
+			long end = lineEnd(Math.min(start + mChunkSize, mLength) - 1);
+
+			mChunks.addLast(mPool.submit(new ChunkTask(start, end)));
+			mNextChunk = end;
+		}
+	}
+
+	private boolean isLineStart(long inOffset) throws IOException {
+		if (inOffset <= 0 || inOffset >= mLength) return (0 == inOffset);
+
+		ByteBuffer buffer = ByteBuffer.allocate(1);
+		return (1 == mChannel.read(buffer, inOffset - 1) && '\n' == buffer.get(0));
+	}
+
+	/*
+	 * Position just after the end of the line that inPosition is on, or the end of the file.
+	 */
+	private long lineEnd(long inPosition) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(BOUNDARY_READ_SIZE);
+
+		long position = inPosition;
+		while (position < mLength) {
+			buffer.clear();
+			int count = mChannel.read(buffer, position);
+			if (count <= 0) break;
+
+			for (int i = 0; i < count; i++) {
+				if ('\n' == buffer.get(i)) {
+					return position + i + 1;
+				}
+			}
+			position += count;
+		}
+
+		return mLength;
+	}
+
+	/*
+	 * Parses the lines of one chunk.
+	 */
+	private class ChunkTask implements Callable<List<Entry>> {
+		ChunkTask(long inStart, long inEnd) {
+			mStart = inStart;
+			mEnd = inEnd;
+		}
+
+		private final long mStart;
+		private final long mEnd;
+
+		public List<Entry> call() throws IOException {
+			MappedByteBuffer buffer = mChannel.map(FileChannel.MapMode.READ_ONLY, mStart, mEnd - mStart);
+			CMXListingParser parser = new CMXListingParser(mDateFormat, mCharset);
+
+			ArrayList<Entry> retVal = new ArrayList<Entry>();
+			byte[] line = new byte[256];
+
+			int size = buffer.limit();
+			int position = 0;
+			while (position < size) {
+				int lineStart = position;
+				while (position < size && '\n' != buffer.get(position)) {
+					position++;
+				}
+
+				int length = position - lineStart;
+				if (length > line.length) {
+					line = Arrays.copyOf(line, Math.max(length, line.length * 2));
+				}
+				buffer.position(lineStart);
+				buffer.get(line, 0, length);
+				if (0 < length && '\r' == line[length - 1]) {
+					length--;
+				}
+
+				position++;  // Past the \n.
+
+				Entry entry = new Entry();
+				entry.mOffset = mStart + lineStart;
+				retVal.add(entry);
+
+				check(parser, line, length, entry);
+			}
+
+			return retVal;
+		}
+
+		private void check(CMXListingParser inParser, byte[] inLine, int inLength, Entry outEntry) {
+			AllianceCallMetadata metadata = new AllianceCallMetadata();
+			try {
+				inParser.parse(inLine, 0, inLength, metadata);
+			} catch (IllegalArgumentException | ParseException e) {
+				outEntry.mStatus = Status.INVALID_LINE;
+				outEntry.mLine = new String(inLine, 0, inLength, mCharset);
+				outEntry.mException = e;
+				return;
+			}
+
+			outEntry.mMetadata = metadata;
+			outEntry.mFile = new File(mBasePath + File.separator + metadata.WAVEPath);
+
+			if ( ! mFilter.accept(outEntry.mFile.getParentFile(), outEntry.mFile.getName()) ) {
+				outEntry.mStatus = Status.FILTERED;
+				return;
+			}
+
+			// One look at the file instead of separate exists, isFile and canRead calls.
+			try {
+				Path path = outEntry.mFile.toPath();
+				BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+				if ( ! attributes.isRegularFile() || ! Files.isReadable(path) ) {
+					outEntry.mStatus = Status.INVALID_FILE;
+				}
+			} catch (IOException | InvalidPathException e) {
+				outEntry.mStatus = Status.INVALID_FILE;
+			}
+		}
+	}
+}
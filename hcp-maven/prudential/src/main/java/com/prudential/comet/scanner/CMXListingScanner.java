@@ -1,12 +1,17 @@
 package com.prudential.comet.scanner;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.text.ParseException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
+import java.util.Properties;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -18,9 +23,18 @@ import com.hds.hcp.tools.comet.scanner.ScannerCompletionInterface;
 import com.hds.hcp.tools.comet.scanner.ScannerProperties;
 import com.hds.hcp.tools.comet.utils.PropsFilenameFilter;
 import com.hds.hcp.tools.comet.utils.StaticUtils;
-import com.prudential.comet.AllianceCallMetadata;
 import com.prudential.comet.CMXItem;
 
+/**
+ * Scanner handing over the WAV files listed in a CMX listing file (source.listingFileName), each
+ * with the call metadata from its line.
+ *
+ * The listing is memory mapped and parsed in chunks by a pool of threads shared by all scanner
+ * threads (execution.listingParse.threadCount and chunkSize), see CMXListingReader.  The listing is
+ * expected to be sorted by WAV path.  With a start trigger item, the byte offset of the first line
+ * at or past it is kept in source.listingOffsetFile, so the next scan with the same start item and
+ * an unchanged listing starts reading right there.
+ */
 public class CMXListingScanner extends BaseScanner {
 
 	public CMXListingScanner() {};
@@ -33,9 +47,36 @@ public class CMXListingScanner extends BaseScanner {
 
 	private static Logger logger = LogManager.getLogger();
 	
+	// One pool for all scanner threads.
+	private static ExecutorService sParsePool;
+	private static int sParseThreadCount;
+
+	private static synchronized ExecutorService getParsePool(int inThreadCount) {
+		if (null == sParsePool) {
+			logger.info("Starting listing parse pool with {} threads", inThreadCount);
+
+			sParseThreadCount = Math.max(inThreadCount, 1);
+			sParsePool = Executors.newFixedThreadPool(sParseThreadCount, new ThreadFactory() {
+				public Thread newThread(Runnable inTask) {
+					Thread thread = new Thread(inTask);
+					thread.setName("ListingParseThread(" + thread.getId() + ")");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
+		return sParsePool;
+	}
+
+	// The offset file is shared by all scanner threads, so one of them at a time updates it.
+	private static final Object sOffsetFileLock = new Object();
+
 	private File mBaseFolder, mStartPath;
 	
-	private BufferedReader mListingFileReader;
+	private File mListingFile;
+	private CMXListingReader mListingReader;
+	private long mSavedStartOffset = -1;
 	
 	private boolean isInitialized = false;
 	private boolean bStartFileTriggered = false;
@@ -60,6 +101,19 @@ public class CMXListingScanner extends BaseScanner {
 		public String getMetadataTimeZone() {
 			return mProps.getProperty("metadata.timeZone");
 		}
+
+		public String getListingOffsetFileName() {
+			return StaticUtils.resolveEnvVars(mProps.getProperty("source.listingOffsetFile", getListingFileName() + ".offsets"));
+		}
+
+		public Integer getListingParseThreadCount() {
+			return new Integer(mProps.getProperty("execution.listingParse.threadCount",
+					String.valueOf(Runtime.getRuntime().availableProcessors())));
+		}
+
+		public Integer getListingParseChunkSize() {
+			return new Integer(mProps.getProperty("execution.listingParse.chunkSize", "1048576"));
+		}
 	}
 
 	private CMXProperties mProps;
@@ -104,9 +158,24 @@ public class CMXListingScanner extends BaseScanner {
 			throw new IllegalArgumentException("Listing File Configuration does not refer to an existing, regular, and readable file");
 		}
 		
-		mListingFileReader = new BufferedReader(new FileReader(listingFile));
-		
-		mFilterHelper = new PropsFilenameFilter(mProps);
+		mListingFile = listingFile;
+
+		// Not strict.  The parse threads look at the file themselves.
+		mFilterHelper = new PropsFilenameFilter(mProps, false);
+
+		// Clean up what is left of a scan that was not read to the end.
+		if (null != mListingReader) {
+			mListingReader.close();
+		}
+
+		ExecutorService parsePool = getParsePool(mProps.getListingParseThreadCount());
+		mSavedStartOffset = loadStartOffset();
+		mListingReader = new CMXListingReader(listingFile, Math.max(mSavedStartOffset, 0),
+				mBaseFolder.getCanonicalPath(), mFilterHelper, mInputDateFormat,
+				mProps.getListingParseChunkSize(), parsePool, sParseThreadCount + 1);
+		if (0 < mListingReader.getStartOffset()) {
+			logger.info("Starting at offset {} of listing file for start item \"{}\"", mListingReader.getStartOffset(), mStartPath.getName());
+		}
 
 		StaticUtils.TRACE_METHOD_EXIT(logger);
 	}
@@ -143,20 +212,14 @@ public class CMXListingScanner extends BaseScanner {
 		CMXItem retItem = null;
 		try {
 			/*
-			 * Scan the input file for something to return.  If called the first time, it will start
+			 * Scan the listing for something to return.  If called the first time, it will start
 			 *    at the beginning of the file.  If a subsequent call, it will be continue the scan from
 			 *    the current location.
 			 */
-			String currentLine = mListingFileReader.readLine();
-
-			while (null != currentLine) {
-				AllianceCallMetadata currentItemMetadata = new AllianceCallMetadata();
-				try {
-					currentItemMetadata.load(currentLine, mInputDateFormat);
-				} catch (IllegalArgumentException | ParseException e) {
-					logger.warn("Unexpected exception parsing listing line (" + currentLine + "). Skipping...", e);
-
-					currentLine = mListingFileReader.readLine();
+			CMXListingReader.Entry currentEntry;
+			while (null != (currentEntry = mListingReader.next())) {
+				if (CMXListingReader.Status.INVALID_LINE == currentEntry.mStatus) {
+					logger.warn("Unexpected exception parsing listing line (" + currentEntry.mLine + "). Skipping...", currentEntry.mException);
 					continue;
 				}
 				
@@ -169,48 +232,42 @@ public class CMXListingScanner extends BaseScanner {
 						logger.debug("Start Path triggered.  No path specified.");
 					} else 	{
 						// See if we have passed this file path.
-						if (0 <= currentItemMetadata.WAVEPath.compareTo(mStartPath.getName())) {
+						if (0 <= currentEntry.mMetadata.WAVEPath.compareTo(mStartPath.getName())) {
 							bStartFileTriggered = Boolean.TRUE;
 							logger.debug("Start File triggered.  Passed/Found file specified.");
+
+							// Next time go straight there.
+							saveStartOffset(currentEntry.mOffset);
 						}
 					}
 					
-					// If start file still is not triggered, clean out the file list because we should not
-					//   process it for this folder.
+					// If start file still is not triggered, skip this line.
 					if ( ! bStartFileTriggered ) {
 						logger.debug("Start File NOT yet triggered.");
-						
-						// Next line and start at the top.
-						currentLine = mListingFileReader.readLine();
 						continue;
 					}
 				}
 
-				// Construct the WAVFile File.
-				File wavFile = new File(mBaseFolder.getCanonicalPath() + File.separator + currentItemMetadata.WAVEPath);
-				
 				// See if we should be working on this file by checking the inclusion and exclusion lists.
-				if ( ! mFilterHelper.accept(wavFile.getParentFile(), wavFile.getName())) {
-					logger.debug("File does match inclusion/exclusion criteria (" + wavFile.getCanonicalPath() + ")");
-					
-					// Nope.  Go to next.
-					currentLine = mListingFileReader.readLine();
+				if (CMXListingReader.Status.FILTERED == currentEntry.mStatus) {
+					logger.debug("File does match inclusion/exclusion criteria (" + currentEntry.mFile.getCanonicalPath() + ")");
 					continue;
 				}
 				
 				// Make sure it is valid.
-				if (! wavFile.exists() || ! wavFile.isFile() || ! wavFile.canRead()) {
-					logger.warn("File generated from listing file (" + wavFile.getCanonicalPath() + ") is not an existing, regular, and readable file.  Skipping...");
-					
-					// Next line and start at the top.
-					currentLine = mListingFileReader.readLine();
+				if (CMXListingReader.Status.INVALID_FILE == currentEntry.mStatus) {
+					logger.warn("File generated from listing file (" + currentEntry.mFile.getCanonicalPath() + ") is not an existing, regular, and readable file.  Skipping...");
 					continue;
 				}
 				
-				retItem = new CMXItem(wavFile, mBaseFolder);
-				retItem.setMetadata(currentItemMetadata);
+				retItem = new CMXItem(currentEntry.mFile, mBaseFolder);
+				retItem.setMetadata(currentEntry.mMetadata);
 				break; // All done
 			}
+		} catch (InterruptedException e) {
+			logger.info("Received interrupt while reading listing file in getNextItem()");
+
+			Thread.currentThread().interrupt();
 		} catch (IOException e) {
 			logger.fatal("Unexpected exception reading listing file", e);
 			
@@ -220,12 +277,7 @@ public class CMXListingScanner extends BaseScanner {
 
 		// Report if we have hit the end of the list.
 		if (null == retItem) {
-			try {
-				mListingFileReader.close();
-			} catch (IOException e) {
-				logger.warn("Unexpected exception closing listing file reader", e);
-			}
-			mListingFileReader = null;
+			mListingReader.close();
 			
 			StaticUtils.TRACE_METHOD_EXIT(logger, "No more files to process");
 		} else {
@@ -235,6 +287,75 @@ public class CMXListingScanner extends BaseScanner {
 		return retItem;
 	}
 
+	/*
+	 * Offset of the first line for the start item kept by an earlier scan of the same listing, or -1.
+	 */
+	private long loadStartOffset() {
+		if (null == mStartPath) return -1;
+
+		File offsetFile = new File(mProps.getListingOffsetFileName());
+		if ( ! offsetFile.exists() ) return -1;
+
+		Properties offsets = new Properties();
+		synchronized (sOffsetFileLock) {
+			try (InputStream in = new FileInputStream(offsetFile)) {
+				offsets.load(in);
+			} catch (IOException e) {
+				logger.warn("Unable to read listing offset file " + offsetFile.getAbsolutePath() + ". Reading listing from the start.", e);
+				return -1;
+			}
+		}
+
+		// Only good for the listing it was made for.
+		if ( ! String.valueOf(mListingFile.length()).equals(offsets.getProperty("listing.length"))
+				|| ! String.valueOf(mListingFile.lastModified()).equals(offsets.getProperty("listing.lastModified")) ) {
+			logger.debug("Listing file changed since offsets were saved. Ignoring {}", offsetFile.getAbsolutePath());
+			return -1;
+		}
+
+		try {
+			return Long.parseLong(offsets.getProperty("start." + mStartPath.getName(), "-1"));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private void saveStartOffset(long inOffset) {
+		if (inOffset == mSavedStartOffset) return;
+
+		synchronized (sOffsetFileLock) {
+			File offsetFile = new File(mProps.getListingOffsetFileName());
+
+			Properties offsets = new Properties();
+			if (offsetFile.exists()) {
+				try (InputStream in = new FileInputStream(offsetFile)) {
+					offsets.load(in);
+				} catch (IOException e) {
+					// Start a new one.
+				}
+			}
+
+			// Offsets for an older listing are no good anymore.
+			String listingLength = String.valueOf(mListingFile.length());
+			String listingLastModified = String.valueOf(mListingFile.lastModified());
+			if ( ! listingLength.equals(offsets.getProperty("listing.length"))
+					|| ! listingLastModified.equals(offsets.getProperty("listing.lastModified")) ) {
+				offsets.clear();
+				offsets.setProperty("listing.length", listingLength);
+				offsets.setProperty("listing.lastModified", listingLastModified);
+			}
+			offsets.setProperty("start." + mStartPath.getName(), String.valueOf(inOffset));
+
+			try (OutputStream out = new FileOutputStream(offsetFile)) {
+				offsets.store(out, "Listing file offsets of start items for " + mListingFile.getAbsolutePath());
+
+				mSavedStartOffset = inOffset;
+			} catch (IOException e) {
+				logger.warn("Unable to write listing offset file " + offsetFile.getAbsolutePath(), e);
+			}
+		}
+	}
+
 	public boolean deleteItem(FileSystemItem inItem) {
 		StaticUtils.TRACE_METHOD_ENTER(logger);
 		
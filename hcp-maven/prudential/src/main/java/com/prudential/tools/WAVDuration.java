@@ -0,0 +1,112 @@
+package com.prudential.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Duration of a recording.  The WAV header is read first.  Only for a format it does not know is
+ * the soxi tool run, if there is one, and failing that the Java sound library asked.
+ */
+public class WAVDuration {
+
+	private static Logger logger = LogManager.getLogger();
+
+	private WAVDuration() { }
+
+	/**
+	 * Duration in seconds, or null if it could not be found out.
+	 *
+	 * @param inFile The recording.
+	 * @param inSoxiTool The soxi executable, or null to not use it.
+	 */
+	public static Float getDuration(File inFile, File inSoxiTool) {
+		Float retVal = null;
+
+		try {
+			WAVHeader header = WAVHeader.read(inFile);
+			if (null != header) {
+				retVal = header.getDuration();
+				if (null == retVal) {
+					logger.debug("WAV format 0x{} of file \"{}\" not known. Trying other utilities.",
+							Integer.toHexString(header.getFormatTag()), inFile.getPath());
+				}
+			}
+		} catch (IOException e) {
+			logger.warn("Failed to read WAV file header", e);
+		}
+
+		if (null == retVal && null != inSoxiTool) {
+			retVal = getSoxiDuration(inFile, inSoxiTool);
+		}
+
+		if (null == retVal) {
+			try {
+				AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(inFile);
+				try {
+					AudioFormat format = audioInputStream.getFormat();
+					long frames = audioInputStream.getFrameLength();
+					retVal = Float.valueOf(frames / format.getFrameRate());
+				} finally {
+					audioInputStream.close();
+				}
+			} catch (UnsupportedAudioFileException | IOException e) {
+				logger.warn("Failed to obtain WAV file duration using Java javax.sound library.", e);
+			}
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Duration rounded to whole seconds, or null if it could not be found out.
+	 */
+	public static Long round(Float inDuration) {
+		if (null == inDuration) return null;
+
+		return Long.valueOf((long)(inDuration + 0.5));
+	}
+
+	private static Float getSoxiDuration(File inFile, File inSoxiTool) {
+		Float retVal = null;
+
+		try {
+			ProcessBuilder soxiProcessBuilder = new ProcessBuilder(inSoxiTool.getAbsolutePath(), "-D", inFile.getAbsolutePath());
+
+			Process soxiProcess = soxiProcessBuilder.start();
+			try {
+				BufferedReader br = new BufferedReader(new InputStreamReader(soxiProcess.getInputStream()));
+				String retString = br.readLine();
+
+				// If we have a string, let's process it.
+				if (null != retString && ! retString.isEmpty()) {
+					retVal = Float.valueOf(retString);
+					if (0 == retVal) retVal = null;  // Not a reliable answer.
+				}
+
+				// Read to the end so the process is not left blocked on its output.
+				while (null != br.readLine()) { }
+				br.close();
+
+				soxiProcess.waitFor();
+			} finally {
+				soxiProcess.destroy();
+			}
+		} catch (IOException | NumberFormatException e) {
+			logger.warn("Failed to obtain WAV file duration using soxi utility", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		return retVal;
+	}
+}
@@ -0,0 +1,206 @@
+package com.prudential.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * The format of a RIFF/WAVE file, read from the fmt, fact and data chunk headers, and the duration
+ * that follows from it.  Only the chunk headers are read, not the audio.
+ *
+ * The duration is known for PCM, IEEE float, A-law and mu-law audio (also as WAVE_FORMAT_EXTENSIBLE)
+ * from the data size, and for the common compressed codecs from the sample count of the fact chunk
+ * or else the average byte rate.  For other codecs it is not known, and another tool has to be asked.
+ */
+public class WAVHeader {
+
+	public static final int WAVE_FORMAT_PCM = 0x0001;
+	public static final int WAVE_FORMAT_ADPCM = 0x0002;
+	public static final int WAVE_FORMAT_IEEE_FLOAT = 0x0003;
+	public static final int WAVE_FORMAT_ALAW = 0x0006;
+	public static final int WAVE_FORMAT_MULAW = 0x0007;
+	public static final int WAVE_FORMAT_OKI_ADPCM = 0x0010;
+	public static final int WAVE_FORMAT_IMA_ADPCM = 0x0011;
+	public static final int WAVE_FORMAT_DIALOGIC_OKI_ADPCM = 0x0017;
+	public static final int WAVE_FORMAT_G723_ADPCM = 0x0014;
+	public static final int WAVE_FORMAT_DSPGROUP_TRUESPEECH = 0x0022;
+	public static final int WAVE_FORMAT_GSM610 = 0x0031;
+	public static final int WAVE_FORMAT_G721_ADPCM = 0x0040;
+	public static final int WAVE_FORMAT_MPEG = 0x0050;
+	public static final int WAVE_FORMAT_MPEGLAYER3 = 0x0055;
+	public static final int WAVE_FORMAT_G726_ADPCM = 0x0064;
+	public static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+	// Enough for the chunk headers of nearly every file in one read.
+	private static final int READ_SIZE = 4096;
+
+	private static final int RIFF = 0x46464952;  // "RIFF" read little endian.
+	private static final int WAVE = 0x45564157;
+	private static final int FMT = 0x20746d66;
+	private static final int FACT = 0x74636166;
+	private static final int DATA = 0x61746164;
+
+	private WAVHeader() { }
+
+	private int mFormatTag;
+	private int mChannels;
+	private long mSampleRate;
+	private long mByteRate;
+	private int mBlockAlign;
+	private int mBitsPerSample;
+	private long mSampleCount = -1;  // From the fact chunk.
+	private long mDataLength;
+
+	/**
+	 * Read the header of the file.
+	 *
+	 * @return The header, or null if the file is not a RIFF/WAVE file with fmt and data chunks.
+	 */
+	public static WAVHeader read(File inFile) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(inFile, "r");
+		try {
+			return read(file.getChannel());
+		} finally {
+			file.close();
+		}
+	}
+
+	private static WAVHeader read(FileChannel inChannel) throws IOException {
+		long fileLength = inChannel.size();
+
+		ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		long bufferStart = 0;
+		fill(inChannel, buffer, bufferStart);
+
+		if (buffer.limit() < 12 || RIFF != buffer.getInt(0) || WAVE != buffer.getInt(8)) {
+			return null;
+		}
+
+		WAVHeader retVal = new WAVHeader();
+		boolean bHaveFormat = false;
+
+		long position = 12;
+		while (position + 8 <= fileLength) {
+			// Chunk headers past what was read: read on from there.
+			if (position + 8 > bufferStart + buffer.limit()) {
+				bufferStart = position;
+				fill(inChannel, buffer, bufferStart);
+				if (buffer.limit() < 8) break;
+			}
+
+			int offset = (int)(position - bufferStart);
+			int chunkId = buffer.getInt(offset);
+			long chunkSize = buffer.getInt(offset + 4) & 0xFFFFFFFFL;
+			offset += 8;
+
+			if (DATA == chunkId) {
+				// Streamed files may have no size, or too big a size, in the header.
+				long available = fileLength - (position + 8);
+				retVal.mDataLength = (0 == chunkSize || chunkSize > available ? available : chunkSize);
+
+				return (bHaveFormat ? retVal : null);
+			}
+
+			if (FMT == chunkId || FACT == chunkId) {
+				int needed = (int)Math.min(chunkSize, 40);
+				if (offset + needed > buffer.limit()) {
+					bufferStart = position + 8;
+					fill(inChannel, buffer, bufferStart);
+					offset = 0;
+				}
+				if (offset + needed > buffer.limit()) return null;  // Cut short.
+
+				if (FMT == chunkId) {
+					if (needed < 16) return null;
+
+					retVal.mFormatTag = buffer.getShort(offset) & 0xFFFF;
+					retVal.mChannels = buffer.getShort(offset + 2) & 0xFFFF;
+					retVal.mSampleRate = buffer.getInt(offset + 4) & 0xFFFFFFFFL;
+					retVal.mByteRate = buffer.getInt(offset + 8) & 0xFFFFFFFFL;
+					retVal.mBlockAlign = buffer.getShort(offset + 12) & 0xFFFF;
+					retVal.mBitsPerSample = buffer.getShort(offset + 14) & 0xFFFF;
+
+					// WAVE_FORMAT_EXTENSIBLE has the real format at the start of the sub format GUID.
+					if (WAVE_FORMAT_EXTENSIBLE == retVal.mFormatTag && needed >= 26) {
+						retVal.mFormatTag = buffer.getShort(offset + 24) & 0xFFFF;
+					}
+					bHaveFormat = true;
+				} else if (needed >= 4) {
+					retVal.mSampleCount = buffer.getInt(offset) & 0xFFFFFFFFL;
+				}
+			}
+
+			// Chunks are padded to an even size.
+			position += 8 + chunkSize + (chunkSize & 1);
+		}
+
+		return null;
+	}
+
+	/*
+	 * Read the file from inPosition into the whole buffer, as far as the file goes.
+	 */
+	private static void fill(FileChannel inChannel, ByteBuffer inBuffer, long inPosition) throws IOException {
+		inBuffer.clear();
+		while (inBuffer.hasRemaining()) {
+			int count = inChannel.read(inBuffer, inPosition + inBuffer.position());
+			if (count <= 0) break;
+		}
+		inBuffer.flip();
+	}
+
+	public int getFormatTag() { return mFormatTag; }
+	public int getChannels() { return mChannels; }
+	public long getSampleRate() { return mSampleRate; }
+	public long getByteRate() { return mByteRate; }
+	public int getBlockAlign() { return mBlockAlign; }
+	public int getBitsPerSample() { return mBitsPerSample; }
+	public long getDataLength() { return mDataLength; }
+
+	/**
+	 * Samples per channel from the fact chunk, or -1 if there is none.
+	 */
+	public long getSampleCount() { return mSampleCount; }
+
+	/**
+	 * Duration in seconds, or null if not known for this format.
+	 */
+	public Float getDuration() {
+		if (0 == mSampleRate) return null;
+
+		switch (mFormatTag) {
+		case WAVE_FORMAT_PCM:
+		case WAVE_FORMAT_IEEE_FLOAT:
+		case WAVE_FORMAT_ALAW:
+		case WAVE_FORMAT_MULAW:
+			// Whole frames only, as soxi counts them.
+			if (0 == mBlockAlign) return null;
+
+			return Float.valueOf((float)((double)(mDataLength / mBlockAlign) / mSampleRate));
+
+		case WAVE_FORMAT_ADPCM:
+		case WAVE_FORMAT_OKI_ADPCM:
+		case WAVE_FORMAT_IMA_ADPCM:
+		case WAVE_FORMAT_DIALOGIC_OKI_ADPCM:
+		case WAVE_FORMAT_G723_ADPCM:
+		case WAVE_FORMAT_DSPGROUP_TRUESPEECH:
+		case WAVE_FORMAT_GSM610:
+		case WAVE_FORMAT_G721_ADPCM:
+		case WAVE_FORMAT_MPEG:
+		case WAVE_FORMAT_MPEGLAYER3:
+		case WAVE_FORMAT_G726_ADPCM:
+			if (0 <= mSampleCount) {
+				return Float.valueOf((float)((double)mSampleCount / mSampleRate));
+			}
+			if (0 == mByteRate) return null;
+
+			return Float.valueOf((float)((double)mDataLength / mByteRate));
+
+		default:
+			return null;
+		}
+	}
+}